@@ -0,0 +1,127 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of a top-10 search of the mapped HNSW graph against scanning every vector, over
+ * clustered random vectors of the size of small sentence embeddings. The recall@10 of each
+ * {@code ef}, the share of the exact top 10 the graph finds, is measured at setup and printed
+ * with the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorIndexBenchmark {
+
+	private static final int DIMENSIONS = 384;
+
+	private static final int K = 10;
+
+	private static final int QUERIES = 200;
+
+	@Param({ "20000" })
+	public int size;
+
+	@Param({ "16", "64", "128" })
+	public int ef;
+
+	private Path file;
+
+	private VectorIndex index;
+
+	private float[][] queries;
+
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		float[][] centroids = new float[size / 100][];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = gaussian(random, 1);
+		}
+		VectorIndex.Builder builder = VectorIndex.builder(DIMENSIONS, 16, 100, 42);
+		for (int i = 0; i < size; i++) {
+			builder.add("http://dbpedia.org/resource/Entity_" + i, near(centroids[random.nextInt(centroids.length)], random));
+		}
+		file = Files.createTempFile("vectors", ".bin");
+		builder.write(file);
+		index = VectorIndex.open(file);
+
+		queries = new float[QUERIES][];
+		int found = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			queries[q] = near(centroids[random.nextInt(centroids.length)], random);
+			Set<String> exact = new HashSet<>();
+			index.searchExact(queries[q], K).forEach(hit -> exact.add(hit.uri()));
+			found += (int) index.search(queries[q], K, ef).stream().filter(hit -> exact.contains(hit.uri())).count();
+		}
+		System.out.printf("%nrecall@%d of %d vectors at ef=%d: %.3f%n", K, size, ef, found / (double) (QUERIES * K));
+	}
+
+	@TearDown
+	public void tearDown() {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Benchmark
+	public List<VectorIndex.Hit> hnsw() {
+		return index.search(nextQuery(), K, ef);
+	}
+
+	@Benchmark
+	public List<VectorIndex.Hit> exact() {
+		return index.searchExact(nextQuery(), K);
+	}
+
+	private float[] nextQuery() {
+		next = (next + 1) % QUERIES;
+		return queries[next];
+	}
+
+	private static float[] near(float[] centroid, Random random) {
+		float[] vector = gaussian(random, 1);
+		for (int i = 0; i < DIMENSIONS; i++) {
+			vector[i] += centroid[i];
+		}
+		return vector;
+	}
+
+	private static float[] gaussian(Random random, float spread) {
+		float[] vector = new float[DIMENSIONS];
+		for (int i = 0; i < DIMENSIONS; i++) {
+			vector[i] = (float) random.nextGaussian() * spread;
+		}
+		return vector;
+	}
+
+}
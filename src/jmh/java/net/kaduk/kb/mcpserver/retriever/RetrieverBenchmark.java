@@ -0,0 +1,62 @@
+package net.kaduk.kb.mcpserver.retriever;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.kaduk.kb.mcpserver.sparql.Fixtures;
+import net.kaduk.kb.mcpserver.sparql.ResultTable;
+import net.kaduk.kb.mcpserver.sparql.TermDictionary;
+
+/**
+ * Turning recorded search hits and their properties into documents, as retrieve does once both
+ * queries have returned: 30 hit rows of 10 entities with 20 properties each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RetrieverBenchmark {
+
+	private SparqlKnowledgeBaseRetriever retriever;
+
+	private List<Map<String, String>> hits;
+
+	private Map<String, List<Map<String, String>>> propertiesByEntity;
+
+	@Setup
+	public void setUp() {
+		// Converting does not query, so there are no services behind the retriever
+		retriever = new SparqlKnowledgeBaseRetriever(null, null);
+		TermDictionary terms = new TermDictionary(1 << 16);
+		hits = ResultTable.from(Fixtures.load("search-results.srj"), terms);
+		propertiesByEntity = new LinkedHashMap<>();
+		for (Map<String, String> row : ResultTable.from(Fixtures.load("properties-results.srj"), terms)) {
+			propertiesByEntity.computeIfAbsent(row.get("entity"), entity -> new ArrayList<>()).add(row);
+		}
+	}
+
+	@Benchmark
+	public void convertToDocument(Blackhole blackhole) {
+		for (Map<String, String> hit : hits) {
+			blackhole.consume(retriever.convertToDocument(hit, propertiesByEntity));
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package net.kaduk.kb.mcpserver.server;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.cache.QueryCacheProperties;
+import net.kaduk.kb.mcpserver.cache.QueryResultCache;
+import net.kaduk.kb.mcpserver.index.LabelIndexProperties;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import net.kaduk.kb.mcpserver.render.ToolOutput;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.sparql.Fixtures;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+
+/**
+ * A searchByCategory call on recorded results of 50 entities, with the result cache off: binding
+ * the query, mapping the results to records and rendering them, within a budget that clips the
+ * abstracts and within one that does not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBpediaToolBenchmark {
+
+	@Param({ "TEXT", "JSON" })
+	ToolOutput.Format format;
+
+	@Param({ "32KB", "1MB" })
+	String budget;
+
+	private QueryResultCache cache;
+
+	private SparqlAsyncExecutor asyncExecutor;
+
+	private DBpediaService service;
+
+	@Setup
+	public void setUp() {
+		SparqlExecutor executor = Fixtures.replaying(Fixtures.load("category-results.srj"));
+		cache = new QueryResultCache(new QueryCacheProperties(false, 10_000, DataSize.ofMegabytes(64),
+				Duration.ofHours(1), Duration.ofMinutes(10), Map.of()));
+		asyncExecutor = new SparqlAsyncExecutor(1);
+		service = new DBpediaService(executor, cache,
+				new LabelIndexService(LabelIndexProperties.defaults(), executor), asyncExecutor,
+				new ToolOutputProperties(format, DataSize.parse(budget), Map.of()),
+				new QueryMetrics(new SimpleMeterRegistry()), new ToolMetrics(new SimpleMeterRegistry()));
+	}
+
+	@TearDown
+	public void tearDown() {
+		asyncExecutor.shutdown();
+		cache.shutdown();
+	}
+
+	@Benchmark
+	public String searchByCategory() {
+		return service.searchByCategory("Nobel_laureates_in_Physics", 50, null);
+	}
+
+}
@@ -0,0 +1,70 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+
+/**
+ * Recorded SPARQL results the benchmarks run on, so that they need no endpoint.
+ *
+ * The fixtures are SPARQL JSON results in the shape DBpedia returns for the queries of the
+ * tools: {@code category-results.srj} for searchByCategory, {@code search-results.srj} for
+ * searchEntities and {@code properties-results.srj} for getEntitiesProperties.
+ */
+public final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name File name under {@code fixtures/}
+	 * @return The results, to be reset before each read
+	 */
+	public static ResultSetRewindable load(String name) {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (in == null) {
+				throw new IllegalArgumentException("No fixture " + name);
+			}
+			return ResultSetFactory.makeRewindable(ResultSetMgr.read(in, ResultSetLang.RS_JSON));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param results The results every query answers with
+	 * @return An executor replaying the results, for one thread at a time
+	 */
+	public static SparqlExecutor replaying(ResultSetRewindable results) {
+		return new SparqlExecutor() {
+
+			@Override
+			public String endpointId() {
+				return "fixture";
+			}
+
+			@Override
+			public <T> T select(String queryString, Function<ResultSet, T> handler) {
+				results.reset();
+				return handler.apply(results);
+			}
+
+			@Override
+			public Stream<QuerySolution> stream(String queryString) {
+				results.reset();
+				return Stream.generate(results::next).limit(results.size());
+			}
+		};
+	}
+
+}
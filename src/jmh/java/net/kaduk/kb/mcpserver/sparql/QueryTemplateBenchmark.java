@@ -0,0 +1,98 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a query per call: formatting and parsing the text, as the services did, against
+ * binding a template parsed once. The serializing variants include writing the query out, as
+ * the remote executor does before sending it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTemplateBenchmark {
+
+	private static final String PREFIXES = "PREFIX dbo: <http://dbpedia.org/ontology/> "
+			+ "PREFIX dbr: <http://dbpedia.org/resource/> "
+			+ "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> ";
+
+	private static final String RELATED_FORMAT = PREFIXES + "SELECT DISTINCT ?predicate ?object ?objectLabel "
+			+ "WHERE { <%s> ?predicate ?object . FILTER(isIRI(?object)) "
+			+ "OPTIONAL { ?object rdfs:label ?objectLabel . FILTER(LANG(?objectLabel) = 'en') } } LIMIT %d";
+
+	private static final QueryTemplate RELATED = QueryTemplate.parse("related",
+			PREFIXES + "SELECT DISTINCT ?predicate ?object ?objectLabel "
+					+ "WHERE { ?subject ?predicate ?object . FILTER(isIRI(?object)) "
+					+ "OPTIONAL { ?object rdfs:label ?objectLabel . FILTER(LANG(?objectLabel) = 'en') } }");
+
+	private static final String INFO_FORMAT = PREFIXES + "SELECT ?uri ?label ?abstract "
+			+ "WHERE { VALUES ?uri { %s } ?uri rdfs:label ?label . FILTER(LANG(?label) = 'en') "
+			+ "OPTIONAL { ?uri dbo:abstract ?abstract . FILTER(LANG(?abstract) = 'en') } }";
+
+	private static final QueryTemplate INFO = QueryTemplate.parse("info",
+			PREFIXES + "SELECT ?uri ?label ?abstract "
+					+ "WHERE { VALUES ?uri { } ?uri rdfs:label ?label . FILTER(LANG(?label) = 'en') "
+					+ "OPTIONAL { ?uri dbo:abstract ?abstract . FILTER(LANG(?abstract) = 'en') } }");
+
+	@Param({ "1", "50" })
+	int entities;
+
+	private List<String> uris;
+
+	@Setup
+	public void setUp() {
+		uris = IntStream.range(0, entities).mapToObj(i -> "http://dbpedia.org/resource/Entity_" + i).toList();
+	}
+
+	@Benchmark
+	public Query relatedParsed() {
+		return QueryFactory.create(String.format(RELATED_FORMAT, uris.get(0), 10));
+	}
+
+	@Benchmark
+	public Query relatedBound() {
+		return RELATED.bind().iri("subject", uris.get(0)).limit(10).build().query();
+	}
+
+	@Benchmark
+	public String relatedBoundSerialized() {
+		return RELATED.bind().iri("subject", uris.get(0)).limit(10).build().query().serialize();
+	}
+
+	@Benchmark
+	public Query infoParsed() {
+		String values = uris.stream().map(uri -> "<" + uri + ">").collect(Collectors.joining(" "));
+		return QueryFactory.create(String.format(INFO_FORMAT, values));
+	}
+
+	@Benchmark
+	public Query infoBound() {
+		return INFO.bind().iris("uri", uris).build().query();
+	}
+
+	@Benchmark
+	public String infoBoundSerialized() {
+		return INFO.bind().iris("uri", uris).build().query().serialize();
+	}
+
+}
@@ -0,0 +1,78 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading results as RemoteSparqlExecutor receives them, in each format an endpoint may answer
+ * with, plain or gzipped. The bytes each format puts on the wire are compared by
+ * RemoteSparqlExecutorTests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultFormatBenchmark {
+
+	private static final Map<String, Lang> FORMATS = Map.of("xml", ResultSetLang.RS_XML, "json",
+			ResultSetLang.RS_JSON, "tsv", ResultSetLang.RS_TSV, "thrift", ResultSetLang.RS_Thrift);
+
+	@Param({ "properties-results.srj" })
+	String fixture;
+
+	@Param({ "xml", "json", "tsv", "thrift" })
+	String format;
+
+	@Param({ "false", "true" })
+	boolean gzip;
+
+	private Lang lang;
+
+	private byte[] body;
+
+	@Setup
+	public void setUp() throws IOException {
+		ResultSetRewindable results = Fixtures.load(fixture);
+		lang = FORMATS.get(format);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+			ResultSetMgr.write(out, results, lang);
+		}
+		body = bytes.toByteArray();
+	}
+
+	@Benchmark
+	public int read() throws IOException {
+		try (InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(body))
+				: new ByteArrayInputStream(body)) {
+			return ResultSetFormatter.consume(ResultSetMgr.read(in, lang));
+		}
+	}
+
+}
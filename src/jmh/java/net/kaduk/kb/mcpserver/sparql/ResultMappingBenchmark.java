@@ -0,0 +1,61 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.ResultSetRewindable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading recorded results into rows, as SparqlKnowledgeBaseService.executeQuery does: into a
+ * {@link ResultTable} with a dictionary that has seen the terms before, and then every cell
+ * read once by the caller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultMappingBenchmark {
+
+	@Param({ "search-results.srj", "properties-results.srj" })
+	String fixture;
+
+	private ResultSetRewindable results;
+
+	private TermDictionary terms;
+
+	@Setup
+	public void setUp() {
+		results = Fixtures.load(fixture);
+		terms = new TermDictionary(1 << 16);
+		ResultTable.from(results, terms);
+	}
+
+	@Benchmark
+	public ResultTable toTable() {
+		results.reset();
+		return ResultTable.from(results, terms);
+	}
+
+	@Benchmark
+	public void toTableAndRead(Blackhole blackhole) {
+		results.reset();
+		for (Map<String, String> row : ResultTable.from(results, terms)) {
+			row.forEach((variable, value) -> blackhole.consume(value));
+		}
+	}
+
+}
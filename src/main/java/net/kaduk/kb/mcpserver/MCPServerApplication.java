@@ -1,33 +1,103 @@
 package net.kaduk.kb.mcpserver;
 
+import static net.kaduk.kb.mcpserver.config.AsyncToolRegistrations.doubleArgument;
+import static net.kaduk.kb.mcpserver.config.AsyncToolRegistrations.intArgument;
+import static net.kaduk.kb.mcpserver.config.AsyncToolRegistrations.objectArgument;
+import static net.kaduk.kb.mcpserver.config.AsyncToolRegistrations.stringArgument;
 
+import java.util.List;
+
+import org.springframework.ai.autoconfigure.mcp.server.McpServerProperties;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.tool.function.FunctionToolCallback;
 import org.springframework.ai.tool.method.MethodToolCallbackProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.reactive.function.server.RouterFunction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.server.transport.WebFluxSseServerTransport;
+import net.kaduk.kb.mcpserver.config.AsyncToolRegistrations;
+import net.kaduk.kb.mcpserver.config.SerializedSseServerTransport;
+import net.kaduk.kb.mcpserver.deadline.ToolDeadlines;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
 import net.kaduk.kb.mcpserver.server.DBpediaService;
 import net.kaduk.kb.mcpserver.server.WeatherService;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@EnableScheduling
 public class MCPServerApplication {
 
     public static void main(String[] args) {
         SpringApplication.run(MCPServerApplication.class, args);
     }
 
+    // SYNC mode: blocking tools, each call holding a worker thread until the upstream answers
     @Bean
-	public ToolCallbackProvider weatherTools(WeatherService weatherService) {
-		return MethodToolCallbackProvider.builder().toolObjects(weatherService).build();
+	@ConditionalOnProperty(prefix = "spring.ai.mcp.server", name = "type", havingValue = "SYNC", matchIfMissing = true)
+	public ToolCallbackProvider weatherTools(WeatherService weatherService, ToolMetrics metrics, ToolDeadlines deadlines) {
+		return metrics.timed(deadlines.within(MethodToolCallbackProvider.builder().toolObjects(weatherService).build()));
 	}
 
     @Bean
-	public ToolCallbackProvider knowledgeTools(DBpediaService knowledgeService) {
-		return MethodToolCallbackProvider.builder().toolObjects(knowledgeService).build();
+	@ConditionalOnProperty(prefix = "spring.ai.mcp.server", name = "type", havingValue = "SYNC", matchIfMissing = true)
+	public ToolCallbackProvider knowledgeTools(DBpediaService knowledgeService, ToolMetrics metrics, ToolDeadlines deadlines) {
+		return metrics.timed(deadlines.within(MethodToolCallbackProvider.builder().toolObjects(knowledgeService).build()));
 	}
+
+	// ASYNC mode: the same tools returning Mono, so no thread waits on an upstream call
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.ai.mcp.server", name = "type", havingValue = "ASYNC")
+	public List<McpServerFeatures.AsyncToolRegistration> weatherAsyncTools(WeatherService weatherService,
+			ToolMetrics metrics, ToolDeadlines deadlines) {
+		return AsyncToolRegistrations.of(weatherService, metrics, deadlines)
+			.tool("getWeatherForecastByLocation",
+					args -> weatherService.getWeatherForecastByLocationAsync(doubleArgument(args, "latitude"),
+							doubleArgument(args, "longitude")))
+			.tool("getWeatherForecastsByLocations",
+					args -> weatherService.getWeatherForecastsByLocationsAsync(
+							List.of(objectArgument(args, "locations", WeatherService.Location[].class))))
+			.tool("getAlerts", args -> weatherService.getAlertsAsync(stringArgument(args, "state")))
+			.build();
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.ai.mcp.server", name = "type", havingValue = "ASYNC")
+	public List<McpServerFeatures.AsyncToolRegistration> knowledgeAsyncTools(DBpediaService knowledgeService,
+			ToolMetrics metrics, ToolDeadlines deadlines) {
+		return AsyncToolRegistrations.of(knowledgeService, metrics, deadlines)
+			.tool("getEntityInfo", args -> knowledgeService.getEntityInfoAsync(stringArgument(args, "entityName")))
+			.tool("getEntitiesInfo",
+					args -> knowledgeService
+						.getEntitiesInfoAsync(List.of(objectArgument(args, "entities", String[].class))))
+			.tool("findRelatedEntities",
+					args -> knowledgeService.findRelatedEntitiesAsync(stringArgument(args, "entityName"),
+							intArgument(args, "limit"), stringArgument(args, "cursor")))
+			.tool("searchByCategory",
+					args -> knowledgeService.searchByCategoryAsync(stringArgument(args, "category"),
+							intArgument(args, "limit"), stringArgument(args, "cursor")))
+			.build();
+	}
+
+	// In place of the auto-configured transport, which drops responses sent concurrently
+	@Bean
+	public WebFluxSseServerTransport sseServerTransport(McpServerProperties properties) {
+		return new SerializedSseServerTransport(new ObjectMapper(), properties.getSseMessageEndpoint());
+	}
+
+	@Bean
+	public RouterFunction<?> sseRouterFunction(WebFluxSseServerTransport transport) {
+		return transport.getRouterFunction();
+	}
+
 	public record TextInput(String input) {
 	}
 
@@ -0,0 +1,195 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent, size-bounded map from rounded coordinates to gridpoint forecast URLs.
+ *
+ * Coordinates are rounded to a fixed number of decimal places, and the rounded point is what
+ * gets resolved, so a cached URL is exactly what the API returns for its key. The least recently
+ * used location is evicted first. Changes are appended to a log file, which is compacted when it
+ * is loaded or has grown to twice the entry bound, so the mapping survives restarts without
+ * rewriting the file on every change. A file that cannot be read or written leaves the cache
+ * working in memory only.
+ */
+@Slf4j
+public final class GridpointCache implements Closeable {
+
+    private final Path file;
+    private final int maxEntries;
+    private final int precision;
+    private final double scale;
+    private final LinkedHashMap<Point, String> forecastUrls;
+    private BufferedWriter changes;
+    private int loggedChanges;
+
+    /**
+     * @param file Log file the cache is persisted to, or {@code null} to keep it in memory only
+     * @param maxEntries Maximum number of cached locations
+     * @param precision Decimal places coordinates are rounded to
+     */
+    public GridpointCache(Path file, int maxEntries, int precision) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.precision = precision;
+        this.scale = Math.pow(10, precision);
+        this.forecastUrls = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Point, String> eldest) {
+                return size() > GridpointCache.this.maxEntries;
+            }
+        };
+        if (file != null) {
+            open();
+        }
+    }
+
+    /**
+     * Round a location to the precision of the cache
+     *
+     * @param latitude Latitude
+     * @param longitude Longitude
+     * @return The point identifying the location in the cache
+     */
+    public Point point(double latitude, double longitude) {
+        return new Point(Math.round(latitude * scale), Math.round(longitude * scale), precision);
+    }
+
+    public synchronized Optional<String> get(Point point) {
+        return Optional.ofNullable(forecastUrls.get(point));
+    }
+
+    public synchronized void put(Point point, String forecastUrl) {
+        if (!forecastUrl.equals(forecastUrls.put(point, forecastUrl))) {
+            append(point, forecastUrl);
+        }
+    }
+
+    public synchronized void remove(Point point) {
+        if (forecastUrls.remove(point) != null) {
+            append(point, "");
+        }
+    }
+
+    public synchronized int size() {
+        return forecastUrls.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (changes != null) {
+            try {
+                changes.close();
+            } catch (IOException e) {
+                log.warn("Could not close gridpoint cache {}: {}", file, e.getMessage());
+            }
+            changes = null;
+        }
+    }
+
+    private void open() {
+        try {
+            if (Files.exists(file)) {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    Point point = point(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]));
+                    if (fields[2].isEmpty()) {
+                        forecastUrls.remove(point);
+                    } else {
+                        forecastUrls.put(point, fields[2]);
+                    }
+                }
+                if (lines.size() > forecastUrls.size()) {
+                    compact();
+                }
+                log.info("Loaded {} gridpoints from {}", forecastUrls.size(), file);
+            } else if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            openChanges();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Gridpoint cache {} unavailable, keeping gridpoints in memory only: {}", file, e.getMessage());
+        }
+    }
+
+    private void openChanges() throws IOException {
+        changes = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        loggedChanges = forecastUrls.size();
+    }
+
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Point, String> entry : forecastUrls.entrySet()) {
+                writer.write(line(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void append(Point point, String forecastUrl) {
+        if (changes == null) {
+            return;
+        }
+        try {
+            changes.write(line(point, forecastUrl));
+            changes.flush();
+            if (++loggedChanges > 2 * maxEntries) {
+                changes.close();
+                compact();
+                openChanges();
+            }
+        } catch (IOException e) {
+            log.warn("Could not persist gridpoint {}, keeping gridpoints in memory only: {}", point, e.getMessage());
+            close();
+        }
+    }
+
+    private static String line(Point point, String forecastUrl) {
+        return point.latitude() + "\t" + point.longitude() + "\t" + forecastUrl + "\n";
+    }
+
+    /**
+     * A location rounded to the precision of the cache, held as whole units of that precision
+     */
+    public record Point(long latitudeUnits, long longitudeUnits, int precision) {
+
+        /**
+         * @return The rounded latitude in plain decimal notation, without trailing zeros
+         */
+        public String latitude() {
+            return BigDecimal.valueOf(latitudeUnits, precision).stripTrailingZeros().toPlainString();
+        }
+
+        /**
+         * @return The rounded longitude in plain decimal notation, without trailing zeros
+         */
+        public String longitude() {
+            return BigDecimal.valueOf(longitudeUnits, precision).stripTrailingZeros().toPlainString();
+        }
+
+        @Override
+        public String toString() {
+            return latitude() + "," + longitude();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Bounded cache of HTTP GET responses that follows the caching headers of the origin.
+ *
+ * A response stays fresh for the {@code s-maxage} or {@code max-age} of its Cache-Control
+ * header, or else until its Expires date, less its Age; while fresh it is served without a
+ * request. A stale response is revalidated with a conditional request carrying its ETag and
+ * Last-Modified date, and a 304 answer renews it without transferring the body again.
+ * Responses marked {@code no-store} or {@code private} are not kept, and {@code no-cache} ones
+ * are revalidated every time. As the cache is shared by all callers of the server, it behaves
+ * as a shared cache.
+ */
+public final class HttpResponseCache {
+
+    private static final List<String> VALIDATION_HEADERS = List.of(HttpHeaders.CACHE_CONTROL, HttpHeaders.EXPIRES,
+            HttpHeaders.DATE, HttpHeaders.AGE, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
+
+    private final Ticker ticker;
+    private final Cache<String, Entry> responses;
+
+    private final LongAdder fresh = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder fetched = new LongAdder();
+
+    /**
+     * @param maxEntries Maximum number of cached responses
+     */
+    public HttpResponseCache(int maxEntries) {
+        this(maxEntries, Ticker.systemTicker());
+    }
+
+    HttpResponseCache(int maxEntries, Ticker ticker) {
+        this.ticker = ticker;
+        this.responses = Caffeine.newBuilder().maximumSize(maxEntries).ticker(ticker).build();
+    }
+
+    /**
+     * Get the body of a resource, from the cache while fresh and revalidating it once stale
+     *
+     * @param client The client to request the resource with
+     * @param uri The URI of the resource
+     * @param type The type to decode the body to
+     * @return The body; an error status fails the Mono
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> get(WebClient client, String uri, Class<T> type) {
+        return Mono.defer(() -> {
+            Entry cached = responses.getIfPresent(uri);
+            if (cached != null && cached.isFresh(ticker.read())) {
+                fresh.increment();
+                return Mono.just((T) cached.body());
+            }
+
+            // Absolute URIs, such as forecast URLs, are not used as templates, so that requests are
+            // timed under no URI rather than one per location; paths resolve against the base URL
+            URI target = URI.create(uri);
+            return (target.isAbsolute() ? client.get().uri(target) : client.get().uri(uri))
+                .headers(headers -> {
+                    if (cached != null) {
+                        if (cached.headers().getETag() != null) {
+                            headers.set(HttpHeaders.IF_NONE_MATCH, cached.headers().getETag());
+                        }
+                        if (cached.headers().getFirst(HttpHeaders.LAST_MODIFIED) != null) {
+                            headers.set(HttpHeaders.IF_MODIFIED_SINCE, cached.headers().getFirst(HttpHeaders.LAST_MODIFIED));
+                        }
+                    }
+                })
+                .exchangeToMono(response -> {
+                    if (cached != null && response.statusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                        revalidated.increment();
+                        HttpHeaders merged = new HttpHeaders();
+                        merged.addAll(cached.headers());
+                        copyValidationHeaders(response.headers().asHttpHeaders(), merged);
+                        store(uri, cached.body(), merged);
+                        return response.releaseBody().thenReturn((T) cached.body());
+                    }
+                    if (response.statusCode().is2xxSuccessful()) {
+                        fetched.increment();
+                        HttpHeaders headers = new HttpHeaders();
+                        copyValidationHeaders(response.headers().asHttpHeaders(), headers);
+                        return response.bodyToMono(type).doOnNext(body -> store(uri, body, headers));
+                    }
+                    return response.createError();
+                });
+        });
+    }
+
+    /**
+     * @return Number of requests answered from the cache without contacting the origin
+     */
+    public long freshHits() {
+        return fresh.sum();
+    }
+
+    /**
+     * @return Number of requests answered by the origin with 304 Not Modified
+     */
+    public long revalidations() {
+        return revalidated.sum();
+    }
+
+    /**
+     * @return Number of requests that transferred a full response
+     */
+    public long fetches() {
+        return fetched.sum();
+    }
+
+    private void store(String uri, Object body, HttpHeaders headers) {
+        CacheControl cacheControl = CacheControl.parse(headers.getCacheControl());
+        if (cacheControl.noStore()) {
+            responses.invalidate(uri);
+            return;
+        }
+        long lifetimeNanos = cacheControl.noCache() ? 0 : freshnessLifetime(cacheControl, headers).toNanos();
+        responses.put(uri, new Entry(body, headers, ticker.read() + lifetimeNanos));
+    }
+
+    private static Duration freshnessLifetime(CacheControl cacheControl, HttpHeaders headers) {
+        Duration lifetime;
+        if (cacheControl.maxAge() != null) {
+            lifetime = cacheControl.maxAge();
+        } else if (headers.getExpires() >= 0) {
+            long date = headers.getDate() >= 0 ? headers.getDate() : System.currentTimeMillis();
+            lifetime = Duration.ofMillis(headers.getExpires() - date);
+        } else {
+            return Duration.ZERO;
+        }
+
+        String age = headers.getFirst(HttpHeaders.AGE);
+        if (age != null && age.strip().matches("\\d+")) {
+            lifetime = lifetime.minusSeconds(Long.parseLong(age.strip()));
+        }
+        return lifetime.isNegative() ? Duration.ZERO : lifetime;
+    }
+
+    private static void copyValidationHeaders(HttpHeaders from, HttpHeaders to) {
+        for (String name : VALIDATION_HEADERS) {
+            List<String> values = from.get(name);
+            if (values != null && !values.isEmpty()) {
+                to.put(name, values);
+            }
+        }
+    }
+
+    private record Entry(Object body, HttpHeaders headers, long freshUntilNanos) {
+
+        boolean isFresh(long nowNanos) {
+            return nowNanos - freshUntilNanos < 0;
+        }
+    }
+
+    /**
+     * The Cache-Control directives that decide whether and how long a shared cache keeps a response
+     */
+    private record CacheControl(boolean noStore, boolean noCache, Duration maxAge) {
+
+        static CacheControl parse(String header) {
+            boolean noStore = false;
+            boolean noCache = false;
+            Duration maxAge = null;
+            Duration sharedMaxAge = null;
+            if (header != null) {
+                for (String directive : header.toLowerCase(Locale.ROOT).split(",")) {
+                    String[] nameAndValue = directive.strip().split("=", 2);
+                    String value = nameAndValue.length > 1 ? nameAndValue[1].strip().replace("\"", "") : "";
+                    switch (nameAndValue[0]) {
+                        case "no-store", "private" -> noStore = true;
+                        case "no-cache" -> noCache = true;
+                        case "max-age" -> maxAge = seconds(value);
+                        case "s-maxage" -> sharedMaxAge = seconds(value);
+                        default -> {
+                        }
+                    }
+                }
+            }
+            return new CacheControl(noStore, noCache, sharedMaxAge != null ? sharedMaxAge : maxAge);
+        }
+
+        private static Duration seconds(String value) {
+            return value.matches("\\d+") ? Duration.ofSeconds(Long.parseLong(value)) : null;
+        }
+    }
+}
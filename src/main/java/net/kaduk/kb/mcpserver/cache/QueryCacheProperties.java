@@ -0,0 +1,45 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the shared SPARQL result cache
+ *
+ * @param enabled Whether results are cached at all
+ * @param maxEntries Maximum number of cached results
+ * @param maxSize Maximum estimated size of all cached results
+ * @param defaultTtl How long a result stays fresh when its tool has no TTL of its own
+ * @param staleWhileRevalidate How long an expired result may still be served while it is refreshed in the background
+ * @param ttl Per-tool freshness, keyed by tool name
+ */
+@ConfigurationProperties("dbpedia.cache")
+public record QueryCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10000") long maxEntries,
+        @DefaultValue("64MB") DataSize maxSize,
+        @DefaultValue("1h") Duration defaultTtl,
+        @DefaultValue("10m") Duration staleWhileRevalidate,
+        Map<String, Duration> ttl) {
+
+    public QueryCacheProperties {
+        ttl = ttl == null ? Map.of() : Map.copyOf(ttl);
+    }
+
+    public static QueryCacheProperties defaults() {
+        return new QueryCacheProperties(true, 10_000, DataSize.ofMegabytes(64), Duration.ofHours(1),
+                Duration.ofMinutes(10), Map.of());
+    }
+
+    /**
+     * @param tool The tool the cached result belongs to
+     * @return How long a result of that tool stays fresh
+     */
+    public Duration ttlFor(String tool) {
+        return ttl.getOrDefault(tool, defaultTtl);
+    }
+}
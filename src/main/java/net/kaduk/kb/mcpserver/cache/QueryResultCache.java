@@ -0,0 +1,259 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shared cache of mapped SPARQL results, keyed on tool name and normalized query text.
+ *
+ * Eviction is W-TinyLFU (Caffeine), bounded by the estimated size of the cached results. Every
+ * entry weighs at least {@code maxSize / maxEntries}, which bounds the entry count as well.
+ * Once a result is older than its tool's TTL it is still served for the stale-while-revalidate
+ * window while a single background reload replaces it; only after that window does it expire.
+ */
+@Component
+@Slf4j
+public class QueryResultCache implements MeterBinder {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final QueryCacheProperties properties;
+    private final Ticker ticker;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Cache<CacheKey, CachedResult> cache;
+    private final SingleFlight<CacheKey, CachedResult> loads = new SingleFlight<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @Autowired
+    public QueryResultCache(QueryCacheProperties properties) {
+        this(properties, Ticker.systemTicker(), Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "query-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    QueryResultCache(QueryCacheProperties properties, Ticker ticker, Executor executor) {
+        this.properties = properties;
+        this.ticker = ticker;
+        this.executor = executor;
+        this.ownedExecutor = executor instanceof ExecutorService service ? service : null;
+
+        long minWeight = Math.max(1, properties.maxSize().toBytes() / Math.max(1, properties.maxEntries()));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.maxSize().toBytes())
+                .weigher((CacheKey key, CachedResult result) -> (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(minWeight, result.estimatedBytes())))
+                .expireAfter(new StaleWindowExpiry())
+                .evictionListener((CacheKey key, CachedResult result, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expirations.increment();
+                    } else if (cause.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .ticker(ticker)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Get the result of a query, loading it on a miss
+     *
+     * A stale result is returned immediately and reloaded in the background. Concurrent misses,
+     * including one racing a background reload, share a single load. Failed loads are not cached;
+     * the exception is thrown to every caller waiting for it.
+     *
+     * @param tool The tool issuing the query, which selects the TTL
+     * @param query The query text
+     * @param loader Executes and maps the query
+     * @return The cached or freshly loaded result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String tool, String query, Supplier<List<T>> loader) {
+        CacheKey key = new CacheKey(tool, normalize(query));
+        if (!properties.enabled()) {
+            return (List<T>) loads.execute(key, () -> load(key, loader)).value();
+        }
+
+        Optional<List<T>> cached = lookup(key, loader);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        misses.increment();
+        // Loaded outside the cache's own computation, which would hold a lock shared with other keys
+        return (List<T>) loads.execute(key, () -> {
+            CachedResult loaded = cache.getIfPresent(key);
+            if (loaded == null) {
+                loaded = load(key, loader);
+                cache.put(key, loaded);
+            }
+            return loaded;
+        }).value();
+    }
+
+    /**
+     * Get the cached result of a query without loading it
+     *
+     * A stale result is returned and reloaded in the background, as by {@link #get}. Nothing
+     * is counted as a miss, so a caller can look here first and call {@link #get} elsewhere.
+     *
+     * @param tool The tool issuing the query, which selects the TTL
+     * @param query The query text
+     * @param loader Executes and maps the query, used for a background reload
+     * @return The cached result, or empty if there is none
+     */
+    public <T> Optional<List<T>> getIfPresent(String tool, String query, Supplier<List<T>> loader) {
+        if (!properties.enabled()) {
+            return Optional.empty();
+        }
+        return lookup(new CacheKey(tool, normalize(query)), loader);
+    }
+
+    public CacheStatistics stats() {
+        return new CacheStatistics(hits.sum(), staleHits.sum(), misses.sum(), refreshes.sum(),
+                refreshFailures.sum(), evictions.sum(), expirations.sum(), cache.estimatedSize(),
+                cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("dbpedia.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("dbpedia.cache.requests", staleHits, LongAdder::sum).tag("result", "stale").register(registry);
+        FunctionCounter.builder("dbpedia.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        FunctionCounter.builder("dbpedia.cache.refreshes", refreshes, LongAdder::sum).tag("result", "success").register(registry);
+        FunctionCounter.builder("dbpedia.cache.refreshes", refreshFailures, LongAdder::sum).tag("result", "failure").register(registry);
+        FunctionCounter.builder("dbpedia.cache.removals", evictions, LongAdder::sum).tag("cause", "size").register(registry);
+        FunctionCounter.builder("dbpedia.cache.removals", expirations, LongAdder::sum).tag("cause", "expired").register(registry);
+        Gauge.builder("dbpedia.cache.entries", this, c -> c.stats().entries()).register(registry);
+        Gauge.builder("dbpedia.cache.size", this, c -> c.stats().estimatedBytes()).baseUnit("bytes").register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    static String normalize(String query) {
+        return query.strip().replaceAll("\\s+", " ");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Optional<List<T>> lookup(CacheKey key, Supplier<List<T>> loader) {
+        CachedResult cached = cache.getIfPresent(key);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        if (cached.isFresh(ticker.read())) {
+            hits.increment();
+        } else {
+            staleHits.increment();
+            refreshInBackground(key, cached, loader);
+        }
+        return Optional.of((List<T>) cached.value());
+    }
+
+    private CachedResult load(CacheKey key, Supplier<? extends List<?>> loader) {
+        List<?> value = List.copyOf(loader.get());
+        long now = ticker.read();
+        return new CachedResult(value, now + properties.ttlFor(key.tool()).toNanos(), estimateBytes(value),
+                new AtomicBoolean());
+    }
+
+    private void refreshInBackground(CacheKey key, CachedResult stale, Supplier<? extends List<?>> loader) {
+        if (!stale.refreshing().compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                loads.execute(key, () -> {
+                    CachedResult loaded = load(key, loader);
+                    cache.put(key, loaded);
+                    return loaded;
+                });
+                refreshes.increment();
+            } catch (RuntimeException e) {
+                refreshFailures.increment();
+                stale.refreshing().set(false);
+                log.warn("Background refresh of cached {} result failed: {}", key.tool(), e.getMessage());
+            }
+        });
+    }
+
+    private static long estimateBytes(List<?> value) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        for (Object item : value) {
+            bytes += ENTRY_OVERHEAD_BYTES + 2L * String.valueOf(item).length();
+        }
+        return bytes;
+    }
+
+    private record CacheKey(String tool, String query) {
+    }
+
+    private record CachedResult(List<?> value, long freshUntilNanos, long estimatedBytes, AtomicBoolean refreshing) {
+
+        boolean isFresh(long nowNanos) {
+            return nowNanos - freshUntilNanos < 0;
+        }
+    }
+
+    private final class StaleWindowExpiry implements Expiry<CacheKey, CachedResult> {
+
+        @Override
+        public long expireAfterCreate(CacheKey key, CachedResult result, long currentTime) {
+            return Math.max(0, result.freshUntilNanos() - currentTime) + properties.staleWhileRevalidate().toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(CacheKey key, CachedResult result, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, result, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(CacheKey key, CachedResult result, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters
+     */
+    public record CacheStatistics(long hits, long staleHits, long misses, long refreshes, long refreshFailures,
+            long evictions, long expirations, long entries, long estimatedBytes) {
+    }
+}
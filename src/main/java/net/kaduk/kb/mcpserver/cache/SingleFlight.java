@@ -0,0 +1,213 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+import net.kaduk.kb.mcpserver.deadline.DeadlineExceededException;
+
+/**
+ * Coalesces concurrent identical calls into one upstream call.
+ *
+ * While a call for a key is in flight, further calls for the same key wait for it and receive
+ * its result or its exception instead of starting another one. Nothing is kept once the call
+ * completes; the next call for the key starts afresh, so failures are never cached.
+ *
+ * Callers are counted. A waiting caller that is interrupted, or an asynchronous caller that
+ * cancels its own future, detaches without affecting the others; an asynchronous upstream call is
+ * cancelled only once every caller has gone. A blocking call runs on the thread of the caller that
+ * started it and is never abandoned, but it is cut short by that caller's {@link Deadline}: the
+ * callers waiting for it then run the call again, within their own deadlines.
+ *
+ * @param <K> The key identifying identical calls
+ * @param <V> The result type
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Run a call, or wait for the identical call already in flight
+     *
+     * @param key Identifies identical calls
+     * @param call Performs the call on the calling thread
+     * @return The result of the call
+     */
+    public V execute(K key, Supplier<V> call) {
+        Flight<V> flight = new Flight<>(1);
+        Flight<V> current = flights.compute(key, (k, other) -> other != null && other.attach() ? other : flight);
+        if (current != flight) {
+            coalesced.increment();
+            try {
+                return await(key, current);
+            } catch (DeadlineExceededException e) {
+                // The caller that made the call ran out of time, this one may still have some
+                return execute(key, call);
+            }
+        }
+
+        calls.increment();
+        try {
+            V value = call.get();
+            flight.result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Start an asynchronous call, or join the identical call already in flight
+     *
+     * @param key Identifies identical calls
+     * @param call Starts the call
+     * @return Future completed with the result of the call; cancelling it detaches this caller
+     */
+    public CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> call) {
+        Flight<V> created = new Flight<>(1);
+        Flight<V> flight = flights.compute(key, (k, current) -> current != null && current.attach() ? current : created);
+
+        if (flight == created) {
+            calls.increment();
+            start(key, created, call);
+        } else {
+            coalesced.increment();
+        }
+
+        CompletableFuture<V> caller = new CompletableFuture<>();
+        flight.result.whenComplete((value, error) -> {
+            if (error != null) {
+                caller.completeExceptionally(unwrap(error));
+            } else {
+                caller.complete(value);
+            }
+        });
+        caller.whenComplete((value, error) -> {
+            if (caller.isCancelled()) {
+                flight.detach(() -> flights.remove(key, flight));
+            }
+        });
+        return caller;
+    }
+
+    /**
+     * @return Number of upstream calls started
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return Number of calls that joined one already in flight
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of calls currently in flight
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            return;
+        }
+
+        upstream.whenComplete((value, error) -> {
+            flights.remove(key, flight);
+            if (error != null) {
+                flight.result.completeExceptionally(unwrap(error));
+            } else {
+                flight.result.complete(value);
+            }
+        });
+        flight.started(upstream);
+    }
+
+    private V await(K key, Flight<V> flight) {
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            flight.detach(() -> flights.remove(key, flight));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for an identical call in flight");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static final class Flight<V> {
+
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> upstream;
+        private int callers;
+        private boolean abandoned;
+
+        Flight(int callers) {
+            this.callers = callers;
+        }
+
+        synchronized boolean attach() {
+            if (abandoned || result.isDone()) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        void detach(Runnable forget) {
+            CompletableFuture<V> cancel;
+            synchronized (this) {
+                if (--callers > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                cancel = upstream;
+            }
+            forget.run();
+            if (cancel != null) {
+                cancel.cancel(true);
+            }
+            result.cancel(false);
+        }
+
+        void started(CompletableFuture<V> upstream) {
+            synchronized (this) {
+                if (!abandoned) {
+                    this.upstream = upstream;
+                    return;
+                }
+            }
+            upstream.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.kaduk.kb.mcpserver.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.DefaultToolCallResultConverter;
+import org.springframework.ai.tool.execution.ToolCallResultConverter;
+import org.springframework.ai.util.json.JsonParser;
+
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.spec.McpSchema;
+import net.kaduk.kb.mcpserver.deadline.ToolDeadlines;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * Builds ASYNC MCP tool registrations for the {@code @Tool} methods of a tool object.
+ *
+ * The name, description and input schema of each tool are taken from its {@code @Tool}
+ * method, as in SYNC mode, while the call goes to a handler returning a {@link Mono}. Results
+ * and errors are rendered as the SYNC registrations render them, so clients see the same
+ * output in either mode. Every tool of the object needs a handler, and every call is timed and
+ * given its tool's deadline.
+ */
+public final class AsyncToolRegistrations {
+
+	private static final ToolCallResultConverter RESULT_CONVERTER = new DefaultToolCallResultConverter();
+
+	private final Object toolObject;
+
+	private final ToolMetrics metrics;
+
+	private final ToolDeadlines deadlines;
+
+	private final Map<String, ToolDefinition> definitions = new LinkedHashMap<>();
+
+	private final List<McpServerFeatures.AsyncToolRegistration> registrations = new ArrayList<>();
+
+	private AsyncToolRegistrations(Object toolObject, ToolMetrics metrics, ToolDeadlines deadlines) {
+		this.toolObject = toolObject;
+		this.metrics = metrics;
+		this.deadlines = deadlines;
+		for (ToolCallback callback : ToolCallbacks.from(toolObject)) {
+			definitions.put(callback.getToolDefinition().name(), callback.getToolDefinition());
+		}
+	}
+
+	public static AsyncToolRegistrations of(Object toolObject, ToolMetrics metrics, ToolDeadlines deadlines) {
+		return new AsyncToolRegistrations(toolObject, metrics, deadlines);
+	}
+
+	/**
+	 * Register the handler of a tool
+	 * @param name The tool name, as declared by its {@code @Tool} method
+	 * @param handler Computes the result from the call arguments
+	 * @return This builder
+	 */
+	public AsyncToolRegistrations tool(String name, Function<Map<String, Object>, Mono<String>> handler) {
+		ToolDefinition definition = definitions.remove(name);
+		if (definition == null) {
+			throw new IllegalArgumentException("No @Tool method named " + name + " on " + toolObject.getClass());
+		}
+		McpSchema.Tool tool = new McpSchema.Tool(definition.name(), definition.description(),
+				definition.inputSchema());
+		registrations.add(new McpServerFeatures.AsyncToolRegistration(tool,
+				arguments -> metrics.timed(name, deadlines.within(name, Mono.defer(() -> handler.apply(arguments))))
+					.map(AsyncToolRegistrations::success)
+					.onErrorResume(Exception.class, e -> Mono.just(failure(e)))));
+		return this;
+	}
+
+	public List<McpServerFeatures.AsyncToolRegistration> build() {
+		if (!definitions.isEmpty()) {
+			throw new IllegalStateException("No asynchronous handler for tools " + definitions.keySet() + " of "
+					+ toolObject.getClass());
+		}
+		return List.copyOf(registrations);
+	}
+
+	private static McpSchema.CallToolResult success(String result) {
+		return new McpSchema.CallToolResult(
+				List.of(new McpSchema.TextContent(RESULT_CONVERTER.convert(result, String.class))), false);
+	}
+
+	private static McpSchema.CallToolResult failure(Exception e) {
+		return new McpSchema.CallToolResult(List.of(new McpSchema.TextContent(e.getMessage())), true);
+	}
+
+	public static String stringArgument(Map<String, Object> arguments, String name) {
+		Object value = arguments.get(name);
+		return value == null ? null : value.toString();
+	}
+
+	public static double doubleArgument(Map<String, Object> arguments, String name) {
+		return arguments.get(name) instanceof Number number ? number.doubleValue()
+				: Double.parseDouble(String.valueOf(arguments.get(name)));
+	}
+
+	// Converted as in SYNC mode, so structured arguments bind the same way
+	public static <T> T objectArgument(Map<String, Object> arguments, String name, Class<T> type) {
+		return type.cast(JsonParser.toTypedObject(arguments.get(name), type));
+	}
+
+	public static int intArgument(Map<String, Object> arguments, String name) {
+		return arguments.get(name) instanceof Number number ? number.intValue()
+				: Integer.parseInt(String.valueOf(arguments.get(name)));
+	}
+
+}
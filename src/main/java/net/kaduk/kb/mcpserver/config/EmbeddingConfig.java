@@ -0,0 +1,39 @@
+package net.kaduk.kb.mcpserver.config;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import net.kaduk.kb.mcpserver.index.EmbeddingIndexProperties;
+import net.kaduk.kb.mcpserver.index.HashingEmbeddingModel;
+
+/**
+ * Selects the model entity abstracts and retrieval queries are embedded with, when
+ * {@code kb.embeddings.enabled} is set and no other {@link EmbeddingModel} is defined.
+ *
+ * {@code kb.embeddings.model=ollama} (the default) calls the Ollama server in
+ * {@code kb.embeddings.ollama.base-url}; {@code kb.embeddings.model=hashing} embeds in-process,
+ * matching words rather than meaning.
+ */
+@Configuration
+public class EmbeddingConfig {
+
+	@Bean
+	@ConditionalOnProperty(name = "kb.embeddings.enabled", havingValue = "true")
+	@ConditionalOnMissingBean
+	public EmbeddingModel embeddingModel(EmbeddingIndexProperties properties) {
+		if ("hashing".equals(properties.model())) {
+			return new HashingEmbeddingModel(properties.dimensions());
+		}
+		return OllamaEmbeddingModel.builder()
+			.ollamaApi(new OllamaApi(properties.ollama().baseUrl()))
+			.defaultOptions(OllamaOptions.builder().model(properties.ollama().model()).build())
+			.build();
+	}
+
+}
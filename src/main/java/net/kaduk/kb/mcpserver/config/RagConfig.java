@@ -0,0 +1,32 @@
+package net.kaduk.kb.mcpserver.config;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import net.kaduk.kb.mcpserver.rag.RagProperties;
+
+/**
+ * Provides the chat model knowledge-base questions are answered with, served by Ollama at
+ * {@code rag.ollama.base-url}, when {@code rag.enabled} is set and no other {@link ChatModel} is
+ * defined.
+ */
+@Configuration
+public class RagConfig {
+
+	@Bean
+	@ConditionalOnProperty(name = "rag.enabled", havingValue = "true")
+	@ConditionalOnMissingBean
+	public ChatModel chatModel(RagProperties properties) {
+		return OllamaChatModel.builder()
+			.ollamaApi(new OllamaApi(properties.ollama().baseUrl()))
+			.defaultOptions(OllamaOptions.builder().model(properties.ollama().model()).build())
+			.build();
+	}
+
+}
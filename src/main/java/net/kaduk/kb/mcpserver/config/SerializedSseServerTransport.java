@@ -0,0 +1,35 @@
+package net.kaduk.kb.mcpserver.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.modelcontextprotocol.server.transport.WebFluxSseServerTransport;
+import io.modelcontextprotocol.spec.McpSchema;
+import reactor.core.publisher.Mono;
+
+/**
+ * SSE server transport sending one message at a time.
+ *
+ * The transport writes each message to the event sink of every session, and a sink refuses a
+ * message while another thread is writing to it. ASYNC tools complete on the SPARQL executor
+ * and on HTTP client threads alike, so under concurrent calls responses were dropped and the
+ * clients waited for them until their request timeout. Writing under a lock is enough: a write
+ * only enqueues the event.
+ */
+public class SerializedSseServerTransport extends WebFluxSseServerTransport {
+
+	private final Object sendLock = new Object();
+
+	public SerializedSseServerTransport(ObjectMapper objectMapper, String messageEndpoint) {
+		super(objectMapper, messageEndpoint);
+	}
+
+	@Override
+	public Mono<Void> sendMessage(McpSchema.JSONRPCMessage message) {
+		return Mono.create(sink -> {
+			synchronized (sendLock) {
+				super.sendMessage(message).subscribe(null, sink::error, sink::success);
+			}
+		});
+	}
+
+}
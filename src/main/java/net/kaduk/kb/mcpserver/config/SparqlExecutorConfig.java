@@ -0,0 +1,80 @@
+package net.kaduk.kb.mcpserver.config;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.RemoteSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.RoutingSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.RoutingSparqlExecutor.Circuit;
+import net.kaduk.kb.mcpserver.sparql.SparqlRoutingProperties;
+
+/**
+ * Selects the SPARQL backend shared by all knowledge-base services.
+ *
+ * {@code sparql.backend=remote} (the default) queries {@code sparql.endpoint.url} over HTTP,
+ * together with any {@code sparql.routing.replicas}; {@code sparql.backend=local} runs the same
+ * queries in-process against the TDB2 database in {@code sparql.local.location}.
+ */
+@Configuration
+public class SparqlExecutorConfig {
+
+	@Bean
+	@ConditionalOnProperty(name = "sparql.backend", havingValue = "remote", matchIfMissing = true)
+	public HttpClient sparqlHttpClient(@Value("${sparql.http.connect-timeout:10s}") Duration connectTimeout) {
+		return RemoteSparqlExecutor.httpClient(connectTimeout);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sparql.backend", havingValue = "remote", matchIfMissing = true)
+	public RoutingSparqlExecutor remoteSparqlExecutor(@Value("${sparql.endpoint.url}") String endpointUrl,
+			@Value("${sparql.default-graph-uri:}") String defaultGraphUri,
+			@Value("${sparql.query-timeout:60s}") Duration timeout, HttpClient sparqlHttpClient,
+			@Value("${sparql.http.accept:" + RemoteSparqlExecutor.DEFAULT_ACCEPT + "}") String acceptHeader,
+			SparqlRoutingProperties routing) {
+		List<RemoteSparqlExecutor> endpoints = Stream.concat(Stream.of(endpointUrl), routing.replicas().stream())
+			.map(url -> new RemoteSparqlExecutor(url, defaultGraphUri, timeout, sparqlHttpClient, acceptHeader))
+			.toList();
+		return new RoutingSparqlExecutor(endpoints, routing);
+	}
+
+	// Latency and circuit of each endpoint, next to the query metrics
+	@Bean
+	@ConditionalOnProperty(name = "sparql.backend", havingValue = "remote", matchIfMissing = true)
+	public MeterBinder sparqlEndpointMetrics(RoutingSparqlExecutor remoteSparqlExecutor) {
+		return registry -> remoteSparqlExecutor.status().forEach(endpoint -> {
+			Gauge.builder("sparql.endpoint.latency",
+					() -> status(remoteSparqlExecutor, endpoint.endpoint()).averageLatency().toNanos() / 1e9)
+				.description("Moving average of the endpoint's response time")
+				.baseUnit("seconds")
+				.tag("endpoint", endpoint.endpoint())
+				.register(registry);
+			Gauge.builder("sparql.endpoint.circuit.open",
+					() -> status(remoteSparqlExecutor, endpoint.endpoint()).circuit() != Circuit.CLOSED ? 1 : 0)
+				.description("Whether the endpoint is skipped, or probed by a single query")
+				.tag("endpoint", endpoint.endpoint())
+				.register(registry);
+		});
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sparql.backend", havingValue = "local")
+	public LocalSparqlExecutor localSparqlExecutor(@Value("${sparql.local.location}") String location,
+			@Value("${sparql.query-timeout:60s}") Duration timeout) {
+		return new LocalSparqlExecutor(location, timeout);
+	}
+
+	private static RoutingSparqlExecutor.EndpointStatus status(RoutingSparqlExecutor executor, String endpoint) {
+		return executor.status().stream().filter(status -> status.endpoint().equals(endpoint)).findFirst().orElseThrow();
+	}
+
+}
@@ -0,0 +1,238 @@
+package net.kaduk.kb.mcpserver.deadline;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.ContextView;
+
+/**
+ * The time left for the upstream work of one tool call, and the means to abort it.
+ *
+ * Reactive code carries the deadline in the Reactor context; blocking code runs with it bound
+ * to the thread by {@link #call}. Upstream calls take no longer than the time left, and register
+ * how to abort themselves while in flight: cancelling the deadline, as when the client goes away
+ * or the time is up, aborts them all, so that their threads and connections are freed at once.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAt;
+    private final List<Runnable> aborts = new ArrayList<>();
+    private boolean cancelled;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @return The deadline bound to the calling thread
+     */
+    public static Optional<Deadline> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * @return The deadline carried by a Reactor context
+     */
+    public static Optional<Deadline> from(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    /**
+     * Cap the timeout of an upstream call at the time left to the current deadline
+     *
+     * @param limit Timeout of the call on its own
+     * @return The shorter of the limit and the time left
+     * @throws DeadlineExceededException if the current deadline has passed or was cancelled
+     */
+    public static Duration timeout(Duration limit) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return limit;
+        }
+        deadline.check();
+        Duration remaining = deadline.remaining();
+        return remaining.compareTo(limit) < 0 ? remaining : limit;
+    }
+
+    /**
+     * Register how to abort an upstream call with the current deadline, if any
+     *
+     * @param abort Aborts the call; run at most once, on the thread cancelling the deadline
+     * @return Removes the registration once the call is over
+     */
+    public static Registration abortOnCancel(Runnable abort) {
+        Deadline deadline = CURRENT.get();
+        return deadline == null ? () -> {
+        } : deadline.onCancel(abort);
+    }
+
+    /**
+     * Register to interrupt the calling thread when the current deadline is cancelled, for
+     * blocking calls that can only be abandoned by interrupting them
+     *
+     * @return Removes the registration once the call is over
+     */
+    public static Registration interruptOnCancel() {
+        Thread thread = Thread.currentThread();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Registration registration = abortOnCancel(() -> {
+            interrupted.set(true);
+            thread.interrupt();
+        });
+        return () -> {
+            registration.close();
+            // The thread goes on to other work, which the interrupt was not meant for
+            if (interrupted.get()) {
+                Thread.interrupted();
+            }
+        };
+    }
+
+    /**
+     * Tell a failed upstream call cut short by the current deadline from one that failed by itself
+     *
+     * @param failure The failure of the call
+     * @return A {@link DeadlineExceededException} caused by the failure if the current deadline
+     *         has passed or was cancelled, or else the failure
+     */
+    public static RuntimeException failure(RuntimeException failure) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null || failure instanceof DeadlineExceededException || !deadline.isExpired()) {
+            return failure;
+        }
+        DeadlineExceededException exceeded = deadline.exceeded();
+        exceeded.initCause(failure);
+        return exceeded;
+    }
+
+    /**
+     * Wait for a result within the current deadline, which the reactive work is given as well
+     *
+     * @param work The work to wait for
+     * @return Its result
+     */
+    public static <T> T block(Mono<T> work) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return work.block();
+        }
+        deadline.check();
+        return deadline.bind(work).block();
+    }
+
+    /**
+     * @return The time left, never negative
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAt - System.nanoTime()));
+    }
+
+    /**
+     * @return Whether the time is up or the deadline was cancelled
+     */
+    public synchronized boolean isExpired() {
+        return cancelled || expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the time is up or the deadline was cancelled
+     */
+    public void check() {
+        if (isExpired()) {
+            throw exceeded();
+        }
+    }
+
+    /**
+     * Run blocking work with this deadline bound to the calling thread
+     *
+     * @param work The work, whose upstream calls take the deadline into account
+     * @return Its result
+     */
+    public <T> T call(Supplier<T> work) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Give reactive work this deadline: it carries it in its context, and fails with a
+     * {@link DeadlineExceededException} once the time is up. Cancelling it, including when the
+     * time is up, cancels the deadline.
+     *
+     * @param work The work
+     * @return The work, within the deadline
+     */
+    public <T> Mono<T> bind(Mono<T> work) {
+        return work
+                .doFinally(signal -> {
+                    if (signal == SignalType.CANCEL) {
+                        cancel();
+                    }
+                })
+                .timeout(remaining(), Mono.error(() -> new DeadlineExceededException("Deadline exceeded")))
+                .contextWrite(context -> context.put(Deadline.class, this));
+    }
+
+    /**
+     * Abort the upstream calls in flight; further calls fail at once
+     */
+    public synchronized void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        // Under the lock, so that no call is aborted, nor its thread interrupted, once it is over
+        aborts.forEach(Runnable::run);
+        aborts.clear();
+    }
+
+    // The time is checked first, as the deadline is cancelled when it is up as well
+    private DeadlineExceededException exceeded() {
+        return new DeadlineExceededException(
+                expiresAt - System.nanoTime() <= 0 ? "Deadline exceeded" : "Call cancelled");
+    }
+
+    private synchronized Registration onCancel(Runnable abort) {
+        if (cancelled) {
+            abort.run();
+            return () -> {
+            };
+        }
+        aborts.add(abort);
+        return () -> {
+            synchronized (this) {
+                aborts.remove(abort);
+            }
+        };
+    }
+
+    /**
+     * An abort registered with a deadline.
+     */
+    public interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,11 @@
+package net.kaduk.kb.mcpserver.deadline;
+
+/**
+ * Thrown by upstream calls made after their tool call's deadline passed or was cancelled.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
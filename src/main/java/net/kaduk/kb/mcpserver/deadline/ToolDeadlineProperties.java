@@ -0,0 +1,35 @@
+package net.kaduk.kb.mcpserver.deadline;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Time tool calls are given to answer
+ *
+ * @param timeout Deadline of a call when its tool has none of its own
+ * @param tool Per-tool deadlines, keyed by tool name
+ */
+@ConfigurationProperties("tools.deadline")
+public record ToolDeadlineProperties(
+        @DefaultValue("30s") Duration timeout,
+        Map<String, Duration> tool) {
+
+    public ToolDeadlineProperties {
+        tool = tool == null ? Map.of() : Map.copyOf(tool);
+    }
+
+    public static ToolDeadlineProperties defaults() {
+        return new ToolDeadlineProperties(Duration.ofSeconds(30), Map.of());
+    }
+
+    /**
+     * @param name The tool called
+     * @return Time its calls are given
+     */
+    public Duration timeoutFor(String name) {
+        return tool.getOrDefault(name, timeout);
+    }
+}
@@ -0,0 +1,78 @@
+package net.kaduk.kb.mcpserver.deadline;
+
+import java.util.Arrays;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Gives every tool call a {@link Deadline}, after the time configured for its tool.
+ *
+ * MCP requests carry no deadline of their own, so the configured time is all a call gets. An
+ * asynchronous call is also cancelled when the client stops waiting for its response, which
+ * aborts its upstream work as the time running out does.
+ */
+@Component
+public class ToolDeadlines {
+
+    private final ToolDeadlineProperties properties;
+
+    public ToolDeadlines(ToolDeadlineProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param tool The tool name
+     * @param call The call, given its deadline on subscription
+     * @return The call, failing with a {@link DeadlineExceededException} once the time is up
+     */
+    public <T> Mono<T> within(String tool, Mono<T> call) {
+        return Mono.defer(() -> Deadline.after(properties.timeoutFor(tool)).bind(call));
+    }
+
+    /**
+     * @return The tools of a provider, each blocking call run with its deadline bound to the thread
+     */
+    public ToolCallbackProvider within(ToolCallbackProvider tools) {
+        return ToolCallbackProvider.from(Arrays.stream(tools.getToolCallbacks())
+                .map(callback -> callback instanceof ToolCallback tool ? new DeadlineToolCallback(tool) : callback)
+                .toList());
+    }
+
+    private final class DeadlineToolCallback implements ToolCallback {
+
+        private final ToolCallback tool;
+
+        DeadlineToolCallback(ToolCallback tool) {
+            this.tool = tool;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return tool.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return tool.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return Deadline.after(properties.timeoutFor(tool.getToolDefinition().name()))
+                    .call(() -> tool.call(toolInput));
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return Deadline.after(properties.timeoutFor(tool.getToolDefinition().name()))
+                    .call(() -> tool.call(toolInput, toolContext));
+        }
+    }
+}
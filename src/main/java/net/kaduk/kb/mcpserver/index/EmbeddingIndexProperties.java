@@ -0,0 +1,66 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the vector index over entity abstracts
+ *
+ * @param enabled Whether retrieval goes through the index
+ * @param location File the index is persisted to and mapped from
+ * @param dumps Abstract dumps to build from; when empty the index is built from the configured store
+ * @param language Language tag of the abstracts to embed
+ * @param model Embedding model: {@code ollama}, or {@code hashing} for a local model matching words only
+ * @param ollama Ollama server and model, for {@code model=ollama}
+ * @param dimensions Length of the vectors of the hashing model
+ * @param batchSize Abstracts embedded per call to the model
+ * @param maxAbstractChars Leading characters of each abstract embedded
+ * @param m Links per entity in the graph; the bottom layer has twice as many
+ * @param efConstruction Candidates considered when linking an entity while building
+ * @param efSearch Candidates kept while searching; higher is slower and finds more of the true nearest entities
+ */
+@ConfigurationProperties("kb.embeddings")
+public record EmbeddingIndexProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("./data/abstract-vectors.bin") Path location,
+        List<Path> dumps,
+        @DefaultValue("en") String language,
+        @DefaultValue("ollama") String model,
+        @DefaultValue Ollama ollama,
+        @DefaultValue("384") int dimensions,
+        @DefaultValue("64") int batchSize,
+        @DefaultValue("2000") int maxAbstractChars,
+        @DefaultValue("16") int m,
+        @DefaultValue("100") int efConstruction,
+        @DefaultValue("64") int efSearch) {
+
+    public EmbeddingIndexProperties {
+        dumps = dumps == null ? List.of() : List.copyOf(dumps);
+        if (!"ollama".equals(model) && !"hashing".equals(model)) {
+            throw new IllegalArgumentException("kb.embeddings.model must be ollama or hashing");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("kb.embeddings.batch-size must be at least 1");
+        }
+        if (m < 2) {
+            throw new IllegalArgumentException("kb.embeddings.m must be at least 2");
+        }
+    }
+
+    public static EmbeddingIndexProperties defaults() {
+        return new EmbeddingIndexProperties(false, Path.of("./data/abstract-vectors.bin"), List.of(), "en", "ollama",
+                new Ollama("http://localhost:11434", "nomic-embed-text"), 384, 64, 2000, 16, 100, 64);
+    }
+
+    /**
+     * @param baseUrl Address of the Ollama server
+     * @param model Name of the embedding model it serves
+     */
+    public record Ollama(
+            @DefaultValue("http://localhost:11434") String baseUrl,
+            @DefaultValue("nomic-embed-text") String model) {
+    }
+}
@@ -0,0 +1,305 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.loader.KnowledgeBaseLoader;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+
+/**
+ * Owns the vector index used to find the entities whose abstracts are closest in meaning to a query.
+ *
+ * At startup the index is mapped from {@code kb.embeddings.location}, or built and written there
+ * if the file does not exist yet or was built with a model of other dimensions: abstracts are
+ * read from {@code kb.embeddings.dumps} when given, otherwise from the configured store, and sent
+ * to the embedding model {@code kb.embeddings.batch-size} at a time. Embedding a full dump through
+ * a model server takes hours, which is why the index is persisted. Until the index is ready,
+ * whenever it is disabled, and when the query cannot be embedded, {@link #search} returns empty
+ * and callers fall back to searching labels.
+ *
+ * The index is a snapshot: after loading changesets, call {@link #rebuild()} to pick them up.
+ */
+@Component
+@Slf4j
+public class EmbeddingIndexService implements ApplicationRunner {
+
+    private static final String ABSTRACT = "http://dbpedia.org/ontology/abstract";
+    private static final long SEED = 42;
+
+    private final EmbeddingIndexProperties properties;
+    private final SparqlExecutor sparqlExecutor;
+    private final EmbeddingModel embeddingModel;
+    private volatile VectorIndex index;
+
+    /**
+     * @param embeddingModel The model abstracts and queries are embedded with; there is none
+     *        unless {@code kb.embeddings.enabled} is set
+     */
+    public EmbeddingIndexService(EmbeddingIndexProperties properties, SparqlExecutor sparqlExecutor,
+            @Nullable EmbeddingModel embeddingModel) {
+        this.properties = properties;
+        this.sparqlExecutor = sparqlExecutor;
+        this.embeddingModel = embeddingModel;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.enabled()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                initialize();
+            } catch (RuntimeException e) {
+                log.error("Embedding index unavailable, retrieval stays on label search: {}", e.getMessage(), e);
+            }
+        }, "embedding-index-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Map the persisted index, building it first if there is none for the model
+     *
+     * @return The index now in use
+     */
+    public VectorIndex initialize() {
+        Path location = properties.location();
+        if (Files.exists(location)) {
+            try {
+                VectorIndex loaded = VectorIndex.open(location);
+                // Asked once: a model served remotely embeds a probe text to tell
+                int dimensions = model().dimensions();
+                if (loaded.dimensions() == dimensions) {
+                    index = loaded;
+                    log.info("Mapped embedding index of {} entities from {}", loaded.size(), location);
+                    return loaded;
+                }
+                log.warn("Embedding index {} has {} dimensions, the model {}; rebuilding", location,
+                        loaded.dimensions(), dimensions);
+                // Never put in use, so no search can be reading it
+                loaded.close();
+                return rebuild(dimensions);
+            } catch (IOException e) {
+                log.warn("Could not read embedding index {}, rebuilding: {}", location, e.getMessage());
+            }
+        }
+        return rebuild();
+    }
+
+    /**
+     * Embed all abstracts, persist the index and start using it
+     *
+     * @return The index now in use
+     */
+    public VectorIndex rebuild() {
+        return rebuild(model().dimensions());
+    }
+
+    private synchronized VectorIndex rebuild(int dimensions) {
+        long start = System.nanoTime();
+        VectorIndex.Builder builder = VectorIndex.builder(dimensions, properties.m(),
+                properties.efConstruction(), SEED);
+        if (properties.dumps().isEmpty()) {
+            buildFromStore(builder);
+        } else {
+            properties.dumps().parallelStream().forEach(dump -> buildFromDump(dump, builder));
+        }
+
+        try {
+            builder.write(properties.location());
+            index = VectorIndex.open(properties.location());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write embedding index " + properties.location(), e);
+        }
+        log.info("Built embedding index of {} entities in {} ms", builder.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    /**
+     * Find the entities whose abstracts are closest to a free-text query
+     *
+     * @param query The query text
+     * @param k Maximum number of hits
+     * @return The hits, closest first, or empty if the index is not available or the query could not be embedded
+     */
+    public Optional<List<VectorIndex.Hit>> search(String query, int k) {
+        VectorIndex current = index;
+        if (!properties.enabled() || current == null || embeddingModel == null) {
+            return Optional.empty();
+        }
+        float[] vector;
+        try {
+            vector = embeddingModel.embed(query);
+        } catch (RuntimeException e) {
+            log.warn("Could not embed query, falling back to label search: {}", e.getMessage());
+            return Optional.empty();
+        }
+        return Optional.of(current.search(vector, k, properties.efSearch()));
+    }
+
+    private EmbeddingModel model() {
+        if (embeddingModel == null) {
+            throw new IllegalStateException("No embedding model configured");
+        }
+        return embeddingModel;
+    }
+
+    // Embedding takes far longer than a query may stay open: the abstracts are spilled to a file
+    // next to the index first, and embedded once the query is over
+    private void buildFromStore(VectorIndex.Builder builder) {
+        Path spill;
+        try {
+            Path directory = properties.location().toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            spill = Files.createTempFile(directory, properties.location().getFileName().toString(), ".abstracts");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a spill file next to " + properties.location(), e);
+        }
+        try {
+            int spilled = spillAbstracts(spill);
+            log.info("Read {} abstracts from the store, embedding them", spilled);
+            Batch batch = new Batch(builder);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill)))) {
+                for (int i = 0; i < spilled; i++) {
+                    batch.add(readString(in), readString(in));
+                }
+            }
+            batch.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read back spilled abstracts " + spill, e);
+        } finally {
+            try {
+                Files.deleteIfExists(spill);
+            } catch (IOException e) {
+                log.warn("Could not delete spilled abstracts {}: {}", spill, e.getMessage());
+            }
+        }
+    }
+
+    private int spillAbstracts(Path spill) {
+        String filter = String.format("FILTER(LANGMATCHES(LANG(?text), '%s'))", properties.language());
+        return sparqlExecutor.select("SELECT ?entity ?text WHERE { ?entity <" + ABSTRACT + "> ?text . " + filter + " }",
+                resultSet -> {
+                    int count = 0;
+                    try (DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(spill)))) {
+                        while (resultSet.hasNext()) {
+                            QuerySolution row = resultSet.next();
+                            if (row.get("entity").isURIResource()) {
+                                writeString(out, row.getResource("entity").getURI());
+                                writeString(out, row.getLiteral("text").getLexicalForm());
+                                count++;
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not spill abstracts to " + spill, e);
+                    }
+                    return count;
+                });
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void buildFromDump(Path dump, VectorIndex.Builder builder) {
+        Lang lang = RDFLanguages.filenameToLang(dump.toString(), Lang.NTRIPLES);
+        Batch batch = new Batch(builder);
+        try (InputStream in = KnowledgeBaseLoader.open(dump)) {
+            RDFParser.source(in).lang(lang).parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    index(triple.getSubject(), triple.getPredicate(), triple.getObject(), batch);
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    index(quad.getSubject(), quad.getPredicate(), quad.getObject(), batch);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + dump, e);
+        }
+        batch.flush();
+        log.info("Embedded abstracts from {}", dump);
+    }
+
+    private void index(Node subject, Node predicate, Node object, Batch batch) {
+        if (subject.isURI() && predicate.getURI().equals(ABSTRACT) && object.isLiteral()
+                && object.getLiteralLanguage().equalsIgnoreCase(properties.language())) {
+            batch.add(subject.getURI(), object.getLiteralLexicalForm());
+        }
+    }
+
+    /**
+     * Abstracts waiting to be embedded in one call to the model.
+     */
+    private final class Batch {
+
+        private final VectorIndex.Builder builder;
+        private final List<String> uris = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+
+        Batch(VectorIndex.Builder builder) {
+            this.builder = builder;
+        }
+
+        void add(String uri, String text) {
+            uris.add(uri);
+            texts.add(text.length() > properties.maxAbstractChars()
+                    ? text.substring(0, properties.maxAbstractChars())
+                    : text);
+            if (uris.size() >= properties.batchSize()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (uris.isEmpty()) {
+                return;
+            }
+            List<float[]> vectors = model().embed(texts);
+            for (int i = 0; i < uris.size(); i++) {
+                builder.add(uris.get(i), vectors.get(i));
+            }
+            uris.clear();
+            texts.clear();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Embeds text locally by feature hashing: every token and pair of adjacent tokens, as split by
+ * {@link LabelIndex#tokenize}, adds one to a dimension picked by its hash, with a sign picked by
+ * another bit of it.
+ *
+ * The vectors capture shared words rather than meaning, so this is no substitute for a trained
+ * model; it is deterministic and needs no server, for tests, benchmarks and offline setups.
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    public HashingEmbeddingModel(int dimensions) {
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("Embedding dimensions must be at least 1");
+        }
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(embed(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        List<String> tokens = LabelIndex.tokenize(text);
+        for (int i = 0; i < tokens.size(); i++) {
+            add(vector, tokens.get(i));
+            if (i > 0) {
+                add(vector, tokens.get(i - 1) + ' ' + tokens.get(i));
+            }
+        }
+        return vector;
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void add(float[] vector, String feature) {
+        CRC32 crc = new CRC32();
+        crc.update(feature.getBytes(StandardCharsets.UTF_8));
+        long hash = crc.getValue();
+        vector[(int) ((hash >>> 1) % dimensions)] += (hash & 1) == 0 ? 1 : -1;
+    }
+}
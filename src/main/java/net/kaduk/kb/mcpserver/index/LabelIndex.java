@@ -0,0 +1,438 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable inverted index over entity labels and abstracts, ranked with BM25F.
+ *
+ * Text is case-folded, stripped of diacritics and split on anything that is not a letter or a
+ * digit. Each term keeps a postings list with its frequency in the label and in the abstract of
+ * every entity; the label field is weighted higher so that "Berlin" ranks the city above every
+ * article that merely mentions it. Terms are kept sorted, which gives exact lookups by binary
+ * search and lets a query term without an exact match expand to the terms it prefixes.
+ */
+public final class LabelIndex {
+
+    private static final int MAGIC = 0x4B424C49;
+    private static final int VERSION = 1;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+    private static final int MIN_PREFIX_LENGTH = 3;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Comparator<Hit> RANKING = Comparator.comparingDouble(Hit::score).reversed()
+            .thenComparingInt(hit -> hit.label() == null ? Integer.MAX_VALUE : hit.label().length())
+            .thenComparing(Hit::uri);
+
+    private final String[] uris;
+    private final String[] labels;
+    private final int[] labelLengths;
+    private final int[] abstractLengths;
+    private final String[] terms;
+    private final Postings[] postings;
+    private final Scoring scoring;
+    private final double averageLabelLength;
+    private final double averageAbstractLength;
+
+    private LabelIndex(String[] uris, String[] labels, int[] labelLengths, int[] abstractLengths, String[] terms,
+            Postings[] postings, Scoring scoring) {
+        this.uris = uris;
+        this.labels = labels;
+        this.labelLengths = labelLengths;
+        this.abstractLengths = abstractLengths;
+        this.terms = terms;
+        this.postings = postings;
+        this.scoring = scoring;
+        this.averageLabelLength = Arrays.stream(labelLengths).average().orElse(0);
+        this.averageAbstractLength = Arrays.stream(abstractLengths).average().orElse(0);
+    }
+
+    /**
+     * Split text into index terms
+     *
+     * @param text The text to tokenize
+     * @return Case-folded terms without diacritics, in text order
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(folded)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    public static Builder builder(int maxAbstractTokens) {
+        return new Builder(maxAbstractTokens);
+    }
+
+    /**
+     * Rank the indexed entities against a free-text query
+     *
+     * @param query The query text
+     * @param k Maximum number of hits to return
+     * @return The best hits, best first
+     */
+    public List<Hit> search(String query, int k) {
+        Map<Integer, Double> scores = new HashMap<>();
+        for (String queryTerm : new LinkedHashSet<>(tokenize(query))) {
+            for (int term : lookup(queryTerm)) {
+                score(postings[term], scores);
+            }
+        }
+
+        PriorityQueue<Hit> top = new PriorityQueue<>(RANKING.reversed());
+        scores.forEach((doc, score) -> {
+            top.add(new Hit(uris[doc], labels[doc], score));
+            if (top.size() > k) {
+                top.poll();
+            }
+        });
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(RANKING);
+        return hits;
+    }
+
+    public int size() {
+        return uris.length;
+    }
+
+    public int termCount() {
+        return terms.length;
+    }
+
+    private int[] lookup(String term) {
+        int position = Arrays.binarySearch(terms, term);
+        if (position >= 0) {
+            return new int[] { position };
+        }
+        if (term.length() < MIN_PREFIX_LENGTH) {
+            return new int[0];
+        }
+
+        // No exact match: treat the term as a prefix, as the substring scans it replaces did
+        int from = -position - 1;
+        int to = from;
+        while (to < terms.length && to - from < MAX_PREFIX_EXPANSIONS && terms[to].startsWith(term)) {
+            to++;
+        }
+        int[] expansions = new int[to - from];
+        Arrays.setAll(expansions, i -> from + i);
+        return expansions;
+    }
+
+    private void score(Postings termPostings, Map<Integer, Double> scores) {
+        int documentFrequency = termPostings.docs().length;
+        double idf = Math.log(1 + (uris.length - documentFrequency + 0.5) / (documentFrequency + 0.5));
+
+        for (int i = 0; i < documentFrequency; i++) {
+            int doc = termPostings.docs()[i];
+            double tf = scoring.labelWeight()
+                    * normalizedFrequency(termPostings.labelFrequencies()[i], labelLengths[doc], averageLabelLength)
+                    + normalizedFrequency(termPostings.abstractFrequencies()[i], abstractLengths[doc],
+                            averageAbstractLength);
+            scores.merge(doc, idf * tf * (scoring.k1() + 1) / (tf + scoring.k1()), Double::sum);
+        }
+    }
+
+    private double normalizedFrequency(int frequency, int length, double averageLength) {
+        if (frequency == 0) {
+            return 0;
+        }
+        double b = scoring.b();
+        return frequency / (1 - b + b * length / Math.max(averageLength, 1));
+    }
+
+    /**
+     * Write the index to a file, replacing it atomically
+     *
+     * @param file The file to write
+     */
+    public void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            writeVarInt(out, uris.length);
+            for (int doc = 0; doc < uris.length; doc++) {
+                writeString(out, uris[doc]);
+                writeString(out, labels[doc]);
+                writeVarInt(out, labelLengths[doc]);
+                writeVarInt(out, abstractLengths[doc]);
+            }
+
+            writeVarInt(out, terms.length);
+            for (int term = 0; term < terms.length; term++) {
+                writeString(out, terms[term]);
+                Postings termPostings = postings[term];
+                writeVarInt(out, termPostings.docs().length);
+                int previous = 0;
+                for (int i = 0; i < termPostings.docs().length; i++) {
+                    // Doc ids are ascending, so gaps stay small
+                    writeVarInt(out, termPostings.docs()[i] - previous);
+                    writeVarInt(out, termPostings.labelFrequencies()[i]);
+                    writeVarInt(out, termPostings.abstractFrequencies()[i]);
+                    previous = termPostings.docs()[i];
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read an index written by {@link #write(Path)}
+     *
+     * @param file The index file
+     * @param scoring BM25F parameters to rank with
+     * @return The index
+     */
+    public static LabelIndex read(Path file, Scoring scoring) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a label index, or written by another version: " + file);
+            }
+
+            int docCount = readVarInt(in);
+            String[] uris = new String[docCount];
+            String[] labels = new String[docCount];
+            int[] labelLengths = new int[docCount];
+            int[] abstractLengths = new int[docCount];
+            for (int doc = 0; doc < docCount; doc++) {
+                uris[doc] = readString(in);
+                labels[doc] = readString(in);
+                labelLengths[doc] = readVarInt(in);
+                abstractLengths[doc] = readVarInt(in);
+            }
+
+            int termCount = readVarInt(in);
+            String[] terms = new String[termCount];
+            Postings[] postings = new Postings[termCount];
+            for (int term = 0; term < termCount; term++) {
+                terms[term] = readString(in);
+                int length = readVarInt(in);
+                int[] docs = new int[length];
+                int[] labelFrequencies = new int[length];
+                int[] abstractFrequencies = new int[length];
+                int previous = 0;
+                for (int i = 0; i < length; i++) {
+                    docs[i] = previous + readVarInt(in);
+                    labelFrequencies[i] = readVarInt(in);
+                    abstractFrequencies[i] = readVarInt(in);
+                    previous = docs[i];
+                }
+                postings[term] = new Postings(docs, labelFrequencies, abstractFrequencies);
+            }
+            return new LabelIndex(uris, labels, labelLengths, abstractLengths, terms, postings, scoring);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * A ranked entity
+     */
+    public record Hit(String uri, String label, double score) {
+    }
+
+    /**
+     * BM25F parameters
+     *
+     * @param k1 Term frequency saturation
+     * @param b Length normalization, shared by both fields
+     * @param labelWeight Weight of a label occurrence relative to an abstract occurrence
+     */
+    public record Scoring(double k1, double b, double labelWeight) {
+    }
+
+    private record Postings(int[] docs, int[] labelFrequencies, int[] abstractFrequencies) {
+    }
+
+    /**
+     * Collects labels and abstracts in any order, e.g. from separate label and abstract dumps.
+     * Safe for use from several parser threads.
+     */
+    public static final class Builder {
+
+        private final int maxAbstractTokens;
+        private final Map<String, Integer> docIds = new HashMap<>();
+        private final List<String> uris = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+        private int[] labelLengths = new int[1024];
+        private int[] abstractLengths = new int[1024];
+        private final Map<String, PostingsBuilder> postings = new HashMap<>();
+
+        private Builder(int maxAbstractTokens) {
+            this.maxAbstractTokens = maxAbstractTokens;
+        }
+
+        public synchronized Builder addLabel(String uri, String label) {
+            int doc = doc(uri);
+            if (labels.get(doc) == null) {
+                labels.set(doc, label);
+            }
+            List<String> tokens = tokenize(label);
+            labelLengths[doc] += tokens.size();
+            add(doc, tokens, true);
+            return this;
+        }
+
+        public synchronized Builder addAbstract(String uri, String text) {
+            int doc = doc(uri);
+            List<String> tokens = tokenize(text);
+            if (tokens.size() > maxAbstractTokens) {
+                // The opening sentences carry the identifying terms; the rest only grows the postings
+                tokens = tokens.subList(0, maxAbstractTokens);
+            }
+            abstractLengths[doc] += tokens.size();
+            add(doc, tokens, false);
+            return this;
+        }
+
+        public synchronized LabelIndex build(Scoring scoring) {
+            String[] terms = postings.keySet().toArray(String[]::new);
+            Arrays.sort(terms);
+            Postings[] built = new Postings[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                built[i] = postings.get(terms[i]).build();
+            }
+            int docCount = uris.size();
+            return new LabelIndex(uris.toArray(String[]::new), labels.toArray(String[]::new),
+                    Arrays.copyOf(labelLengths, docCount), Arrays.copyOf(abstractLengths, docCount), terms, built,
+                    scoring);
+        }
+
+        private int doc(String uri) {
+            return docIds.computeIfAbsent(uri, key -> {
+                int doc = uris.size();
+                uris.add(key);
+                labels.add(null);
+                if (doc == labelLengths.length) {
+                    labelLengths = Arrays.copyOf(labelLengths, doc * 2);
+                    abstractLengths = Arrays.copyOf(abstractLengths, doc * 2);
+                }
+                return doc;
+            });
+        }
+
+        private void add(int doc, List<String> tokens, boolean label) {
+            Map<String, Integer> frequencies = new HashMap<>();
+            tokens.forEach(token -> frequencies.merge(token, 1, Integer::sum));
+            frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, key -> new PostingsBuilder())
+                    .add(doc, label ? frequency : 0, label ? 0 : frequency));
+        }
+    }
+
+    private static final class PostingsBuilder {
+
+        private int[] docs = new int[4];
+        private int[] labelFrequencies = new int[4];
+        private int[] abstractFrequencies = new int[4];
+        private int size;
+        private boolean sorted = true;
+
+        void add(int doc, int labelFrequency, int abstractFrequency) {
+            if (size > 0 && docs[size - 1] == doc) {
+                labelFrequencies[size - 1] += labelFrequency;
+                abstractFrequencies[size - 1] += abstractFrequency;
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                labelFrequencies = Arrays.copyOf(labelFrequencies, size * 2);
+                abstractFrequencies = Arrays.copyOf(abstractFrequencies, size * 2);
+            }
+            sorted &= size == 0 || docs[size - 1] < doc;
+            docs[size] = doc;
+            labelFrequencies[size] = labelFrequency;
+            abstractFrequencies[size] = abstractFrequency;
+            size++;
+        }
+
+        Postings build() {
+            if (sorted) {
+                return new Postings(Arrays.copyOf(docs, size), Arrays.copyOf(labelFrequencies, size),
+                        Arrays.copyOf(abstractFrequencies, size));
+            }
+
+            // A document's abstract arrived after other documents' labels: merge by doc id
+            Integer[] order = new Integer[size];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingInt(i -> docs[i]));
+            PostingsBuilder merged = new PostingsBuilder();
+            for (int i : order) {
+                merged.add(docs[i], labelFrequencies[i], abstractFrequencies[i]);
+            }
+            return merged.build();
+        }
+    }
+}
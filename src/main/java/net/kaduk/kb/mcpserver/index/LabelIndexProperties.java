@@ -0,0 +1,43 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the full-text label index
+ *
+ * @param enabled Whether entity searches go through the index
+ * @param location File the index is persisted to and loaded from
+ * @param dumps Label and abstract dumps to build from; when empty the index is built from the configured store
+ * @param language Language tag of the labels and abstracts to index
+ * @param maxAbstractTokens Number of leading abstract tokens indexed per entity
+ * @param k1 BM25 term frequency saturation
+ * @param b BM25 length normalization
+ * @param labelWeight Weight of a label match relative to an abstract match
+ */
+@ConfigurationProperties("kb.index")
+public record LabelIndexProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("./data/label-index.bin") Path location,
+        List<Path> dumps,
+        @DefaultValue("en") String language,
+        @DefaultValue("100") int maxAbstractTokens,
+        @DefaultValue("1.2") double k1,
+        @DefaultValue("0.75") double b,
+        @DefaultValue("3.0") double labelWeight) {
+
+    public LabelIndexProperties {
+        dumps = dumps == null ? List.of() : List.copyOf(dumps);
+    }
+
+    public static LabelIndexProperties defaults() {
+        return new LabelIndexProperties(false, Path.of("./data/label-index.bin"), List.of(), "en", 100, 1.2, 0.75, 3.0);
+    }
+
+    public LabelIndex.Scoring scoring() {
+        return new LabelIndex.Scoring(k1, b, labelWeight);
+    }
+}
@@ -0,0 +1,191 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.vocabulary.RDFS;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.loader.KnowledgeBaseLoader;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+
+/**
+ * Owns the label index used to resolve free-text entity searches to URIs.
+ *
+ * At startup the index is loaded from {@code kb.index.location}, or built and written there if
+ * the file does not exist yet: from {@code kb.index.dumps} when given, otherwise by reading all
+ * labels and abstracts from the configured store. Building from the store is meant for the local
+ * backend; public endpoints cap result sizes far below a full label scan. Until the index is
+ * ready, and whenever it is disabled, {@link #search} returns empty and callers fall back to
+ * filtering in SPARQL.
+ *
+ * The index is a snapshot: after loading changesets, call {@link #rebuild()} to pick them up.
+ */
+@Component
+@Slf4j
+public class LabelIndexService implements ApplicationRunner {
+
+    private static final String ABSTRACT = "http://dbpedia.org/ontology/abstract";
+
+    private final LabelIndexProperties properties;
+    private final SparqlExecutor sparqlExecutor;
+    private volatile LabelIndex index;
+
+    public LabelIndexService(LabelIndexProperties properties, SparqlExecutor sparqlExecutor) {
+        this.properties = properties;
+        this.sparqlExecutor = sparqlExecutor;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.enabled()) {
+            return;
+        }
+        // Building over a full dump takes a while; searches fall back to SPARQL meanwhile
+        Thread thread = new Thread(() -> {
+            try {
+                initialize();
+            } catch (RuntimeException e) {
+                log.error("Label index unavailable, entity search stays on SPARQL: {}", e.getMessage(), e);
+            }
+        }, "label-index-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Load the persisted index, building it first if there is none
+     *
+     * @return The index now in use
+     */
+    public LabelIndex initialize() {
+        Path location = properties.location();
+        if (Files.exists(location)) {
+            try {
+                index = LabelIndex.read(location, properties.scoring());
+                log.info("Loaded label index of {} entities from {}", index.size(), location);
+                return index;
+            } catch (IOException e) {
+                log.warn("Could not read label index {}, rebuilding: {}", location, e.getMessage());
+            }
+        }
+        return rebuild();
+    }
+
+    /**
+     * Build the index from its source, persist it and start using it
+     *
+     * @return The index now in use
+     */
+    public synchronized LabelIndex rebuild() {
+        long start = System.nanoTime();
+        LabelIndex.Builder builder = LabelIndex.builder(properties.maxAbstractTokens());
+        if (properties.dumps().isEmpty()) {
+            buildFromStore(builder);
+        } else {
+            properties.dumps().parallelStream().forEach(dump -> buildFromDump(dump, builder));
+        }
+        LabelIndex built = builder.build(properties.scoring());
+
+        try {
+            built.write(properties.location());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write label index " + properties.location(), e);
+        }
+        index = built;
+        log.info("Built label index of {} entities and {} terms in {} ms", built.size(), built.termCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return built;
+    }
+
+    /**
+     * Find the entities best matching a free-text query
+     *
+     * @param query The query text
+     * @param k Maximum number of hits
+     * @return The hits, best first, or empty if the index is not available
+     */
+    public Optional<List<LabelIndex.Hit>> search(String query, int k) {
+        LabelIndex current = index;
+        if (!properties.enabled() || current == null) {
+            return Optional.empty();
+        }
+        return Optional.of(current.search(query, k));
+    }
+
+    private void buildFromStore(LabelIndex.Builder builder) {
+        String filter = String.format("FILTER(LANGMATCHES(LANG(?text), '%s'))", properties.language());
+        sparqlExecutor.select(
+                "SELECT ?entity ?text WHERE { ?entity <" + RDFS.label.getURI() + "> ?text . " + filter + " }",
+                resultSet -> {
+                    resultSet.forEachRemaining(row -> {
+                        if (row.get("entity").isURIResource()) {
+                            builder.addLabel(row.getResource("entity").getURI(), text(row));
+                        }
+                    });
+                    return null;
+                });
+        sparqlExecutor.select(
+                "SELECT ?entity ?text WHERE { ?entity <" + ABSTRACT + "> ?text . " + filter + " }",
+                resultSet -> {
+                    resultSet.forEachRemaining(row -> {
+                        if (row.get("entity").isURIResource()) {
+                            builder.addAbstract(row.getResource("entity").getURI(), text(row));
+                        }
+                    });
+                    return null;
+                });
+    }
+
+    private void buildFromDump(Path dump, LabelIndex.Builder builder) {
+        Lang lang = RDFLanguages.filenameToLang(dump.toString(), Lang.NTRIPLES);
+        try (InputStream in = KnowledgeBaseLoader.open(dump)) {
+            RDFParser.source(in).lang(lang).parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    index(triple.getSubject(), triple.getPredicate(), triple.getObject(), builder);
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    index(quad.getSubject(), quad.getPredicate(), quad.getObject(), builder);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + dump, e);
+        }
+        log.info("Indexed labels and abstracts from {}", dump);
+    }
+
+    private void index(Node subject, Node predicate, Node object, LabelIndex.Builder builder) {
+        if (!subject.isURI() || !object.isLiteral()
+                || !object.getLiteralLanguage().equalsIgnoreCase(properties.language())) {
+            return;
+        }
+        if (predicate.getURI().equals(RDFS.label.getURI())) {
+            builder.addLabel(subject.getURI(), object.getLiteralLexicalForm());
+        } else if (predicate.getURI().equals(ABSTRACT)) {
+            builder.addAbstract(subject.getURI(), object.getLiteralLexicalForm());
+        }
+    }
+
+    private static String text(QuerySolution row) {
+        return row.getLiteral("text").getLexicalForm();
+    }
+}
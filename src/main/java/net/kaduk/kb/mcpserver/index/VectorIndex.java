@@ -0,0 +1,804 @@
+package net.kaduk.kb.mcpserver.index;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Approximate nearest-neighbour index of entity embeddings, searched in place in its memory-mapped file.
+ *
+ * The graph is a hierarchical navigable small world (HNSW): every entity is linked to up to
+ * {@code 2m} similar entities, and a random, exponentially shrinking subset of them to up to
+ * {@code m} more on sparser upper layers. A search descends greedily through the upper layers and
+ * then explores the bottom one best first, keeping the {@code ef} most similar entities seen, so
+ * it compares the query with a few thousand vectors rather than all of them.
+ *
+ * Vectors are normalized, so that similarity is the cosine, and quantized to a signed byte per
+ * dimension with a scale per vector: a quarter of their float size, at a cosine error of about
+ * 1%. Vectors, links and URIs are read from the file as a search reaches them; the heap holds
+ * none of them, and a large index is as fast as the page cache it is given.
+ */
+@Slf4j
+public final class VectorIndex implements Closeable {
+
+    private static final int MAGIC = 0x4B425649; // "KBVI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    // Mapped buffers address at most 2 GB; larger sections are mapped in chunks of whole records
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final int MAX_LEVEL = 32;
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Mapped vector indexes are released when garbage collected only: {}", e.getMessage());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static final Comparator<Scored> BY_SIMILARITY = Comparator.comparingDouble(Scored::similarity);
+
+    private final int dimensions;
+    private final int count;
+    private final int m;
+    private final int entryPoint;
+    private final int maxLevel;
+    private final Region vectors;
+    private final Region scales;
+    private final Region baseLinks;
+    private final Region upperOffsets;
+    private final Region upperLinks;
+    private final Region uriOffsets;
+    private final Region uriBytes;
+    private final Graph graph = new MappedGraph();
+    private volatile boolean closed;
+
+    private VectorIndex(int dimensions, int count, int m, int entryPoint, int maxLevel, Region vectors,
+            Region scales, Region baseLinks, Region upperOffsets, Region upperLinks, Region uriOffsets,
+            Region uriBytes) {
+        this.dimensions = dimensions;
+        this.count = count;
+        this.m = m;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+        this.vectors = vectors;
+        this.scales = scales;
+        this.baseLinks = baseLinks;
+        this.upperOffsets = upperOffsets;
+        this.upperLinks = upperLinks;
+        this.uriOffsets = uriOffsets;
+        this.uriBytes = uriBytes;
+    }
+
+    /**
+     * @param dimensions Length of the vectors to index
+     * @param m Links per entity on the upper layers, and half the links on the bottom one
+     * @param efConstruction Candidates considered when linking a new entity
+     * @param seed Seed of the layer assignment, so that the same input builds the same file
+     */
+    public static Builder builder(int dimensions, int m, int efConstruction, long seed) {
+        return new Builder(dimensions, m, efConstruction, seed);
+    }
+
+    /**
+     * Find the entities most similar to a query vector
+     *
+     * @param query The query vector; a zero vector finds nothing
+     * @param k Maximum number of hits
+     * @param ef Candidates kept while searching, at least {@code k}; higher is slower and more accurate
+     * @return The hits, most similar first
+     * @throws IllegalArgumentException if the query does not have the dimensions of the index
+     * @throws IllegalStateException if the index is closed
+     */
+    public List<Hit> search(float[] query, int k, int ef) {
+        checkOpen();
+        float[] normalized = normalize(checkDimensions(query));
+        if (count == 0 || k <= 0 || normalized == null) {
+            return List.of();
+        }
+        int entry = graph.descend(normalized, entryPoint, maxLevel, 0);
+        List<Scored> found = graph.searchLayer(normalized,
+                List.of(new Scored(entry, graph.similarity(normalized, entry))), Math.max(ef, k), 0);
+        return hits(found, k);
+    }
+
+    /**
+     * Find the entities most similar to a query vector by comparing it with every vector, the
+     * baseline the recall of {@link #search} is measured against
+     *
+     * @param query The query vector; a zero vector finds nothing
+     * @param k Maximum number of hits
+     * @return The hits, most similar first
+     * @throws IllegalArgumentException if the query does not have the dimensions of the index
+     * @throws IllegalStateException if the index is closed
+     */
+    public List<Hit> searchExact(float[] query, int k) {
+        checkOpen();
+        float[] normalized = normalize(checkDimensions(query));
+        if (count == 0 || k <= 0 || normalized == null) {
+            return List.of();
+        }
+        PriorityQueue<Scored> best = new PriorityQueue<>(BY_SIMILARITY);
+        for (int node = 0; node < count; node++) {
+            double similarity = graph.similarity(normalized, node);
+            if (best.size() < k || similarity > best.peek().similarity()) {
+                best.add(new Scored(node, similarity));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+        }
+        List<Scored> found = new ArrayList<>(best);
+        found.sort(BY_SIMILARITY.reversed());
+        return hits(found, k);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Unmap the file now rather than whenever the index is garbage collected. Reading an unmapped
+     * buffer crashes the JVM, so only close an index no search can reach any more: one that was
+     * never put in use, not one a rebuild replaced while searches may still run on it.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Region region : List.of(vectors, scales, baseLinks, upperOffsets, upperLinks, uriOffsets, uriBytes)) {
+            region.unmap();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Vector index is closed");
+        }
+    }
+
+    /**
+     * Map an index written by {@link Builder#write(Path)}. The mapping outlives the file being
+     * replaced, so a rebuilt index can be swapped in while searches run on this one.
+     *
+     * @param file The index file
+     * @return The index
+     * @throws IOException if the file cannot be read or is not a complete index
+     */
+    public static VectorIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new EOFException("Not a vector index: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a vector index, or one of another version: " + file);
+            }
+            int dimensions = header.getInt();
+            int count = header.getInt();
+            int m = header.getInt();
+            int entryPoint = header.getInt();
+            int maxLevel = header.getInt();
+            int upperListCount = header.getInt();
+            long uriLength = header.getLong();
+
+            long position = HEADER_SIZE;
+            long[] sizes = {
+                    (long) count * dimensions,
+                    (long) count * Float.BYTES,
+                    (long) count * baseRecordSize(m),
+                    (long) count * Integer.BYTES,
+                    (long) upperListCount * upperRecordSize(m),
+                    (count + 1L) * Long.BYTES,
+                    uriLength };
+            int[] recordSizes = { Math.max(dimensions, 1), Float.BYTES, baseRecordSize(m), Integer.BYTES,
+                    upperRecordSize(m), Long.BYTES, 1 };
+            long expected = position + Arrays.stream(sizes).sum();
+            if (channel.size() != expected) {
+                throw new IOException("Truncated vector index " + file + ": " + channel.size() + " of " + expected
+                        + " bytes");
+            }
+            Region[] regions = new Region[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                regions[i] = Region.map(channel, position, sizes[i], recordSizes[i]);
+                position += sizes[i];
+            }
+            return new VectorIndex(dimensions, count, m, entryPoint, maxLevel, regions[0], regions[1], regions[2],
+                    regions[3], regions[4], regions[5], regions[6]);
+        }
+    }
+
+    private float[] checkDimensions(float[] query) {
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Query has " + query.length + " dimensions, the index " + dimensions);
+        }
+        return query;
+    }
+
+    private List<Hit> hits(List<Scored> found, int k) {
+        return found.stream().limit(k).map(scored -> new Hit(uri(scored.node()), scored.similarity())).toList();
+    }
+
+    private String uri(int node) {
+        long from = uriOffsets.getLong(node * (long) Long.BYTES);
+        long to = uriOffsets.getLong((node + 1L) * Long.BYTES);
+        byte[] bytes = new byte[(int) (to - from)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = uriBytes.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int baseRecordSize(int m) {
+        return (1 + 2 * m) * Integer.BYTES;
+    }
+
+    private static int upperRecordSize(int m) {
+        return (1 + m) * Integer.BYTES;
+    }
+
+    // Unit length, or null for a vector without a direction
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        if (norm == 0 || !Double.isFinite(norm)) {
+            return null;
+        }
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    /**
+     * An entity similar to the query.
+     *
+     * @param uri The entity URI
+     * @param score Estimated cosine similarity to the query
+     */
+    public record Hit(String uri, double score) {
+    }
+
+    private record Scored(int node, double similarity) {
+    }
+
+    /**
+     * The search algorithms, shared by the index being built and the mapped one.
+     */
+    private abstract static class Graph {
+
+        abstract int neighbourCount(int node, int level);
+
+        abstract int neighbour(int node, int level, int i);
+
+        abstract double similarity(float[] query, int node);
+
+        // Greedy walk through the layers above the target level, to the node closest to the query
+        int descend(float[] query, int entry, int fromLevel, int toLevel) {
+            int current = entry;
+            double best = similarity(query, current);
+            for (int level = fromLevel; level > toLevel; level--) {
+                boolean improved = true;
+                while (improved) {
+                    improved = false;
+                    for (int i = 0, n = neighbourCount(current, level); i < n; i++) {
+                        int candidate = neighbour(current, level, i);
+                        double similarity = similarity(query, candidate);
+                        if (similarity > best) {
+                            best = similarity;
+                            current = candidate;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            return current;
+        }
+
+        // Best-first search of one layer, keeping the ef nodes most similar to the query
+        List<Scored> searchLayer(float[] query, List<Scored> entries, int ef, int level) {
+            VisitedSet visited = new VisitedSet(ef * 4);
+            PriorityQueue<Scored> candidates = new PriorityQueue<>(BY_SIMILARITY.reversed());
+            PriorityQueue<Scored> results = new PriorityQueue<>(BY_SIMILARITY);
+            for (Scored entry : entries) {
+                if (visited.add(entry.node())) {
+                    candidates.add(entry);
+                    results.add(entry);
+                }
+            }
+            while (results.size() > ef) {
+                results.poll();
+            }
+            while (!candidates.isEmpty()) {
+                Scored closest = candidates.poll();
+                if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                    break;
+                }
+                for (int i = 0, n = neighbourCount(closest.node(), level); i < n; i++) {
+                    int neighbour = neighbour(closest.node(), level, i);
+                    if (!visited.add(neighbour)) {
+                        continue;
+                    }
+                    double similarity = similarity(query, neighbour);
+                    if (results.size() < ef || similarity > results.peek().similarity()) {
+                        Scored scored = new Scored(neighbour, similarity);
+                        candidates.add(scored);
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+            List<Scored> found = new ArrayList<>(results);
+            found.sort(BY_SIMILARITY.reversed());
+            return found;
+        }
+    }
+
+    private final class MappedGraph extends Graph {
+
+        @Override
+        int neighbourCount(int node, int level) {
+            return links(level).getInt(linkPosition(node, level));
+        }
+
+        @Override
+        int neighbour(int node, int level, int i) {
+            return links(level).getInt(linkPosition(node, level) + (1L + i) * Integer.BYTES);
+        }
+
+        @Override
+        double similarity(float[] query, int node) {
+            long position = (long) node * dimensions;
+            ByteBuffer chunk = vectors.chunk(position);
+            int offset = vectors.offset(position);
+            float dot = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dot += query[i] * chunk.get(offset + i);
+            }
+            return dot * scales.getFloat((long) node * Float.BYTES);
+        }
+
+        private Region links(int level) {
+            return level == 0 ? baseLinks : upperLinks;
+        }
+
+        private long linkPosition(int node, int level) {
+            if (level == 0) {
+                return (long) node * baseRecordSize(m);
+            }
+            int first = upperOffsets.getInt((long) node * Integer.BYTES);
+            return (long) (first + level - 1) * upperRecordSize(m);
+        }
+    }
+
+    /**
+     * A section of the index file, mapped in chunks that never split a record.
+     */
+    private static final class Region {
+
+        private final ByteBuffer[] chunks;
+        private final long chunkSize;
+
+        private Region(ByteBuffer[] chunks, long chunkSize) {
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+        }
+
+        static Region map(FileChannel channel, long position, long length, int recordSize) throws IOException {
+            long chunkSize = Math.max(recordSize, MAX_CHUNK_SIZE / recordSize * recordSize);
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = i * chunkSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset,
+                        Math.min(chunkSize, length - offset));
+            }
+            return new Region(chunks, chunkSize);
+        }
+
+        ByteBuffer chunk(long position) {
+            return chunks[(int) (position / chunkSize)];
+        }
+
+        int offset(long position) {
+            return (int) (position % chunkSize);
+        }
+
+        byte get(long position) {
+            return chunk(position).get(offset(position));
+        }
+
+        int getInt(long position) {
+            return chunk(position).getInt(offset(position));
+        }
+
+        float getFloat(long position) {
+            return chunk(position).getFloat(offset(position));
+        }
+
+        long getLong(long position) {
+            return chunk(position).getLong(offset(position));
+        }
+
+        // Mapped buffers are only released by their cleaner, which the JDK exposes through Unsafe
+        void unmap() {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            for (ByteBuffer chunk : chunks) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, chunk);
+                } catch (ReflectiveOperationException e) {
+                    log.warn("Could not unmap vector index, it is released when garbage collected: {}",
+                            e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Nodes a search has reached, in an open-addressing hash set of ints.
+     */
+    private static final class VisitedSet {
+
+        private int[] slots;
+        private int size;
+
+        VisitedSet(int expected) {
+            slots = new int[Integer.highestOneBit(Math.max(expected, 8) * 2)];
+            Arrays.fill(slots, -1);
+        }
+
+        boolean add(int node) {
+            if (size * 2 >= slots.length) {
+                grow();
+            }
+            int mask = slots.length - 1;
+            for (int slot = mix(node) & mask; ; slot = (slot + 1) & mask) {
+                if (slots[slot] == node) {
+                    return false;
+                }
+                if (slots[slot] == -1) {
+                    slots[slot] = node;
+                    size++;
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] previous = slots;
+            slots = new int[previous.length * 2];
+            Arrays.fill(slots, -1);
+            size = 0;
+            for (int node : previous) {
+                if (node != -1) {
+                    add(node);
+                }
+            }
+        }
+
+        private static int mix(int node) {
+            int h = node * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Builds the graph on the heap, entity by entity, and writes it out for {@link #open}.
+     * Safe for use from several threads, which are serialized.
+     */
+    public static final class Builder {
+
+        private final int dimensions;
+        private final int m;
+        private final int efConstruction;
+        private final double levelFactor;
+        private final Random random;
+        private final List<String> uris = new ArrayList<>();
+        private final List<byte[]> vectors = new ArrayList<>();
+        private float[] scales = new float[1024];
+        // Per node and level: the number of links, then the linked nodes
+        private final List<int[][]> links = new ArrayList<>();
+        private final Graph graph = new HeapGraph();
+        private int entryPoint = -1;
+        private int maxLevel = -1;
+
+        private Builder(int dimensions, int m, int efConstruction, long seed) {
+            if (dimensions < 1 || m < 2 || efConstruction < 1) {
+                throw new IllegalArgumentException("Vector index needs dimensions >= 1, m >= 2 and ef-construction >= 1");
+            }
+            this.dimensions = dimensions;
+            this.m = m;
+            this.efConstruction = efConstruction;
+            this.levelFactor = 1 / Math.log(m);
+            this.random = new Random(seed);
+        }
+
+        /**
+         * Add an entity and link it into the graph
+         *
+         * @param uri The entity URI
+         * @param vector Its embedding; a vector of zero length has no direction and is left out
+         * @return This builder
+         */
+        public synchronized Builder add(String uri, float[] vector) {
+            if (vector.length != dimensions) {
+                throw new IllegalArgumentException(
+                        "Vector of " + uri + " has " + vector.length + " dimensions, the index " + dimensions);
+            }
+            float[] normalized = normalize(vector);
+            if (normalized == null) {
+                return this;
+            }
+            int node = uris.size();
+            uris.add(uri);
+            vectors.add(quantize(normalized, node));
+
+            int level = randomLevel();
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[1 + maxLinks(l)];
+            }
+            links.add(nodeLinks);
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return this;
+            }
+
+            // Link against the quantized vector, which is what searches will compare with
+            float[] query = dequantize(node);
+            int entry = graph.descend(query, entryPoint, maxLevel, level);
+            List<Scored> entries = List.of(new Scored(entry, graph.similarity(query, entry)));
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<Scored> found = graph.searchLayer(query, entries, efConstruction, l);
+                int[] selected = select(found, maxLinks(l));
+                nodeLinks[l][0] = selected.length;
+                System.arraycopy(selected, 0, nodeLinks[l], 1, selected.length);
+                for (int neighbour : selected) {
+                    link(neighbour, node, l);
+                }
+                entries = found;
+            }
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            return this;
+        }
+
+        public synchronized int size() {
+            return uris.size();
+        }
+
+        /**
+         * Write the index, atomically replacing the file
+         *
+         * @param file The file to write
+         */
+        public synchronized void write(Path file) throws IOException {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            int count = uris.size();
+            byte[][] encodedUris = new byte[count][];
+            long uriLength = 0;
+            int upperListCount = 0;
+            for (int node = 0; node < count; node++) {
+                encodedUris[node] = uris.get(node).getBytes(StandardCharsets.UTF_8);
+                uriLength += encodedUris[node].length;
+                upperListCount += links.get(node).length - 1;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimensions);
+                out.writeInt(count);
+                out.writeInt(m);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                out.writeInt(upperListCount);
+                out.writeLong(uriLength);
+                out.write(new byte[HEADER_SIZE - 40]);
+
+                for (byte[] vector : vectors) {
+                    out.write(vector);
+                }
+                for (int node = 0; node < count; node++) {
+                    out.writeFloat(scales[node]);
+                }
+                for (int[][] nodeLinks : links) {
+                    writeLinks(out, nodeLinks[0]);
+                }
+                int upperOffset = 0;
+                for (int[][] nodeLinks : links) {
+                    out.writeInt(nodeLinks.length > 1 ? upperOffset : -1);
+                    upperOffset += nodeLinks.length - 1;
+                }
+                for (int[][] nodeLinks : links) {
+                    for (int l = 1; l < nodeLinks.length; l++) {
+                        writeLinks(out, nodeLinks[l]);
+                    }
+                }
+                long offset = 0;
+                for (byte[] uri : encodedUris) {
+                    out.writeLong(offset);
+                    offset += uri.length;
+                }
+                out.writeLong(offset);
+                for (byte[] uri : encodedUris) {
+                    out.write(uri);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeLinks(DataOutputStream out, int[] nodeLinks) throws IOException {
+            for (int value : nodeLinks) {
+                out.writeInt(value);
+            }
+        }
+
+        private int maxLinks(int level) {
+            return level == 0 ? 2 * m : m;
+        }
+
+        private int randomLevel() {
+            return Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelFactor));
+        }
+
+        private byte[] quantize(float[] normalized, int node) {
+            float max = 0;
+            for (float value : normalized) {
+                max = Math.max(max, Math.abs(value));
+            }
+            float scale = max / 127;
+            byte[] quantized = new byte[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                quantized[i] = (byte) Math.round(normalized[i] / scale);
+            }
+            if (node == scales.length) {
+                scales = Arrays.copyOf(scales, node * 2);
+            }
+            scales[node] = scale;
+            return quantized;
+        }
+
+        private float[] dequantize(int node) {
+            byte[] quantized = vectors.get(node);
+            float[] vector = new float[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = quantized[i] * scales[node];
+            }
+            return vector;
+        }
+
+        private double similarity(int a, int b) {
+            byte[] first = vectors.get(a);
+            byte[] second = vectors.get(b);
+            int dot = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dot += first[i] * second[i];
+            }
+            return dot * (double) scales[a] * scales[b];
+        }
+
+        // Keep candidates closer to the node than to any neighbour kept before them, so that links
+        // reach out in different directions; fill up with the closest of the others
+        private int[] select(List<Scored> candidates, int max) {
+            int[] selected = new int[max];
+            int n = 0;
+            List<Scored> pruned = new ArrayList<>();
+            for (Scored candidate : candidates) {
+                if (n == max) {
+                    break;
+                }
+                boolean diverse = true;
+                for (int i = 0; i < n && diverse; i++) {
+                    diverse = similarity(candidate.node(), selected[i]) <= candidate.similarity();
+                }
+                if (diverse) {
+                    selected[n++] = candidate.node();
+                } else {
+                    pruned.add(candidate);
+                }
+            }
+            for (int i = 0; i < pruned.size() && n < max; i++) {
+                selected[n++] = pruned.get(i).node();
+            }
+            return Arrays.copyOf(selected, n);
+        }
+
+        private void link(int from, int to, int level) {
+            int[] list = links.get(from)[level];
+            int linked = list[0];
+            if (linked < list.length - 1) {
+                list[linked + 1] = to;
+                list[0] = linked + 1;
+                return;
+            }
+            List<Scored> candidates = new ArrayList<>(linked + 1);
+            for (int i = 1; i <= linked; i++) {
+                candidates.add(new Scored(list[i], similarity(from, list[i])));
+            }
+            candidates.add(new Scored(to, similarity(from, to)));
+            candidates.sort(BY_SIMILARITY.reversed());
+            int[] selected = select(candidates, list.length - 1);
+            Arrays.fill(list, 0);
+            list[0] = selected.length;
+            System.arraycopy(selected, 0, list, 1, selected.length);
+        }
+
+        private final class HeapGraph extends Graph {
+
+            @Override
+            int neighbourCount(int node, int level) {
+                return links.get(node)[level][0];
+            }
+
+            @Override
+            int neighbour(int node, int level, int i) {
+                return links.get(node)[level][i + 1];
+            }
+
+            @Override
+            double similarity(float[] query, int node) {
+                byte[] vector = vectors.get(node);
+                float dot = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    dot += query[i] * vector[i];
+                }
+                return dot * scales[node];
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package net.kaduk.kb.mcpserver.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+
+/**
+ * Applies add/delete changesets to the local knowledge base without a reload.
+ *
+ * A changeset is a pair of files {@code <id>.removed.nt} and {@code <id>.added.nt} (either may be
+ * missing, both may be gzipped) anywhere below the changeset directory; its id is its path
+ * relative to that directory, such as {@code 2024/01/05/13/000001} in the {@code yyyy/MM/dd/HH}
+ * layout DBpedia Live publishes, where counters restart every hour. Changesets are applied in
+ * id order, comparing the ids segment by segment and numerically where both segments are
+ * numbers, so {@code 10} follows {@code 9}. Each is applied in its own write transaction, so
+ * queries keep running against the last committed state throughout. The id of the last applied
+ * changeset is recorded in {@code .last-applied} in the changeset directory.
+ */
+@Component
+@ConditionalOnProperty(name = "sparql.backend", havingValue = "local")
+@Slf4j
+public class ChangesetApplier {
+
+    private static final Pattern CHANGESET_FILE = Pattern.compile("(.+)\\.(added|removed)\\.nt(\\.gz)?");
+    private static final String STATE_FILE = ".last-applied";
+    private static final Pattern NUMBER = Pattern.compile("[0-9]+");
+    private static final Comparator<String> ID_ORDER = ChangesetApplier::compareIds;
+
+    private final LocalSparqlExecutor store;
+    private final LoaderProperties properties;
+
+    public ChangesetApplier(LocalSparqlExecutor store, LoaderProperties properties) {
+        this.store = store;
+        this.properties = properties;
+    }
+
+    @Scheduled(fixedDelayString = "${kb.loader.changesets-poll-interval:PT1M}")
+    public void poll() {
+        if (properties.changesetsDir() != null && Files.isDirectory(properties.changesetsDir())) {
+            applyPending(properties.changesetsDir());
+        }
+    }
+
+    /**
+     * Apply all changesets in a directory newer than the last applied one
+     *
+     * @param directory Directory holding the changeset files
+     * @return Number of changesets applied
+     */
+    public synchronized int applyPending(Path directory) {
+        String lastApplied = readState(directory);
+        int applied = 0;
+
+        for (Map.Entry<String, Changeset> entry : scan(directory).entrySet()) {
+            if (lastApplied != null && ID_ORDER.compare(entry.getKey(), lastApplied) <= 0) {
+                continue;
+            }
+
+            Changeset changeset = entry.getValue();
+            long[] counts = apply(changeset);
+            writeState(directory, entry.getKey());
+            applied++;
+            log.info("Applied changeset {}: -{} +{} triples", entry.getKey(), counts[0], counts[1]);
+        }
+        return applied;
+    }
+
+    private long[] apply(Changeset changeset) {
+        DatasetGraph dsg = store.dataset().asDatasetGraph();
+        long[] counts = new long[2];
+
+        Txn.executeWrite(dsg, () -> {
+            if (changeset.removed() != null) {
+                parse(changeset.removed(), new ApplyingStream(dsg, false, counts));
+            }
+            if (changeset.added() != null) {
+                parse(changeset.added(), new ApplyingStream(dsg, true, counts));
+            }
+        });
+        return counts;
+    }
+
+    private static void parse(Path file, ApplyingStream stream) {
+        try (InputStream in = KnowledgeBaseLoader.open(file)) {
+            RDFParser.source(in).lang(Lang.NTRIPLES).parse(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Changeset> scan(Path directory) {
+        Map<String, Changeset> changesets = new TreeMap<>(ID_ORDER);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                Matcher matcher = CHANGESET_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    return;
+                }
+                String id = directory.relativize(file.resolveSibling(matcher.group(1))).toString()
+                        .replace(file.getFileSystem().getSeparator(), "/");
+                Changeset current = changesets.getOrDefault(id, new Changeset(null, null));
+                changesets.put(id, matcher.group(2).equals("added")
+                        ? new Changeset(current.removed(), file)
+                        : new Changeset(file, current.added()));
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return changesets;
+    }
+
+    // Segment by segment; numbers by value, whatever their zero padding
+    private static int compareIds(String left, String right) {
+        String[] leftSegments = left.split("/");
+        String[] rightSegments = right.split("/");
+        for (int i = 0; i < Math.min(leftSegments.length, rightSegments.length); i++) {
+            int order = compareSegments(leftSegments[i], rightSegments[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(leftSegments.length, rightSegments.length);
+    }
+
+    private static int compareSegments(String left, String right) {
+        if (!NUMBER.matcher(left).matches() || !NUMBER.matcher(right).matches()) {
+            return left.compareTo(right);
+        }
+        String leftDigits = stripLeadingZeros(left);
+        String rightDigits = stripLeadingZeros(right);
+        int order = Integer.compare(leftDigits.length(), rightDigits.length());
+        return order != 0 ? order : leftDigits.compareTo(rightDigits);
+    }
+
+    private static String stripLeadingZeros(String digits) {
+        int start = 0;
+        while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+            start++;
+        }
+        return digits.substring(start);
+    }
+
+    private static String readState(Path directory) {
+        Path state = directory.resolve(STATE_FILE);
+        try {
+            return Files.exists(state) ? Files.readString(state).strip() : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Replaced in one step, so a crash cannot leave it empty and have every changeset applied again
+    private static void writeState(Path directory, String id) {
+        Path state = directory.resolve(STATE_FILE);
+        Path temp = state.resolveSibling(STATE_FILE + ".tmp");
+        try {
+            Files.writeString(temp, id);
+            Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Changeset(Path removed, Path added) {
+    }
+
+    private static final class ApplyingStream extends StreamRDFBase {
+
+        private final DatasetGraph dsg;
+        private final boolean add;
+        private final long[] counts;
+
+        ApplyingStream(DatasetGraph dsg, boolean add, long[] counts) {
+            this.dsg = dsg;
+            this.add = add;
+            this.counts = counts;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            Quad quad = Quad.create(Quad.defaultGraphIRI, triple);
+            if (add) {
+                dsg.add(quad);
+                counts[1]++;
+            } else {
+                dsg.delete(quad);
+                counts[0]++;
+            }
+        }
+    }
+}
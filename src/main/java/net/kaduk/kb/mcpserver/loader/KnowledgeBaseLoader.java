@@ -0,0 +1,389 @@
+package net.kaduk.kb.mcpserver.loader;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+
+/**
+ * Bulk loader for the local TDB2 knowledge base.
+ *
+ * Uncompressed N-Triples and N-Quads dumps are split into line-aligned chunks that are parsed in
+ * parallel, one chunk per parser thread; other formats and compressed files are parsed whole,
+ * still in parallel with each other. Parsed triples are handed in batches to TDB2's parallel
+ * loader, which dictionary-encodes the terms into the node table and builds the indexes on
+ * further threads inside one large write. The loader takes the store exclusively, so it is meant
+ * for initial loads and offline rebuilds; {@link ChangesetApplier} keeps a live store current.
+ */
+@Component
+@ConditionalOnProperty(name = "sparql.backend", havingValue = "local")
+@Slf4j
+public class KnowledgeBaseLoader implements ApplicationRunner {
+
+    private static final List<Triple> END_OF_TASK = List.of();
+
+    private final LocalSparqlExecutor store;
+    private final LoaderProperties properties;
+
+    public KnowledgeBaseLoader(LocalSparqlExecutor store, LoaderProperties properties) {
+        this.store = store;
+        this.properties = properties;
+    }
+
+    /**
+     * Load dumps into a TDB2 database from the command line
+     *
+     * @param args Database directory followed by the dump files
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: KnowledgeBaseLoader <tdb2-directory> <dump-file>...");
+            System.exit(1);
+        }
+        try (LocalSparqlExecutor store = new LocalSparqlExecutor(args[0], Duration.ofSeconds(60))) {
+            LoadReport report = new KnowledgeBaseLoader(store, LoaderProperties.defaults())
+                    .load(Arrays.stream(args).skip(1).map(Path::of).toList());
+            System.out.println(report);
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (properties.files().isEmpty()) {
+            return;
+        }
+        boolean empty = Txn.calculateRead(store.dataset(), () -> store.dataset().asDatasetGraph().isEmpty());
+        if (empty) {
+            load(properties.files());
+        } else {
+            log.info("Knowledge base at {} is not empty, skipping bulk load", store.endpointId());
+        }
+    }
+
+    /**
+     * Load dump files into the store
+     *
+     * @param files N-Triples, N-Quads, Turtle or any other RDF syntax Jena recognises, optionally gzipped
+     * @return Totals and throughput of the load
+     */
+    public LoadReport load(List<Path> files) {
+        List<ParseTask> tasks = plan(files);
+        int threads = Math.min(properties.parserThreads(), Math.max(1, tasks.size()));
+        log.info("Loading {} file(s) as {} parse task(s) on {} thread(s)", files.size(), tasks.size(), threads);
+
+        BlockingQueue<List<Triple>> batches = new ArrayBlockingQueue<>(threads * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kb-loader-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LoadProgress progress = new LoadProgress(properties.progressInterval());
+        DataLoader loader = LoaderFactory.parallelLoader(store.dataset().asDatasetGraph(),
+                (fmt, args) -> log.debug(String.format(fmt, args)));
+        try {
+            tasks.forEach(task -> parsers.execute(() -> parse(task, batches, failure)));
+
+            loader.startBulk();
+            StreamRDF destination = loader.stream();
+            int finished = 0;
+            while (finished < tasks.size()) {
+                List<Triple> batch = batches.take();
+                if (batch == END_OF_TASK) {
+                    finished++;
+                    if (failure.get() != null) {
+                        throw new IllegalStateException("Parsing failed: " + failure.get().getMessage(), failure.get());
+                    }
+                    continue;
+                }
+                batch.forEach(destination::triple);
+                progress.add(batch.size());
+            }
+            loader.finishBulk();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            loader.finishException(e);
+            throw new IllegalStateException("Load interrupted", e);
+        } catch (RuntimeException e) {
+            loader.finishException(e);
+            throw e;
+        } finally {
+            parsers.shutdownNow();
+        }
+
+        LoadReport report = progress.report(files.size());
+        log.info("Loaded {}", report);
+        return report;
+    }
+
+    private List<ParseTask> plan(List<Path> files) {
+        List<ParseTask> tasks = new ArrayList<>();
+        for (Path file : files) {
+            Lang lang = RDFLanguages.filenameToLang(file.toString());
+            if (lang == null) {
+                throw new IllegalArgumentException("Unrecognised RDF syntax: " + file);
+            }
+
+            // Blank node labels must map to the same node in every chunk of a file
+            UUID scope = UUID.randomUUID();
+            boolean splittable = (lang == Lang.NTRIPLES || lang == Lang.NQUADS) && !file.toString().endsWith(".gz");
+            if (splittable) {
+                long[] starts = chunkStarts(file, properties.chunkSize().toBytes());
+                for (int i = 0; i < starts.length; i++) {
+                    long end = i + 1 < starts.length ? starts[i + 1] : size(file);
+                    tasks.add(new ParseTask(file, lang, scope, starts[i], end));
+                }
+            } else {
+                tasks.add(new ParseTask(file, lang, scope, 0, -1));
+            }
+        }
+        return tasks;
+    }
+
+    private void parse(ParseTask task, BlockingQueue<List<Triple>> batches, AtomicReference<Throwable> failure) {
+        BatchingStream stream = new BatchingStream(batches, properties.batchSize());
+        LabelToNode labels = LabelToNode.createScopeByDocumentHash(task.scope());
+        try {
+            try (InputStream in = task.isWholeFile() ? open(task.file()) : task.openRange()) {
+                RDFParser.source(in).lang(task.lang()).labelToNode(labels).parse(stream);
+            }
+            stream.flush();
+        } catch (Throwable e) {
+            if (!(e instanceof InterruptedBatchException)) {
+                failure.compareAndSet(null, e);
+                log.error("Failed to parse {}: {}", task, e.getMessage());
+            }
+        } finally {
+            try {
+                batches.put(END_OF_TASK);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Open a dump file for reading, decompressing it if its name ends in {@code .gz}
+     */
+    public static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        return file.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static long[] chunkStarts(Path file, long chunkSize) {
+        List<Long> starts = new ArrayList<>(List.of(0L));
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long position = chunkSize;
+            while (position < size) {
+                long lineStart = nextLineStart(channel, position, buffer);
+                if (lineStart >= size) {
+                    break;
+                }
+                starts.add(lineStart);
+                position = lineStart + chunkSize;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return starts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        long offset = position;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Totals of a completed load
+     */
+    public record LoadReport(int files, long triples, Duration elapsed) {
+
+        public long triplesPerSecond() {
+            return elapsed.toMillis() == 0 ? triples : triples * 1000 / elapsed.toMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d triples from %d file(s) in %s (%d triples/s)", triples, files, elapsed,
+                    triplesPerSecond());
+        }
+    }
+
+    private record ParseTask(Path file, Lang lang, UUID scope, long start, long end) {
+
+        boolean isWholeFile() {
+            return end < 0;
+        }
+
+        InputStream openRange() throws IOException {
+            FileChannel channel = FileChannel.open(file);
+            channel.position(start);
+            return new RangeInputStream(Channels.newInputStream(channel), end - start);
+        }
+
+        @Override
+        public String toString() {
+            return end < 0 ? file.toString() : file + " [" + start + ", " + end + ")";
+        }
+    }
+
+    private static final class BatchingStream extends StreamRDFBase {
+
+        private final BlockingQueue<List<Triple>> batches;
+        private final int batchSize;
+        private List<Triple> batch;
+
+        BatchingStream(BlockingQueue<List<Triple>> batches, int batchSize) {
+            this.batches = batches;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            batch.add(triple);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            // The knowledge-base queries only read the default graph
+            triple(quad.asTriple());
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                batches.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedBatchException();
+            }
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    private static final class InterruptedBatchException extends RuntimeException {
+    }
+
+    private static final class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(new BufferedInputStream(in, 1 << 16));
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private static final class LoadProgress {
+
+        private final long interval;
+        private final long startNanos = System.nanoTime();
+        private long triples;
+
+        LoadProgress(long interval) {
+            this.interval = interval;
+        }
+
+        void add(int count) {
+            long before = triples;
+            triples += count;
+            if (interval > 0 && triples / interval > before / interval) {
+                long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+                log.info("Loaded {} triples ({} triples/s)", triples, triples * 1000 / millis);
+            }
+        }
+
+        LoadReport report(int files) {
+            return new LoadReport(files, triples, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+}
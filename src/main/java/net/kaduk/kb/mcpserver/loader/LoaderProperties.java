@@ -0,0 +1,44 @@
+package net.kaduk.kb.mcpserver.loader;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the local knowledge-base loader
+ *
+ * @param threads Number of parser threads; 0 uses all available cores
+ * @param chunkSize Size of the chunks N-Triples and N-Quads dumps are split into for parallel parsing
+ * @param batchSize Number of triples handed from the parsers to the store writer at a time
+ * @param progressInterval Number of triples between progress reports
+ * @param files Dump files bulk-loaded at startup when the store is empty
+ * @param changesetsDir Directory polled for {@code <id>.added.nt} / {@code <id>.removed.nt} changesets
+ */
+@ConfigurationProperties("kb.loader")
+public record LoaderProperties(
+        @DefaultValue("0") int threads,
+        @DefaultValue("64MB") DataSize chunkSize,
+        @DefaultValue("50000") int batchSize,
+        @DefaultValue("1000000") long progressInterval,
+        List<Path> files,
+        Path changesetsDir) {
+
+    public LoaderProperties {
+        files = files == null ? List.of() : List.copyOf(files);
+    }
+
+    public static LoaderProperties defaults() {
+        return new LoaderProperties(0, DataSize.ofMegabytes(64), 50_000, 1_000_000, List.of(), null);
+    }
+
+    /**
+     * @return Number of parser threads to use
+     */
+    public int parserThreads() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,68 @@
+package net.kaduk.kb.mcpserver.metrics;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.apache.jena.sparql.resultset.ResultSetException;
+import org.springframework.core.codec.CodecException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import net.kaduk.kb.mcpserver.deadline.DeadlineExceededException;
+import net.kaduk.kb.mcpserver.sparql.RoutingSparqlExecutor;
+
+/**
+ * Classifies failures into the few causes error counters are tagged with.
+ *
+ * {@code timeout}, including work cut short by a tool call's deadline, {@code http_<status>}
+ * for an upstream answering with an error status, {@code parse} for a query or response that
+ * could not be read, {@code connection} for an upstream that could not be reached,
+ * {@code unavailable} when every SPARQL endpoint's circuit is open, and {@code other}. The chain
+ * of causes is searched, since executors and caches wrap what the upstream threw.
+ */
+public final class ErrorCause {
+
+    public static final String TIMEOUT = "timeout";
+    public static final String PARSE = "parse";
+    public static final String CONNECTION = "connection";
+    public static final String UNAVAILABLE = "unavailable";
+    public static final String OTHER = "other";
+
+    private ErrorCause() {
+    }
+
+    public static String of(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof QueryCancelledException || e instanceof TimeoutException
+                    || e instanceof HttpTimeoutException || e instanceof DeadlineExceededException) {
+                return TIMEOUT;
+            }
+            if (e instanceof QueryExceptionHTTP http && http.getStatusCode() > 0) {
+                return "http_" + http.getStatusCode();
+            }
+            if (e instanceof RoutingSparqlExecutor.UnavailableException) {
+                return UNAVAILABLE;
+            }
+            if (e instanceof WebClientResponseException response) {
+                return "http_" + response.getStatusCode().value();
+            }
+            if (e instanceof QueryParseException || e instanceof ResultSetException || e instanceof RiotException
+                    || e instanceof CodecException || e instanceof JsonProcessingException) {
+                return PARSE;
+            }
+        }
+        // Only once no more specific cause is found, as timeouts are I/O errors too
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof IOException || e instanceof WebClientRequestException) {
+                return CONNECTION;
+            }
+        }
+        return OTHER;
+    }
+}
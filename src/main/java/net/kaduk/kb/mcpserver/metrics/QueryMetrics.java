@@ -0,0 +1,172 @@
+package net.kaduk.kb.mcpserver.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.resultset.ResultSetWrapper;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.kaduk.kb.mcpserver.sparql.BoundQuery;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+
+/**
+ * Times SPARQL queries by phase, and counts their rows and failures.
+ *
+ * A query is in its {@code execute} phase from the call until its results start: connecting,
+ * sending the query and the endpoint evaluating it. Results are parsed as the handler pulls rows,
+ * so the time spent pulling them is the {@code iterate} phase and the rest of the handler the
+ * {@code map} phase. Meters are tagged with the name of the query's template, or {@code text}
+ * for queries given as text:
+ * <ul>
+ * <li>{@code sparql.query} (timer): whole queries, by {@code outcome}</li>
+ * <li>{@code sparql.query.phase} (timer): by {@code phase}</li>
+ * <li>{@code sparql.query.rows} (summary): rows read</li>
+ * <li>{@code sparql.query.errors} (counter): failures by {@link ErrorCause cause}</li>
+ * </ul>
+ */
+@Component
+public class QueryMetrics {
+
+    public static final String TEXT_QUERY = "text";
+
+    private final MeterRegistry registry;
+
+    public QueryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Execute a bound query and map its results, metered under the name of its template
+     *
+     * @see SparqlExecutor#select(org.apache.jena.query.Query, Function)
+     */
+    public <T> T select(SparqlExecutor executor, BoundQuery query, Function<ResultSet, T> handler) {
+        return select(query.name(), handler, metered -> executor.select(query.query(), metered));
+    }
+
+    /**
+     * Execute a query given as text and map its results, metered as {@value #TEXT_QUERY}
+     *
+     * @see SparqlExecutor#select(String, Function)
+     */
+    public <T> T select(SparqlExecutor executor, String queryString, Function<ResultSet, T> handler) {
+        return select(TEXT_QUERY, handler, metered -> executor.select(queryString, metered));
+    }
+
+    private <T> T select(String name, Function<ResultSet, T> handler,
+            Function<Function<ResultSet, T>, T> execution) {
+        Reading reading = new Reading();
+        try {
+            T result = execution.apply(resultSet -> reading.handle(resultSet, handler));
+            timer("sparql.query", name, "outcome", "success").record(reading.elapsed(), TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            timer("sparql.query", name, "outcome", "error").record(reading.elapsed(), TimeUnit.NANOSECONDS);
+            Counter.builder("sparql.query.errors")
+                    .tag("query", name)
+                    .tag("cause", ErrorCause.of(e))
+                    .register(registry)
+                    .increment();
+            throw e;
+        } finally {
+            if (reading.opened != 0) {
+                timer("sparql.query.phase", name, "phase", "execute")
+                        .record(reading.opened - reading.start, TimeUnit.NANOSECONDS);
+                timer("sparql.query.phase", name, "phase", "iterate").record(reading.iterating, TimeUnit.NANOSECONDS);
+                timer("sparql.query.phase", name, "phase", "map")
+                        .record(reading.handled - reading.opened - reading.iterating, TimeUnit.NANOSECONDS);
+                DistributionSummary.builder("sparql.query.rows")
+                        .tag("query", name)
+                        .register(registry)
+                        .record(reading.rows);
+            }
+        }
+    }
+
+    private Timer timer(String meter, String query, String key, String value) {
+        return Timer.builder(meter).tag("query", query).tag(key, value).register(registry);
+    }
+
+    // One query: when its results opened and were handled, and the time spent in the result set,
+    // which is where streamed results are parsed
+    private static final class Reading {
+
+        private final long start = System.nanoTime();
+        private long opened;
+        private long handled;
+        private long iterating;
+        private int rows;
+
+        <T> T handle(ResultSet resultSet, Function<ResultSet, T> handler) {
+            opened = System.nanoTime();
+            try {
+                return handler.apply(new MeteredResultSet(resultSet));
+            } finally {
+                handled = System.nanoTime();
+            }
+        }
+
+        long elapsed() {
+            return System.nanoTime() - start;
+        }
+
+        private final class MeteredResultSet extends ResultSetWrapper {
+
+            MeteredResultSet(ResultSet resultSet) {
+                super(resultSet);
+            }
+
+            @Override
+            public boolean hasNext() {
+                long from = System.nanoTime();
+                try {
+                    return super.hasNext();
+                } finally {
+                    iterating += System.nanoTime() - from;
+                }
+            }
+
+            @Override
+            public QuerySolution next() {
+                return nextSolution();
+            }
+
+            @Override
+            public QuerySolution nextSolution() {
+                long from = System.nanoTime();
+                try {
+                    return super.nextSolution();
+                } finally {
+                    iterating += System.nanoTime() - from;
+                    rows++;
+                }
+            }
+
+            @Override
+            public Binding nextBinding() {
+                long from = System.nanoTime();
+                try {
+                    return super.nextBinding();
+                } finally {
+                    iterating += System.nanoTime() - from;
+                    rows++;
+                }
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super QuerySolution> action) {
+                while (hasNext()) {
+                    action.accept(nextSolution());
+                }
+            }
+        }
+    }
+}
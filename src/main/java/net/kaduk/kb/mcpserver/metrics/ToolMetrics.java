@@ -0,0 +1,157 @@
+package net.kaduk.kb.mcpserver.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.kaduk.kb.mcpserver.render.ToolOutput;
+import reactor.core.publisher.Mono;
+
+/**
+ * Times tool calls and measures their results, tagged by {@code tool}:
+ * <ul>
+ * <li>{@code mcp.tool.calls} (timer): by {@code outcome}, {@code success}, {@code error} or
+ * {@code cancelled} when the client went away first</li>
+ * <li>{@code mcp.tool.errors} (counter): failed calls by {@link ErrorCause cause}</li>
+ * <li>{@code mcp.tool.response.size} (summary): UTF-8 bytes of the results</li>
+ * <li>{@code mcp.tool.render} (timer): writing results into the tool output</li>
+ * </ul>
+ * Together with {@link QueryMetrics} this places the time of a call in its upstream queries or
+ * in the server. Percentile histograms are enabled by configuration, per meter name prefix.
+ */
+@Component
+public class ToolMetrics {
+
+    private final MeterRegistry registry;
+
+    public ToolMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param tool The tool name
+     * @param call The call, timed from subscription
+     * @return The call, timed
+     */
+    public Mono<String> timed(String tool, Mono<String> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(result -> succeeded(tool, start, result))
+                    .doOnError(e -> failed(tool, start, e))
+                    .doOnCancel(() -> record(tool, "cancelled", start));
+        });
+    }
+
+    /**
+     * @param tool The tool name
+     * @param call The blocking call
+     * @return Its result
+     */
+    public String timed(String tool, Supplier<String> call) {
+        long start = System.nanoTime();
+        try {
+            String result = call.get();
+            succeeded(tool, start, result);
+            return result;
+        } catch (RuntimeException e) {
+            failed(tool, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The tools of a provider, each call timed
+     */
+    public ToolCallbackProvider timed(ToolCallbackProvider tools) {
+        return ToolCallbackProvider.from(Arrays.stream(tools.getToolCallbacks())
+                .map(callback -> callback instanceof ToolCallback tool ? new TimedToolCallback(tool) : callback)
+                .toList());
+    }
+
+    /**
+     * Time rendering a tool's results
+     *
+     * @param tool The tool name
+     * @param render Renders the results
+     * @return The rendered results
+     */
+    public <T> T rendering(String tool, Supplier<T> render) {
+        long start = System.nanoTime();
+        try {
+            return render.get();
+        } finally {
+            Timer.builder("mcp.tool.render")
+                    .tag("tool", tool)
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void succeeded(String tool, long start, String result) {
+        record(tool, "success", start);
+        if (result != null) {
+            DistributionSummary.builder("mcp.tool.response.size")
+                    .baseUnit("bytes")
+                    .tag("tool", tool)
+                    .register(registry)
+                    .record(ToolOutput.utf8Length(result, 0, result.length()));
+        }
+    }
+
+    private void failed(String tool, long start, Throwable error) {
+        record(tool, "error", start);
+        Counter.builder("mcp.tool.errors")
+                .tag("tool", tool)
+                .tag("cause", ErrorCause.of(error))
+                .register(registry)
+                .increment();
+    }
+
+    private void record(String tool, String outcome, long start) {
+        Timer.builder("mcp.tool.calls")
+                .tag("tool", tool)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private final class TimedToolCallback implements ToolCallback {
+
+        private final ToolCallback tool;
+
+        TimedToolCallback(ToolCallback tool) {
+            this.tool = tool;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return tool.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return tool.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return timed(tool.getToolDefinition().name(), () -> tool.call(toolInput));
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return timed(tool.getToolDefinition().name(), () -> tool.call(toolInput, toolContext));
+        }
+    }
+}
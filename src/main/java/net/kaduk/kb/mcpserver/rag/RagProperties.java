@@ -0,0 +1,47 @@
+package net.kaduk.kb.mcpserver.rag;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of knowledge-base question answering
+ *
+ * @param enabled Whether a chat model is configured to answer with
+ * @param ollama Ollama server and chat model
+ * @param contextTokens Budget of the facts given to the model with each question, in estimated tokens
+ * @param charsPerToken Characters counted as one token when estimating sizes
+ * @param duplicateSimilarity Share of words two facts of an entity have in common from which the lower-ranked one is dropped
+ */
+@ConfigurationProperties("rag")
+public record RagProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue Ollama ollama,
+        @DefaultValue("1500") int contextTokens,
+        @DefaultValue("4") int charsPerToken,
+        @DefaultValue("0.6") double duplicateSimilarity) {
+
+    public RagProperties {
+        if (contextTokens < 1) {
+            throw new IllegalArgumentException("rag.context-tokens must be at least 1");
+        }
+        if (charsPerToken < 1) {
+            throw new IllegalArgumentException("rag.chars-per-token must be at least 1");
+        }
+        if (duplicateSimilarity <= 0 || duplicateSimilarity > 1) {
+            throw new IllegalArgumentException("rag.duplicate-similarity must be in (0, 1]");
+        }
+    }
+
+    public static RagProperties defaults() {
+        return new RagProperties(false, new Ollama("http://localhost:11434", "llama3.2"), 1500, 4, 0.6);
+    }
+
+    /**
+     * @param baseUrl Address of the Ollama server
+     * @param model Name of the chat model it serves
+     */
+    public record Ollama(
+            @DefaultValue("http://localhost:11434") String baseUrl,
+            @DefaultValue("llama3.2") String model) {
+    }
+}
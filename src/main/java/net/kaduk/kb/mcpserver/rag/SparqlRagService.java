@@ -1,91 +1,231 @@
-// package net.kaduk.kb.mcpserver.rag;
-
-// import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
-// import lombok.RequiredArgsConstructor;
-// import org.springframework.ai.chat.messages.Message;
-// import org.springframework.ai.chat.messages.SystemMessage;
-// import org.springframework.ai.chat.messages.UserMessage;
-// import org.springframework.ai.chat.model.ChatModel;
-// import org.springframework.ai.chat.prompt.Prompt;
-// import org.springframework.ai.document.Document;
-// import org.springframework.stereotype.Service;
-
-// import java.util.ArrayList;
-// import java.util.List;
-// import java.util.Map;
-// import java.util.stream.Collectors;
-
-// @Service
-// @RequiredArgsConstructor
-// public class SparqlRagService {
-
-//     private final SparqlKnowledgeBaseService sparqlService;
-//     private final ChatModel chatModel;
-    
-//     public String generateResponse(String userQuery) {
-//         // 1. Retrieve relevant information from SPARQL
-//         List<Map<String, String>> results = sparqlService.searchEntities(userQuery, 5);
-        
-//         // 2. Convert to documents
-//         List<Document> documents = results.stream()
-//                 .map(this::convertToDocument)
-//                 .collect(Collectors.toList());
-        
-//         // 3. Build context from documents
-//         String context = documents.stream()
-//                 .map(Document::getContent)
-//                 .collect(Collectors.joining("\n\n"));
-        
-//         // 4. Create messages for the prompt
-//         List<Message> messages = new ArrayList<>();
-//         messages.add(new SystemMessage(
-//                 "You are a helpful assistant with access to a knowledge base. " +
-//                 "Use the following information to answer the user's question:\n\n" +
-//                 context + 
-//                 "\n\nIf the knowledge base doesn't contain relevant information, " +
-//                 "you can answer based on your general knowledge."));
-//         messages.add(new UserMessage(userQuery));
-        
-//         // 5. Create prompt and call model
-//         Prompt prompt = new Prompt(messages);
-//         return chatModel.call(prompt).getResult().getOutput().getContent();
-//     }
-    
-//     private Document convertToDocument(Map<String, String> result) {
-//         // Same implementation as before
-//         String entityUri = result.getOrDefault("entity", "");
-//         String label = result.getOrDefault("label", "Unknown");
-//         String description = result.getOrDefault("description", "");
-        
-//         StringBuilder contentBuilder = new StringBuilder();
-//         contentBuilder.append("Entity: ").append(label).append("\n");
-        
-//         if (!description.isEmpty()) {
-//             contentBuilder.append("Description: ").append(description).append("\n");
-//         }
-        
-//         if (!entityUri.isEmpty()) {
-//             List<Map<String, String>> properties = sparqlService.getEntityProperties(entityUri, 20);
-            
-//             contentBuilder.append("Properties:\n");
-//             properties.forEach(prop -> {
-//                 String property = prop.getOrDefault("property", "");
-//                 String value = prop.getOrDefault("value", "");
-//                 if (!property.isEmpty() && !value.isEmpty()) {
-//                     String propertyName = property;
-//                     if (property.contains("#") || property.contains("/")) {
-//                         propertyName = property.substring(Math.max(
-//                                 property.lastIndexOf('#'), property.lastIndexOf('/')) + 1);
-//                     }
-//                     contentBuilder.append("- ").append(propertyName).append(": ").append(value).append("\n");
-//                 }
-//             });
-//         }
-        
-//         return new Document(contentBuilder.toString(), Map.of(
-//                 "entityUri", entityUri,
-//                 "label", label,
-//                 "source", "SPARQL Knowledge Base"
-//         ));
-//     }
-// }
\ No newline at end of file
+package net.kaduk.kb.mcpserver.rag;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.index.LabelIndex;
+import net.kaduk.kb.mcpserver.retriever.SparqlKnowledgeBaseRetriever;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Answers questions from facts of the knowledge base, streaming the answer as the model writes it.
+ *
+ * The retriever finds the entities for a question and fetches their details and properties
+ * together. Their documents are split into facts: the description, and one fact per property
+ * other than labels, with URIs shortened to their names; literals come from the retriever
+ * without language tags or datatypes. A fact whose words mostly repeat a better-ranked fact of
+ * the same entity is dropped, as are the copies of an entity listed once per type. Facts are
+ * ranked by the rank of their entity and the words they share with the question, and kept best
+ * first until {@code rag.context-tokens} is spent. The model reads the whole prompt before
+ * writing, so that budget bounds the time to the first token as well as the cost.
+ */
+@Service
+@Slf4j
+public class SparqlRagService {
+
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant with access to a knowledge base. "
+            + "Use the following information to answer the user's question:\n\n%s\n"
+            + "If the knowledge base doesn't contain relevant information, "
+            + "you can answer based on your general knowledge.";
+    private static final String DESCRIPTION = "Description: ";
+    private static final String PROPERTY = "- ";
+    private static final double PROPERTY_WEIGHT = 0.5;
+
+    private final SparqlKnowledgeBaseRetriever retriever;
+    private final ChatModel chatModel;
+    private final RagProperties properties;
+    private final DistributionSummary promptSize;
+    private final Timer firstToken;
+
+    /**
+     * @param chatModel The model answers are written by; there is none unless {@code rag.enabled} is set
+     */
+    public SparqlRagService(SparqlKnowledgeBaseRetriever retriever, @Nullable ChatModel chatModel,
+            RagProperties properties, MeterRegistry registry) {
+        this.retriever = retriever;
+        this.chatModel = chatModel;
+        this.properties = properties;
+        this.promptSize = DistributionSummary.builder("rag.prompt.size")
+                .description("Estimated size of the prompts sent to the chat model")
+                .baseUnit("tokens")
+                .register(registry);
+        this.firstToken = Timer.builder("rag.first.token")
+                .description("Time from a question to the first token of its answer")
+                .register(registry);
+    }
+
+    /**
+     * Answer a question from the knowledge base
+     *
+     * @param question The user's question
+     * @return The answer, in the chunks the model streams it in
+     */
+    public Flux<String> stream(String question) {
+        if (chatModel == null) {
+            return Flux.error(new IllegalStateException("No chat model configured, see rag.enabled"));
+        }
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean answering = new AtomicBoolean();
+            return Mono.fromCallable(() -> retriever.retrieve(question))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(documents -> prompt(question, documents))
+                    .flatMapMany(chatModel::stream)
+                    .mapNotNull(SparqlRagService::text)
+                    .doOnNext(chunk -> {
+                        if (answering.compareAndSet(false, true)) {
+                            firstToken.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Answer a question from the knowledge base, waiting for the whole answer
+     *
+     * @param question The user's question
+     * @return The answer
+     */
+    public String generateResponse(String question) {
+        return stream(question).collect(Collectors.joining()).block();
+    }
+
+    // Package-private for the tests
+    String context(String question, List<Document> documents) {
+        Set<String> questionWords = new HashSet<>(LabelIndex.tokenize(question));
+        Map<String, String> labels = new LinkedHashMap<>();
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        List<Fact> facts = new ArrayList<>();
+        for (Document document : documents) {
+            String entity = String.valueOf(document.getMetadata().getOrDefault("entityUri", ""));
+            String label = shorten(String.valueOf(document.getMetadata().getOrDefault("label", "Unknown")));
+            labels.putIfAbsent(entity, label);
+            double weight = 1.0 / (1 + ranks.computeIfAbsent(entity, uri -> ranks.size()));
+            for (String line : document.getText().split("\n")) {
+                if (line.startsWith(DESCRIPTION)) {
+                    String description = shorten(line.substring(DESCRIPTION.length()));
+                    facts.add(fact(entity, description, description, weight, questionWords));
+                } else if (line.startsWith(PROPERTY)) {
+                    int separator = line.indexOf(": ");
+                    String value = separator > 0 ? shorten(line.substring(separator + 2)) : "";
+                    // Labels name the entity, as its header does
+                    if (!value.isEmpty() && !value.equalsIgnoreCase(label)) {
+                        facts.add(fact(entity, line.substring(PROPERTY.length(), separator) + ": " + value, value,
+                                weight * PROPERTY_WEIGHT, questionWords));
+                    }
+                }
+            }
+        }
+        // Stable, so that equally ranked facts keep the order of the documents
+        facts.sort(Comparator.comparingDouble(Fact::score).reversed());
+
+        Map<String, List<Fact>> kept = new LinkedHashMap<>();
+        labels.keySet().forEach(entity -> kept.put(entity, new ArrayList<>()));
+        int budget = properties.contextTokens();
+        for (Fact fact : facts) {
+            List<Fact> entityFacts = kept.get(fact.entity());
+            if (entityFacts.stream().anyMatch(other -> isDuplicate(other, fact))) {
+                continue;
+            }
+            int cost = tokens(line(fact)) + (entityFacts.isEmpty() ? tokens(header(labels.get(fact.entity()))) : 0);
+            if (cost <= budget) {
+                budget -= cost;
+                entityFacts.add(fact);
+            }
+        }
+
+        StringBuilder context = new StringBuilder();
+        kept.forEach((entity, entityFacts) -> {
+            if (!entityFacts.isEmpty()) {
+                context.append(header(labels.get(entity)));
+                entityFacts.forEach(fact -> context.append(line(fact)));
+            }
+        });
+        return context.toString();
+    }
+
+    private Prompt prompt(String question, List<Document> documents) {
+        String system = String.format(SYSTEM_PROMPT, context(question, documents));
+        int size = tokens(system) + tokens(question);
+        promptSize.record(size);
+        log.info("Answering from {} documents with a prompt of about {} tokens", documents.size(), size);
+        return new Prompt(List.of(new SystemMessage(system), new UserMessage(question)));
+    }
+
+    private boolean isDuplicate(Fact kept, Fact fact) {
+        if (kept.words().isEmpty() || fact.words().isEmpty()) {
+            return kept.text().equals(fact.text());
+        }
+        Set<String> common = new HashSet<>(kept.words());
+        common.retainAll(fact.words());
+        int union = kept.words().size() + fact.words().size() - common.size();
+        return common.size() >= properties.duplicateSimilarity() * union;
+    }
+
+    private int tokens(String text) {
+        return (text.length() + properties.charsPerToken() - 1) / properties.charsPerToken();
+    }
+
+    private static Fact fact(String entity, String text, String value, double weight, Set<String> questionWords) {
+        double overlap = 0;
+        if (!questionWords.isEmpty()) {
+            Set<String> shared = new HashSet<>(LabelIndex.tokenize(text));
+            shared.retainAll(questionWords);
+            overlap = shared.size() / (double) questionWords.size();
+        }
+        return new Fact(entity, text, new HashSet<>(LabelIndex.tokenize(value)), weight * (1 + overlap));
+    }
+
+    private static String header(String label) {
+        return "## " + label + "\n";
+    }
+
+    private static String line(Fact fact) {
+        return "- " + fact.text() + "\n";
+    }
+
+    // Linked entities are named by the last segment of their URI, all the model makes use of;
+    // the retriever already gave literals without their language tag or datatype
+    private static String shorten(String value) {
+        if (value.startsWith("http://") || value.startsWith("https://")) {
+            return value.substring(Math.max(value.lastIndexOf('/'), value.lastIndexOf('#')) + 1).replace('_', ' ');
+        }
+        return value;
+    }
+
+    private static String text(ChatResponse response) {
+        Generation generation = response.getResult();
+        if (generation == null || generation.getOutput() == null) {
+            return null;
+        }
+        String text = generation.getOutput().getText();
+        return text == null || text.isEmpty() ? null : text;
+    }
+
+    private record Fact(String entity, String text, Set<String> words, double score) {
+    }
+}
@@ -0,0 +1,421 @@
+package net.kaduk.kb.mcpserver.render;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Writes the result of a tool call within a byte budget.
+ *
+ * A result is an optional title followed by items, written as labelled text lines or as a
+ * compact JSON object. Items are appended to a buffer reused by the thread, without format
+ * strings or intermediate strings per item. An item that would take the result over its budget
+ * is dropped, as are the items after it, and the result says how many were left out; long field
+ * values can be clipped at a word boundary instead, so that more items fit. Sizes are counted in
+ * UTF-8 bytes, which for English text is roughly four per token.
+ *
+ * A paged result ends with the cursor to continue from, for which room is reserved up front.
+ */
+public final class ToolOutput {
+
+    public enum Format {
+        TEXT, JSON
+    }
+
+    private static final String ELLIPSIS = "…";
+    // Room kept for saying that items were left out
+    private static final int NOTE_RESERVE = 96;
+    // Around the cursor itself, in text or JSON
+    private static final int CURSOR_OVERHEAD = 48;
+    // A buffer grown beyond this by a large result is not kept for the next one
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<>();
+
+    private final Format format;
+    private final int maxBytes;
+    private final StringBuilder out;
+    private String separator = "\n";
+    private int bytes;
+    private int counted;
+    private int items;
+    private int omitted;
+    private int reserved;
+    private boolean titled;
+    private boolean resultsOpen;
+    private boolean firstField;
+
+    private ToolOutput(Format format, int maxBytes) {
+        this.format = format;
+        this.maxBytes = maxBytes;
+        StringBuilder buffer = BUFFERS.get();
+        if (buffer != null) {
+            BUFFERS.remove();
+        }
+        this.out = buffer != null ? buffer : new StringBuilder(Math.min(maxBytes, RETAINED_CAPACITY));
+        if (format == Format.JSON) {
+            out.append('{');
+        }
+    }
+
+    /**
+     * @param format How the result is written
+     * @param maxBytes Budget of the result in UTF-8 bytes
+     * @return A writer for one result, to be finished with {@link #finish(String)}
+     */
+    public static ToolOutput of(Format format, int maxBytes) {
+        return new ToolOutput(format, maxBytes);
+    }
+
+    public boolean isJson() {
+        return format == Format.JSON;
+    }
+
+    /**
+     * Set what separates consecutive items in text, a newline by default
+     */
+    public ToolOutput separatedBy(String separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    /**
+     * Write the title of the result; in text it is followed by a colon and a newline
+     */
+    public ToolOutput title(String title) {
+        if (isJson()) {
+            appendJsonString("title", 0, 5);
+            out.append(':');
+            appendJsonString(title, 0, title.length());
+        } else {
+            out.append(title).append(":\n");
+        }
+        titled = true;
+        return this;
+    }
+
+    /**
+     * Keep room in the budget for a cursor passed to {@link #finish(String, String)}
+     *
+     * @param cursorLength Length of the longest cursor the result may end with
+     */
+    public ToolOutput reserveCursor(int cursorLength) {
+        reserved = Math.max(reserved, cursorLength + CURSOR_OVERHEAD);
+        return this;
+    }
+
+    /**
+     * Write an item, unless it does not fit in the budget
+     *
+     * @param item Writes the fields or text of the item
+     * @return Whether the item was written; once one is left out, so are all further items
+     */
+    public boolean item(Consumer<ToolOutput> item) {
+        if (omitted > 0) {
+            omitted++;
+            return false;
+        }
+        if (isJson() && !resultsOpen) {
+            openResults();
+        }
+        count();
+
+        int mark = out.length();
+        if (items > 0) {
+            out.append(isJson() ? "," : separator);
+        }
+        if (isJson()) {
+            out.append('{');
+            firstField = true;
+        }
+        item.accept(this);
+        if (isJson()) {
+            out.append('}');
+        }
+
+        if (bytes + utf8Length(out, mark, out.length()) > maxBytes - NOTE_RESERVE - reserved) {
+            out.setLength(mark);
+            omitted++;
+            return false;
+        }
+        count();
+        items++;
+        return true;
+    }
+
+    /**
+     * @param items Number of items still to be written
+     * @return Bytes left in the budget per item
+     */
+    public int share(int items) {
+        count();
+        return Math.max(0, maxBytes - NOTE_RESERVE - reserved - bytes) / Math.max(1, items);
+    }
+
+    /**
+     * Write a field of an item: {@code Name: value} in text, {@code "name":"value"} in JSON
+     */
+    public ToolOutput field(String name, CharSequence value) {
+        return field(name, value, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write a field of an item, its value clipped to about {@code maxBytes}
+     */
+    public ToolOutput field(String name, CharSequence value, int maxBytes) {
+        if (isJson()) {
+            fieldName(name);
+            if (value == null) {
+                out.append("null");
+            } else {
+                int end = clip(value, maxBytes);
+                appendJsonString(value, 0, end);
+                if (end < value.length()) {
+                    out.setLength(out.length() - 1);
+                    out.append(ELLIPSIS).append('"');
+                }
+            }
+        } else {
+            out.append(name).append(": ");
+            if (value == null) {
+                out.append("null");
+            } else {
+                int end = clip(value, maxBytes);
+                out.append(value, 0, end);
+                if (end < value.length()) {
+                    out.append(ELLIPSIS);
+                }
+            }
+            out.append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Write a field of an item with several values, comma separated in text and an array in JSON
+     */
+    public ToolOutput field(String name, List<String> values) {
+        if (isJson()) {
+            fieldName(name);
+            out.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendJsonString(values.get(i), 0, values.get(i).length());
+            }
+            out.append(']');
+        } else {
+            out.append(name).append(": ");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(values.get(i));
+            }
+            out.append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Write an item that is only a message, e.g. that nothing was found for it
+     */
+    public ToolOutput note(String message) {
+        if (isJson()) {
+            fieldName("message");
+            appendJsonString(message, 0, message.length());
+        } else {
+            out.append(message).append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Write free text, for results laid out by hand
+     *
+     * @throws IllegalStateException when writing JSON
+     */
+    public ToolOutput text(CharSequence text) {
+        requireText();
+        out.append(text);
+        return this;
+    }
+
+    public ToolOutput text(Object value) {
+        requireText();
+        out.append(value);
+        return this;
+    }
+
+    public ToolOutput text(char c) {
+        requireText();
+        out.append(c);
+        return this;
+    }
+
+    /**
+     * Complete the result
+     *
+     * @param whenEmpty The whole result when no item was written, e.g. that nothing was found;
+     * in JSON it becomes the message of the result
+     * @return The result
+     */
+    public String finish(String whenEmpty) {
+        return finish(whenEmpty, null);
+    }
+
+    /**
+     * Complete a paged result
+     *
+     * @param whenEmpty The whole result when no item was written and no cursor is given
+     * @param cursor Where the next page starts, or {@code null} on the last page
+     * @return The result
+     */
+    public String finish(String whenEmpty, String cursor) {
+        String result;
+        if (isJson()) {
+            if (!resultsOpen) {
+                openResults();
+            }
+            out.append(']');
+            if (items == 0 && omitted == 0 && whenEmpty != null) {
+                out.append(',');
+                appendJsonString("message", 0, 7);
+                out.append(':');
+                appendJsonString(whenEmpty, 0, whenEmpty.length());
+            }
+            // Items left out of a paged result start the next page, so they are not lost
+            if (omitted > 0 && cursor == null) {
+                out.append(",\"omitted\":").append(omitted);
+            }
+            if (cursor != null) {
+                out.append(',');
+                appendJsonString("cursor", 0, 6);
+                out.append(':');
+                appendJsonString(cursor, 0, cursor.length());
+            }
+            result = out.append('}').toString();
+        } else if (items == 0 && omitted == 0 && whenEmpty != null && cursor == null) {
+            result = whenEmpty;
+        } else {
+            if (omitted > 0 && cursor == null) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                    out.append('\n');
+                }
+                out.append('[').append(omitted).append(omitted == 1 ? " more result" : " more results")
+                        .append(" left out to keep the output within ").append(maxBytes).append(" bytes]\n");
+            }
+            if (cursor != null) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                    out.append('\n');
+                }
+                out.append("[More results: call again with cursor ").append(cursor).append("]\n");
+            }
+            result = out.toString();
+        }
+
+        out.setLength(0);
+        if (out.capacity() <= RETAINED_CAPACITY) {
+            BUFFERS.set(out);
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of UTF-8 bytes of a range of characters
+     */
+    public static int utf8Length(CharSequence text, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            // A surrogate pair takes four bytes
+            length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return length;
+    }
+
+    private void openResults() {
+        if (titled) {
+            out.append(',');
+        }
+        appendJsonString("results", 0, 7);
+        out.append(":[");
+        resultsOpen = true;
+    }
+
+    private void fieldName(String name) {
+        if (!firstField) {
+            out.append(',');
+        }
+        firstField = false;
+        String key = name.toLowerCase(Locale.ROOT);
+        appendJsonString(key, 0, key.length());
+        out.append(':');
+    }
+
+    private void count() {
+        bytes += utf8Length(out, counted, out.length());
+        counted = out.length();
+    }
+
+    private void requireText() {
+        if (isJson()) {
+            throw new IllegalStateException("Free text cannot be written as JSON");
+        }
+    }
+
+    // End of the part of a value that fits in maxBytes with an ellipsis, at a word boundary if
+    // one is near
+    private static int clip(CharSequence value, int maxBytes) {
+        if (maxBytes == Integer.MAX_VALUE || value.length() <= maxBytes / 3
+                || utf8Length(value, 0, value.length()) <= maxBytes) {
+            return value.length();
+        }
+        int budget = Math.max(0, maxBytes - 3);
+        int end = 0;
+        int used = 0;
+        while (end < value.length()) {
+            char c = value.charAt(end);
+            int chars = Character.isHighSurrogate(c) && end + 1 < value.length() ? 2 : 1;
+            int width = utf8Length(value, end, end + chars);
+            if (used + width > budget) {
+                break;
+            }
+            used += width;
+            end += chars;
+        }
+        int word = end;
+        while (word > end * 4 / 5 && !Character.isWhitespace(value.charAt(word - 1))) {
+            word--;
+        }
+        if (word > end * 4 / 5) {
+            end = word;
+        }
+        while (end > 0 && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private void appendJsonString(CharSequence text, int from, int to) {
+        out.append('"');
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,53 @@
+package net.kaduk.kb.mcpserver.render;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Size and form of tool results
+ *
+ * @param format Whether DBpedia tools answer in text or in JSON; weather tools always answer in text
+ * @param maxSize Budget of a result when its tool has none of its own, at roughly four bytes per token
+ * @param limit Per-tool budgets, keyed by tool name
+ */
+@ConfigurationProperties("tools.output")
+public record ToolOutputProperties(
+        @DefaultValue("text") ToolOutput.Format format,
+        @DefaultValue("32KB") DataSize maxSize,
+        Map<String, DataSize> limit) {
+
+    public ToolOutputProperties {
+        limit = limit == null ? Map.of() : Map.copyOf(limit);
+    }
+
+    public static ToolOutputProperties defaults() {
+        return new ToolOutputProperties(ToolOutput.Format.TEXT, DataSize.ofKilobytes(32), Map.of());
+    }
+
+    /**
+     * @param tool The tool writing the result
+     * @return Budget of its results in bytes
+     */
+    public int maxBytesFor(String tool) {
+        return (int) Math.min(Integer.MAX_VALUE, limit.getOrDefault(tool, maxSize).toBytes());
+    }
+
+    /**
+     * @param tool The tool writing the result
+     * @return A writer for one of its results, in the configured format
+     */
+    public ToolOutput open(String tool) {
+        return ToolOutput.of(format, maxBytesFor(tool));
+    }
+
+    /**
+     * @param tool The tool writing the result
+     * @return A writer for one of its results, in text
+     */
+    public ToolOutput openText(String tool) {
+        return ToolOutput.of(ToolOutput.Format.TEXT, maxBytesFor(tool));
+    }
+}
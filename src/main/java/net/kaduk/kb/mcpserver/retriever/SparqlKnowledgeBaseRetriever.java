@@ -1,7 +1,12 @@
 package net.kaduk.kb.mcpserver.retriever;
 
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 import org.springframework.ai.document.Document;
@@ -9,6 +14,8 @@ import org.springframework.stereotype.Component;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.index.EmbeddingIndexService;
+import net.kaduk.kb.mcpserver.index.VectorIndex;
 import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
 
 @Component
@@ -17,28 +24,55 @@ import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
 public class SparqlKnowledgeBaseRetriever {
 
     private final SparqlKnowledgeBaseService sparqlService;
+    private final EmbeddingIndexService embeddingIndex;
     private static final int DEFAULT_LIMIT = 10;
+    private static final int PROPERTY_LIMIT = 20;
+    // Labels and descriptions are only queried in English, so always rendered with this tag
+    private static final String LANGUAGE_TAG = "@en";
 
     /**
      * Retrieve information based on a query
+     *
+     * The entities whose abstracts are closest in meaning to the query are taken from the
+     * embedding index when it is available, and SPARQL only fetches their details and
+     * properties; otherwise entities are searched by label.
      */
     public List<Document> retrieve(String query) {
         log.info("Retrieving information for query: {}", query);
         
-        // Using the SPARQL service to search for entities related to the query
-        List<Map<String, String>> searchResults = sparqlService.searchEntities(query, DEFAULT_LIMIT);
-        
+        Optional<List<VectorIndex.Hit>> similar = embeddingIndex.search(query, DEFAULT_LIMIT);
+        List<Map<String, String>> searchResults;
+        Map<String, List<Map<String, String>>> propertiesByEntity;
+        if (similar.isPresent()) {
+            // The URIs are known up front, so details and properties are fetched concurrently
+            List<String> entityUris = similar.get().stream().map(VectorIndex.Hit::uri).toList();
+            CompletableFuture<List<Map<String, String>>> details = sparqlService.getEntitiesDetailsAsync(entityUris);
+            propertiesByEntity = sparqlService.getEntitiesProperties(entityUris, PROPERTY_LIMIT);
+            searchResults = join(details);
+        } else {
+            searchResults = sparqlService.searchEntities(query, DEFAULT_LIMIT);
+
+            // Fetch the properties of all hits in one round trip instead of one query per hit
+            Set<String> entityUris = searchResults.stream()
+                    .map(result -> result.getOrDefault("entity", ""))
+                    .filter(uri -> !uri.isEmpty())
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            propertiesByEntity = sparqlService.getEntitiesProperties(entityUris, PROPERTY_LIMIT);
+        }
+
         // Convert the SPARQL results to Documents
         return searchResults.stream()
-                .map(this::convertToDocument)
+                .map(result -> convertToDocument(result, propertiesByEntity))
                 .collect(Collectors.toList());
     }
     
-    private Document convertToDocument(Map<String, String> result) {
+    // Package-private for the benchmarks
+    Document convertToDocument(Map<String, String> result,
+            Map<String, List<Map<String, String>>> propertiesByEntity) {
         // Extract entity URI and its label
         String entityUri = result.getOrDefault("entity", "");
-        String label = result.getOrDefault("label", "Unknown");
-        String description = result.getOrDefault("description", "");
+        String label = withoutLanguageTag(result.getOrDefault("label", "Unknown"));
+        String description = withoutLanguageTag(result.getOrDefault("description", ""));
         
         // Get additional properties for this entity if we have a valid URI
         StringBuilder contentBuilder = new StringBuilder();
@@ -49,12 +83,13 @@ public class SparqlKnowledgeBaseRetriever {
         }
         
         if (!entityUri.isEmpty()) {
-            List<Map<String, String>> properties = sparqlService.getEntityProperties(entityUri, 20);
+            List<Map<String, String>> properties = propertiesByEntity.getOrDefault(entityUri, List.of());
             
             contentBuilder.append("Properties:\n");
             properties.forEach(prop -> {
                 String property = prop.getOrDefault("property", "");
-                String value = prop.getOrDefault("value", "");
+                // The text of literals leaves out their language tag or datatype
+                String value = prop.getOrDefault("text", prop.getOrDefault("value", ""));
                 if (!property.isEmpty() && !value.isEmpty()) {
                     // Extract the property name from the URI
                     String propertyName = property;
@@ -76,4 +111,19 @@ public class SparqlKnowledgeBaseRetriever {
         
         return new Document(contentBuilder.toString(), metadata);
     }
+
+    private static String withoutLanguageTag(String value) {
+        return value.endsWith(LANGUAGE_TAG) ? value.substring(0, value.length() - LANGUAGE_TAG.length()) : value;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 }
\ No newline at end of file
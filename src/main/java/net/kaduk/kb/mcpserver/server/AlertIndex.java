@@ -0,0 +1,137 @@
+package net.kaduk.kb.mcpserver.server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import net.kaduk.kb.mcpserver.server.WeatherService.Alert;
+
+/**
+ * Snapshot of the active alerts feed, indexed by the state or marine area each alert concerns.
+ *
+ * An alert belongs to every area whose code prefixes one of its UGC zones, which is how the
+ * {@code /alerts/active/area/{area}} endpoint selects them. Within an area alerts are ordered
+ * from the most to the least severe, and every alert is rendered when the snapshot is built, so
+ * serving an area is a single map lookup.
+ */
+final class AlertIndex {
+
+    private static final List<String> SEVERITIES = List.of("extreme", "severe", "moderate", "minor");
+
+    /**
+     * Most severe first, alerts of unknown severity last
+     */
+    static final Comparator<Alert.Properties> BY_SEVERITY = Comparator.comparingInt(AlertIndex::severityRank);
+
+    private final Alert feed;
+    private final Set<String> ids;
+    private final Map<String, List<String>> areas;
+    private final Instant refreshedAt;
+
+    private AlertIndex(Alert feed, Set<String> ids, Map<String, List<String>> areas, Instant refreshedAt) {
+        this.feed = feed;
+        this.ids = ids;
+        this.areas = areas;
+        this.refreshedAt = refreshedAt;
+    }
+
+    /**
+     * Index a response of the active alerts feed
+     *
+     * @param feed The feed
+     * @param renderer Renders one alert for the tool result
+     * @param now Time the feed was received
+     * @return The snapshot
+     */
+    static AlertIndex of(Alert feed, Function<Alert.Properties, String> renderer, Instant now) {
+        Set<String> ids = new LinkedHashSet<>();
+        Map<String, List<Alert.Properties>> byArea = new HashMap<>();
+        for (Alert.Feature feature : feed.features()) {
+            Alert.Properties alert = feature.properties();
+            if (alert == null) {
+                continue;
+            }
+            ids.add(key(alert));
+            for (String area : areas(alert)) {
+                byArea.computeIfAbsent(area, a -> new ArrayList<>()).add(alert);
+            }
+        }
+
+        // An alert of several areas is rendered once
+        Map<String, String> texts = new HashMap<>();
+        Map<String, List<String>> rendered = new HashMap<>(byArea.size() * 2);
+        byArea.forEach((area, alerts) -> rendered.put(area, alerts.stream()
+            .sorted(BY_SEVERITY)
+            .map(alert -> texts.computeIfAbsent(key(alert), k -> renderer.apply(alert)))
+            .toList()));
+        return new AlertIndex(feed, ids, rendered, now);
+    }
+
+    /**
+     * @param area Two-letter state or marine area code
+     * @return Rendered alerts of the area, most severe first
+     */
+    List<String> alerts(String area) {
+        return areas.getOrDefault(area.toUpperCase(Locale.ROOT), List.of());
+    }
+
+    boolean isFresh(Instant now, Duration maxAge) {
+        return !now.isAfter(refreshedAt.plus(maxAge));
+    }
+
+    /**
+     * @return Whether the snapshot was built from this very response
+     */
+    boolean isOf(Alert feed) {
+        return this.feed == feed;
+    }
+
+    /**
+     * @return The same snapshot, confirmed current at a later time
+     */
+    AlertIndex renewed(Instant now) {
+        return new AlertIndex(feed, ids, areas, now);
+    }
+
+    /**
+     * @return Number of alerts issued or withdrawn between an earlier snapshot and this one
+     */
+    int changesSince(AlertIndex earlier) {
+        int issued = (int) ids.stream().filter(id -> !earlier.ids.contains(id)).count();
+        int withdrawn = (int) earlier.ids.stream().filter(id -> !ids.contains(id)).count();
+        return issued + withdrawn;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    private static String key(Alert.Properties alert) {
+        return alert.id() != null ? alert.id() : alert.event() + "|" + alert.areaDesc();
+    }
+
+    private static Set<String> areas(Alert.Properties alert) {
+        Set<String> areas = new LinkedHashSet<>();
+        if (alert.geocode() != null && alert.geocode().ugc() != null) {
+            for (String zone : alert.geocode().ugc()) {
+                if (zone.length() > 2) {
+                    areas.add(zone.substring(0, 2).toUpperCase(Locale.ROOT));
+                }
+            }
+        }
+        return areas;
+    }
+
+    private static int severityRank(Alert.Properties alert) {
+        int rank = alert.severity() == null ? -1 : SEVERITIES.indexOf(alert.severity().toLowerCase(Locale.ROOT));
+        return rank < 0 ? SEVERITIES.size() : rank;
+    }
+}
@@ -0,0 +1,44 @@
+package net.kaduk.kb.mcpserver.server;
+
+import java.time.Duration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the snapshot of active alerts that getAlerts answers from current.
+ *
+ * One poll fetches the alerts of every area, which replaces a request per state, and most polls
+ * are answered with 304 Not Modified. Should polling fail for longer than
+ * {@code weather.alerts.max-age}, getAlerts goes back to asking the API per state. A poll is
+ * abandoned after {@code weather.alerts.poll-timeout}, so that a stalled feed cannot hold the
+ * scheduler thread other scheduled tasks share.
+ */
+@Component
+@ConditionalOnProperty(name = "weather.alerts.enabled", havingValue = "true")
+@Slf4j
+public class AlertPoller {
+
+    private final WeatherService weatherService;
+    private final Duration timeout;
+
+    public AlertPoller(WeatherService weatherService, WeatherProperties properties) {
+        this.weatherService = weatherService;
+        this.timeout = properties.alerts().pollTimeout();
+    }
+
+    @Scheduled(fixedDelayString = "${weather.alerts.poll-interval:PT1M}")
+    public void poll() {
+        try {
+            Integer changes = weatherService.refreshAlerts().block(timeout);
+            if (changes != null && changes > 0) {
+                log.info("Active alerts refreshed: {} issued or withdrawn", changes);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh active alerts: {}", e.getMessage());
+        }
+    }
+}
@@ -1,30 +1,170 @@
 package net.kaduk.kb.mcpserver.server;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import org.apache.jena.query.QueryExecution;
-import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Resource;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import net.kaduk.kb.mcpserver.cache.QueryCacheProperties;
+import net.kaduk.kb.mcpserver.cache.QueryResultCache;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+import net.kaduk.kb.mcpserver.deadline.DeadlineExceededException;
+import net.kaduk.kb.mcpserver.index.LabelIndex;
+import net.kaduk.kb.mcpserver.index.LabelIndexProperties;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import net.kaduk.kb.mcpserver.render.ToolOutput;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.sparql.BoundQuery;
+import net.kaduk.kb.mcpserver.sparql.KeysetCursor;
+import net.kaduk.kb.mcpserver.sparql.QueryTemplate;
+import net.kaduk.kb.mcpserver.sparql.RemoteSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.TermDictionary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @Service
+@Slf4j
 public class DBpediaService {
 
-    private static final String ENDPOINT_URL = "http://dbpedia.org/sparql";
-    private static final int QUERY_TIMEOUT_MS = 60000;    // 60 seconds
+    // Candidates resolved through the label index; the best one with an English abstract wins
+    private static final int ENTITY_CANDIDATES = 5;
+    private static final int TERM_DICTIONARY_SIZE = 1 << 14;
+    // Entities per getEntitiesInfo call, and candidate URIs per query of the call
+    private static final int MAX_BATCH_ENTITIES = 200;
+    private static final int BATCH_CHUNK_SIZE = 50;
+    private static final String RESOURCE_NAMESPACE = "http://dbpedia.org/resource/";
+    private static final String CATEGORY_NAMESPACE = "http://dbpedia.org/resource/Category:";
+    // Abstracts share what is left of a result's budget, but are not clipped below this; the
+    // other fields of an entity take roughly the overhead
+    private static final int MIN_DESCRIPTION_BYTES = 480;
+    private static final int ENTITY_OVERHEAD_BYTES = 240;
+
+    private static final QueryTemplate ENTITY_BY_LABEL = QueryTemplate.parse("entityByLabel", """
+            PREFIX dbo: <http://dbpedia.org/ontology/>
+            PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+            PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>
+
+            SELECT DISTINCT ?uri ?label ?abstract (GROUP_CONCAT(DISTINCT ?type; SEPARATOR=", ") AS ?types)
+            WHERE {
+              ?uri rdfs:label ?label .
+              ?uri dbo:abstract ?abstract .
+              OPTIONAL { ?uri rdf:type ?type . FILTER(STRSTARTS(STR(?type), "http://dbpedia.org/ontology/")) }
+              FILTER(LANG(?label) = 'en')
+              FILTER(LANG(?abstract) = 'en')
+              FILTER(REGEX(?label, ?pattern, "i"))
+            }
+            GROUP BY ?uri ?label ?abstract
+            LIMIT 1
+            """);
+
+    private static final QueryTemplate ENTITIES_BY_URI = QueryTemplate.parse("entitiesByUri", """
+            PREFIX dbo: <http://dbpedia.org/ontology/>
+            PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+            PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>
+
+            SELECT DISTINCT ?uri ?label ?abstract (GROUP_CONCAT(DISTINCT ?type; SEPARATOR=", ") AS ?types)
+            WHERE {
+              VALUES ?uri { }
+              ?uri rdfs:label ?label .
+              ?uri dbo:abstract ?abstract .
+              OPTIONAL { ?uri rdf:type ?type . FILTER(STRSTARTS(STR(?type), "http://dbpedia.org/ontology/")) }
+              FILTER(LANG(?label) = 'en')
+              FILTER(LANG(?abstract) = 'en')
+            }
+            GROUP BY ?uri ?label ?abstract
+            """);
+
+    // Paged by keyset on (predicate, object), starting after ?afterPredicate and ?afterObject
+    private static final QueryTemplate RELATED_ENTITIES = QueryTemplate.parse("relatedEntities", """
+            PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+
+            SELECT ?predicate ?object (SAMPLE(?label) AS ?objectLabel)
+            WHERE {
+              ?subject ?predicate ?object .
+              ?object rdfs:label ?label .
+              FILTER(LANG(?label) = 'en')
+              FILTER(STRSTARTS(STR(?object), "http://dbpedia.org/resource/"))
+              FILTER(STR(?predicate) > ?afterPredicate
+                  || (STR(?predicate) = ?afterPredicate && STR(?object) > ?afterObject))
+            }
+            GROUP BY ?predicate ?object
+            ORDER BY STR(?predicate) STR(?object)
+            """);
+
+    // Paged by keyset on the entity, starting after ?afterEntity
+    private static final QueryTemplate ENTITIES_IN_CATEGORY = QueryTemplate.parse("entitiesInCategory", """
+            PREFIX dct: <http://purl.org/dc/terms/>
+            PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+            PREFIX dbo: <http://dbpedia.org/ontology/>
+
+            SELECT ?entity (SAMPLE(?anyLabel) AS ?label) (SAMPLE(?anyAbstract) AS ?abstract)
+            WHERE {
+              ?entity dct:subject ?category .
+              ?entity rdfs:label ?anyLabel .
+              ?entity dbo:abstract ?anyAbstract .
+              FILTER(LANG(?anyLabel) = 'en')
+              FILTER(LANG(?anyAbstract) = 'en')
+              FILTER(STR(?entity) > ?afterEntity)
+            }
+            GROUP BY ?entity
+            ORDER BY STR(?entity)
+            """);
+
+    private final SparqlExecutor sparqlExecutor;
+    private final QueryResultCache cache;
+    private final LabelIndexService labelIndex;
+    private final SparqlAsyncExecutor asyncExecutor;
+    private final ToolOutputProperties output;
+    private final QueryMetrics queryMetrics;
+    private final ToolMetrics toolMetrics;
+    // Entity and type URIs recur across calls; share one copy of each in cached results
+    private final TermDictionary terms = new TermDictionary(TERM_DICTIONARY_SIZE);
+
+    public DBpediaService(SparqlExecutor sparqlExecutor, QueryResultCache cache, LabelIndexService labelIndex,
+            SparqlAsyncExecutor asyncExecutor, ToolOutputProperties output, QueryMetrics queryMetrics,
+            ToolMetrics toolMetrics) {
+        this.sparqlExecutor = sparqlExecutor;
+        this.cache = cache;
+        this.labelIndex = labelIndex;
+        this.asyncExecutor = asyncExecutor;
+        this.output = output;
+        this.queryMetrics = queryMetrics;
+        this.toolMetrics = toolMetrics;
+    }
 
     public static void main(String[] args) {
-        DBpediaService client = new DBpediaService();
+        SparqlExecutor executor = new RemoteSparqlExecutor("http://dbpedia.org/sparql", null, Duration.ofSeconds(60));
+        DBpediaService client = new DBpediaService(executor, new QueryResultCache(QueryCacheProperties.defaults()),
+                new LabelIndexService(LabelIndexProperties.defaults(), executor), new SparqlAsyncExecutor(4),
+                ToolOutputProperties.defaults(), new QueryMetrics(new SimpleMeterRegistry()),
+                new ToolMetrics(new SimpleMeterRegistry()));
         System.out.println(client.getEntityInfo("Berlin"));
-        System.out.println(client.findRelatedEntities("Albert_Einstein", 5));
-        System.out.println(client.searchByCategory("Nobel_Prize_winners", 3));
+        System.out.println(client.findRelatedEntities("Albert_Einstein", 5, null));
+        System.out.println(client.searchByCategory("Nobel_Prize_winners", 3, null));
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -33,13 +173,11 @@ public class DBpediaService {
                             @JsonProperty("abstract") String description,
                             @JsonProperty("type") List<String> types) {
         
-        public String toText() {
-            return String.format("""
-                    URI: %s
-                    Label: %s
-                    Types: %s
-                    Description: %s
-                    """, uri, label, String.join(", ", types), description);
+        void write(ToolOutput out, int descriptionBytes) {
+            out.field("URI", uri)
+                    .field("Label", label)
+                    .field("Types", types)
+                    .field("Description", description, descriptionBytes);
         }
     }
 
@@ -48,8 +186,12 @@ public class DBpediaService {
                           @JsonProperty("predicate") String predicate,
                           @JsonProperty("object") String object) {
         
-        public String toText() {
-            return String.format("%s -> %s -> %s", subject, predicate, object);
+        void write(ToolOutput out) {
+            if (out.isJson()) {
+                out.field("Subject", subject).field("Predicate", predicate).field("Object", object);
+            } else {
+                out.text(subject).text(" -> ").text(predicate).text(" -> ").text(object);
+            }
         }
     }
 
@@ -61,180 +203,371 @@ public class DBpediaService {
      */
     @Tool(description = "Get information about a specific entity from DBpedia")
     public String getEntityInfo(String entityName) {
-        String query = String.format("""
-                PREFIX dbo: <http://dbpedia.org/ontology/>
-                PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
-                PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>
-                
-                SELECT DISTINCT ?uri ?label ?abstract (GROUP_CONCAT(DISTINCT ?type; SEPARATOR=", ") AS ?types)
-                WHERE {
-                  ?uri rdfs:label ?label .
-                  ?uri dbo:abstract ?abstract .
-                  OPTIONAL { ?uri rdf:type ?type . FILTER(STRSTARTS(STR(?type), "http://dbpedia.org/ontology/")) }
-                  FILTER(LANG(?label) = 'en')
-                  FILTER(LANG(?abstract) = 'en')
-                  FILTER(REGEX(?label, "%s", "i"))
-                }
-                GROUP BY ?uri ?label ?abstract
-                LIMIT 1
-                """, entityName);
+        return execute(entityInfoQuery(entityName));
+    }
+
+    /**
+     * Get information about a specific entity from DBpedia without blocking
+     *
+     * @param entityName Name of the entity to search for
+     * @return Information about the entity
+     */
+    public Mono<String> getEntityInfoAsync(String entityName) {
+        return Mono.defer(() -> executeAsync(entityInfoQuery(entityName)));
+    }
+
+    private ToolQuery<EntityInfo> entityInfoQuery(String entityName) {
+        Optional<List<LabelIndex.Hit>> hits = labelIndex.search(entityName, ENTITY_CANDIDATES);
+        if (hits.isPresent()) {
+            return entityInfoQuery(entityName,
+                    hits.get().stream().map(LabelIndex.Hit::uri).filter(QueryTemplate::isIri).toList());
+        }
 
-        List<EntityInfo> results = executeQuery(query, rs -> {
-            List<EntityInfo> entities = new ArrayList<>();
+        BoundQuery query = ENTITY_BY_LABEL.bind().literal("pattern", entityName).build();
+
+        return new ToolQuery<>("getEntityInfo", query, this::mapEntityInfo,
+                results -> toEntityInfoText(entityName, results));
+    }
+
+    private ToolQuery<EntityInfo> entityInfoQuery(String entityName, List<String> candidates) {
+        if (candidates.isEmpty()) {
+            return new ToolQuery<>("getEntityInfo", null, this::mapEntityInfo,
+                    results -> toEntityInfoText(entityName, results));
+        }
+
+        BoundQuery query = ENTITIES_BY_URI.bind().iris("uri", candidates).build();
+
+        return new ToolQuery<>("getEntityInfo", query, this::mapEntityInfo,
+                results -> toEntityInfoText(entityName, results.stream()
+                        .min(Comparator.comparingInt(entity -> candidates.indexOf(entity.uri())))
+                        .map(List::of)
+                        .orElse(List.of())));
+    }
+
+    private List<EntityInfo> mapEntityInfo(ResultSet rs) {
+        List<EntityInfo> entities = new ArrayList<>();
+        
+        while (rs.hasNext()) {
+            QuerySolution solution = rs.next();
+            String uri = terms.intern(solution.getResource("uri").getURI());
+            String label = solution.getLiteral("label").getString();
+            String description = solution.getLiteral("abstract").getString();
             
-            while (rs.hasNext()) {
-                QuerySolution solution = rs.next();
-                String uri = solution.getResource("uri").getURI();
-                String label = solution.getLiteral("label").getString();
-                String description = solution.getLiteral("abstract").getString();
-                
-                List<String> types = new ArrayList<>();
-                if (solution.contains("types") && solution.getLiteral("types") != null) {
-                    String typeStr = solution.getLiteral("types").getString();
-                    if (typeStr != null && !typeStr.isEmpty()) {
-                        types = List.of(typeStr.split(", "));
-                    }
+            List<String> types = new ArrayList<>();
+            if (solution.contains("types") && solution.getLiteral("types") != null) {
+                String typeStr = solution.getLiteral("types").getString();
+                if (typeStr != null && !typeStr.isEmpty()) {
+                    types = Arrays.stream(typeStr.split(", ")).map(terms::intern).toList();
                 }
-                
-                entities.add(new EntityInfo(uri, label, description, types));
             }
             
-            return entities;
+            entities.add(new EntityInfo(uri, label, description, types));
+        }
+        
+        return entities;
+    }
+
+    private String toEntityInfoText(String entityName, List<EntityInfo> results) {
+        return renderEntities(output.open("getEntityInfo"), results, "No information found for entity: " + entityName);
+    }
+
+    // Abstracts are clipped to an equal share of the budget, so that as many entities as possible fit
+    private static String renderEntities(ToolOutput out, List<EntityInfo> entities, String whenEmpty) {
+        for (int i = 0; i < entities.size(); i++) {
+            EntityInfo entity = entities.get(i);
+            int descriptionBytes = Math.max(MIN_DESCRIPTION_BYTES,
+                    out.share(entities.size() - i) - ENTITY_OVERHEAD_BYTES);
+            out.item(item -> entity.write(item, descriptionBytes));
+        }
+        return out.finish(whenEmpty);
+    }
+
+    /**
+     * Get information about many entities from DBpedia at once
+     *
+     * Names are resolved through the label index, or else taken as DBpedia resource names;
+     * URIs and {@code dbr:} names are looked up as given. All candidates are fetched with a few
+     * {@code VALUES} queries rather than one query per entity.
+     *
+     * @param entities Names or URIs of the entities, at most 200
+     * @return Information about each entity in the order given, or a not-found line for it
+     */
+    @Tool(description = "Get information about many entities from DBpedia at once. Entities are names, DBpedia resource names (e.g. 'Albert_Einstein') or URIs; results are returned in the same order")
+    public String getEntitiesInfo(String[] entities) {
+        return Deadline.block(getEntitiesInfoAsync(List.of(entities)));
+    }
+
+    /**
+     * Get information about many entities from DBpedia at once without blocking
+     *
+     * @param entities Names or URIs of the entities, at most 200
+     * @return Information about each entity in the order given, or a not-found line for it
+     */
+    public Mono<String> getEntitiesInfoAsync(List<String> entities) {
+        return Mono.defer(() -> {
+            if (entities.size() > MAX_BATCH_ENTITIES) {
+                return Mono.error(new IllegalArgumentException(
+                        "At most " + MAX_BATCH_ENTITIES + " entities per call, got " + entities.size()));
+            }
+
+            Map<String, List<String>> candidates = new HashMap<>();
+            for (String entity : entities) {
+                candidates.computeIfAbsent(entity, this::entityCandidates);
+            }
+            // Sorted, so that the same entities make the same chunks and share cached results
+            List<String> uris = candidates.values().stream().flatMap(List::stream).distinct().sorted().toList();
+            List<List<String>> chunks = new ArrayList<>();
+            for (int i = 0; i < uris.size(); i += BATCH_CHUNK_SIZE) {
+                chunks.add(uris.subList(i, Math.min(i + BATCH_CHUNK_SIZE, uris.size())));
+            }
+
+            return Flux.fromIterable(chunks)
+                    .flatMap(chunk -> executeQueryAsync("getEntityInfo",
+                            ENTITIES_BY_URI.bind().iris("uri", chunk).build(), this::mapEntityInfo))
+                    .collect(HashMap<String, EntityInfo>::new,
+                            (found, results) -> results.forEach(entity -> found.putIfAbsent(entity.uri(), entity)))
+                    .map(found -> toolMetrics.rendering("getEntitiesInfo", () -> {
+                        ToolOutput out = output.open("getEntitiesInfo");
+                        for (int i = 0; i < entities.size(); i++) {
+                            String entity = entities.get(i);
+                            EntityInfo info = candidates.get(entity).stream()
+                                    .map(found::get)
+                                    .filter(candidate -> candidate != null)
+                                    .findFirst()
+                                    .orElse(null);
+                            int descriptionBytes = Math.max(MIN_DESCRIPTION_BYTES,
+                                    out.share(entities.size() - i) - ENTITY_OVERHEAD_BYTES);
+                            out.item(item -> {
+                                if (info != null) {
+                                    info.write(item, descriptionBytes);
+                                } else {
+                                    item.note("No information found for entity: " + entity);
+                                }
+                            });
+                        }
+                        return out.finish(null);
+                    }));
         });
+    }
 
-        if (results.isEmpty()) {
-            return "No information found for entity: " + entityName;
+    // Candidate URIs of an entity, best first
+    private List<String> entityCandidates(String entity) {
+        String name = entity.strip();
+        if (name.startsWith("http://") || name.startsWith("https://")) {
+            return QueryTemplate.isIri(name) ? List.of(name) : List.of();
+        }
+        if (name.startsWith("dbr:")) {
+            return entityCandidates(RESOURCE_NAMESPACE + name.substring(4));
         }
 
-        return results.stream()
-                .map(EntityInfo::toText)
-                .collect(Collectors.joining("\n"));
+        LinkedHashSet<String> uris = new LinkedHashSet<>();
+        labelIndex.search(name, ENTITY_CANDIDATES)
+                .ifPresent(hits -> hits.forEach(hit -> uris.add(hit.uri())));
+        uris.add(RESOURCE_NAMESPACE + name.replace(' ', '_'));
+        return uris.stream().filter(QueryTemplate::isIri).toList();
     }
 
     /**
-     * Find entities related to a specific entity
+     * Find entities related to a specific entity, a page at a time
      * 
      * @param entityName Resource name (using DBpedia URI format, e.g. 'Albert_Einstein' not 'Albert Einstein')
      * @param limit Maximum number of results to return
-     * @return Related entities and their relationships
+     * @param cursor Cursor returned with the previous page, or {@code null} for the first page
+     * @return Related entities and their relationships, and the cursor of the next page if there is one
      */
-    @Tool(description = "Find entities related to a specific entity in DBpedia. Entity should be in DBpedia resource format (e.g. 'Albert_Einstein')")
-    public String findRelatedEntities(String entityName, int limit) {
-        String query = String.format("""
-                PREFIX dbo: <http://dbpedia.org/ontology/>
-                PREFIX dbr: <http://dbpedia.org/resource/>
-                PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
-                
-                SELECT ?predicate ?object ?objectLabel
-                WHERE {
-                  dbr:%s ?predicate ?object .
-                  ?object rdfs:label ?objectLabel .
-                  FILTER(LANG(?objectLabel) = 'en')
-                  FILTER(STRSTARTS(STR(?object), "http://dbpedia.org/resource/"))
-                }
-                LIMIT %d
-                """, entityName, limit);
+    @Tool(description = "Find entities related to a specific entity in DBpedia. Entity should be in DBpedia resource format (e.g. 'Albert_Einstein'). Results are paged: when more follow, the result ends with a cursor to call again with")
+    public String findRelatedEntities(String entityName, int limit,
+            @ToolParam(required = false, description = "Cursor returned with the previous page; omit for the first page") String cursor) {
+        return execute(relatedEntitiesQuery(entityName, limit, cursor));
+    }
+
+    /**
+     * Find entities related to a specific entity, a page at a time, without blocking
+     *
+     * @param entityName Resource name (using DBpedia URI format, e.g. 'Albert_Einstein' not 'Albert Einstein')
+     * @param limit Maximum number of results to return
+     * @param cursor Cursor returned with the previous page, or {@code null} for the first page
+     * @return Related entities and their relationships, and the cursor of the next page if there is one
+     */
+    public Mono<String> findRelatedEntitiesAsync(String entityName, int limit, String cursor) {
+        return Mono.defer(() -> executeAsync(relatedEntitiesQuery(entityName, limit, cursor)));
+    }
+
+    private ToolQuery<Keyed<Relation>> relatedEntitiesQuery(String entityName, int limit, String cursor) {
+        String scope = "findRelatedEntities " + entityName;
+        List<String> after = KeysetCursor.decode(scope, cursor, 2);
+        BoundQuery query = QueryTemplate.isIri(RESOURCE_NAMESPACE + entityName)
+                ? RELATED_ENTITIES.bind()
+                        .iri("subject", RESOURCE_NAMESPACE + entityName)
+                        .literal("afterPredicate", after.get(0))
+                        .literal("afterObject", after.get(1))
+                        .limit(pageLimit(limit))
+                        .build()
+                : null;
 
-        List<Relation> results = executeQuery(query, rs -> {
-            List<Relation> relations = new ArrayList<>();
+        String subject = "dbr:" + entityName;
+        return new ToolQuery<>("findRelatedEntities", query, rs -> {
+            List<Keyed<Relation>> relations = new ArrayList<>();
             
             while (rs.hasNext()) {
                 QuerySolution solution = rs.next();
-                String subject = "dbr:" + entityName;
-                String predicate = solution.getResource("predicate").getLocalName();
-                String object = solution.getLiteral("objectLabel").getString();
+                Resource predicate = solution.getResource("predicate");
+                Resource object = solution.getResource("object");
+                String label = solution.getLiteral("objectLabel").getString();
                 
-                relations.add(new Relation(subject, predicate, object));
+                relations.add(new Keyed<>(new Relation(subject, terms.intern(predicate.getLocalName()), label),
+                        List.of(predicate.getURI(), object.getURI())));
             }
             
             return relations;
-        });
-
-        if (results.isEmpty()) {
-            return "No related entities found for: " + entityName;
-        }
-
-        return "Related entities for " + entityName + ":\n" +
-                results.stream()
-                        .map(Relation::toText)
-                        .collect(Collectors.joining("\n"));
+        }, results -> renderPage(output.open("findRelatedEntities").title("Related entities for " + entityName),
+                results, limit, scope, (out, relation, remaining) -> out.item(relation::write),
+                "No related entities found for: " + entityName));
     }
 
     /**
-     * Search for entities by category
+     * Search for entities by category, a page at a time
      * 
      * @param category Category name in DBpedia format (e.g. 'Nobel_Prize_winners')
      * @param limit Maximum number of results to return
-     * @return Entities in the specified category
+     * @param cursor Cursor returned with the previous page, or {@code null} for the first page
+     * @return Entities in the specified category, and the cursor of the next page if there is one
      */
-    @Tool(description = "Search for entities by category in DBpedia. Category should be in DBpedia format (e.g. 'Nobel_Prize_winners')")
-    public String searchByCategory(String category, int limit) {
-        String query = String.format("""
-                PREFIX dct: <http://purl.org/dc/terms/>
-                PREFIX dbc: <http://dbpedia.org/resource/Category:>
-                PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
-                PREFIX dbo: <http://dbpedia.org/ontology/>
-                
-                SELECT DISTINCT ?entity ?label ?abstract
-                WHERE {
-                  ?entity dct:subject dbc:%s .
-                  ?entity rdfs:label ?label .
-                  ?entity dbo:abstract ?abstract .
-                  FILTER(LANG(?label) = 'en')
-                  FILTER(LANG(?abstract) = 'en')
-                }
-                LIMIT %d
-                """, category, limit);
+    @Tool(description = "Search for entities by category in DBpedia. Category should be in DBpedia format (e.g. 'Nobel_Prize_winners'). Results are paged: when more follow, the result ends with a cursor to call again with")
+    public String searchByCategory(String category, int limit,
+            @ToolParam(required = false, description = "Cursor returned with the previous page; omit for the first page") String cursor) {
+        return execute(categoryQuery(category, limit, cursor));
+    }
+
+    /**
+     * Search for entities by category, a page at a time, without blocking
+     *
+     * @param category Category name in DBpedia format (e.g. 'Nobel_Prize_winners')
+     * @param limit Maximum number of results to return
+     * @param cursor Cursor returned with the previous page, or {@code null} for the first page
+     * @return Entities in the specified category, and the cursor of the next page if there is one
+     */
+    public Mono<String> searchByCategoryAsync(String category, int limit, String cursor) {
+        return Mono.defer(() -> executeAsync(categoryQuery(category, limit, cursor)));
+    }
+
+    private ToolQuery<Keyed<EntityInfo>> categoryQuery(String category, int limit, String cursor) {
+        String scope = "searchByCategory " + category;
+        List<String> after = KeysetCursor.decode(scope, cursor, 1);
+        BoundQuery query = QueryTemplate.isIri(CATEGORY_NAMESPACE + category)
+                ? ENTITIES_IN_CATEGORY.bind()
+                        .iri("category", CATEGORY_NAMESPACE + category)
+                        .literal("afterEntity", after.get(0))
+                        .limit(pageLimit(limit))
+                        .build()
+                : null;
 
-        List<EntityInfo> results = executeQuery(query, rs -> {
-            List<EntityInfo> entities = new ArrayList<>();
+        return new ToolQuery<>("searchByCategory", query, rs -> {
+            List<Keyed<EntityInfo>> entities = new ArrayList<>();
             
             while (rs.hasNext()) {
                 QuerySolution solution = rs.next();
-                String uri = solution.getResource("entity").getURI();
+                String uri = terms.intern(solution.getResource("entity").getURI());
                 String label = solution.getLiteral("label").getString();
                 String description = solution.getLiteral("abstract").getString();
                 
-                entities.add(new EntityInfo(uri, label, description, List.of()));
+                entities.add(new Keyed<>(new EntityInfo(uri, label, description, List.of()), List.of(uri)));
             }
             
             return entities;
-        });
+        }, results -> renderPage(output.open("searchByCategory").title("Entities in category " + category),
+                results, limit, scope, (out, entity, remaining) -> {
+                    // Abstracts are clipped to an equal share of the budget, as for single pages
+                    int descriptionBytes = Math.max(MIN_DESCRIPTION_BYTES, out.share(remaining) - ENTITY_OVERHEAD_BYTES);
+                    return out.item(item -> entity.write(item, descriptionBytes));
+                }, "No entities found in category: " + category));
+    }
+
+    // One more row than the page holds tells whether another page follows
+    private static long pageLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1, got " + limit);
+        }
+        return limit + 1L;
+    }
 
-        if (results.isEmpty()) {
-            return "No entities found in category: " + category;
+    // Writes the rows of a page that fit, and ends with the cursor after the last one written while
+    // any row is left: rows left out for the byte budget start the next page rather than being lost
+    private static <T> String renderPage(ToolOutput out, List<Keyed<T>> rows, int limit, String scope,
+            PageWriter<T> writer, String whenEmpty) {
+        int pageSize = Math.min(limit, rows.size());
+        out.reserveCursor(rows.stream()
+                .limit(pageSize)
+                .mapToInt(row -> KeysetCursor.encode(scope, row.key()).length())
+                .max()
+                .orElse(0));
+        int written = 0;
+        while (written < pageSize && writer.write(out, rows.get(written).value(), pageSize - written)) {
+            written++;
         }
+        boolean more = written < rows.size();
+        // A row too large for the budget on its own would otherwise start every page
+        String cursor = more && written > 0 ? KeysetCursor.encode(scope, rows.get(written - 1).key()) : null;
+        return out.finish(whenEmpty, cursor);
+    }
+
+    private <T> String execute(ToolQuery<T> toolQuery) {
+        List<T> results = toolQuery.query() == null ? List.of()
+                : executeQuery(toolQuery.tool(), toolQuery.query(), toolQuery.mapper());
+        return toolMetrics.rendering(toolQuery.tool(), () -> toolQuery.renderer().apply(results));
+    }
 
-        return "Entities in category " + category + ":\n" +
-                results.stream()
-                        .map(EntityInfo::toText)
-                        .collect(Collectors.joining("\n"));
+    private <T> Mono<String> executeAsync(ToolQuery<T> toolQuery) {
+        Mono<List<T>> results = toolQuery.query() == null ? Mono.just(List.of())
+                : executeQueryAsync(toolQuery.tool(), toolQuery.query(), toolQuery.mapper());
+        return results.map(found -> toolMetrics.rendering(toolQuery.tool(), () -> toolQuery.renderer().apply(found)));
     }
 
-    private <T> List<T> executeQuery(String queryString, ResultSetMapper<T> mapper) {
+    // Cached results are returned on the calling thread; anything else runs on the bounded SPARQL
+    // executor within the call's deadline, and cancelling drops the query if it has not started yet
+    private <T> Mono<List<T>> executeQueryAsync(String tool, BoundQuery query, ResultSetMapper<T> mapper) {
+        Supplier<List<T>> loader = () -> runQuery(query, mapper);
+        return cache.getIfPresent(tool, query.key(), loader)
+                .map(Mono::just)
+                .orElseGet(() -> Mono.deferContextual(context -> Mono.fromFuture(() -> asyncExecutor.submit(
+                        sparqlExecutor.endpointId(), Deadline.from(context).orElse(null),
+                        () -> executeQuery(tool, query, mapper)))));
+    }
+
+    private <T> List<T> executeQuery(String tool, BoundQuery query, ResultSetMapper<T> mapper) {
         try {
-            // Set default HTTP headers for all SPARQL requests
-            // HttpEnv.setUserAgent("DBpediaClientJena/1.0 (application/research)");
-            
-            // Create and configure the query execution
-            QueryExecution qe = QueryExecution.service(ENDPOINT_URL)
-                .query(QueryFactory.create(queryString))
-                .timeout(QUERY_TIMEOUT_MS)
-                .build();
-            
-            try (qe) {
-                ResultSet results = qe.execSelect();
-                return mapper.map(results);
-            }
+            return cache.get(tool, query.key(), () -> runQuery(query, mapper));
+        } catch (DeadlineExceededException e) {
+            // Reported as such rather than as nothing found
+            throw e;
         } catch (Exception e) {
-            System.err.println("Query execution error: " + e.getMessage());
-            e.printStackTrace();
+            // Counted by cause in the query metrics; the tool answers as if nothing was found
+            log.warn("Query {} failed: {}", query, e.getMessage(), e);
             return List.of();
         }
     }
 
+    private <T> List<T> runQuery(BoundQuery query, ResultSetMapper<T> mapper) {
+        return queryMetrics.select(sparqlExecutor, query, mapper::map);
+    }
+
     @FunctionalInterface
     private interface ResultSetMapper<T> {
         List<T> map(ResultSet resultSet);
     }
+
+    @FunctionalInterface
+    private interface PageWriter<T> {
+        // Whether the row fit; remaining counts it and the rows after it on the page
+        boolean write(ToolOutput out, T row, int remaining);
+    }
+
+    // A result row and its sort key, which a cursor resumes after
+    private record Keyed<T>(T value, List<String> key) {
+    }
+
+    // A tool's query, how to map its results and how to render them; without a query nothing matches
+    private record ToolQuery<T>(String tool, BoundQuery query, ResultSetMapper<T> mapper,
+            Function<List<T>, String> renderer) {
+    }
 }
\ No newline at end of file
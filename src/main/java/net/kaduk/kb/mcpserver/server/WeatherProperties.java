@@ -0,0 +1,71 @@
+package net.kaduk.kb.mcpserver.server;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the weather tools
+ *
+ * @param baseUrl Base URL of the National Weather Service API
+ * @param responseTimeout Time the API is given to start answering a request
+ * @param gridpoints Cache of the forecast URLs of locations
+ * @param forecasts Cache of forecast responses
+ * @param alerts Snapshot of the active alerts
+ * @param batch Limits of the multi-location forecast tool
+ */
+@ConfigurationProperties("weather")
+public record WeatherProperties(
+        @DefaultValue("https://api.weather.gov") String baseUrl,
+        @DefaultValue("10s") Duration responseTimeout,
+        @DefaultValue Gridpoints gridpoints,
+        @DefaultValue Forecasts forecasts,
+        @DefaultValue Alerts alerts,
+        @DefaultValue Batch batch) {
+
+    public static WeatherProperties defaults() {
+        return new WeatherProperties("https://api.weather.gov", Duration.ofSeconds(10),
+                new Gridpoints(Path.of("./data/gridpoints.tsv"), 10_000, 4), new Forecasts(1_000),
+                new Alerts(false, Duration.ofMinutes(5), Duration.ofSeconds(30)), new Batch(100, 8));
+    }
+
+    /**
+     * @param location File the cache is persisted to; not persisted when empty
+     * @param maxEntries Maximum number of cached locations
+     * @param precision Decimal places coordinates are rounded to; the API accepts at most four
+     */
+    public record Gridpoints(
+            @DefaultValue("./data/gridpoints.tsv") Path location,
+            @DefaultValue("10000") int maxEntries,
+            @DefaultValue("4") int precision) {
+    }
+
+    /**
+     * @param maxEntries Maximum number of cached forecast responses
+     */
+    public record Forecasts(
+            @DefaultValue("1000") int maxEntries) {
+    }
+
+    /**
+     * @param enabled Whether the active alerts feed is polled, every {@code weather.alerts.poll-interval}
+     * @param maxAge Age after which the snapshot is no longer served, as when polling keeps failing
+     * @param pollTimeout Time a poll may take before it is abandoned until the next one
+     */
+    public record Alerts(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("5m") Duration maxAge,
+            @DefaultValue("30s") Duration pollTimeout) {
+    }
+
+    /**
+     * @param maxLocations Maximum number of locations per call
+     * @param maxConcurrency Maximum number of requests to the API in flight per call
+     */
+    public record Batch(
+            @DefaultValue("100") int maxLocations,
+            @DefaultValue("8") int maxConcurrency) {
+    }
+}
@@ -1,32 +1,113 @@
 package net.kaduk.kb.mcpserver.server;
 
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
-import org.springframework.web.client.RestClientException;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import jakarta.annotation.PreDestroy;
+import net.kaduk.kb.mcpserver.cache.GridpointCache;
+import net.kaduk.kb.mcpserver.cache.HttpResponseCache;
+import net.kaduk.kb.mcpserver.cache.SingleFlight;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+import net.kaduk.kb.mcpserver.render.ToolOutput;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @Service
 public class WeatherService {
 
-	private static final String BASE_URL = "https://api.weather.gov";
+	// Alert collections for a whole state can run to megabytes
+	private static final DataSize MAX_RESPONSE_SIZE = DataSize.ofMegabytes(16);
+
+	private static final Pattern STATE_CODE = Pattern.compile("[A-Za-z]{2}");
+
+	private final WebClient webClient;
+
+	// Concurrent identical requests share one response
+	private final SingleFlight<String, Object> inFlight = new SingleFlight<>();
+
+	// Forecast URLs of locations, so that a forecast takes one request instead of two
+	private final GridpointCache gridpoints;
+
+	// Forecasts, kept and revalidated as the API's caching headers allow
+	private final HttpResponseCache forecasts;
+
+	// The active alerts feed, revalidated on every refresh
+	private final HttpResponseCache alertFeed = new HttpResponseCache(1);
+
+	// Whether AlertPoller keeps the snapshot current; otherwise it is never served
+	private final boolean alertsPolled;
+
+	private final Duration alertsMaxAge;
+
+	private final WeatherProperties.Batch batch;
 
-	private final RestClient restClient;
+	private final ToolOutputProperties output;
+
+	// Active alerts by area, while kept current by refreshAlerts
+	private volatile AlertIndex alerts;
 
 	public WeatherService() {
+		this(WeatherProperties.defaults(), ToolOutputProperties.defaults());
+	}
 
-		this.restClient = RestClient.builder()
-			.baseUrl(BASE_URL)
+	public WeatherService(WeatherProperties properties, ToolOutputProperties output) {
+		this(properties, output, WebClient.builder());
+	}
+
+	/**
+	 * @param webClientBuilder the builder Spring configures, which times requests as
+	 * {@code http.client.requests}; requests fail when the API has not started answering
+	 * within {@code weather.response-timeout}
+	 */
+	@Autowired
+	public WeatherService(WeatherProperties properties, ToolOutputProperties output,
+			WebClient.Builder webClientBuilder) {
+
+		this.webClient = webClientBuilder
+			.baseUrl(properties.baseUrl())
 			.defaultHeader("Accept", "application/geo+json")
 			.defaultHeader("User-Agent", "WeatherApiClient/1.0 (your@email.com)")
+			.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) MAX_RESPONSE_SIZE.toBytes()))
+			.filter((request, next) -> next.exchange(request).timeout(properties.responseTimeout()))
 			.build();
+		Path location = properties.gridpoints().location();
+		this.gridpoints = new GridpointCache(location == null || location.toString().isEmpty() ? null : location,
+				properties.gridpoints().maxEntries(), properties.gridpoints().precision());
+		this.forecasts = new HttpResponseCache(properties.forecasts().maxEntries());
+		this.alertsPolled = properties.alerts().enabled();
+		this.alertsMaxAge = properties.alerts().maxAge();
+		this.batch = properties.batch();
+		this.output = output;
+	}
+
+	@PreDestroy
+	public void close() {
+		gridpoints.close();
+	}
+
+	public record Location(double latitude, double longitude) {
 	}
 
 	@JsonIgnoreProperties(ignoreUnknown = true)
@@ -65,7 +146,12 @@ public class WeatherService {
 		@JsonIgnoreProperties(ignoreUnknown = true)
 		public record Properties(@JsonProperty("event") String event, @JsonProperty("areaDesc") String areaDesc,
 				@JsonProperty("severity") String severity, @JsonProperty("description") String description,
-				@JsonProperty("instruction") String instruction) {
+				@JsonProperty("instruction") String instruction, @JsonProperty("id") String id,
+				@JsonProperty("geocode") Geocode geocode) {
+		}
+
+		@JsonIgnoreProperties(ignoreUnknown = true)
+		public record Geocode(@JsonProperty("UGC") List<String> ugc) {
 		}
 	}
 
@@ -74,52 +160,237 @@ public class WeatherService {
 	 * @param latitude Latitude
 	 * @param longitude Longitude
 	 * @return The forecast for the given location
-	 * @throws RestClientException if the request fails
+	 * @throws WebClientException if the request fails
 	 */
 	@Tool(description = "Get weather forecast for a specific latitude/longitude")
 	public String getWeatherForecastByLocation(double latitude, double longitude) {
+		return Deadline.block(getWeatherForecastByLocationAsync(latitude, longitude));
+	}
 
-		var points = restClient.get()
-			.uri("/points/{latitude},{longitude}", latitude, longitude)
-			.retrieve()
-			.body(Points.class);
+	/**
+	 * Get forecast for a specific latitude/longitude without blocking
+	 * @param latitude Latitude
+	 * @param longitude Longitude
+	 * @return The forecast for the given location
+	 */
+	public Mono<String> getWeatherForecastByLocationAsync(double latitude, double longitude) {
+		GridpointCache.Point point = gridpoints.point(latitude, longitude);
+		return forecastUrl(point).flatMap(forecastUrl -> forecast(point, forecastUrl))
+			.map(forecast -> {
+				ToolOutput out = output.openText("getWeatherForecastByLocation").separatedBy("");
+				for (Forecast.Period p : forecast.properties().periods()) {
+					out.item(item -> item.text(p.name())
+						.text(":\nTemperature: ")
+						.text(p.temperature())
+						.text(' ')
+						.text(p.temperatureUnit())
+						.text("\nWind: ")
+						.text(p.windSpeed())
+						.text(' ')
+						.text(p.windDirection())
+						.text("\nForecast: ")
+						.text(p.detailedForecast())
+						.text('\n'));
+				}
+				return out.finish(null);
+			});
+	}
 
-		var forecast = restClient.get().uri(points.properties().forecast()).retrieve().body(Forecast.class);
+	/**
+	 * Get forecasts for many locations at once. Locations in the same forecast grid cell share
+	 * one forecast, and the distinct forecasts are fetched in parallel.
+	 * @param locations Locations, at most {@code weather.batch.max-locations}
+	 * @return The forecast of each grid cell, headed by the locations it covers
+	 * @throws WebClientException if the request fails
+	 */
+	@Tool(description = "Get weather forecasts for many latitude/longitude locations at once, e.g. along a route. Locations sharing a forecast grid cell are answered together")
+	public String getWeatherForecastsByLocations(Location[] locations) {
+		return Deadline.block(getWeatherForecastsByLocationsAsync(List.of(locations)));
+	}
 
-		String forecastText = forecast.properties().periods().stream().map(p -> {
-			return String.format("""
-					%s:
-					Temperature: %s %s
-					Wind: %s %s
-					Forecast: %s
-					""", p.name(), p.temperature(), p.temperatureUnit(), p.windSpeed(), p.windDirection(),
-					p.detailedForecast());
-		}).collect(Collectors.joining());
+	/**
+	 * Get forecasts for many locations at once without blocking. A location whose forecast
+	 * cannot be had is reported in the result rather than failing the others.
+	 * @param locations Locations, at most {@code weather.batch.max-locations}
+	 * @return The forecast of each grid cell, headed by the locations it covers
+	 */
+	public Mono<String> getWeatherForecastsByLocationsAsync(List<Location> locations) {
+		if (locations.size() > batch.maxLocations()) {
+			return Mono.error(new IllegalArgumentException(
+					"At most " + batch.maxLocations() + " locations per call, got " + locations.size()));
+		}
+		List<GridpointCache.Point> points = locations.stream()
+			.map(location -> gridpoints.point(location.latitude(), location.longitude()))
+			.distinct()
+			.toList();
 
-		return forecastText;
+		return Flux.fromIterable(points)
+			.flatMapSequential(point -> forecastUrl(point).map(forecastUrl -> new Cell(List.of(point), forecastUrl, null))
+				.onErrorResume(e -> Mono.just(new Cell(List.of(point), null, e.getMessage()))), batch.maxConcurrency())
+			.collectList()
+			.flatMapIterable(Cell::merge)
+			.flatMapSequential(cell -> cell.forecastUrl() == null ? Mono.just(cell.writer(null))
+					: forecast(cell.points().get(0), cell.forecastUrl()).map(cell::writer)
+						.onErrorResume(e -> Mono.just(cell.failed(e.getMessage()).writer(null))),
+					batch.maxConcurrency())
+			.collectList()
+			.map(cells -> {
+				ToolOutput out = output.openText("getWeatherForecastsByLocations");
+				cells.forEach(out::item);
+				return out.finish(null);
+			});
 	}
 
 	/**
 	 * Get alerts for a specific area
 	 * @param state Area code. Two-letter US state code (e.g. CA, NY)
 	 * @return Human readable alert information
-	 * @throws RestClientException if the request fails
+	 * @throws WebClientException if the request fails
 	 */
 	@Tool(description = "Get weather alerts for a US state. Input is Two-letter US state code (e.g. CA, NY)")
 	public String getAlerts(String state) {
-		Alert alert = restClient.get().uri("/alerts/active/area/{state}", state).retrieve().body(Alert.class);
-
-		return alert.features()
-			.stream()
-			.map(f -> String.format("""
-					Event: %s
-					Area: %s
-					Severity: %s
-					Description: %s
-					Instructions: %s
-					""", f.properties().event(), f.properties.areaDesc(), f.properties.severity(),
-					f.properties.description(), f.properties.instruction()))
-			.collect(Collectors.joining("\n"));
+		return Deadline.block(getAlertsAsync(state));
+	}
+
+	/**
+	 * Get alerts for a specific area without blocking. Served from the snapshot of active
+	 * alerts while {@code weather.alerts.enabled} has {@link #refreshAlerts()} keep it current,
+	 * and from the API otherwise; either way the most severe alerts come first.
+	 * @param state Area code. Two-letter US state code (e.g. CA, NY)
+	 * @return Human readable alert information
+	 */
+	public Mono<String> getAlertsAsync(String state) {
+		AlertIndex snapshot = alerts;
+		if (alertsPolled && snapshot != null && state != null && STATE_CODE.matcher(state).matches()
+				&& snapshot.isFresh(Instant.now(), alertsMaxAge)) {
+			return Mono.just(alertsText(snapshot.alerts(state)));
+		}
+		return coalesce("/alerts/active/area/" + state, Alert.class, () -> webClient.get()
+			.uri("/alerts/active/area/{state}", state)
+			.retrieve()
+			.bodyToMono(Alert.class))
+			.map(alert -> alertsText(alert.features()
+				.stream()
+				.map(Alert.Feature::properties)
+				.filter(Objects::nonNull)
+				.sorted(AlertIndex.BY_SEVERITY)
+				.map(WeatherService::render)
+				.toList()));
+	}
+
+	/**
+	 * Fetch the active alerts of all areas and make them the snapshot getAlerts answers from.
+	 * The feed is requested conditionally, and a feed that has not changed keeps the snapshot.
+	 * @return Number of alerts issued or withdrawn since the previous snapshot
+	 */
+	public Mono<Integer> refreshAlerts() {
+		return alertFeed.get(webClient, "/alerts/active", Alert.class).map(feed -> {
+			AlertIndex previous = alerts;
+			if (previous != null && previous.isOf(feed)) {
+				alerts = previous.renewed(Instant.now());
+				return 0;
+			}
+			AlertIndex snapshot = AlertIndex.of(feed, WeatherService::render, Instant.now());
+			alerts = snapshot;
+			return previous == null ? snapshot.size() : snapshot.changesSince(previous);
+		});
+	}
+
+	private String alertsText(List<String> alerts) {
+		ToolOutput out = output.openText("getAlerts");
+		for (String alert : alerts) {
+			out.item(item -> item.text(alert));
+		}
+		return out.finish(null);
+	}
+
+	private static String render(Alert.Properties alert) {
+		return "Event: " + alert.event() + "\nArea: " + alert.areaDesc() + "\nSeverity: " + alert.severity()
+				+ "\nDescription: " + alert.description() + "\nInstructions: " + alert.instruction() + "\n";
+	}
+
+	private Mono<String> forecastUrl(GridpointCache.Point point) {
+		return Mono.defer(() -> gridpoints.get(point).map(Mono::just).orElseGet(() -> resolve(point)));
+	}
+
+	// Gridpoints are occasionally redrawn, after which the old URL no longer answers
+	private Mono<Forecast> forecast(GridpointCache.Point point, String forecastUrl) {
+		return forecast(forecastUrl).onErrorResume(WebClientResponseException.NotFound.class, e -> {
+			gridpoints.remove(point);
+			return resolve(point).flatMap(resolved -> resolved.equals(forecastUrl) ? Mono.error(e) : forecast(resolved));
+		});
+	}
+
+	private Mono<String> resolve(GridpointCache.Point point) {
+		return coalesce("/points/" + point, String.class, () -> webClient.get()
+			.uri("/points/{latitude},{longitude}", point.latitude(), point.longitude())
+			.retrieve()
+			.bodyToMono(Points.class)
+			.map(points -> {
+				String forecastUrl = points.properties().forecast();
+				gridpoints.put(point, forecastUrl);
+				return forecastUrl;
+			}));
+	}
+
+	private Mono<Forecast> forecast(String forecastUrl) {
+		return coalesce(forecastUrl, Forecast.class, () -> forecasts.get(webClient, forecastUrl, Forecast.class));
+	}
+
+	private <T> Mono<T> coalesce(String key, Class<T> type, Supplier<Mono<T>> request) {
+		return Mono.fromFuture(() -> inFlight.submit(key, () -> request.get().<Object>map(type::cast).toFuture()))
+			.map(type::cast);
+	}
+
+	/**
+	 * Locations answered by one forecast, or that failed with the same error
+	 */
+	private record Cell(List<GridpointCache.Point> points, String forecastUrl, String error) {
+
+		// Locations sharing a forecast URL, in the order they were first asked for
+		static List<Cell> merge(List<Cell> cells) {
+			Map<Object, Cell> merged = new LinkedHashMap<>();
+			for (Cell cell : cells) {
+				merged.merge(cell.forecastUrl() != null ? cell.forecastUrl() : cell, cell, (a, b) -> {
+					List<GridpointCache.Point> points = new ArrayList<>(a.points());
+					points.addAll(b.points());
+					return new Cell(points, a.forecastUrl(), a.error());
+				});
+			}
+			return List.copyOf(merged.values());
+		}
+
+		Cell failed(String error) {
+			return new Cell(points, forecastUrl, error);
+		}
+
+		// Writes the locations, then a line per forecast period or the error
+		Consumer<ToolOutput> writer(Forecast forecast) {
+			return out -> {
+				for (int i = 0; i < points.size(); i++) {
+					out.text(i == 0 ? "" : "; ").text(points.get(i));
+				}
+				out.text(":\n");
+				if (forecast == null) {
+					out.text("Error: ").text(error).text('\n');
+					return;
+				}
+				for (Forecast.Period p : forecast.properties().periods()) {
+					out.text(p.name())
+						.text(": ")
+						.text(p.temperature())
+						.text(' ')
+						.text(p.temperatureUnit())
+						.text(", wind ")
+						.text(p.windSpeed())
+						.text(' ')
+						.text(p.windDirection())
+						.text(". ")
+						.text(p.detailedForecast())
+						.text('\n');
+				}
+			};
+		}
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,208 @@
+package net.kaduk.kb.mcpserver.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+
+/**
+ * Runs blocking SPARQL calls on a dedicated thread pool with a per-endpoint concurrency limit.
+ *
+ * Work queued for an endpoint is grouped: a {@link #fanOut} call forms one group and every
+ * {@link #submit} call forms a group of its own. Free slots are handed out round-robin across
+ * the groups waiting on an endpoint, so a large fan-out only ever holds one turn in the
+ * rotation and cannot starve single tool calls queued behind it.
+ *
+ * Calls run with the {@link Deadline} of the tool call they were submitted for, if any, bound
+ * to the worker thread. A call whose deadline passed while it was queued is not started.
+ */
+@Component
+@Slf4j
+public class SparqlAsyncExecutor {
+
+    private final int maxConcurrencyPerEndpoint;
+    private final ExecutorService workers;
+    private final Map<String, EndpointQueue> endpoints = new ConcurrentHashMap<>();
+
+    public SparqlAsyncExecutor(
+            @Value("${sparql.async.max-concurrency-per-endpoint:4}") int maxConcurrencyPerEndpoint) {
+        if (maxConcurrencyPerEndpoint < 1) {
+            throw new IllegalArgumentException("sparql.async.max-concurrency-per-endpoint must be at least 1");
+        }
+        this.maxConcurrencyPerEndpoint = maxConcurrencyPerEndpoint;
+        this.workers = Executors.newCachedThreadPool(new WorkerThreadFactory());
+    }
+
+    /**
+     * Run a single call against an endpoint
+     *
+     * @param endpoint The endpoint the call goes to
+     * @param task The blocking call
+     * @return Future completed with the result of the call
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, Supplier<T> task) {
+        return submit(endpoint, Deadline.current().orElse(null), task);
+    }
+
+    /**
+     * Run a single call against an endpoint within a deadline
+     *
+     * @param endpoint The endpoint the call goes to
+     * @param deadline Deadline of the tool call, or {@code null} for none
+     * @param task The blocking call
+     * @return Future completed with the result of the call
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, Deadline deadline, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        endpointQueue(endpoint).enqueue(new Group(), new Task<>(task, deadline, future));
+        return future;
+    }
+
+    /**
+     * Run several calls against an endpoint in parallel, sharing a single fairness turn
+     *
+     * @param endpoint The endpoint the calls go to
+     * @param tasks The blocking calls
+     * @return Future completed with the results in task order, or exceptionally with the first
+     *         failure as soon as it happens
+     */
+    public <T> CompletableFuture<List<T>> fanOut(String endpoint, List<Supplier<T>> tasks) {
+        EndpointQueue queue = endpointQueue(endpoint);
+        Group group = new Group();
+        Deadline deadline = Deadline.current().orElse(null);
+
+        List<CompletableFuture<T>> futures = tasks.stream()
+                .map(task -> {
+                    CompletableFuture<T> future = new CompletableFuture<>();
+                    queue.enqueue(group, new Task<>(task, deadline, future));
+                    return future;
+                })
+                .toList();
+
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        futures.forEach(future -> future.whenComplete((value, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            }
+        }));
+        // Once the fan-out failed or was cancelled, its calls still queued are skipped
+        result.whenComplete((value, failure) -> {
+            if (failure != null) {
+                futures.forEach(future -> future.cancel(false));
+            }
+        });
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenRun(() -> result.complete(futures.stream().map(CompletableFuture::join).toList()));
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private EndpointQueue endpointQueue(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, EndpointQueue::new);
+    }
+
+    private final class EndpointQueue {
+
+        private final String endpoint;
+        private final Deque<Group> waiting = new ArrayDeque<>();
+        private int running;
+
+        private EndpointQueue(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        synchronized void enqueue(Group group, Task<?> task) {
+            if (group.pending.isEmpty()) {
+                waiting.addLast(group);
+            }
+            group.pending.addLast(task);
+            dispatch();
+        }
+
+        private synchronized void release() {
+            running--;
+            dispatch();
+        }
+
+        private void dispatch() {
+            while (running < maxConcurrencyPerEndpoint && !waiting.isEmpty()) {
+                Group group = waiting.pollFirst();
+                Task<?> task = group.pending.pollFirst();
+                if (!group.pending.isEmpty()) {
+                    waiting.addLast(group);
+                }
+                if (task.future.isDone()) {
+                    // Cancelled while queued
+                    continue;
+                }
+
+                running++;
+                workers.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        release();
+                    }
+                });
+            }
+
+            if (!waiting.isEmpty()) {
+                log.debug("{} SPARQL calls waiting on {}", waiting.size(), endpoint);
+            }
+        }
+    }
+
+    private static final class Group {
+
+        private final Deque<Task<?>> pending = new ArrayDeque<>();
+    }
+
+    private record Task<T>(Supplier<T> call, Deadline deadline, CompletableFuture<T> future) {
+
+        void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                if (deadline == null) {
+                    future.complete(call.get());
+                    return;
+                }
+                deadline.check();
+                future.complete(deadline.call(call));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sparql-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,91 +1,187 @@
 package net.kaduk.kb.mcpserver.service;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.jena.query.*;
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import net.kaduk.kb.mcpserver.cache.SingleFlight;
+import net.kaduk.kb.mcpserver.index.LabelIndex;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.sparql.BoundQuery;
+import net.kaduk.kb.mcpserver.sparql.QueryTemplate;
+import net.kaduk.kb.mcpserver.sparql.ResultTable;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.TermDictionary;
+
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class SparqlKnowledgeBaseService {
 
-    @Value("${sparql.endpoint.url}")
-    private String sparqlEndpointUrl;
+    private static final int ENTITY_BATCH_SIZE = 25;
+    private static final int TERM_DICTIONARY_SIZE = 1 << 16;
+
+    private static final QueryTemplate ENTITIES_BY_LABEL = QueryTemplate.parse("entitiesByLabel",
+            "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
+            "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
+            "SELECT DISTINCT ?entity ?label ?type ?description " +
+            "WHERE { " +
+            "  ?entity rdfs:label ?label . " +
+            "  FILTER(LANG(?label) = 'en') " +
+            "  FILTER(CONTAINS(LCASE(?label), LCASE(?term))) " +
+            "  OPTIONAL { ?entity rdf:type ?type } " +
+            "  OPTIONAL { ?entity rdfs:comment ?description . FILTER(LANG(?description) = 'en') } " +
+            "}");
+
+    private static final QueryTemplate ENTITY_PROPERTIES = QueryTemplate.parse("entityProperties",
+            "SELECT ?property ?value " +
+            "WHERE { " +
+            "  ?entity ?property ?value . " +
+            "}");
 
-    @Value("${sparql.default-graph-uri}")
-    private String defaultGraphUri;
+    // Capped per entity: a LIMIT inside a sub-select is evaluated before an outer VALUES block
+    // is joined, so each entity is bound into a sub-select of its own
+    private static final QueryTemplate ENTITY_PROPERTIES_CAPPED = QueryTemplate.parse("entityPropertiesCapped",
+            "SELECT ?entity ?property ?value (STR(?value) AS ?text) " +
+            "WHERE { " +
+            "  VALUES ?entity { } " +
+            "  ?entity ?property ?value . " +
+            "}");
+
+    private static final QueryTemplate ENTITY_DETAILS = QueryTemplate.parse("entityDetails",
+            "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
+            "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
+            "SELECT DISTINCT ?entity ?label ?type ?description " +
+            "WHERE { " +
+            "  VALUES ?entity { } " +
+            "  ?entity rdfs:label ?label . " +
+            "  FILTER(LANG(?label) = 'en') " +
+            "  OPTIONAL { ?entity rdf:type ?type } " +
+            "  OPTIONAL { ?entity rdfs:comment ?description . FILTER(LANG(?description) = 'en') } " +
+            "}");
+
+    private final SparqlAsyncExecutor asyncExecutor;
+    private final SparqlExecutor sparqlExecutor;
+    private final LabelIndexService labelIndex;
+    private final QueryMetrics metrics;
+    private final TermDictionary terms = new TermDictionary(TERM_DICTIONARY_SIZE);
+    private final SingleFlight<String, List<Map<String, String>>> inFlight = new SingleFlight<>();
 
     /**
-     * Execute a SPARQL query against the configured endpoint
+     * Execute a SPARQL query against the configured backend
+     *
+     * The rows are read-only views over a compact {@link ResultTable}. Callers issuing the same
+     * query while it is running share its results.
      *
      * @param sparqlQuery The SPARQL query to execute
      * @return List of results as maps
      */
     public List<Map<String, String>> executeQuery(String sparqlQuery) {
-        log.info("Executing SPARQL query: {}", sparqlQuery);
-        List<Map<String, String>> results = new ArrayList<>();
+        return inFlight.execute(sparqlQuery, () -> runQuery(sparqlQuery));
+    }
 
-        try {
-            Query query = QueryFactory.create(sparqlQuery);
-            try (QueryExecution qexec = QueryExecutionFactory.sparqlService(sparqlEndpointUrl, query, defaultGraphUri)) {
-                ResultSet resultSet = qexec.execSelect();
-                
-                while (resultSet.hasNext()) {
-                    QuerySolution solution = resultSet.nextSolution();
-                    Map<String, String> row = new HashMap<>();
-                    
-                    solution.varNames().forEachRemaining(varName -> {
-                        if (solution.get(varName) != null) {
-                            row.put(varName, solution.get(varName).toString());
-                        } else {
-                            row.put(varName, null);
-                        }
-                    });
-                    
-                    results.add(row);
-                }
-            }
-        } catch (QueryExceptionHTTP e) {
-            log.error("SPARQL endpoint error: {}", e.getMessage(), e);
-            throw new RuntimeException("Error accessing SPARQL endpoint: " + e.getMessage(), e);
-        } catch (Exception e) {
-            log.error("Error executing SPARQL query: {}", e.getMessage(), e);
-            throw new RuntimeException("Error executing SPARQL query: " + e.getMessage(), e);
-        }
+    /**
+     * Stream the results of a SPARQL query as they are read from the backend
+     *
+     * Rows are converted one at a time, so a caller that needs only the first few can stop
+     * early, e.g. with {@link Stream#limit}. Closing the stream closes the query execution;
+     * it must be consumed and closed on the calling thread.
+     *
+     * @param sparqlQuery The SPARQL query to execute
+     * @return Stream of results as maps, to be closed after use
+     */
+    public Stream<Map<String, String>> streamQuery(String sparqlQuery) {
+        log.info("Streaming SPARQL query: {}", sparqlQuery);
+        return sparqlExecutor.stream(sparqlQuery).map(this::toRow);
+    }
 
-        log.info("Query returned {} results", results.size());
-        return results;
+    /**
+     * Publish the results of a SPARQL query with backpressure
+     *
+     * Rows are read from the backend only as the subscriber requests them. Subscription,
+     * requests and cancellation all run on one worker thread, as the local store's read
+     * transaction requires; cancelling closes the query execution.
+     *
+     * @param sparqlQuery The SPARQL query to execute
+     * @return Flux of results as maps
+     */
+    public Flux<Map<String, String>> executeQueryFlux(String sparqlQuery) {
+        return Flux.defer(() -> {
+            Scheduler worker = Schedulers.single(Schedulers.boundedElastic());
+            return Flux.fromStream(() -> streamQuery(sparqlQuery))
+                    .doFinally(signal -> worker.dispose())
+                    .subscribeOn(worker)
+                    .cancelOn(worker);
+        });
+    }
+
+    /**
+     * Execute a SPARQL query without blocking the caller
+     *
+     * Callers issuing the same query while it is queued or running share it. Cancelling the
+     * returned future detaches this caller; the query itself is cancelled once all its callers
+     * have cancelled.
+     *
+     * @param sparqlQuery The SPARQL query to execute
+     * @return Future completed with the results as maps
+     */
+    public CompletableFuture<List<Map<String, String>>> executeQueryAsync(String sparqlQuery) {
+        return inFlight.submit(sparqlQuery,
+                () -> asyncExecutor.submit(sparqlExecutor.endpointId(), () -> runQuery(sparqlQuery)));
+    }
+
+    /**
+     * Execute several SPARQL queries in parallel, bounded by the per-endpoint concurrency limit
+     *
+     * @param sparqlQueries The SPARQL queries to execute
+     * @return Future completed with the results of each query, in query order
+     */
+    public CompletableFuture<List<List<Map<String, String>>>> executeQueriesAsync(List<String> sparqlQueries) {
+        List<Supplier<List<Map<String, String>>>> tasks = sparqlQueries.stream()
+                .<Supplier<List<Map<String, String>>>>map(sparqlQuery -> () -> executeQuery(sparqlQuery))
+                .toList();
+        return asyncExecutor.fanOut(sparqlExecutor.endpointId(), tasks);
     }
 
     /**
      * Search for entities in the knowledge base
      *
+     * When the label index is available it picks the best-ranked entities and SPARQL only
+     * fetches their details, one row per type as before; the limit then caps entities rather than
+     * rows. Otherwise the labels are filtered in SPARQL.
+     *
      * @param term The search term
      * @param limit Maximum number of results to return
      * @return List of entities matching the search term
      */
     public List<Map<String, String>> searchEntities(String term, int limit) {
-        String sparqlQuery = String.format(
-                "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
-                "SELECT DISTINCT ?entity ?label ?type ?description " +
-                "WHERE { " +
-                "  ?entity rdfs:label ?label . " +
-                "  FILTER(LANG(?label) = 'en') " +
-                "  FILTER(CONTAINS(LCASE(?label), LCASE('%s'))) " +
-                "  OPTIONAL { ?entity rdf:type ?type } " +
-                "  OPTIONAL { ?entity rdfs:comment ?description . FILTER(LANG(?description) = 'en') } " +
-                "} " +
-                "LIMIT %d", 
-                term, limit);
-        
-        return executeQuery(sparqlQuery);
+        Optional<List<LabelIndex.Hit>> hits = labelIndex.search(term, limit);
+        if (hits.isPresent()) {
+            return getEntitiesDetails(hits.get().stream().map(LabelIndex.Hit::uri).toList());
+        }
+
+        return executeQuery(ENTITIES_BY_LABEL.bind().literal("term", term).limit(limit).build());
     }
 
     /**
@@ -96,14 +192,143 @@ public class SparqlKnowledgeBaseService {
      * @return List of property-value pairs for the entity
      */
     public List<Map<String, String>> getEntityProperties(String entityUri, int limit) {
-        String sparqlQuery = String.format(
-                "SELECT ?property ?value " +
-                "WHERE { " +
-                "  <%s> ?property ?value . " +
-                "} " +
-                "LIMIT %d", 
-                entityUri, limit);
+        return executeQuery(ENTITY_PROPERTIES.bind().iri("entity", entityUri).limit(limit).build());
+    }
+
+    /**
+     * Get properties of several entities with as few round trips as possible
+     *
+     * Entities are queried in batches of {@value #ENTITY_BATCH_SIZE}; batches run in parallel.
+     * Each batch is the union of one capped sub-select per entity, bound from a template. URIs
+     * that are not valid IRIs are not queried and get no properties.
+     *
+     * @param entityUris The URIs of the entities
+     * @param limitPerEntity Maximum number of properties to return per entity
+     * @return Property-value pairs keyed by entity URI, in the order of the given URIs; each value
+     *         is also given as {@code text}, without the language tag or datatype of a literal
+     */
+    public Map<String, List<Map<String, String>>> getEntitiesProperties(Collection<String> entityUris, int limitPerEntity) {
+        Map<String, List<Map<String, String>>> propertiesByEntity = new LinkedHashMap<>();
+        entityUris.forEach(uri -> propertiesByEntity.put(uri, new ArrayList<>()));
+
+        if (propertiesByEntity.isEmpty()) {
+            return propertiesByEntity;
+        }
+
+        List<String> uris = propertiesByEntity.keySet().stream().filter(QueryTemplate::isIri).toList();
+        List<BoundQuery> queries = new ArrayList<>();
+        for (int from = 0; from < uris.size(); from += ENTITY_BATCH_SIZE) {
+            List<BoundQuery> batch = uris.subList(from, Math.min(from + ENTITY_BATCH_SIZE, uris.size())).stream()
+                    .map(uri -> ENTITY_PROPERTIES_CAPPED.bind()
+                            .iris("entity", List.of(uri))
+                            .limit(limitPerEntity)
+                            .build())
+                    .toList();
+            queries.add(QueryTemplate.union("entitiesProperties", batch));
+        }
+
+        List<List<Map<String, String>>> batchResults = switch (queries.size()) {
+            case 0 -> List.of();
+            case 1 -> List.of(executeQuery(queries.get(0)));
+            default -> join(asyncExecutor.fanOut(sparqlExecutor.endpointId(), queries.stream()
+                    .<Supplier<List<Map<String, String>>>>map(query -> () -> executeQuery(query))
+                    .toList()));
+        };
+
+        for (List<Map<String, String>> rows : batchResults) {
+            for (Map<String, String> row : rows) {
+                List<Map<String, String>> properties = propertiesByEntity.get(row.get("entity"));
+                if (properties != null) {
+                    properties.add(row);
+                }
+            }
+        }
+
+        return propertiesByEntity;
+    }
+
+    /**
+     * Get the label, types and description of known entities, one row per type
+     *
+     * @param entityUris The URIs of the entities, best-ranked first
+     * @return The rows, in the order of the given URIs
+     */
+    public List<Map<String, String>> getEntitiesDetails(List<String> entityUris) {
+        if (entityUris.isEmpty()) {
+            return List.of();
+        }
+
+        BoundQuery query = ENTITY_DETAILS.bind()
+                .iris("entity", entityUris.stream().filter(QueryTemplate::isIri).toList())
+                .build();
+
+        // Keep the ranking, which the endpoint does not preserve
+        List<Map<String, String>> rows = new ArrayList<>(executeQuery(query));
+        rows.sort(Comparator.comparingInt(row -> entityUris.indexOf(row.get("entity"))));
+        return rows;
+    }
+
+    /**
+     * Get the label, types and description of known entities without blocking the caller, for
+     * instance while their properties are fetched
+     *
+     * @param entityUris The URIs of the entities, best-ranked first
+     * @return Future completed with the rows, in the order of the given URIs
+     */
+    public CompletableFuture<List<Map<String, String>>> getEntitiesDetailsAsync(List<String> entityUris) {
+        return asyncExecutor.submit(sparqlExecutor.endpointId(), () -> getEntitiesDetails(entityUris));
+    }
+
+    private List<Map<String, String>> executeQuery(BoundQuery query) {
+        return inFlight.execute(query.key(), () -> runQuery(query.key(),
+                () -> metrics.select(sparqlExecutor, query, resultSet -> ResultTable.from(resultSet, terms))));
+    }
+
+    private List<Map<String, String>> runQuery(String sparqlQuery) {
+        return runQuery(sparqlQuery,
+                () -> metrics.select(sparqlExecutor, sparqlQuery, resultSet -> ResultTable.from(resultSet, terms)));
+    }
+
+    private List<Map<String, String>> runQuery(String description, Supplier<List<Map<String, String>>> select) {
+        log.info("Executing SPARQL query: {}", description);
+        List<Map<String, String>> results;
+
+        try {
+            results = select.get();
+        } catch (QueryExceptionHTTP e) {
+            log.error("SPARQL endpoint error: {}", e.getMessage(), e);
+            throw new RuntimeException("Error accessing SPARQL endpoint: " + e.getMessage(), e);
+        } catch (Exception e) {
+            log.error("Error executing SPARQL query: {}", e.getMessage(), e);
+            throw new RuntimeException("Error executing SPARQL query: " + e.getMessage(), e);
+        }
+
+        log.info("Query returned {} results", results.size());
+        return results;
+    }
+
+    private Map<String, String> toRow(QuerySolution solution) {
+        Map<String, String> row = new HashMap<>();
+        
+        solution.varNames().forEachRemaining(varName -> {
+            if (solution.get(varName) != null) {
+                row.put(varName, terms.term(solution.get(varName).asNode()));
+            } else {
+                row.put(varName, null);
+            }
+        });
         
-        return executeQuery(sparqlQuery);
+        return row;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
     }
 }
\ No newline at end of file
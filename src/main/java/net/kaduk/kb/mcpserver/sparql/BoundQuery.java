@@ -0,0 +1,25 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import org.apache.jena.query.Query;
+
+/**
+ * A query bound from a {@link QueryTemplate}
+ *
+ * @param key Template name and parameter values; identifies the query in caches and logs
+ *            without serializing it
+ * @param query The parsed query, not to be modified
+ */
+public record BoundQuery(String key, Query query) {
+
+    /**
+     * @return Name of the template the query was bound from
+     */
+    public String name() {
+        return key.substring(0, key.indexOf('('));
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,129 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * HTTP client that returns connections to the pool after gzipped streaming responses.
+ *
+ * {@link java.util.zip.GZIPInputStream} stops at the end of the compressed data and never reads
+ * the final chunk marker of a chunked response. The JDK client treats a body closed before its
+ * end as abandoned and drops the connection, so every compressed query would pay for a new
+ * connection. This client wraps streamed bodies so that closing them first reads whatever
+ * little remains, up to a small bound, letting the connection be reused.
+ */
+final class KeepAliveHttpClient extends HttpClient {
+
+    private static final int DRAIN_LIMIT = 8192;
+
+    private final HttpClient delegate;
+
+    KeepAliveHttpClient(HttpClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return delegate.send(request, draining(handler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return delegate.sendAsync(request, draining(handler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        return delegate.sendAsync(request, draining(handler), pushPromiseHandler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> HttpResponse.BodyHandler<T> draining(HttpResponse.BodyHandler<T> handler) {
+        return responseInfo -> HttpResponse.BodySubscribers.mapping(handler.apply(responseInfo),
+                body -> body instanceof InputStream in ? (T) new DrainOnClose(in) : body);
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+
+    private static final class DrainOnClose extends FilterInputStream {
+
+        DrainOnClose(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                byte[] buffer = new byte[512];
+                int drained = 0;
+                int read;
+                while (drained < DRAIN_LIMIT && (read = in.read(buffer)) >= 0) {
+                    drained += read;
+                }
+            } catch (IOException e) {
+                // Nothing to reuse
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Continuation tokens of queries paged by keyset.
+ *
+ * A page ends at the sort key of its last row, and the next page is the rows whose key sorts
+ * after it: the query selects them with a filter on its {@code ORDER BY} columns, so the
+ * endpoint never scans past earlier pages as it would for an {@code OFFSET}. The key of the
+ * first page is all empty strings, which every key sorts after.
+ *
+ * Tokens are opaque to clients: the key values and a checksum of the scope the token was
+ * issued for, such as the tool and its arguments, base64url encoded. A token is only accepted
+ * in the same scope, so it cannot resume another query.
+ */
+public final class KeysetCursor {
+
+    private static final byte VERSION = 1;
+    private static final char SEPARATOR = '\0';
+
+    private KeysetCursor() {
+    }
+
+    /**
+     * @param columns Number of columns in the sort key
+     * @return The key the first page starts after
+     */
+    public static List<String> first(int columns) {
+        return Collections.nCopies(columns, "");
+    }
+
+    /**
+     * @param scope What the token resumes, e.g. the tool and its arguments
+     * @param key Sort key of the last row returned
+     * @return The token
+     */
+    public static String encode(String scope, List<String> key) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < key.size(); i++) {
+            if (key.get(i).indexOf(SEPARATOR) >= 0) {
+                throw new IllegalArgumentException("Key values cannot contain NUL characters");
+            }
+            if (i > 0) {
+                values.append(SEPARATOR);
+            }
+            values.append(key.get(i));
+        }
+        byte[] text = values.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer token = ByteBuffer.allocate(5 + text.length)
+                .put(VERSION)
+                .putInt(checksum(scope))
+                .put(text);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * @param scope What the token is expected to resume
+     * @param token The token, or {@code null} or blank for the first page
+     * @param columns Number of columns in the sort key
+     * @return The key the page starts after
+     * @throws IllegalArgumentException if the token is malformed or was issued in another scope
+     */
+    public static List<String> decode(String scope, String token, int columns) {
+        if (token == null || token.isBlank()) {
+            return first(columns);
+        }
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token.strip()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        if (bytes.remaining() < 5 || bytes.get() != VERSION || bytes.getInt() != checksum(scope)) {
+            throw new IllegalArgumentException("Cursor was not issued for this query: " + token);
+        }
+        String text = StandardCharsets.UTF_8.decode(bytes).toString();
+        List<String> key = new ArrayList<>(columns);
+        int start = 0;
+        for (int end = text.indexOf(SEPARATOR); end >= 0; end = text.indexOf(SEPARATOR, start)) {
+            key.add(text.substring(start, end));
+            start = end + 1;
+        }
+        key.add(text.substring(start));
+        if (key.size() != columns) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        return List.copyOf(key);
+    }
+
+    private static int checksum(String scope) {
+        CRC32 crc = new CRC32();
+        crc.update(scope.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+}
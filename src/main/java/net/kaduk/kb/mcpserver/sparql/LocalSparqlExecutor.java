@@ -0,0 +1,135 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.time.Duration;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.TDB2Factory;
+
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+
+/**
+ * Executes queries in-process against a TDB2 dataset on local disk.
+ *
+ * TDB2 memory-maps its indexes on 64-bit JVMs and supports any number of concurrent read
+ * transactions alongside a single writer, so one dataset is shared by all request threads.
+ * Each query runs in its own read transaction on the calling thread.
+ */
+public class LocalSparqlExecutor implements SparqlExecutor, AutoCloseable {
+
+    private final Dataset dataset;
+    private final String location;
+    private final Duration timeout;
+
+    /**
+     * @param location Directory of the TDB2 database; created empty if it does not exist
+     * @param timeout Overall query timeout
+     */
+    public LocalSparqlExecutor(String location, Duration timeout) {
+        this(TDB2Factory.connectDataset(location), location, timeout);
+    }
+
+    LocalSparqlExecutor(Dataset dataset, String location, Duration timeout) {
+        this.dataset = dataset;
+        this.location = location;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public String endpointId() {
+        return "tdb2:" + location;
+    }
+
+    /**
+     * @return The underlying dataset, for loaders that write to the store
+     */
+    public Dataset dataset() {
+        return dataset;
+    }
+
+    @Override
+    public <T> T select(String queryString, Function<ResultSet, T> handler) {
+        return select(QueryFactory.create(queryString), handler);
+    }
+
+    @Override
+    public <T> T select(Query query, Function<ResultSet, T> handler) {
+        return Txn.calculateRead(dataset, () -> {
+            // Aborted rather than interrupted: an interrupt closes the FileChannels of the store
+            try (QueryExecution qexec = execution(query);
+                    Deadline.Registration abort = Deadline.abortOnCancel(qexec::abort)) {
+                return handler.apply(qexec.execSelect());
+            } catch (RuntimeException e) {
+                throw Deadline.failure(e);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The read transaction stays open until the stream is closed; TDB2 binds it to the thread.
+     */
+    @Override
+    public Stream<QuerySolution> stream(String queryString) {
+        boolean ownTransaction = !dataset.isInTransaction();
+        if (ownTransaction) {
+            dataset.begin(ReadWrite.READ);
+        }
+        QueryExecution qexec = null;
+        Deadline.Registration abort = null;
+        try {
+            qexec = execution(QueryFactory.create(queryString));
+            QueryExecution opened = qexec;
+            Deadline.Registration registered = Deadline.abortOnCancel(qexec::abort);
+            abort = registered;
+            ResultSet resultSet = qexec.execSelect();
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(resultSet, Spliterator.ORDERED), false)
+                    .onClose(() -> {
+                        try {
+                            registered.close();
+                            opened.close();
+                        } finally {
+                            if (ownTransaction) {
+                                dataset.end();
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            if (abort != null) {
+                abort.close();
+            }
+            if (qexec != null) {
+                qexec.close();
+            }
+            if (ownTransaction) {
+                dataset.end();
+            }
+            throw Deadline.failure(e);
+        }
+    }
+
+    private QueryExecution execution(Query query) {
+        return QueryExecution.dataset(dataset)
+                .query(query)
+                .timeout(Deadline.timeout(timeout).toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public void close() {
+        dataset.close();
+    }
+}
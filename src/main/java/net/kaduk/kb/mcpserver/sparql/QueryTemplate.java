@@ -0,0 +1,217 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementUnion;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformCopyBase;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformer;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.sparql.util.FmtUtils;
+
+/**
+ * A SPARQL query parsed once, whose parameters are bound per call.
+ *
+ * Parameters are variables of the query. A scalar parameter is replaced by an IRI or literal in
+ * the syntax tree, filters included; a list parameter fills an empty {@code VALUES ?var { }}
+ * block of the query where it stands, so it constrains the pattern it is part of. The LIMIT may
+ * be set too. Values never pass through the query text, so quotes or brackets in them cannot
+ * change the query, and binding copies the tree instead of parsing the text again. Bound
+ * queries can be combined with {@link #union}, for instance to cap rows per value with
+ * sub-selects.
+ */
+public final class QueryTemplate {
+
+    private static final String IRI_EXCLUDED = "<>\"{}|^`\\";
+
+    private final String name;
+    private final Query query;
+
+    private QueryTemplate(String name, Query query) {
+        this.name = name;
+        this.query = query;
+    }
+
+    /**
+     * Parse a query template
+     *
+     * @param name Name of the template, which prefixes the keys of its bound queries
+     * @param sparql The query, with parameters as variables
+     * @return The template
+     * @throws org.apache.jena.query.QueryParseException if the query does not parse
+     */
+    public static QueryTemplate parse(String name, String sparql) {
+        Query query = QueryFactory.create(sparql);
+        // Computed lazily otherwise, which would modify the shared query on first use
+        query.setResultVars();
+        return new QueryTemplate(name, query);
+    }
+
+    /**
+     * @return Whether a string can be bound as an IRI, i.e. written between angle brackets
+     */
+    public static boolean isIri(String iri) {
+        return !iri.isEmpty() && iri.chars().noneMatch(c -> c <= ' ' || IRI_EXCLUDED.indexOf(c) >= 0);
+    }
+
+    /**
+     * Combine bound queries into one returning the rows of all of them, each evaluated as a
+     * sub-select with its own LIMIT
+     *
+     * @param name Name of the combined query, which prefixes its key
+     * @param parts The queries, at least one
+     * @return A {@code SELECT *} over the union of the parts
+     */
+    public static BoundQuery union(String name, List<BoundQuery> parts) {
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to combine for " + name);
+        }
+        ElementUnion union = new ElementUnion();
+        StringBuilder key = new StringBuilder(name).append('(');
+        for (BoundQuery part : parts) {
+            union.addElement(new ElementSubQuery(part.query()));
+            key.append(part.key()).append(' ');
+        }
+        Query query = new Query();
+        query.setQuerySelectType();
+        query.setQueryResultStar(true);
+        query.setQueryPattern(union);
+        query.setResultVars();
+        return new BoundQuery(key.append(')').toString(), query);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return A new binding of the parameters of this template
+     */
+    public Bindings bind() {
+        return new Bindings();
+    }
+
+    /**
+     * Parameter values for one execution of the template
+     */
+    public final class Bindings {
+
+        private final Map<Var, Node> scalars = new LinkedHashMap<>();
+        private final Map<Var, List<Node>> lists = new LinkedHashMap<>();
+        private long limit = Query.NOLIMIT;
+
+        private Bindings() {
+        }
+
+        /**
+         * @throws IllegalArgumentException if the value is not a valid IRI
+         */
+        public Bindings iri(String variable, String iri) {
+            scalars.put(Var.alloc(variable), iriNode(iri));
+            return this;
+        }
+
+        public Bindings literal(String variable, String text) {
+            scalars.put(Var.alloc(variable), NodeFactory.createLiteral(text));
+            return this;
+        }
+
+        /**
+         * Fill the {@code VALUES} block of a variable with IRIs
+         *
+         * @throws IllegalArgumentException if a value is not a valid IRI
+         */
+        public Bindings iris(String variable, List<String> iris) {
+            List<Node> nodes = new ArrayList<>(iris.size());
+            for (String iri : iris) {
+                nodes.add(iriNode(iri));
+            }
+            lists.put(Var.alloc(variable), nodes);
+            return this;
+        }
+
+        public Bindings limit(long limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @return The query with the parameters bound, and a key identifying it
+         */
+        public BoundQuery build() {
+            Query bound = scalars.isEmpty() ? QueryTransformOps.shallowCopy(query)
+                    : QueryTransformOps.transform(query, scalars);
+            if (!lists.isEmpty()) {
+                bound.setQueryPattern(ValuesFill.fill(bound.getQueryPattern(), lists));
+            }
+            if (limit != Query.NOLIMIT) {
+                bound.setLimit(limit);
+            }
+            return new BoundQuery(key(), bound);
+        }
+
+        // Name and values; equal keys mean equal queries, and FmtUtils quotes literals unambiguously
+        private String key() {
+            StringBuilder key = new StringBuilder(name).append('(');
+            scalars.forEach((variable, value) -> key.append(variable).append('=')
+                    .append(FmtUtils.stringForNode(value)).append(' '));
+            lists.forEach((variable, values) -> {
+                key.append(variable).append("=[");
+                values.forEach(value -> key.append(FmtUtils.stringForNode(value)).append(' '));
+                key.append("] ");
+            });
+            if (limit != Query.NOLIMIT) {
+                key.append("limit=").append(limit);
+            }
+            return key.append(')').toString();
+        }
+
+        private Node iriNode(String iri) {
+            if (!isIri(iri)) {
+                throw new IllegalArgumentException("Not a valid IRI for " + name + ": " + iri);
+            }
+            return NodeFactory.createURI(iri);
+        }
+    }
+
+    /**
+     * Replaces the empty VALUES blocks of bound list parameters by blocks holding their values
+     */
+    private static final class ValuesFill extends ElementTransformCopyBase {
+
+        private final Map<Var, List<Node>> lists;
+
+        private ValuesFill(Map<Var, List<Node>> lists) {
+            this.lists = lists;
+        }
+
+        static Element fill(Element pattern, Map<Var, List<Node>> lists) {
+            return ElementTransformer.transform(pattern, new ValuesFill(lists));
+        }
+
+        @Override
+        public Element transform(ElementData data) {
+            if (data.getVars().size() != 1 || !data.getRows().isEmpty() || !lists.containsKey(data.getVars().get(0))) {
+                return data;
+            }
+            Var variable = data.getVars().get(0);
+            List<Binding> rows = new ArrayList<>();
+            for (Node value : lists.get(variable)) {
+                rows.add(BindingFactory.binding(variable, value));
+            }
+            return new ElementData(List.of(variable), rows);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
+
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+
+/**
+ * Executes queries against a remote SPARQL endpoint over HTTP.
+ *
+ * All queries share one {@link HttpClient}, which keeps connections alive between calls and
+ * multiplexes them over HTTP/2 where the endpoint supports it. Responses are requested gzipped,
+ * in the cheapest result format the endpoint offers according to the Accept header.
+ */
+public class RemoteSparqlExecutor implements SparqlExecutor {
+
+    /**
+     * Binary RDF Thrift results parse fastest; JSON is the compact text format every endpoint
+     * serves and Jena reads it as a stream. TSV ranks below JSON because Virtuoso, which serves
+     * DBpedia, quotes IRIs in its TSV output so they would read back as plain strings.
+     */
+    public static final String DEFAULT_ACCEPT = "application/sparql-results+thrift, "
+            + "application/sparql-results+json;q=0.9, text/tab-separated-values;q=0.8, "
+            + "application/sparql-results+xml;q=0.5";
+
+    private final String endpointUrl;
+    private final String defaultGraphUri;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+    private final String acceptHeader;
+
+    /**
+     * @param endpointUrl URL of the SPARQL endpoint
+     * @param defaultGraphUri Default graph to query, or {@code null} for the endpoint's default
+     * @param timeout Overall query timeout
+     */
+    public RemoteSparqlExecutor(String endpointUrl, String defaultGraphUri, Duration timeout) {
+        this(endpointUrl, defaultGraphUri, timeout, httpClient(Duration.ofSeconds(10)), DEFAULT_ACCEPT);
+    }
+
+    /**
+     * @param endpointUrl URL of the SPARQL endpoint
+     * @param defaultGraphUri Default graph to query, or {@code null} for the endpoint's default
+     * @param timeout Overall query timeout
+     * @param httpClient Client shared by all queries
+     * @param acceptHeader Result formats to negotiate, most preferred first
+     */
+    public RemoteSparqlExecutor(String endpointUrl, String defaultGraphUri, Duration timeout, HttpClient httpClient,
+            String acceptHeader) {
+        this.endpointUrl = endpointUrl;
+        this.defaultGraphUri = defaultGraphUri;
+        this.timeout = timeout;
+        this.httpClient = httpClient;
+        this.acceptHeader = acceptHeader;
+    }
+
+    /**
+     * Create an HTTP client suitable for sharing between SPARQL queries
+     *
+     * @param connectTimeout Timeout for establishing a connection
+     * @return A client preferring HTTP/2, following redirects and keeping connections alive
+     */
+    public static HttpClient httpClient(Duration connectTimeout) {
+        return new KeepAliveHttpClient(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build());
+    }
+
+    @Override
+    public String endpointId() {
+        return endpointUrl;
+    }
+
+    @Override
+    public <T> T select(String queryString, Function<ResultSet, T> handler) {
+        return select(QueryFactory.create(queryString), handler);
+    }
+
+    // Sent as text all the same, but written out from the parsed query rather than parsed again
+    @Override
+    public <T> T select(Query query, Function<ResultSet, T> handler) {
+        try (QueryExecution qexec = execution(query);
+                Deadline.Registration abort = Deadline.abortOnCancel(qexec::abort)) {
+            // The request is interrupted while waiting for the response, the body closed while it is
+            // read; the handler is not interrupted in whatever else it does
+            ResultSet resultSet;
+            try (Deadline.Registration interrupt = Deadline.interruptOnCancel()) {
+                resultSet = qexec.execSelect();
+            }
+            return handler.apply(resultSet);
+        } catch (RuntimeException e) {
+            throw Deadline.failure(e);
+        }
+    }
+
+    @Override
+    public Stream<QuerySolution> stream(String queryString) {
+        QueryExecution qexec = execution(QueryFactory.create(queryString));
+        Deadline.Registration abort = Deadline.abortOnCancel(qexec::abort);
+        try {
+            ResultSet resultSet;
+            try (Deadline.Registration interrupt = Deadline.interruptOnCancel()) {
+                resultSet = qexec.execSelect();
+            }
+            // Thrift, JSON and TSV results are parsed from the response body as rows are pulled
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(resultSet, Spliterator.ORDERED), false)
+                    .onClose(() -> {
+                        abort.close();
+                        qexec.close();
+                    });
+        } catch (RuntimeException e) {
+            abort.close();
+            qexec.close();
+            throw Deadline.failure(e);
+        }
+    }
+
+    // Opened by RoutingSparqlExecutor as well, which waits for the results of several endpoints
+    QueryExecution execution(Query query) {
+        QueryExecutionHTTPBuilder builder = QueryExecution.service(endpointUrl)
+                .query(query)
+                .httpClient(httpClient)
+                .acceptHeader(acceptHeader)
+                // Jena decodes gzip responses but does not ask for them
+                .httpHeader("Accept-Encoding", "gzip");
+        if (defaultGraphUri != null && !defaultGraphUri.isBlank()) {
+            builder.addDefaultGraphURI(defaultGraphUri);
+        }
+        // No longer than the tool call it is made for has left
+        builder.timeout(Deadline.timeout(timeout).toMillis(), TimeUnit.MILLISECONDS);
+        return builder.build();
+    }
+}
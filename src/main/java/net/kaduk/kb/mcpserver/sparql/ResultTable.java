@@ -0,0 +1,178 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Compact, read-only table of SELECT results.
+ *
+ * The variable names are stored once in a header and the cells of all rows in a single array,
+ * row after row, with the string form of each term taken from a {@link TermDictionary}. Rows
+ * are presented as maps from variable name to term, leaving out unbound variables, so the table
+ * can be handed to code expecting a {@code List<Map<String, String>>}. The row maps are
+ * lightweight views created on access.
+ */
+public final class ResultTable extends AbstractList<Map<String, String>> {
+
+    private final List<String> variables;
+    private final Map<String, Integer> columns;
+    private final String[] cells;
+    private final int rowCount;
+
+    private ResultTable(List<String> variables, String[] cells, int rowCount) {
+        this.variables = variables;
+        this.columns = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            columns.put(variables.get(i), i);
+        }
+        this.cells = cells;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Read a result set into a table
+     *
+     * @param resultSet The results, consumed to the end
+     * @param terms Dictionary supplying the string forms of the terms
+     * @return The table
+     */
+    public static ResultTable from(ResultSet resultSet, TermDictionary terms) {
+        List<String> variables = List.copyOf(resultSet.getResultVars());
+        Var[] vars = variables.stream().map(Var::alloc).toArray(Var[]::new);
+        int width = vars.length;
+
+        String[] cells = new String[Math.max(width, 1) * 16];
+        int rows = 0;
+        while (resultSet.hasNext()) {
+            Binding binding = resultSet.nextBinding();
+            int offset = rows * width;
+            if (offset + width > cells.length) {
+                cells = Arrays.copyOf(cells, cells.length * 2);
+            }
+            for (int column = 0; column < width; column++) {
+                Node node = binding.get(vars[column]);
+                cells[offset + column] = node == null ? null : terms.term(node);
+            }
+            rows++;
+        }
+        return new ResultTable(variables, Arrays.copyOf(cells, rows * width), rows);
+    }
+
+    /**
+     * @return The variable names, in column order
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * Get a single cell without creating a row view
+     *
+     * @param row The row index
+     * @param variable The variable name
+     * @return The term, or {@code null} if unbound or not a result variable
+     */
+    public String value(int row, String variable) {
+        Integer column = columns.get(variable);
+        return column == null ? null : cell(row, column);
+    }
+
+    @Override
+    public Map<String, String> get(int index) {
+        if (index < 0 || index >= rowCount) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new Row(index);
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    private String cell(int row, int column) {
+        return cells[row * variables.size() + column];
+    }
+
+    private final class Row extends AbstractMap<String, String> {
+
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String get(Object key) {
+            Integer column = columns.get(key);
+            return column == null ? null : cell(row, column);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new BoundCells();
+                }
+
+                @Override
+                public int size() {
+                    int bound = 0;
+                    for (int column = 0; column < variables.size(); column++) {
+                        if (cell(row, column) != null) {
+                            bound++;
+                        }
+                    }
+                    return bound;
+                }
+            };
+        }
+
+        private final class BoundCells implements Iterator<Entry<String, String>> {
+
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < variables.size();
+            }
+
+            @Override
+            public Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int column = next;
+                next = advance(column + 1);
+                return new SimpleImmutableEntry<>(variables.get(column), cell(row, column));
+            }
+
+            private int advance(int from) {
+                int column = from;
+                while (column < variables.size() && cell(row, column) == null) {
+                    column++;
+                }
+                return column;
+            }
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+
+/**
+ * Routes queries across remote endpoints serving the same data.
+ *
+ * A query goes to the available endpoint with the lowest moving average response time, scaled
+ * by the queries it has in flight, so endpoints not measured yet are tried first and busy ones
+ * shed load. Response time is the time until results start; the results themselves are read
+ * while the handler maps them.
+ *
+ * After {@code breaker.failure-threshold} consecutive failures the circuit of an endpoint opens
+ * and it is skipped until, {@code breaker.open-duration} later, a single query probes it again.
+ * Only failures of the endpoint count: timeouts, connection errors and 5xx or 429 responses. A
+ * query failing that way moves on to the next endpoint, up to {@code max-attempts} endpoints.
+ *
+ * With hedging enabled, a query still unanswered after the endpoint's recent
+ * {@code hedge.quantile} response time is sent to the next endpoint too. The first results are
+ * handed to the handler, on the calling thread, and the other request is aborted. Hedged requests
+ * are sent from at most {@code hedge.max-threads} threads; while all are busy, a query is sent
+ * from the calling thread with no hedge, as without hedging.
+ *
+ * A query cut short by the {@link Deadline} of its tool call is abandoned: it moves on to no
+ * other endpoint and counts as neither a response nor a failure of the one it was sent to.
+ */
+@Slf4j
+public class RoutingSparqlExecutor implements SparqlExecutor, AutoCloseable {
+
+    public enum Circuit {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * @param endpoint Identifier of the endpoint
+     * @param circuit State of its circuit breaker
+     * @param averageLatency Moving average of its response times
+     * @param hedgeDelay Time a query waits for it before being hedged
+     * @param inFlight Queries waiting for its response
+     */
+    public record EndpointStatus(String endpoint, Circuit circuit, Duration averageLatency, Duration hedgeDelay,
+            int inFlight) {
+    }
+
+    /**
+     * Thrown when the circuits of all endpoints are open.
+     */
+    public static class UnavailableException extends RuntimeException {
+
+        UnavailableException(String endpoints) {
+            super("No SPARQL endpoint available, all circuits are open: " + endpoints);
+        }
+    }
+
+    private final SparqlRoutingProperties properties;
+    private final List<Endpoint> endpoints;
+    private final String endpointId;
+    private final ExecutorService hedging;
+
+    /**
+     * @param executors Executors of the endpoints, in order of preference while none is measured
+     * @param properties Latency tracking, hedging and circuit breaker settings
+     */
+    public RoutingSparqlExecutor(List<RemoteSparqlExecutor> executors, SparqlRoutingProperties properties) {
+        if (executors.isEmpty()) {
+            throw new IllegalArgumentException("At least one SPARQL endpoint is required");
+        }
+        this.properties = properties;
+        this.endpoints = executors.stream().map(Endpoint::new).toList();
+        this.endpointId = executors.stream().map(SparqlExecutor::endpointId).collect(Collectors.joining(" "));
+        // Rejects work beyond its threads rather than queueing it
+        this.hedging = new ThreadPoolExecutor(0, properties.hedge().maxThreads(), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new HedgeThreadFactory());
+    }
+
+    /**
+     * @return The endpoints of the pool, which share a single concurrency limit
+     */
+    @Override
+    public String endpointId() {
+        return endpointId;
+    }
+
+    /**
+     * @return The current state of each endpoint, in configuration order
+     */
+    public List<EndpointStatus> status() {
+        return endpoints.stream().map(Endpoint::status).toList();
+    }
+
+    @Override
+    public <T> T select(String queryString, Function<ResultSet, T> handler) {
+        return select(QueryFactory.create(queryString), handler);
+    }
+
+    @Override
+    public <T> T select(Query query, Function<ResultSet, T> handler) {
+        Attempt opened = open(query);
+        try (QueryExecution execution = opened.execution;
+                Deadline.Registration abort = Deadline.abortOnCancel(execution::abort)) {
+            return handler.apply(opened.resultSet);
+        } catch (RuntimeException e) {
+            // The endpoint answered, but failed while streaming the results
+            if (isEndpointFailure(e) && !opened.isOutOfTime()) {
+                opened.endpoint.failed(0, e);
+            }
+            throw Deadline.failure(e);
+        }
+    }
+
+    @Override
+    public Stream<QuerySolution> stream(String queryString) {
+        Attempt opened = open(QueryFactory.create(queryString));
+        Deadline.Registration abort = Deadline.abortOnCancel(opened.execution::abort);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(opened.resultSet, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    abort.close();
+                    opened.execution.close();
+                });
+    }
+
+    @Override
+    public void close() {
+        hedging.shutdownNow();
+    }
+
+    // Interrupted when the deadline is cancelled, whether waiting for a response or for the hedged attempts
+    private Attempt open(Query query) {
+        Deque<Endpoint> candidates = candidates();
+        try (Deadline.Registration interrupt = Deadline.interruptOnCancel()) {
+            if (properties.hedge().enabled() && properties.maxAttempts() > 1 && candidates.size() > 1) {
+                return openHedged(query, candidates);
+            }
+            return openInTurn(query, candidates);
+        } catch (RuntimeException e) {
+            throw Deadline.failure(e);
+        }
+    }
+
+    // Available endpoints, fastest first
+    private Deque<Endpoint> candidates() {
+        long now = System.nanoTime();
+        return endpoints.stream()
+                .filter(endpoint -> endpoint.isAvailable(now))
+                // Scores are taken once, as they change while sorting
+                .map(endpoint -> Map.entry(endpoint, endpoint.score()))
+                .sorted(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(ArrayDeque::new));
+    }
+
+    private Attempt openInTurn(Query query, Deque<Endpoint> candidates) {
+        RuntimeException failure = null;
+        int attempts = 0;
+        while (attempts < properties.maxAttempts()) {
+            Endpoint endpoint = acquire(candidates);
+            if (endpoint == null) {
+                break;
+            }
+            attempts++;
+            Attempt attempt = new Attempt(endpoint, query, null);
+            attempt.run();
+            if (attempt.error == null) {
+                return attempt;
+            }
+            failure = merge(failure, attempt.error);
+            if (!isEndpointFailure(attempt.error) || attempt.isOutOfTime()) {
+                break;
+            }
+        }
+        throw failure != null ? failure : new UnavailableException(endpointId);
+    }
+
+    private Attempt openHedged(Query query, Deque<Endpoint> candidates) {
+        BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+        List<Attempt> started = new ArrayList<>();
+        Attempt winner = null;
+        RuntimeException failure = null;
+        try {
+            Attempt first = start(query, candidates, started, finished, true);
+            if (first == null) {
+                throw new UnavailableException(endpointId);
+            }
+            long hedgeDelay = first.endpoint.hedgeDelay();
+            int pending = 1;
+            while (pending > 0) {
+                boolean canStart = started.size() < properties.maxAttempts() && !candidates.isEmpty();
+                Attempt done = canStart ? finished.poll(hedgeDelay, TimeUnit.NANOSECONDS) : finished.take();
+                if (done == null) {
+                    if (start(query, candidates, started, finished, false) != null) {
+                        log.debug("Hedging query unanswered after {} ms", hedgeDelay / 1_000_000);
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
+                if (done.error == null) {
+                    winner = done;
+                    return done;
+                }
+                failure = merge(failure, done.error);
+                if (!isEndpointFailure(done.error) || done.isOutOfTime()) {
+                    break;
+                }
+                if (started.size() < properties.maxAttempts()
+                        && start(query, candidates, started, finished, pending == 0) != null) {
+                    pending++;
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryCancelledException();
+        } finally {
+            for (Attempt attempt : started) {
+                if (attempt != winner) {
+                    attempt.abandon();
+                }
+            }
+        }
+    }
+
+    // With all hedging threads busy, an attempt the query would otherwise wait for is run on the
+    // calling thread, and a hedge is not sent; its endpoint stays the next candidate
+    private Attempt start(Query query, Deque<Endpoint> candidates, List<Attempt> started,
+            BlockingQueue<Attempt> finished, boolean alone) {
+        Endpoint endpoint = acquire(candidates);
+        if (endpoint == null) {
+            return null;
+        }
+        Attempt attempt = new Attempt(endpoint, query, finished);
+        try {
+            attempt.task = hedging.submit(attempt);
+        } catch (RejectedExecutionException e) {
+            if (!alone) {
+                attempt.execution.close();
+                endpoint.unused();
+                candidates.addFirst(endpoint);
+                return null;
+            }
+            started.add(attempt);
+            attempt.run();
+            return attempt;
+        }
+        started.add(attempt);
+        return attempt;
+    }
+
+    // The next candidate still taking queries; another query may have taken the probe of an open circuit
+    private static Endpoint acquire(Deque<Endpoint> candidates) {
+        while (!candidates.isEmpty()) {
+            Endpoint endpoint = candidates.pollFirst();
+            if (endpoint.tryAcquire()) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private static RuntimeException merge(RuntimeException failure, RuntimeException next) {
+        if (failure == null) {
+            return next;
+        }
+        failure.addSuppressed(next);
+        return failure;
+    }
+
+    /**
+     * @return Whether an error is the endpoint's fault rather than the query's, so another endpoint may answer
+     */
+    static boolean isEndpointFailure(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            int status = e instanceof QueryExceptionHTTP http ? http.getStatusCode()
+                    : e instanceof HttpException http ? http.getStatusCode() : -1;
+            if (status > 0) {
+                return status >= 500 || status == 429;
+            }
+            if (e instanceof QueryCancelledException || e instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // One request of a query to an endpoint, run on the calling thread or, when hedged, on the pool
+    private static final class Attempt implements Runnable {
+
+        private final Endpoint endpoint;
+        private final QueryExecution execution;
+        private final BlockingQueue<Attempt> finished;
+        private final Deadline deadline;
+        private final long start = System.nanoTime();
+        private volatile Future<?> task;
+        private ResultSet resultSet;
+        private RuntimeException error;
+        private boolean abandoned;
+
+        Attempt(Endpoint endpoint, Query query, BlockingQueue<Attempt> finished) {
+            this.endpoint = endpoint;
+            try {
+                // Created on the calling thread, so that the request is given no more than the time left
+                this.execution = endpoint.executor.execution(query);
+            } catch (RuntimeException e) {
+                endpoint.unused();
+                throw e;
+            }
+            this.finished = finished;
+            this.deadline = Deadline.current().orElse(null);
+        }
+
+        // Failures past the deadline are not the endpoint's fault, whose timeout was cut short
+        boolean isOutOfTime() {
+            return deadline != null && deadline.isExpired();
+        }
+
+        @Override
+        public void run() {
+            endpoint.inFlight.incrementAndGet();
+            try {
+                ResultSet results = execution.execSelect();
+                synchronized (this) {
+                    if (abandoned) {
+                        execution.close();
+                        endpoint.abandoned(System.nanoTime() - start);
+                        return;
+                    }
+                    resultSet = results;
+                }
+                endpoint.responded(System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                execution.close();
+                synchronized (this) {
+                    error = e;
+                    if (abandoned || isOutOfTime()) {
+                        endpoint.abandoned(System.nanoTime() - start);
+                        return;
+                    }
+                }
+                if (isEndpointFailure(e)) {
+                    endpoint.failed(System.nanoTime() - start, e);
+                } else {
+                    endpoint.responded(System.nanoTime() - start);
+                }
+            } finally {
+                endpoint.inFlight.decrementAndGet();
+                if (finished != null) {
+                    finished.add(this);
+                }
+            }
+        }
+
+        synchronized void abandon() {
+            if (abandoned) {
+                return;
+            }
+            abandoned = true;
+            if (resultSet != null) {
+                // Answered after the winner, before it was told
+                execution.close();
+                return;
+            }
+            execution.abort();
+            // Jena cannot abort a request still waiting for its response, but the HTTP client
+            // gives up when its thread is interrupted
+            Future<?> running = task;
+            if (running != null && error == null) {
+                running.cancel(true);
+            }
+        }
+    }
+
+    private final class Endpoint {
+
+        private final RemoteSparqlExecutor executor;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final long[] samples = new long[properties.latencySamples()];
+        private int sampleCount;
+        private int nextSample;
+        private double averageNanos;
+        private Circuit circuit = Circuit.CLOSED;
+        private int failures;
+        private long openUntil;
+
+        Endpoint(RemoteSparqlExecutor executor) {
+            this.executor = executor;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return circuit == Circuit.CLOSED || (circuit == Circuit.OPEN && now - openUntil >= 0);
+        }
+
+        synchronized boolean tryAcquire() {
+            if (circuit == Circuit.CLOSED) {
+                return true;
+            }
+            if (circuit == Circuit.OPEN && System.nanoTime() - openUntil >= 0) {
+                circuit = Circuit.HALF_OPEN;
+                return true;
+            }
+            return false;
+        }
+
+        // Acquired but never sent a query, as when the deadline passed first; the probe goes to the next query
+        synchronized void unused() {
+            if (circuit == Circuit.HALF_OPEN) {
+                circuit = Circuit.OPEN;
+            }
+        }
+
+        synchronized double score() {
+            return averageNanos * (inFlight.get() + 1);
+        }
+
+        synchronized void responded(long nanos) {
+            record(nanos);
+            failures = 0;
+            if (circuit != Circuit.CLOSED) {
+                log.info("SPARQL endpoint {} answers again", executor.endpointId());
+                circuit = Circuit.CLOSED;
+            }
+        }
+
+        // Failures take as long as they took, so an endpoint timing out also ranks as slow
+        synchronized void failed(long nanos, RuntimeException error) {
+            if (nanos > 0) {
+                record(nanos);
+            }
+            failures++;
+            if (circuit == Circuit.HALF_OPEN
+                    || (circuit == Circuit.CLOSED && failures >= properties.breaker().failureThreshold())) {
+                circuit = Circuit.OPEN;
+                openUntil = System.nanoTime() + properties.breaker().openDuration().toNanos();
+                log.warn("SPARQL endpoint {} failed {} times in a row, skipped for {}: {}", executor.endpointId(),
+                        failures, properties.breaker().openDuration(), error.toString());
+            }
+        }
+
+        // Lost to another endpoint: at least this slow, and no verdict on its health
+        synchronized void abandoned(long nanos) {
+            record(nanos);
+            if (circuit == Circuit.HALF_OPEN) {
+                circuit = Circuit.OPEN;
+            }
+        }
+
+        synchronized long hedgeDelay() {
+            SparqlRoutingProperties.Hedge hedge = properties.hedge();
+            if (sampleCount == 0) {
+                return hedge.maxDelay().toNanos();
+            }
+            long[] recent = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(recent);
+            long quantile = recent[Math.max(0, (int) Math.ceil(hedge.quantile() * sampleCount) - 1)];
+            return Math.min(Math.max(quantile, hedge.minDelay().toNanos()), hedge.maxDelay().toNanos());
+        }
+
+        synchronized EndpointStatus status() {
+            return new EndpointStatus(executor.endpointId(), circuit, Duration.ofNanos((long) averageNanos),
+                    Duration.ofNanos(hedgeDelay()), inFlight.get());
+        }
+
+        private void record(long nanos) {
+            averageNanos = sampleCount == 0 ? nanos
+                    : averageNanos + properties.latencyWeight() * (nanos - averageNanos);
+            samples[nextSample] = nanos;
+            nextSample = (nextSample + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+        }
+    }
+
+    private static final class HedgeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sparql-hedge-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+
+/**
+ * Runs SPARQL SELECT queries against the configured knowledge-base backend.
+ *
+ * Implementations are thread-safe and shared by all services, so switching between a remote
+ * endpoint and a local store is a matter of configuration ({@code sparql.backend}).
+ */
+public interface SparqlExecutor {
+
+    /**
+     * @return Identifier of the backend, used to key per-endpoint limits
+     */
+    String endpointId();
+
+    /**
+     * Execute a SELECT query and map its results
+     *
+     * The result set is only valid inside the handler; the execution is closed afterwards.
+     *
+     * @param queryString The SPARQL query to execute
+     * @param handler Consumes the result set and produces the mapped result
+     * @return The mapped result
+     */
+    <T> T select(String queryString, Function<ResultSet, T> handler);
+
+    /**
+     * Execute a parsed SELECT query and map its results
+     *
+     * Backends that can run the query as it is skip parsing it; by default it is written out
+     * and executed as text.
+     *
+     * @param query The SPARQL query to execute, which is not modified
+     * @param handler Consumes the result set and produces the mapped result
+     * @return The mapped result
+     */
+    default <T> T select(Query query, Function<ResultSet, T> handler) {
+        return select(query.serialize(), handler);
+    }
+
+    /**
+     * Execute a SELECT query and iterate its results lazily
+     *
+     * Rows are read from the backend only as the stream is consumed. The stream holds the
+     * execution open until it is closed, which also aborts a query that was not read to the end.
+     * It must be consumed and closed on the thread that opened it.
+     *
+     * @param queryString The SPARQL query to execute
+     * @return The solutions, to be closed after use
+     */
+    Stream<QuerySolution> stream(String queryString);
+}
@@ -0,0 +1,77 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the pool of remote SPARQL endpoints
+ *
+ * @param replicas Endpoints serving the same data as {@code sparql.endpoint.url}, queried alongside it
+ * @param latencyWeight Weight of the latest response time in an endpoint's moving average
+ * @param latencySamples Number of recent response times hedging delays are computed from
+ * @param maxAttempts Maximum number of endpoints a query is sent to, by hedging or after a failure
+ * @param hedge Second requests to another endpoint when the first is slow to answer
+ * @param breaker Circuit breaker of each endpoint
+ */
+@ConfigurationProperties("sparql.routing")
+public record SparqlRoutingProperties(
+        List<String> replicas,
+        @DefaultValue("0.2") double latencyWeight,
+        @DefaultValue("200") int latencySamples,
+        @DefaultValue("2") int maxAttempts,
+        @DefaultValue Hedge hedge,
+        @DefaultValue Breaker breaker) {
+
+    public SparqlRoutingProperties {
+        replicas = replicas == null ? List.of() : List.copyOf(replicas);
+        if (latencyWeight <= 0 || latencyWeight > 1) {
+            throw new IllegalArgumentException("sparql.routing.latency-weight must be in (0, 1]");
+        }
+        if (latencySamples < 1) {
+            throw new IllegalArgumentException("sparql.routing.latency-samples must be at least 1");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("sparql.routing.max-attempts must be at least 1");
+        }
+    }
+
+    public static SparqlRoutingProperties defaults() {
+        return new SparqlRoutingProperties(List.of(), 0.2, 200, 2,
+                new Hedge(false, 0.95, Duration.ofMillis(10), Duration.ofSeconds(2), 64),
+                new Breaker(5, Duration.ofSeconds(30)));
+    }
+
+    /**
+     * @param enabled Whether a query still unanswered after the delay is sent to another endpoint as well
+     * @param quantile Quantile of the endpoint's recent response times to wait for before hedging
+     * @param minDelay Shortest delay before hedging
+     * @param maxDelay Longest delay before hedging, and the delay while an endpoint has no response times yet
+     * @param maxThreads Threads requests of hedged queries are sent from; while all are busy, queries are sent
+     *        from the calling thread and not hedged
+     */
+    public record Hedge(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("0.95") double quantile,
+            @DefaultValue("10ms") Duration minDelay,
+            @DefaultValue("2s") Duration maxDelay,
+            @DefaultValue("64") int maxThreads) {
+
+        public Hedge {
+            if (maxThreads < 1) {
+                throw new IllegalArgumentException("sparql.routing.hedge.max-threads must be at least 1");
+            }
+        }
+    }
+
+    /**
+     * @param failureThreshold Consecutive failures after which an endpoint is no longer queried
+     * @param openDuration Time until a single query probes whether the endpoint recovered
+     */
+    public record Breaker(
+            @DefaultValue("5") int failureThreshold,
+            @DefaultValue("30s") Duration openDuration) {
+    }
+}
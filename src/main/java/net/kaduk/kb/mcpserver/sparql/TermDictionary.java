@@ -0,0 +1,78 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * Bounded dictionary mapping RDF terms to shared string forms.
+ *
+ * Query results repeat the same URIs, predicates and language-tagged literals row after row.
+ * Looking a term up here returns the string produced the first time it was seen, so repeated
+ * terms neither format a new string nor retain a copy of one. The dictionary is a fixed-size,
+ * direct-mapped table: a term whose slot is taken by another term replaces it, which keeps
+ * memory bounded without any locking or eviction bookkeeping. Lookups are safe from any thread;
+ * a race at worst formats a term twice.
+ */
+public final class TermDictionary {
+
+    private final Entry[] nodes;
+    private final String[] strings;
+    private final int mask;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    public TermDictionary(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.nodes = new Entry[size];
+        this.strings = new String[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the string form of a term, as {@code RDFNode.toString()} renders it
+     *
+     * @param node The term
+     * @return The shared string form
+     */
+    public String term(Node node) {
+        if (node.isURI()) {
+            // Parsers already hold the URI as a string; share one copy across results
+            return intern(node.getURI());
+        }
+
+        int slot = spread(node.hashCode()) & mask;
+        Entry entry = nodes[slot];
+        if (entry != null && entry.node().equals(node)) {
+            return entry.string();
+        }
+        String string = node.isLiteral() ? node.getLiteral().toString(false) : node.toString();
+        nodes[slot] = new Entry(node, string);
+        return string;
+    }
+
+    /**
+     * Get the shared instance of a string
+     *
+     * @param value The string, may be {@code null}
+     * @return An equal string, the same instance for repeated values
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int slot = spread(value.hashCode()) & mask;
+        String cached = strings[slot];
+        if (value.equals(cached)) {
+            return cached;
+        }
+        strings[slot] = value;
+        return value;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private record Entry(Node node, String string) {
+    }
+}
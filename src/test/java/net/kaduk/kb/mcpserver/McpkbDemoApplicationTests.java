@@ -1,13 +1,48 @@
 package net.kaduk.kb.mcpserver;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.ResolvableType;
 
-@SpringBootTest
+import io.modelcontextprotocol.server.McpAsyncServer;
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.server.McpSyncServer;
+import net.kaduk.kb.mcpserver.server.AlertPoller;
+
+// No polling of the live alerts feed
+@SpringBootTest(properties = "weather.alerts.enabled=false")
 class McpkbDemoApplicationTests {
 
+	@Autowired
+	private ApplicationContext context;
+
 	@Test
 	void contextLoads() {
+		assertThat(context.getBeansOfType(AlertPoller.class)).isEmpty();
+	}
+
+	@Test
+	void asyncModeRegistersNonBlockingTools() {
+		assertThat(context.getBeansOfType(McpAsyncServer.class)).hasSize(1);
+		assertThat(context.getBeansOfType(McpSyncServer.class)).isEmpty();
+
+		List<String> tools = context
+			.<List<McpServerFeatures.AsyncToolRegistration>>getBeanProvider(
+					ResolvableType.forClassWithGenerics(List.class, McpServerFeatures.AsyncToolRegistration.class))
+			.stream()
+			.flatMap(List::stream)
+			.map(registration -> registration.tool().name())
+			.toList();
+		assertThat(tools)
+			.contains("getWeatherForecastByLocation", "getWeatherForecastsByLocations", "getAlerts", "getEntityInfo",
+					"getEntitiesInfo", "findRelatedEntities", "searchByCategory")
+			.doesNotHaveDuplicates();
 	}
 
 }
@@ -0,0 +1,144 @@
+package net.kaduk.kb.mcpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.riot.Lang;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for an upstream API: every request is answered by a handler,
+ * on a thread of its own, after an adjustable delay. Counts the requests it serves and the most
+ * it served at once.
+ */
+public final class StandInServer {
+
+	private final String path;
+
+	private final HttpHandler handler;
+
+	private final HttpServer server;
+
+	private final ExecutorService handlers = Executors.newCachedThreadPool();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicInteger peakInFlight = new AtomicInteger();
+
+	private volatile Duration delay = Duration.ZERO;
+
+	/**
+	 * @param path Path the API is served under, empty for the root
+	 * @param handler Answers the requests
+	 */
+	public StandInServer(String path, HttpHandler handler) {
+		this.path = path;
+		this.handler = handler;
+		try {
+			this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		server.createContext(path.isEmpty() ? "/" : path, this::handle);
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	public String url() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	public void setDelay(Duration delay) {
+		this.delay = delay;
+	}
+
+	public int requests() {
+		return requests.get();
+	}
+
+	public int peakInFlight() {
+		return peakInFlight.get();
+	}
+
+	public void resetPeakInFlight() {
+		peakInFlight.set(0);
+	}
+
+	public void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		try {
+			Thread.sleep(delay.toMillis());
+			handler.handle(exchange);
+		}
+		catch (InterruptedException e) {
+			// Stopped while waiting
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The SPARQL query of a request: POSTed as is, or the query parameter of its form or
+	 * query string
+	 */
+	public static String query(HttpExchange exchange) throws IOException {
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		if (contentType != null && contentType.startsWith("application/sparql-query")) {
+			return body;
+		}
+		String form = "POST".equals(exchange.getRequestMethod()) ? body : exchange.getRequestURI().getRawQuery();
+		for (String pair : form.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0 && pair.substring(0, equals).equals("query")) {
+				return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+			}
+		}
+		throw new IllegalArgumentException("Missing query parameter");
+	}
+
+	/**
+	 * Answer a SPARQL query over a dataset, writing the results to a response body and closing it
+	 */
+	public static void results(OutputStream body, Dataset dataset, String query, Lang format) throws IOException {
+		try (OutputStream out = body;
+				QueryExecution execution = QueryExecution.dataset(dataset).query(query).build()) {
+			ResultSetFormatter.output(out, execution.execSelect(), format);
+		}
+	}
+
+	public static void respond(HttpExchange exchange, int status, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
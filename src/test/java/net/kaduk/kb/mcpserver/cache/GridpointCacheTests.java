@@ -0,0 +1,60 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GridpointCacheTests {
+
+	@TempDir
+	private Path dir;
+
+	@Test
+	void nearbyLocationsShareARoundedPoint() {
+		GridpointCache cache = new GridpointCache(null, 10, 4);
+
+		GridpointCache.Point point = cache.point(39.74561, -97.08919);
+
+		assertThat(point).isEqualTo(cache.point(39.745612, -97.089188));
+		assertThat(point.toString()).isEqualTo("39.7456,-97.0892");
+		assertThat(cache.point(39.7, -97.0).toString()).isEqualTo("39.7,-97");
+	}
+
+	@Test
+	void leastRecentlyUsedPointsAreEvicted() {
+		GridpointCache cache = new GridpointCache(null, 2, 4);
+		cache.put(cache.point(1, 1), "one");
+		cache.put(cache.point(2, 2), "two");
+		cache.get(cache.point(1, 1));
+
+		cache.put(cache.point(3, 3), "three");
+
+		assertThat(cache.get(cache.point(1, 1))).contains("one");
+		assertThat(cache.get(cache.point(2, 2))).isEmpty();
+		assertThat(cache.size()).isEqualTo(2);
+	}
+
+	@Test
+	void changesAreReloadedAndTheLogCompacted() throws IOException {
+		Path file = dir.resolve("gridpoints.tsv");
+		try (GridpointCache cache = new GridpointCache(file, 10, 4)) {
+			cache.put(cache.point(1, 1), "one");
+			cache.put(cache.point(2, 2), "two");
+			cache.put(cache.point(1, 1), "uno");
+			cache.remove(cache.point(2, 2));
+		}
+		assertThat(Files.readAllLines(file)).hasSize(4);
+
+		try (GridpointCache cache = new GridpointCache(file, 10, 4)) {
+			assertThat(cache.get(cache.point(1, 1))).contains("uno");
+			assertThat(cache.get(cache.point(2, 2))).isEmpty();
+		}
+		assertThat(Files.readAllLines(file)).containsExactly("1\t1\tuno");
+	}
+
+}
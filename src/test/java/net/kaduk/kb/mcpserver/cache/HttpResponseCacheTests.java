@@ -0,0 +1,136 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Mono;
+
+class HttpResponseCacheTests {
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	private final HttpResponseCache cache = new HttpResponseCache(100, nanos::get);
+
+	private final List<ClientRequest> requests = new ArrayList<>();
+
+	private final AtomicReference<Supplier<ClientResponse>> response = new AtomicReference<>();
+
+	private final WebClient client = WebClient.builder().exchangeFunction(request -> {
+		requests.add(request);
+		return Mono.fromSupplier(response.get());
+	}).build();
+
+	@Test
+	void freshResponsesAreServedWithoutRequests() {
+		respond(HttpStatus.OK, "one", HttpHeaders.CACHE_CONTROL, "public, max-age=60");
+
+		assertThat(get()).isEqualTo("one");
+		advance(Duration.ofSeconds(59));
+		assertThat(get()).isEqualTo("one");
+
+		assertThat(requests).hasSize(1);
+		assertThat(cache.freshHits()).isEqualTo(1);
+	}
+
+	@Test
+	void staleResponsesAreRevalidatedWithTheirValidators() {
+		respond(HttpStatus.OK, "one", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.ETAG, "\"v1\"",
+				HttpHeaders.LAST_MODIFIED, "Sat, 17 Oct 2026 10:00:00 GMT");
+		get();
+		advance(Duration.ofSeconds(61));
+		respond(HttpStatus.NOT_MODIFIED, "", HttpHeaders.CACHE_CONTROL, "max-age=120");
+
+		assertThat(get()).isEqualTo("one");
+		assertThat(requests.get(1).headers().getFirst(HttpHeaders.IF_NONE_MATCH)).isEqualTo("\"v1\"");
+		assertThat(requests.get(1).headers().getFirst(HttpHeaders.IF_MODIFIED_SINCE))
+			.isEqualTo("Sat, 17 Oct 2026 10:00:00 GMT");
+
+		// The 304 renewed the response for its own max-age
+		advance(Duration.ofSeconds(119));
+		assertThat(get()).isEqualTo("one");
+		assertThat(requests).hasSize(2);
+		assertThat(cache.revalidations()).isEqualTo(1);
+	}
+
+	@Test
+	void changedResponsesReplaceTheCachedOne() {
+		respond(HttpStatus.OK, "one", HttpHeaders.ETAG, "\"v1\"");
+		get();
+		respond(HttpStatus.OK, "two", HttpHeaders.ETAG, "\"v2\"");
+
+		assertThat(get()).isEqualTo("two");
+		assertThat(cache.fetches()).isEqualTo(2);
+	}
+
+	@Test
+	void expiresIsCountedFromTheDateLessTheAge() {
+		ZonedDateTime date = ZonedDateTime.parse("2026-10-17T10:00:00Z");
+		respond(HttpStatus.OK, "one", HttpHeaders.DATE, http(date), HttpHeaders.EXPIRES,
+				http(date.plusSeconds(100)), HttpHeaders.AGE, "40");
+		get();
+
+		advance(Duration.ofSeconds(59));
+		get();
+		advance(Duration.ofSeconds(2));
+		get();
+
+		assertThat(requests).hasSize(2);
+	}
+
+	@Test
+	void responsesThatMayNotBeSharedAreNotKept() {
+		respond(HttpStatus.OK, "one", HttpHeaders.CACHE_CONTROL, "private, max-age=60", HttpHeaders.ETAG, "\"v1\"");
+		get();
+		get();
+
+		assertThat(requests).hasSize(2);
+		assertThat(requests.get(1).headers().containsKey(HttpHeaders.IF_NONE_MATCH)).isFalse();
+	}
+
+	@Test
+	void errorStatusesFail() {
+		respond(HttpStatus.SERVICE_UNAVAILABLE, "busy");
+
+		assertThatThrownBy(this::get).isInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+	}
+
+	private String get() {
+		return cache.get(client, "http://origin/resource", String.class).block(Duration.ofSeconds(5));
+	}
+
+	private void respond(HttpStatus status, String body, String... headers) {
+		response.set(() -> {
+			ClientResponse.Builder builder = ClientResponse.create(status).body(body);
+			for (int i = 0; i < headers.length; i += 2) {
+				builder.header(headers[i], headers[i + 1]);
+			}
+			return builder.build();
+		});
+	}
+
+	private void advance(Duration duration) {
+		nanos.addAndGet(duration.toNanos());
+	}
+
+	private static String http(ZonedDateTime dateTime) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(dateTime);
+	}
+
+}
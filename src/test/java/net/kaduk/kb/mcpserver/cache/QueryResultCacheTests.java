@@ -0,0 +1,138 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.util.unit.DataSize;
+
+class QueryResultCacheTests {
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	@Test
+	void servesRepeatedQueriesFromCache() {
+		QueryResultCache cache = cache(properties(100, DataSize.ofMegabytes(1)));
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get("getEntityInfo", "SELECT *  WHERE { ?s ?p ?o }", () -> List.of("v" + loads.incrementAndGet()));
+		List<String> second = cache.get("getEntityInfo", "SELECT * WHERE {\n ?s ?p ?o }",
+				() -> List.of("v" + loads.incrementAndGet()));
+
+		assertThat(second).containsExactly("v1");
+		assertThat(loads).hasValue(1);
+		assertThat(cache.stats().hits()).isEqualTo(1);
+		assertThat(cache.stats().misses()).isEqualTo(1);
+	}
+
+	@Test
+	void servesStaleEntryWhileRefreshing() {
+		QueryResultCache cache = cache(properties(100, DataSize.ofMegabytes(1)));
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get("searchByCategory", "q", () -> List.of("v" + loads.incrementAndGet()));
+		advance(Duration.ofMinutes(61));
+
+		assertThat(cache.get("searchByCategory", "q", () -> List.of("v" + loads.incrementAndGet())))
+			.containsExactly("v1");
+		assertThat(cache.get("searchByCategory", "q", () -> List.of("v" + loads.incrementAndGet())))
+			.containsExactly("v2");
+		assertThat(cache.stats().staleHits()).isEqualTo(1);
+		assertThat(cache.stats().refreshes()).isEqualTo(1);
+	}
+
+	@Test
+	void appliesPerToolTtl() {
+		QueryResultCache cache = cache(properties(100, DataSize.ofMegabytes(1)));
+		cache.get("getEntityInfo", "q", () -> List.of("v"));
+		cache.get("searchByCategory", "q", () -> List.of("v"));
+
+		advance(Duration.ofHours(2));
+		cache.get("getEntityInfo", "q", () -> List.of("v"));
+		cache.get("searchByCategory", "q", () -> List.of("v"));
+
+		assertThat(cache.stats().hits()).isEqualTo(1);
+		assertThat(cache.stats().misses()).isEqualTo(3);
+	}
+
+	@Test
+	void expiresAfterStaleWindow() {
+		QueryResultCache cache = cache(properties(100, DataSize.ofMegabytes(1)));
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get("searchByCategory", "q", () -> List.of("v" + loads.incrementAndGet()));
+		advance(Duration.ofMinutes(71));
+
+		assertThat(cache.get("searchByCategory", "q", () -> List.of("v" + loads.incrementAndGet())))
+			.containsExactly("v2");
+		assertThat(cache.stats().misses()).isEqualTo(2);
+	}
+
+	@Test
+	void boundsEntryCount() {
+		QueryResultCache cache = cache(properties(10, DataSize.ofMegabytes(1)));
+		for (int i = 0; i < 50; i++) {
+			int n = i;
+			cache.get("getEntityInfo", "q" + n, () -> List.of("v" + n));
+		}
+
+		assertThat(cache.stats().entries()).isLessThanOrEqualTo(10);
+		assertThat(cache.stats().evictions()).isGreaterThanOrEqualTo(40);
+	}
+
+	@Test
+	void boundsEstimatedBytes() {
+		QueryResultCache cache = cache(properties(1000, DataSize.ofKilobytes(64)));
+		String abstractText = "x".repeat(4096);
+		for (int i = 0; i < 50; i++) {
+			cache.get("searchByCategory", "q" + i, () -> List.of(abstractText));
+		}
+
+		assertThat(cache.stats().estimatedBytes()).isLessThanOrEqualTo(DataSize.ofKilobytes(64).toBytes());
+		assertThat(cache.stats().entries()).isLessThan(10);
+	}
+
+	@Test
+	void doesNotCacheFailures() {
+		QueryResultCache cache = cache(properties(100, DataSize.ofMegabytes(1)));
+
+		assertThatThrownBy(() -> cache.get("getEntityInfo", "q", () -> {
+			throw new IllegalStateException("endpoint down");
+		})).isInstanceOf(IllegalStateException.class);
+
+		assertThat(cache.get("getEntityInfo", "q", () -> List.of("v"))).containsExactly("v");
+	}
+
+	@Test
+	void bindsPerToolTtlsKeyedByToolName() {
+		QueryCacheProperties properties = new Binder(new MapConfigurationPropertySource(
+				Map.of("dbpedia.cache.ttl.getEntityInfo", "6h", "dbpedia.cache.default-ttl", "5m")))
+			.bindOrCreate("dbpedia.cache", QueryCacheProperties.class);
+
+		assertThat(properties.ttlFor("getEntityInfo")).isEqualTo(Duration.ofHours(6));
+		assertThat(properties.ttlFor("searchByCategory")).isEqualTo(Duration.ofMinutes(5));
+	}
+
+	private QueryResultCache cache(QueryCacheProperties properties) {
+		return new QueryResultCache(properties, nanos::get, Runnable::run);
+	}
+
+	private static QueryCacheProperties properties(long maxEntries, DataSize maxSize) {
+		return new QueryCacheProperties(true, maxEntries, maxSize, Duration.ofHours(1), Duration.ofMinutes(10),
+				Map.of("getEntityInfo", Duration.ofHours(6)));
+	}
+
+	private void advance(Duration duration) {
+		nanos.addAndGet(TimeUnit.NANOSECONDS.convert(duration));
+	}
+
+}
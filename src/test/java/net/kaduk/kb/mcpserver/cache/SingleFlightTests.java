@@ -0,0 +1,150 @@
+package net.kaduk.kb.mcpserver.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTests {
+
+	private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void stopCallers() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallsShareOneUpstreamCall() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger upstreamCalls = new AtomicInteger();
+
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(callers.submit(() -> flights.execute("key", () -> {
+				upstreamCalls.incrementAndGet();
+				await(release);
+				return "value";
+			})));
+		}
+		waitUntil(() -> flights.calls() + flights.coalesced() == 8);
+		release.countDown();
+
+		for (Future<String> result : results) {
+			assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		}
+		assertThat(upstreamCalls.get()).isEqualTo(1);
+		assertThat(flights.coalesced()).isEqualTo(7);
+		assertThat(flights.inFlight()).isZero();
+
+		assertThat(flights.execute("key", () -> "again")).isEqualTo("again");
+		assertThat(flights.execute("other", () -> "other")).isEqualTo("other");
+	}
+
+	@Test
+	void failurePropagatesToEveryWaiterAndIsNotKept() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		IllegalStateException failure = new IllegalStateException("endpoint down");
+
+		Future<String> first = callers.submit(() -> flights.execute("key", () -> {
+			await(release);
+			throw failure;
+		}));
+		waitUntil(() -> flights.inFlight() == 1);
+		Future<String> second = callers.submit(() -> flights.execute("key", () -> "unexpected"));
+		CompletableFuture<String> third = flights.submit("key", () -> CompletableFuture.completedFuture("unexpected"));
+		waitUntil(() -> flights.coalesced() == 2);
+		release.countDown();
+
+		for (Future<String> result : List.of(first, second, third)) {
+			assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+				.hasCause(failure);
+		}
+		assertThat(flights.execute("key", () -> "recovered")).isEqualTo("recovered");
+	}
+
+	@Test
+	void cancellingOneCallerLeavesTheCallRunningForOthers() throws Exception {
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.submit("key", () -> upstream);
+		CompletableFuture<String> second = flights.submit("key", () -> new CompletableFuture<>());
+		first.cancel(true);
+		upstream.complete("value");
+
+		assertThat(upstream.isCancelled()).isFalse();
+		assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		assertThat(flights.calls()).isEqualTo(1);
+	}
+
+	@Test
+	void cancellingEveryCallerCancelsTheUpstreamCall() {
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.submit("key", () -> upstream);
+		CompletableFuture<String> second = flights.submit("key", () -> new CompletableFuture<>());
+		first.cancel(true);
+		second.cancel(true);
+
+		assertThat(upstream.isCancelled()).isTrue();
+		assertThat(flights.inFlight()).isZero();
+
+		CompletableFuture<String> fresh = flights.submit("key", () -> CompletableFuture.completedFuture("fresh"));
+		assertThat(fresh.join()).isEqualTo("fresh");
+		assertThat(flights.calls()).isEqualTo(2);
+	}
+
+	@Test
+	void interruptedWaiterStopsWaitingWithoutAbandoningTheCall() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> leader = callers.submit(() -> flights.execute("key", () -> {
+			await(release);
+			return "value";
+		}));
+		waitUntil(() -> flights.inFlight() == 1);
+
+		Future<String> waiter = callers.submit(() -> flights.execute("key", () -> "unexpected"));
+		waitUntil(() -> flights.coalesced() == 1);
+		waiter.cancel(true);
+		CompletableFuture<String> joined = flights.submit("key", () -> CompletableFuture.completedFuture("unexpected"));
+		release.countDown();
+
+		assertThatThrownBy(() -> waiter.get()).isInstanceOf(CancellationException.class);
+		assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		assertThat(joined.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+}
@@ -0,0 +1,82 @@
+package net.kaduk.kb.mcpserver.deadline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class ToolDeadlinesTests {
+
+	private final ToolDeadlines deadlines = new ToolDeadlines(
+			new ToolDeadlineProperties(Duration.ofSeconds(30), Map.of("getEntityInfo", Duration.ofMillis(200))));
+
+	@Test
+	void callStillRunningAtItsToolsDeadlineFails() {
+		AtomicInteger aborted = new AtomicInteger();
+		Mono<String> call = Mono.deferContextual(context -> {
+			Deadline.from(context).orElseThrow().call(() -> Deadline.abortOnCancel(aborted::incrementAndGet));
+			return Mono.never();
+		});
+
+		long start = System.nanoTime();
+		assertThatExceptionOfType(DeadlineExceededException.class)
+			.isThrownBy(() -> deadlines.within("getEntityInfo", call).block())
+			.withMessage("Deadline exceeded");
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+		assertThat(aborted.get()).isEqualTo(1);
+	}
+
+	@Test
+	void cancelledCallAbortsItsUpstreamCallsOnce() {
+		Deadline deadline = Deadline.after(Duration.ofSeconds(30));
+		AtomicInteger aborted = new AtomicInteger();
+		AtomicInteger finished = new AtomicInteger();
+		deadline.call(() -> Deadline.abortOnCancel(aborted::incrementAndGet));
+		deadline.call(() -> Deadline.abortOnCancel(finished::incrementAndGet)).close();
+
+		Disposable call = deadline.bind(Mono.never()).subscribe();
+		call.dispose();
+		deadline.cancel();
+
+		assertThat(aborted.get()).isEqualTo(1);
+		assertThat(finished.get()).isZero();
+		assertThat(deadline.isExpired()).isTrue();
+		assertThatExceptionOfType(DeadlineExceededException.class)
+			.isThrownBy(() -> deadline.call(() -> Deadline.timeout(Duration.ofSeconds(1))))
+			.withMessage("Call cancelled");
+	}
+
+	@Test
+	void upstreamTimeoutIsCappedAtTheTimeLeft() {
+		assertThat(Deadline.timeout(Duration.ofSeconds(60))).isEqualTo(Duration.ofSeconds(60));
+		assertThat(Deadline.after(Duration.ofSeconds(1)).call(() -> Deadline.timeout(Duration.ofSeconds(60))))
+			.isLessThanOrEqualTo(Duration.ofSeconds(1));
+		assertThat(Deadline.after(Duration.ofSeconds(60)).call(() -> Deadline.timeout(Duration.ofSeconds(1))))
+			.isEqualTo(Duration.ofSeconds(1));
+		assertThat(Deadline.current()).isEmpty();
+	}
+
+	@Test
+	void interruptDoesNotOutliveTheCall() {
+		Deadline deadline = Deadline.after(Duration.ofSeconds(30));
+
+		deadline.call(() -> {
+			try (Deadline.Registration interrupt = Deadline.interruptOnCancel()) {
+				deadline.cancel();
+				assertThat(Thread.currentThread().isInterrupted()).isTrue();
+			}
+			return null;
+		});
+
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+	}
+
+}
@@ -0,0 +1,161 @@
+package net.kaduk.kb.mcpserver.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.retriever.SparqlKnowledgeBaseRetriever;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+
+class EmbeddingIndexServiceTests {
+
+	@TempDir
+	Path tempDir;
+
+	private LocalSparqlExecutor store;
+
+	private final HashingEmbeddingModel model = new HashingEmbeddingModel(256);
+
+	@BeforeEach
+	void loadFixture() {
+		store = new LocalSparqlExecutor(tempDir.resolve("tdb2").toString(), Duration.ofSeconds(10));
+		Txn.executeWrite(store.dataset(), () -> RDFDataMgr.read(store.dataset(), "fixtures/dbpedia-sample.ttl"));
+	}
+
+	@AfterEach
+	void closeStore() {
+		store.close();
+	}
+
+	@Test
+	void embedsAbstractsFromStoreAndPersists() {
+		Path location = tempDir.resolve("vectors.bin");
+		EmbeddingIndexService service = new EmbeddingIndexService(properties(location), store, model);
+
+		VectorIndex index = service.initialize();
+
+		assertThat(Files.exists(location)).isTrue();
+		assertThat(index.size()).isEqualTo(9);
+		assertThat(service.search("pioneering research on radioactivity", 1).orElseThrow())
+			.extracting(VectorIndex.Hit::uri)
+			.containsExactly("http://dbpedia.org/resource/Marie_Curie");
+
+		// Another model means other vectors: the file is rebuilt rather than mapped, and the
+		// model is asked its dimensions once
+		ProbedModel other = new ProbedModel(64);
+		assertThat(new EmbeddingIndexService(properties(location), store, other).initialize().dimensions())
+			.isEqualTo(64);
+		assertThat(other.probes.get()).isEqualTo(1);
+	}
+
+	@Test
+	void embeddingMayOutlastTheQueryTimeout() throws IOException {
+		Path location = tempDir.resolve("slow").resolve("vectors.bin");
+		EmbeddingIndexProperties properties = new EmbeddingIndexProperties(true, location, List.of(), "en", "hashing",
+				EmbeddingIndexProperties.defaults().ollama(), 256, 1, 2000, 4, 32, 16);
+		try (LocalSparqlExecutor shortTimeout = new LocalSparqlExecutor(tempDir.resolve("tdb2-slow").toString(),
+				Duration.ofMillis(500))) {
+			Txn.executeWrite(shortTimeout.dataset(),
+					() -> RDFDataMgr.read(shortTimeout.dataset(), "fixtures/dbpedia-sample.ttl"));
+			EmbeddingIndexService service = new EmbeddingIndexService(properties, shortTimeout, new SlowModel(256));
+
+			assertThat(service.initialize().size()).isEqualTo(9);
+		}
+		try (var files = Files.list(location.getParent())) {
+			assertThat(files).containsExactly(location);
+		}
+	}
+
+	@Test
+	void searchesFallBackUntilIndexIsReady() {
+		EmbeddingIndexService service = new EmbeddingIndexService(properties(tempDir.resolve("idx.bin")), store, model);
+
+		assertThat(service.search("Berlin", 1)).isEmpty();
+	}
+
+	@Test
+	void retrieverLooksUpDetailsOfTheClosestEntitiesOnly() {
+		EmbeddingIndexService embeddingIndex = new EmbeddingIndexService(properties(tempDir.resolve("idx.bin")), store,
+				model);
+		embeddingIndex.initialize();
+		LabelIndexService labelIndex = new LabelIndexService(LabelIndexProperties.defaults(), store);
+		SparqlAsyncExecutor asyncExecutor = new SparqlAsyncExecutor(2);
+		try {
+			SparqlKnowledgeBaseRetriever retriever = new SparqlKnowledgeBaseRetriever(new SparqlKnowledgeBaseService(
+					asyncExecutor, store, labelIndex, new QueryMetrics(new SimpleMeterRegistry())), embeddingIndex);
+
+			List<Document> documents = retriever.retrieve("capital city on the river Seine");
+
+			assertThat(documents).extracting(document -> document.getMetadata().get("entityUri"))
+				.first()
+				.isEqualTo("http://dbpedia.org/resource/Paris");
+			assertThat(documents.get(0).getText()).contains("Entity: Paris", "Properties:");
+		}
+		finally {
+			asyncExecutor.shutdown();
+		}
+	}
+
+	// Takes longer to embed the fixture, one abstract at a time, than the query may run
+	private static final class SlowModel extends HashingEmbeddingModel {
+
+		SlowModel(int dimensions) {
+			super(dimensions);
+		}
+
+		@Override
+		public EmbeddingResponse call(EmbeddingRequest request) {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.call(request);
+		}
+
+	}
+
+	// Counts the probes a model served remotely would have to send to tell its dimensions
+	private static final class ProbedModel extends HashingEmbeddingModel {
+
+		private final AtomicInteger probes = new AtomicInteger();
+
+		ProbedModel(int dimensions) {
+			super(dimensions);
+		}
+
+		@Override
+		public int dimensions() {
+			probes.incrementAndGet();
+			return super.dimensions();
+		}
+
+	}
+
+	private static EmbeddingIndexProperties properties(Path location) {
+		return new EmbeddingIndexProperties(true, location, List.of(), "en", "hashing",
+				new EmbeddingIndexProperties.Ollama("http://localhost:11434", "nomic-embed-text"), 256, 4, 2000, 4, 32,
+				16);
+	}
+
+}
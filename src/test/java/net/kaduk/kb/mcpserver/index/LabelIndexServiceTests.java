@@ -0,0 +1,139 @@
+package net.kaduk.kb.mcpserver.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.cache.QueryCacheProperties;
+import net.kaduk.kb.mcpserver.cache.QueryResultCache;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import net.kaduk.kb.mcpserver.server.DBpediaService;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+
+class LabelIndexServiceTests {
+
+	@TempDir
+	Path tempDir;
+
+	private LocalSparqlExecutor store;
+
+	@BeforeEach
+	void loadFixture() {
+		store = new LocalSparqlExecutor(tempDir.resolve("tdb2").toString(), Duration.ofSeconds(10));
+		Txn.executeWrite(store.dataset(), () -> RDFDataMgr.read(store.dataset(), "fixtures/dbpedia-sample.ttl"));
+	}
+
+	@AfterEach
+	void closeStore() {
+		store.close();
+	}
+
+	@Test
+	void buildsFromStoreAndPersists() {
+		Path location = tempDir.resolve("label-index.bin");
+		LabelIndexService service = new LabelIndexService(properties(location, List.of()), store);
+
+		LabelIndex index = service.initialize();
+
+		assertThat(Files.exists(location)).isTrue();
+		assertThat(index.size()).isGreaterThanOrEqualTo(9);
+		assertThat(service.search("curie", 1).orElseThrow()).extracting(LabelIndex.Hit::uri)
+			.containsExactly("http://dbpedia.org/resource/Marie_Curie");
+
+		// A second instance loads the file instead of querying the store
+		assertThat(new LabelIndexService(properties(location, List.of()), new UnreachableExecutor()).initialize()
+			.size()).isEqualTo(index.size());
+	}
+
+	@Test
+	void buildsFromDump() throws Exception {
+		Path dump = tempDir.resolve("labels.nt");
+		try (OutputStream out = Files.newOutputStream(dump)) {
+			RDFDataMgr.write(out, RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"), Lang.NTRIPLES);
+		}
+		LabelIndexService service = new LabelIndexService(properties(tempDir.resolve("dump-index.bin"), List.of(dump)),
+				store);
+
+		service.initialize();
+
+		assertThat(service.search("Berlin", 1).orElseThrow()).extracting(LabelIndex.Hit::label)
+			.containsExactly("Berlin");
+	}
+
+	@Test
+	void searchesFallBackToSparqlUntilIndexIsReady() {
+		LabelIndexService service = new LabelIndexService(properties(tempDir.resolve("idx.bin"), List.of()), store);
+		assertThat(service.search("Berlin", 1)).isEmpty();
+	}
+
+	@Test
+	void toolsResolveEntitiesThroughIndex() {
+		LabelIndexService labelIndex = new LabelIndexService(properties(tempDir.resolve("idx.bin"), List.of()), store);
+		labelIndex.initialize();
+		SparqlAsyncExecutor asyncExecutor = new SparqlAsyncExecutor(2);
+		try {
+			List<Map<String, String>> entities = new SparqlKnowledgeBaseService(asyncExecutor, store, labelIndex,
+					new QueryMetrics(new SimpleMeterRegistry()))
+				.searchEntities("capital germany", 2);
+			assertThat(entities).extracting(row -> row.get("entity"))
+				.first()
+				.isEqualTo("http://dbpedia.org/resource/Berlin");
+
+			DBpediaService dbpedia = new DBpediaService(store, new QueryResultCache(QueryCacheProperties.defaults()),
+					labelIndex, asyncExecutor, ToolOutputProperties.defaults(), new QueryMetrics(new SimpleMeterRegistry()),
+					new ToolMetrics(new SimpleMeterRegistry()));
+			assertThat(dbpedia.getEntityInfo("einstein")).contains("URI: http://dbpedia.org/resource/Albert_Einstein");
+			assertThat(dbpedia.getEntityInfo("Tokyo")).isEqualTo("No information found for entity: Tokyo");
+		}
+		finally {
+			asyncExecutor.shutdown();
+		}
+	}
+
+	private static final class UnreachableExecutor implements SparqlExecutor {
+
+		@Override
+		public String endpointId() {
+			return "unreachable";
+		}
+
+		@Override
+		public <T> T select(String queryString, Function<ResultSet, T> handler) {
+			throw new IllegalStateException("Index should have been loaded from disk");
+		}
+
+		@Override
+		public Stream<QuerySolution> stream(String queryString) {
+			throw new IllegalStateException("Index should have been loaded from disk");
+		}
+
+	}
+
+	private static LabelIndexProperties properties(Path location, List<Path> dumps) {
+		return new LabelIndexProperties(true, location, dumps, "en", 100, 1.2, 0.75, 3.0);
+	}
+
+}
@@ -0,0 +1,70 @@
+package net.kaduk.kb.mcpserver.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LabelIndexTests {
+
+	private static final LabelIndex.Scoring SCORING = new LabelIndex.Scoring(1.2, 0.75, 3.0);
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void tokenizesWithCaseFoldingAndWithoutDiacritics() {
+		assertThat(LabelIndex.tokenize("Marie Skłodowska-Curie (Physicist)")).containsExactly("marie", "skłodowska",
+				"curie", "physicist");
+		assertThat(LabelIndex.tokenize("Zürich_Hauptbahnhof")).containsExactly("zurich", "hauptbahnhof");
+		assertThat(LabelIndex.tokenize("  ")).isEmpty();
+	}
+
+	@Test
+	void ranksLabelMatchesAboveAbstractMentions() {
+		LabelIndex index = sampleIndex();
+
+		assertThat(index.search("Berlin", 10)).extracting(LabelIndex.Hit::uri)
+			.containsExactly("dbr:Berlin", "dbr:Berlin_Wall", "dbr:Germany");
+		assertThat(index.search("einstein relativity", 1)).extracting(LabelIndex.Hit::uri)
+			.containsExactly("dbr:Albert_Einstein");
+		assertThat(index.search("Tokyo", 10)).isEmpty();
+	}
+
+	@Test
+	void expandsUnmatchedTermsAsPrefixes() {
+		LabelIndex index = sampleIndex();
+
+		assertThat(index.search("berl", 10)).extracting(LabelIndex.Hit::uri).contains("dbr:Berlin",
+				"dbr:Berlin_Wall");
+		assertThat(index.search("be", 10)).isEmpty();
+	}
+
+	@Test
+	void persistsAndReloadsIdenticalRanking() throws Exception {
+		LabelIndex index = sampleIndex();
+		Path file = tempDir.resolve("index/labels.bin");
+
+		index.write(file);
+		LabelIndex reloaded = LabelIndex.read(file, SCORING);
+
+		assertThat(reloaded.size()).isEqualTo(index.size());
+		assertThat(reloaded.termCount()).isEqualTo(index.termCount());
+		assertThat(reloaded.search("capital of germany", 10)).isEqualTo(index.search("capital of germany", 10));
+	}
+
+	private static LabelIndex sampleIndex() {
+		return LabelIndex.builder(100)
+			.addLabel("dbr:Berlin", "Berlin")
+			.addLabel("dbr:Berlin_Wall", "Berlin Wall")
+			.addLabel("dbr:Germany", "Germany")
+			.addLabel("dbr:Albert_Einstein", "Albert Einstein")
+			.addAbstract("dbr:Germany", "Germany is a country in Central Europe; its capital is Berlin.")
+			.addAbstract("dbr:Berlin", "Berlin is the capital and largest city of Germany.")
+			.addAbstract("dbr:Albert_Einstein", "Albert Einstein developed the theory of relativity.")
+			.build(SCORING);
+	}
+
+}
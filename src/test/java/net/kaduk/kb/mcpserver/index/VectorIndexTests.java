@@ -0,0 +1,130 @@
+package net.kaduk.kb.mcpserver.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.within;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VectorIndexTests {
+
+	private static final int DIMENSIONS = 32;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void findsMostOfTheExactNearestNeighbours() throws IOException {
+		Random random = new Random(7);
+		float[][] centroids = new float[50][];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = randomVector(random, 1);
+		}
+		VectorIndex.Builder builder = VectorIndex.builder(DIMENSIONS, 8, 64, 1);
+		for (int i = 0; i < 5_000; i++) {
+			builder.add("urn:entity:" + i, near(centroids[random.nextInt(centroids.length)], random));
+		}
+		VectorIndex index = write(builder);
+
+		int found = 0;
+		int queries = 100;
+		for (int q = 0; q < queries; q++) {
+			float[] query = near(centroids[random.nextInt(centroids.length)], random);
+			Set<String> exact = uris(index.searchExact(query, 10));
+			found += (int) index.search(query, 10, 64).stream().filter(hit -> exact.contains(hit.uri())).count();
+		}
+
+		assertThat(index.size()).isEqualTo(5_000);
+		assertThat(found / (queries * 10.0)).isGreaterThan(0.9);
+	}
+
+	@Test
+	void quantizedScoresApproximateTheCosine() throws IOException {
+		float[] vector = { 3, 4, 0, 0 };
+		VectorIndex index = write(VectorIndex.builder(4, 4, 16, 1)
+			.add("urn:a", vector)
+			.add("urn:b", new float[] { 0, 0, 1, 0 })
+			.add("urn:zero", new float[4]));
+
+		List<VectorIndex.Hit> hits = index.search(new float[] { 6, 8, 0, 0 }, 2, 8);
+
+		assertThat(index.size()).isEqualTo(2);
+		assertThat(hits).extracting(VectorIndex.Hit::uri).containsExactly("urn:a", "urn:b");
+		assertThat(hits.get(0).score()).isCloseTo(1.0, within(0.01));
+		assertThat(hits.get(1).score()).isCloseTo(0.0, within(0.01));
+		assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> index.search(new float[3], 1, 8));
+	}
+
+	@Test
+	void emptyIndexHasNoHits() throws IOException {
+		VectorIndex index = write(VectorIndex.builder(DIMENSIONS, 4, 16, 1));
+
+		assertThat(index.search(randomVector(new Random(1), 1), 5, 16)).isEmpty();
+	}
+
+	@Test
+	void closedIndexRefusesSearches() throws IOException {
+		VectorIndex index = write(VectorIndex.builder(4, 4, 16, 1).add("urn:a", new float[] { 1, 0, 0, 0 }));
+
+		index.close();
+		index.close();
+
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> index.search(new float[] { 1, 0, 0, 0 }, 1, 8));
+		// Unmapped, the file can be replaced and mapped again
+		assertThat(write(VectorIndex.builder(4, 4, 16, 1).add("urn:b", new float[] { 0, 1, 0, 0 }))
+			.search(new float[] { 0, 1, 0, 0 }, 1, 8)).extracting(VectorIndex.Hit::uri).containsExactly("urn:b");
+	}
+
+	@Test
+	void truncatedFileIsRejected() throws IOException {
+		Path file = tempDir.resolve("vectors.bin");
+		VectorIndex.builder(4, 4, 16, 1).add("urn:a", new float[] { 1, 0, 0, 0 }).write(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 1);
+		}
+
+		assertThatExceptionOfType(IOException.class).isThrownBy(() -> VectorIndex.open(file))
+			.withMessageContaining("Truncated");
+	}
+
+	private VectorIndex write(VectorIndex.Builder builder) throws IOException {
+		Path file = tempDir.resolve("vectors.bin");
+		builder.write(file);
+		return VectorIndex.open(file);
+	}
+
+	private static Set<String> uris(List<VectorIndex.Hit> hits) {
+		Set<String> uris = new HashSet<>();
+		hits.forEach(hit -> uris.add(hit.uri()));
+		return uris;
+	}
+
+	private static float[] near(float[] centroid, Random random) {
+		float[] noise = randomVector(random, 0.3f);
+		for (int i = 0; i < DIMENSIONS; i++) {
+			noise[i] += centroid[i];
+		}
+		return noise;
+	}
+
+	private static float[] randomVector(Random random, float spread) {
+		float[] vector = new float[DIMENSIONS];
+		for (int i = 0; i < DIMENSIONS; i++) {
+			vector[i] = (float) random.nextGaussian() * spread;
+		}
+		return vector;
+	}
+
+}
@@ -0,0 +1,338 @@
+package net.kaduk.kb.mcpserver.load;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.modelcontextprotocol.client.McpAsyncClient;
+import io.modelcontextprotocol.client.McpClient;
+import io.modelcontextprotocol.client.transport.WebFluxSseClientTransport;
+import io.modelcontextprotocol.spec.McpSchema.CallToolRequest;
+import net.kaduk.kb.mcpserver.MCPServerApplication;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Open-loop load test of the MCP server over SSE.
+ *
+ * Tool calls arrive at a fixed rate whatever the latency of earlier calls, drawn from a weighted
+ * tool mix and spread over a number of client sessions. The latency of a call is measured from the
+ * time it was due rather than the time it was sent, so a server falling behind shows in the
+ * percentiles instead of slowing the arrivals down. Unless {@code --target} names a running
+ * server, the server is started in process against a stand-in SPARQL endpoint and a stand-in
+ * weather API, each answering after a given latency.
+ *
+ * <pre>
+ * mvn -Pload-test test-compile exec:exec -Dload.args="--rate=200 --duration=60s --sparql-latency=80ms"
+ * </pre>
+ *
+ * Options are {@code --sessions}, {@code --rate} (calls per second), {@code --duration},
+ * {@code --warmup}, {@code --mix} (e.g. {@code getEntityInfo:3,getAlerts:1}),
+ * {@code --sparql-latency}, {@code --weather-latency}, {@code --entities} (synthetic entities of
+ * the stand-in endpoint), {@code --seed} and {@code --target}; any other {@code --key=value} is
+ * passed to the in-process server as a property.
+ */
+public final class LoadTest {
+
+	static final Map<String, Integer> DEFAULT_MIX = defaultMix();
+
+	private static final String[] ENTITIES = { "Berlin", "Paris", "Germany", "France", "Albert_Einstein",
+			"Marie_Curie", "Ulm", "Nobel_Prize_in_Physics", "Theory_of_relativity" };
+
+	private static final String[] CATEGORIES = { "Capitals_in_Europe", "Nobel_laureates_in_Physics",
+			StandInSparqlEndpoint.SYNTHETIC_CATEGORY };
+
+	private static final String[] STATES = { "NY", "NJ", "CA", "TX", "FL" };
+
+	// Distinct locations, so that gridpoint and forecast caches fill as they would in service
+	private static final int LOCATIONS = 200;
+
+	private static final int MAX_CONNECTIONS = 4096;
+
+	private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		run(Options.parse(args)).print(System.out);
+		System.exit(0);
+	}
+
+	record Options(int sessions, double rate, Duration duration, Duration warmup, Map<String, Integer> mix,
+			Duration sparqlLatency, Duration weatherLatency, int entities, long seed, String target,
+			Map<String, Object> properties) {
+
+		static Options defaults() {
+			return new Options(16, 50, Duration.ofSeconds(30), Duration.ofSeconds(5), DEFAULT_MIX,
+					Duration.ofMillis(50), Duration.ofMillis(20), 500, 42, null, Map.of());
+		}
+
+		static Options parse(String[] args) {
+			Options defaults = defaults();
+			Map<String, String> values = new LinkedHashMap<>();
+			for (String arg : args) {
+				int separator = arg.indexOf('=');
+				if (!arg.startsWith("--") || separator < 0) {
+					throw new IllegalArgumentException("Expected --option=value, got " + arg);
+				}
+				values.put(arg.substring(2, separator), arg.substring(separator + 1));
+			}
+			Options options = new Options(
+					integer(values.remove("sessions"), defaults.sessions),
+					values.containsKey("rate") ? Double.parseDouble(values.remove("rate")) : defaults.rate,
+					duration(values.remove("duration"), defaults.duration),
+					duration(values.remove("warmup"), defaults.warmup),
+					values.containsKey("mix") ? mix(values.remove("mix")) : defaults.mix,
+					duration(values.remove("sparql-latency"), defaults.sparqlLatency),
+					duration(values.remove("weather-latency"), defaults.weatherLatency),
+					integer(values.remove("entities"), defaults.entities),
+					values.containsKey("seed") ? Long.parseLong(values.remove("seed")) : defaults.seed,
+					values.remove("target"), Map.of());
+			return options.withProperties(new LinkedHashMap<>(values));
+		}
+
+		Options withProperties(Map<String, Object> properties) {
+			Map<String, Object> merged = new LinkedHashMap<>(this.properties);
+			merged.putAll(properties);
+			return new Options(sessions, rate, duration, warmup, mix, sparqlLatency, weatherLatency, entities, seed,
+					target, merged);
+		}
+
+		private static int integer(String value, int otherwise) {
+			return value == null ? otherwise : Integer.parseInt(value);
+		}
+
+		private static Duration duration(String value, Duration otherwise) {
+			return value == null ? otherwise : DurationStyle.detectAndParse(value);
+		}
+
+		private static Map<String, Integer> mix(String value) {
+			Map<String, Integer> mix = new LinkedHashMap<>();
+			for (String entry : value.split(",")) {
+				String[] toolAndWeight = entry.strip().split(":");
+				mix.put(toolAndWeight[0], toolAndWeight.length > 1 ? Integer.parseInt(toolAndWeight[1]) : 1);
+			}
+			return mix;
+		}
+
+	}
+
+	/**
+	 * Latencies of the calls of one tool after the warmup, in microseconds.
+	 */
+	record ToolStats(String tool, Histogram latencies, long errors) {
+	}
+
+	record Report(Options options, List<ToolStats> tools, Duration measured, long missed) {
+
+		ToolStats tool(String name) {
+			return tools.stream().filter(stats -> stats.tool.equals(name)).findFirst().orElseThrow();
+		}
+
+		void print(PrintStream out) {
+			out.printf("%d sessions, %.1f calls/s for %s after %s of warmup%n", options.sessions, options.rate,
+					options.duration, options.warmup);
+			out.printf("%-32s %8s %7s %9s %9s %9s %9s %9s %8s%n", "Tool", "Calls", "Errors", "p50 ms", "p90 ms",
+					"p99 ms", "p99.9 ms", "max ms", "calls/s");
+			Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+			long errors = 0;
+			for (ToolStats stats : tools) {
+				row(out, stats.tool, stats.latencies, stats.errors);
+				all.add(stats.latencies);
+				errors += stats.errors;
+			}
+			row(out, "all", all, errors);
+			if (missed > 0) {
+				out.printf("%d calls still outstanding at the end were left out%n", missed);
+			}
+		}
+
+		private void row(PrintStream out, String name, Histogram latencies, long errors) {
+			out.printf("%-32s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %8.1f%n", name, latencies.getTotalCount(),
+					errors, millis(latencies, 50), millis(latencies, 90), millis(latencies, 99),
+					millis(latencies, 99.9), latencies.getMaxValue() / 1000.0,
+					latencies.getTotalCount() / (measured.toNanos() / 1e9));
+		}
+
+		private static double millis(Histogram latencies, double percentile) {
+			return latencies.getValueAtPercentile(percentile) / 1000.0;
+		}
+
+	}
+
+	static Report run(Options options) throws Exception {
+		if (options.target != null) {
+			return drive(options, options.target);
+		}
+		StandInSparqlEndpoint sparql = new StandInSparqlEndpoint(options.entities, options.sparqlLatency);
+		StandInWeatherApi weather = new StandInWeatherApi(options.weatherLatency);
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("server.port", "0");
+		properties.put("sparql.backend", "remote");
+		properties.put("sparql.endpoint.url", sparql.url());
+		properties.put("sparql.default-graph-uri", "");
+		properties.put("weather.base-url", weather.url());
+		// An empty location binds to the default one, so the gridpoints of the run go to a file of its own
+		Path gridpoints = Files.createTempFile("load-test-gridpoints", ".tsv");
+		properties.put("weather.gridpoints.location", gridpoints);
+		properties.put("kb.index.enabled", "false");
+		properties.put("weather.alerts.enabled", "false");
+		properties.put("spring.main.banner-mode", "off");
+		properties.put("logging.level.net.kaduk.kb.mcpserver", "WARN");
+		properties.putAll(options.properties);
+		// As arguments rather than default properties, so that they override application.properties
+		String[] arguments = properties.entrySet()
+			.stream()
+			.map(property -> "--" + property.getKey() + "=" + property.getValue())
+			.toArray(String[]::new);
+		try (ConfigurableApplicationContext server = new SpringApplicationBuilder(MCPServerApplication.class)
+			.run(arguments)) {
+			return drive(options, "http://127.0.0.1:" + server.getEnvironment().getProperty("local.server.port"));
+		}
+		finally {
+			sparql.stop();
+			weather.stop();
+			Files.deleteIfExists(gridpoints);
+		}
+	}
+
+	private static Report drive(Options options, String target) throws InterruptedException {
+		// A message is answered only once the call completes, so each call in flight holds a connection; the
+		// default pool would bound the calls in flight and queue the rest in the client
+		ConnectionProvider connections = ConnectionProvider.builder("load-test")
+			.maxConnections(MAX_CONNECTIONS)
+			.pendingAcquireMaxCount(-1)
+			.build();
+		WebClient.Builder webClient = WebClient.builder()
+			.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+			.baseUrl(target);
+		List<McpAsyncClient> clients = new ArrayList<>();
+		try {
+			for (int i = 0; i < options.sessions; i++) {
+				McpAsyncClient client = McpClient.async(new WebFluxSseClientTransport(webClient.clone()))
+					.requestTimeout(Duration.ofMinutes(1))
+					.build();
+				client.initialize().block(Duration.ofSeconds(30));
+				clients.add(client);
+			}
+			return drive(options, clients);
+		}
+		finally {
+			clients.forEach(McpAsyncClient::close);
+			connections.dispose();
+		}
+	}
+
+	private static Report drive(Options options, List<McpAsyncClient> clients) throws InterruptedException {
+		Map<String, ConcurrentHistogram> latencies = new LinkedHashMap<>();
+		Map<String, AtomicLong> errors = new LinkedHashMap<>();
+		List<String> draw = new ArrayList<>();
+		options.mix.forEach((tool, weight) -> {
+			latencies.put(tool, new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3));
+			errors.put(tool, new AtomicLong());
+			for (int i = 0; i < weight; i++) {
+				draw.add(tool);
+			}
+		});
+		Random random = new Random(options.seed);
+		Phaser outstanding = new Phaser(1);
+		long period = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+		long start = System.nanoTime();
+		long measureFrom = start + options.warmup.toNanos();
+		long end = measureFrom + options.duration.toNanos();
+		for (long call = 0;; call++) {
+			long due = start + call * period;
+			if (due - end >= 0) {
+				break;
+			}
+			for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+			String tool = draw.get(random.nextInt(draw.size()));
+			CallToolRequest request = new CallToolRequest(tool, arguments(tool, random));
+			boolean measured = due - measureFrom >= 0;
+			outstanding.register();
+			clients.get((int) (call % clients.size())).callTool(request).subscribe(result -> {
+				if (measured) {
+					latencies.get(tool).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+					if (Boolean.TRUE.equals(result.isError())) {
+						errors.get(tool).incrementAndGet();
+					}
+				}
+				outstanding.arriveAndDeregister();
+			}, error -> {
+				if (measured) {
+					latencies.get(tool).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+					errors.get(tool).incrementAndGet();
+				}
+				outstanding.arriveAndDeregister();
+			});
+		}
+		long missed = 0;
+		try {
+			outstanding.awaitAdvanceInterruptibly(outstanding.arrive(), 1, TimeUnit.MINUTES);
+		}
+		catch (TimeoutException e) {
+			missed = outstanding.getUnarrivedParties();
+		}
+		List<ToolStats> tools = new ArrayList<>();
+		latencies.forEach((tool, histogram) -> tools.add(new ToolStats(tool, histogram, errors.get(tool).get())));
+		return new Report(options, tools, options.duration, missed);
+	}
+
+	private static Map<String, Object> arguments(String tool, Random random) {
+		return switch (tool) {
+			case "getEntityInfo" -> Map.of("entityName", pick(ENTITIES, random).replace('_', ' '));
+			case "getEntitiesInfo" -> Map.of("entities",
+					List.of(pick(ENTITIES, random), pick(ENTITIES, random), pick(ENTITIES, random)));
+			case "findRelatedEntities" -> Map.of("entityName", pick(ENTITIES, random), "limit", 10);
+			case "searchByCategory" -> Map.of("category", pick(CATEGORIES, random), "limit", 50);
+			case "getWeatherForecastByLocation" -> location(random);
+			case "getWeatherForecastsByLocations" ->
+				Map.of("locations", List.of(location(random), location(random), location(random), location(random)));
+			case "getAlerts" -> Map.of("state", pick(STATES, random));
+			default -> throw new IllegalArgumentException("No arguments known for tool " + tool);
+		};
+	}
+
+	private static Map<String, Object> location(Random random) {
+		return Map.of("latitude", 30 + random.nextInt(LOCATIONS) / 100.0, "longitude", -100.0);
+	}
+
+	private static String pick(String[] values, Random random) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private static Map<String, Integer> defaultMix() {
+		Map<String, Integer> mix = new LinkedHashMap<>();
+		mix.put("getEntityInfo", 3);
+		mix.put("findRelatedEntities", 2);
+		mix.put("searchByCategory", 2);
+		mix.put("getEntitiesInfo", 1);
+		mix.put("getWeatherForecastByLocation", 4);
+		mix.put("getWeatherForecastsByLocations", 1);
+		mix.put("getAlerts", 2);
+		return mix;
+	}
+
+}
@@ -0,0 +1,34 @@
+package net.kaduk.kb.mcpserver.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class LoadTestTests {
+
+	@Test
+	void everyToolOfTheMixAnswersWithoutErrors() throws Exception {
+		LoadTest.Options options = LoadTest.Options.parse(new String[] { "--sessions=4", "--rate=40",
+				"--duration=2s", "--warmup=1s", "--sparql-latency=5ms", "--weather-latency=5ms", "--entities=50",
+				"--logging.file.name=./target/load-test.log" });
+
+		LoadTest.Report report = LoadTest.run(options);
+
+		assertThat(report.missed()).isZero();
+		for (String tool : LoadTest.DEFAULT_MIX.keySet()) {
+			assertThat(report.tool(tool).latencies().getTotalCount()).as(tool).isPositive();
+			assertThat(report.tool(tool).errors()).as(tool).isZero();
+		}
+	}
+
+	@Test
+	void unknownOptionsArePassedToTheServer() {
+		LoadTest.Options options = LoadTest.Options.parse(new String[] { "--rate=5",
+				"--mix=getAlerts:1,getEntityInfo", "--spring.ai.mcp.server.type=ASYNC" });
+
+		assertThat(options.rate()).isEqualTo(5);
+		assertThat(options.mix()).containsEntry("getAlerts", 1).containsEntry("getEntityInfo", 1);
+		assertThat(options.properties()).containsEntry("spring.ai.mcp.server.type", "ASYNC");
+	}
+
+}
@@ -0,0 +1,83 @@
+package net.kaduk.kb.mcpserver.load;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.kaduk.kb.mcpserver.StandInServer;
+
+/**
+ * In-memory SPARQL endpoint over the DBpedia fixture, answering every query in SPARQL JSON
+ * after a fixed latency.
+ *
+ * Besides the fixture it holds synthetic entities in the category {@code Synthetic_entities},
+ * each with a label, a type and an abstract of about a kilobyte, so that category searches
+ * return results of a realistic size.
+ */
+final class StandInSparqlEndpoint {
+
+	static final String SYNTHETIC_CATEGORY = "Synthetic_entities";
+
+	private static final String DBO = "http://dbpedia.org/ontology/";
+
+	private static final String DBR = "http://dbpedia.org/resource/";
+
+	private final Dataset dataset;
+
+	private final StandInServer server;
+
+	StandInSparqlEndpoint(int syntheticEntities, Duration latency) {
+		this.dataset = DatasetFactory.create(model(syntheticEntities));
+		this.server = new StandInServer("/sparql", this::handle);
+		server.setDelay(latency);
+	}
+
+	String url() {
+		return server.url();
+	}
+
+	void stop() {
+		server.stop();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String query;
+		try {
+			query = StandInServer.query(exchange);
+		}
+		catch (IllegalArgumentException e) {
+			StandInServer.respond(exchange, 400, "text/plain", String.valueOf(e.getMessage()));
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", ResultSetLang.RS_JSON.getHeaderString());
+		exchange.sendResponseHeaders(200, 0);
+		StandInServer.results(exchange.getResponseBody(), dataset, query, ResultSetLang.RS_JSON);
+	}
+
+	private static Model model(int syntheticEntities) {
+		Model model = RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl");
+		Resource category = model.createResource(DBR + "Category:" + SYNTHETIC_CATEGORY);
+		String text = " is a synthetic entity standing in for a DBpedia resource of the load test. ".repeat(12);
+		for (int i = 0; i < syntheticEntities; i++) {
+			String label = "Entity " + i;
+			model.createResource(DBR + "Entity_" + i)
+				.addProperty(RDFS.label, model.createLiteral(label, "en"))
+				.addProperty(model.createProperty(DBO, "abstract"), model.createLiteral(label + text.strip(), "en"))
+				.addProperty(RDF.type, model.createResource(DBO + "Place"))
+				.addProperty(model.createProperty("http://purl.org/dc/terms/", "subject"), category)
+				.addProperty(model.createProperty(DBO, "country"), model.createResource(DBR + "Germany"));
+		}
+		return model;
+	}
+
+}
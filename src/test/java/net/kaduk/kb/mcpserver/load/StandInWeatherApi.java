@@ -0,0 +1,89 @@
+package net.kaduk.kb.mcpserver.load;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.StringJoiner;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.kaduk.kb.mcpserver.StandInServer;
+
+/**
+ * Stand-in for api.weather.gov answering points, forecast and alert requests after a fixed
+ * latency.
+ *
+ * Every location has a grid cell of its own and a forecast of 14 periods, cacheable for a
+ * minute as the API allows; the active alerts feed holds a few alerts of NY and NJ.
+ */
+final class StandInWeatherApi {
+
+	private static final String[] PERIODS = { "Tonight", "Monday", "Monday Night", "Tuesday", "Tuesday Night",
+			"Wednesday", "Wednesday Night", "Thursday", "Thursday Night", "Friday", "Friday Night", "Saturday",
+			"Saturday Night", "Sunday" };
+
+	private static final String ALERTS = """
+			{"features": [
+			{"properties": {"id": "1", "event": "Wind Advisory", "areaDesc": "Suffolk", "severity": "Minor",
+			"description": "Gusty winds.", "instruction": "Secure loose objects.", "geocode": {"UGC": ["NYZ080"]}}},
+			{"properties": {"id": "2", "event": "Flood Warning", "areaDesc": "Orange; Sussex", "severity": "Severe",
+			"description": "River flooding.", "instruction": "Avoid low areas.", "geocode": {"UGC": ["NYC071", "NJC037"]}}},
+			{"properties": {"id": "3", "event": "Beach Hazards Statement", "areaDesc": "Ocean", "severity": "Moderate",
+			"description": "Rip currents.", "instruction": "Stay out of the water.", "geocode": {"UGC": ["NJZ014"]}}}]}
+			""";
+
+	private final StandInServer server;
+
+	StandInWeatherApi(Duration latency) {
+		this.server = new StandInServer("", this::handle);
+		server.setDelay(latency);
+	}
+
+	String url() {
+		return server.url();
+	}
+
+	void stop() {
+		server.stop();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String[] path = exchange.getRequestURI().getPath().split("/");
+		if (path.length == 3 && path[1].equals("points")) {
+			respond(exchange, 200, """
+					{"properties": {"forecast": "%s/gridpoints/TST/%s/forecast"}}
+					""".formatted(url(), path[2]));
+		}
+		else if (path.length == 5 && path[1].equals("gridpoints")) {
+			exchange.getResponseHeaders().set("Cache-Control", "public, max-age=60");
+			respond(exchange, 200, forecast(path[3]));
+		}
+		else if (path.length == 3 && path[1].equals("alerts")) {
+			respond(exchange, 200, ALERTS);
+		}
+		else if (path.length == 5 && path[1].equals("alerts")) {
+			respond(exchange, 200, """
+					{"features": [{"properties": {"event": "Flood Warning", "areaDesc": "%s", "severity": "Severe",
+					"description": "River flooding.", "instruction": "Avoid low areas."}}]}
+					""".formatted(path[4]));
+		}
+		else {
+			respond(exchange, 404, "{\"title\": \"Not Found\"}");
+		}
+	}
+
+	private static String forecast(String cell) {
+		StringJoiner periods = new StringJoiner(",", "{\"properties\": {\"periods\": [", "]}}");
+		for (int i = 0; i < PERIODS.length; i++) {
+			periods.add("""
+					{"number": %d, "name": "%s", "temperature": %d, "temperatureUnit": "F", "windSpeed": "5 to 10 mph",
+					"windDirection": "NW", "detailedForecast": "Mostly clear at %s, with a low around %d. Northwest wind 5 to 10 mph."}
+					""".formatted(i + 1, PERIODS[i], 40 + i, cell, 40 + i));
+		}
+		return periods.toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		StandInServer.respond(exchange, status, "application/geo+json", json);
+	}
+
+}
@@ -0,0 +1,153 @@
+package net.kaduk.kb.mcpserver.loader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+
+class KnowledgeBaseLoaderTests {
+
+	@TempDir
+	Path tempDir;
+
+	private LocalSparqlExecutor store;
+
+	private Model fixture;
+
+	@BeforeEach
+	void openStore() {
+		store = new LocalSparqlExecutor(tempDir.resolve("tdb2").toString(), Duration.ofSeconds(10));
+		fixture = RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl");
+	}
+
+	@AfterEach
+	void closeStore() {
+		store.close();
+	}
+
+	@Test
+	void loadsNTriplesDumpInParallelChunks() throws Exception {
+		Path dump = tempDir.resolve("sample.nt");
+		try (OutputStream out = Files.newOutputStream(dump)) {
+			RDFDataMgr.write(out, fixture, Lang.NTRIPLES);
+		}
+		LoaderProperties properties = new LoaderProperties(4, DataSize.ofBytes(512), 7, 10, List.of(), null);
+
+		KnowledgeBaseLoader.LoadReport report = new KnowledgeBaseLoader(store, properties).load(List.of(dump));
+
+		assertThat(report.triples()).isEqualTo(fixture.size());
+		assertThat(storedTriples()).isEqualTo(fixture.size());
+		assertThat(Txn.calculateRead(store.dataset(), () -> store.dataset().getDefaultModel().isIsomorphicWith(fixture)))
+			.isTrue();
+	}
+
+	@Test
+	void keepsBlankNodesConsistentAcrossChunks() throws Exception {
+		Path dump = tempDir.resolve("bnodes.nt");
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			lines.append("_:b1 <http://example.org/p> \"value ").append(i).append("\" .\n");
+		}
+		Files.writeString(dump, lines);
+		LoaderProperties properties = new LoaderProperties(4, DataSize.ofBytes(256), 16, 0, List.of(), null);
+
+		new KnowledgeBaseLoader(store, properties).load(List.of(dump));
+
+		long subjects = Txn.calculateRead(store.dataset(),
+				() -> store.dataset().getDefaultModel().listSubjects().toList().size());
+		assertThat(subjects).isEqualTo(1);
+	}
+
+	@Test
+	void loadsCompressedAndTurtleFilesWhole() throws Exception {
+		Path gzipped = tempDir.resolve("sample.nt.gz");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+			RDFDataMgr.write(out, fixture, Lang.NTRIPLES);
+		}
+		Path turtle = tempDir.resolve("extra.ttl");
+		Files.writeString(turtle, "<http://example.org/a> <http://example.org/p> \"extra\" .\n");
+
+		KnowledgeBaseLoader.LoadReport report = new KnowledgeBaseLoader(store, LoaderProperties.defaults())
+			.load(List.of(gzipped, turtle));
+
+		assertThat(report.files()).isEqualTo(2);
+		assertThat(storedTriples()).isEqualTo(fixture.size() + 1);
+	}
+
+	@Test
+	void appliesChangesetsIncrementallyAndOnlyOnce() throws Exception {
+		Path dump = tempDir.resolve("sample.nt");
+		try (OutputStream out = Files.newOutputStream(dump)) {
+			RDFDataMgr.write(out, fixture, Lang.NTRIPLES);
+		}
+		new KnowledgeBaseLoader(store, LoaderProperties.defaults()).load(List.of(dump));
+
+		Path changesets = Files.createDirectories(tempDir.resolve("changesets"));
+		Files.writeString(changesets.resolve("000001.removed.nt"),
+				"<http://dbpedia.org/resource/Berlin> <http://dbpedia.org/ontology/country> <http://dbpedia.org/resource/Germany> .\n");
+		Files.writeString(changesets.resolve("000001.added.nt"),
+				"<http://dbpedia.org/resource/Berlin> <http://dbpedia.org/ontology/populationTotal> \"3850809\" .\n");
+		Files.writeString(changesets.resolve("000002.added.nt"),
+				"<http://dbpedia.org/resource/Berlin> <http://dbpedia.org/ontology/areaTotal> \"891.3\" .\n");
+
+		ChangesetApplier applier = new ChangesetApplier(store, LoaderProperties.defaults());
+		assertThat(applier.applyPending(changesets)).isEqualTo(2);
+		assertThat(applier.applyPending(changesets)).isZero();
+
+		assertThat(storedTriples()).isEqualTo(fixture.size() + 1);
+		assertThat(Files.readString(changesets.resolve(".last-applied"))).isEqualTo("000002");
+	}
+
+	@Test
+	void appliesChangesetsInNumericOrderFromNestedDirectories() throws Exception {
+		Path dump = tempDir.resolve("sample.nt");
+		try (OutputStream out = Files.newOutputStream(dump)) {
+			RDFDataMgr.write(out, fixture, Lang.NTRIPLES);
+		}
+		new KnowledgeBaseLoader(store, LoaderProperties.defaults()).load(List.of(dump));
+		String population = "<http://dbpedia.org/resource/Berlin> <http://dbpedia.org/ontology/populationTotal> \"3850809\" .\n";
+		String area = "<http://dbpedia.org/resource/Berlin> <http://dbpedia.org/ontology/areaTotal> \"891.3\" .\n";
+
+		Path changesets = Files.createDirectories(tempDir.resolve("changesets"));
+		Files.writeString(changesets.resolve("9.added.nt"), population);
+		ChangesetApplier applier = new ChangesetApplier(store, LoaderProperties.defaults());
+		assertThat(applier.applyPending(changesets)).isEqualTo(1);
+
+		Files.writeString(changesets.resolve("10.removed.nt"), population);
+		assertThat(applier.applyPending(changesets)).isEqualTo(1);
+		assertThat(Files.readString(changesets.resolve(".last-applied"))).isEqualTo("10");
+
+		// Hourly directories, whose counters restart
+		Path hour = Files.createDirectories(changesets.resolve("2024/01/05/09"));
+		Path nextHour = Files.createDirectories(changesets.resolve("2024/01/05/10"));
+		Files.writeString(hour.resolve("000002.added.nt"), population);
+		Files.writeString(nextHour.resolve("000001.removed.nt"), population);
+		Files.writeString(nextHour.resolve("000001.added.nt"), area);
+		assertThat(applier.applyPending(changesets)).isEqualTo(2);
+		assertThat(applier.applyPending(changesets)).isZero();
+
+		assertThat(Files.readString(changesets.resolve(".last-applied"))).isEqualTo("2024/01/05/10/000001");
+		assertThat(changesets.resolve(".last-applied.tmp")).doesNotExist();
+	}
+
+	private long storedTriples() {
+		return Txn.calculateRead(store.dataset(), () -> store.dataset().getDefaultModel().size());
+	}
+
+}
@@ -0,0 +1,114 @@
+package net.kaduk.kb.mcpserver.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.sparql.BoundQuery;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.QueryTemplate;
+import reactor.core.publisher.Mono;
+
+class QueryMetricsTests {
+
+	private static final QueryTemplate LABELS = QueryTemplate.parse("labels",
+			"SELECT ?entity ?label WHERE { ?entity <http://www.w3.org/2000/01/rdf-schema#label> ?label }");
+
+	@TempDir
+	Path storeDir;
+
+	private LocalSparqlExecutor executor;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final QueryMetrics metrics = new QueryMetrics(registry);
+
+	@BeforeEach
+	void loadFixture() {
+		executor = new LocalSparqlExecutor(storeDir.toString(), Duration.ofSeconds(10));
+		Txn.executeWrite(executor.dataset(),
+				() -> RDFDataMgr.read(executor.dataset(), "fixtures/dbpedia-sample.ttl"));
+	}
+
+	@AfterEach
+	void close() {
+		executor.close();
+	}
+
+	@Test
+	void boundQueryIsMeteredByPhaseUnderItsTemplate() {
+		BoundQuery query = LABELS.bind().limit(3).build();
+
+		List<String> labels = metrics.select(executor, query, resultSet -> {
+			List<String> found = new ArrayList<>();
+			resultSet.forEachRemaining(row -> found.add(row.getLiteral("label").getString()));
+			return found;
+		});
+
+		assertThat(labels).hasSize(3);
+		assertThat(registry.get("sparql.query").tag("query", "labels").tag("outcome", "success").timer().count())
+			.isEqualTo(1);
+		assertThat(registry.get("sparql.query.rows").tag("query", "labels").summary().totalAmount()).isEqualTo(3);
+		assertThat(registry.get("sparql.query.phase").tag("query", "labels").timers())
+			.extracting(timer -> timer.getId().getTag("phase"))
+			.containsExactlyInAnyOrder("execute", "iterate", "map");
+	}
+
+	@Test
+	void failedQueryIsCountedByCause() {
+		assertThatExceptionOfType(QueryParseException.class)
+			.isThrownBy(() -> metrics.select(executor, "SELECT ?s WHERE {", resultSet -> resultSet.hasNext()));
+
+		assertThat(registry.get("sparql.query.errors")
+			.tag("query", QueryMetrics.TEXT_QUERY)
+			.tag("cause", ErrorCause.PARSE)
+			.counter()
+			.count()).isEqualTo(1);
+		assertThat(registry.get("sparql.query").tag("outcome", "error").timer().count()).isEqualTo(1);
+		assertThat(registry.find("sparql.query.rows").summary()).isNull();
+	}
+
+	@Test
+	void causeIsFoundThroughWrappers() {
+		assertThat(ErrorCause.of(new CompletionException(new QueryExceptionHTTP(503, "Service Unavailable"))))
+			.isEqualTo("http_503");
+		assertThat(ErrorCause.of(new CompletionException(new HttpTimeoutException("request timed out"))))
+			.isEqualTo(ErrorCause.TIMEOUT);
+		assertThat(ErrorCause.of(new IllegalStateException(new ConnectException("refused"))))
+			.isEqualTo(ErrorCause.CONNECTION);
+		assertThat(ErrorCause.of(new IllegalStateException("no cause"))).isEqualTo(ErrorCause.OTHER);
+	}
+
+	@Test
+	void toolCallsAreTimedWithTheirResultSize() {
+		ToolMetrics tools = new ToolMetrics(registry);
+
+		tools.timed("getEntityInfo", Mono.just("Berlin – capital")).block();
+		assertThatExceptionOfType(QueryExceptionHTTP.class)
+			.isThrownBy(() -> tools.timed("getEntityInfo", Mono.<String>error(new QueryExceptionHTTP(502, "Bad Gateway")))
+				.block());
+
+		assertThat(registry.get("mcp.tool.calls").tag("tool", "getEntityInfo").tag("outcome", "success").timer().count())
+			.isEqualTo(1);
+		assertThat(registry.get("mcp.tool.response.size").summary().totalAmount()).isEqualTo(18);
+		assertThat(registry.get("mcp.tool.errors").tag("cause", "http_502").counter().count()).isEqualTo(1);
+	}
+
+}
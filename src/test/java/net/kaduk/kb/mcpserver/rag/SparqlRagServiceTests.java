@@ -0,0 +1,146 @@
+package net.kaduk.kb.mcpserver.rag;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.index.EmbeddingIndexProperties;
+import net.kaduk.kb.mcpserver.index.EmbeddingIndexService;
+import net.kaduk.kb.mcpserver.index.HashingEmbeddingModel;
+import net.kaduk.kb.mcpserver.index.LabelIndexProperties;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.retriever.SparqlKnowledgeBaseRetriever;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+import reactor.core.publisher.Flux;
+
+class SparqlRagServiceTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void answerIsStreamedFromRetrievedFacts() {
+		StubChatModel chatModel = new StubChatModel("Berlin", " is the", " capital.");
+		SparqlAsyncExecutor asyncExecutor = new SparqlAsyncExecutor(2);
+		try (LocalSparqlExecutor store = new LocalSparqlExecutor(tempDir.resolve("tdb2").toString(),
+				Duration.ofSeconds(10))) {
+			Txn.executeWrite(store.dataset(), () -> {
+				RDFDataMgr.read(store.dataset(), "fixtures/dbpedia-sample.ttl");
+				// A plain literal ending like a language tag, and a typed one
+				Model model = store.dataset().getDefaultModel();
+				Resource berlin = model.createResource("http://dbpedia.org/resource/Berlin");
+				berlin.addProperty(model.createProperty("http://xmlns.com/foaf/0.1/nick"), "tourist@de");
+				berlin.addLiteral(model.createProperty("http://dbpedia.org/ontology/populationTotal"),
+						model.createTypedLiteral(3850809L));
+			});
+			EmbeddingIndexService embeddingIndex = new EmbeddingIndexService(
+					new EmbeddingIndexProperties(true, tempDir.resolve("vectors.bin"), List.of(), "en", "hashing",
+							EmbeddingIndexProperties.defaults().ollama(), 256, 16, 2000, 4, 32, 16),
+					store, new HashingEmbeddingModel(256));
+			embeddingIndex.initialize();
+			SparqlKnowledgeBaseRetriever retriever = new SparqlKnowledgeBaseRetriever(
+					new SparqlKnowledgeBaseService(asyncExecutor, store,
+							new LabelIndexService(LabelIndexProperties.defaults(), store),
+							new QueryMetrics(new SimpleMeterRegistry())),
+					embeddingIndex);
+			SparqlRagService rag = new SparqlRagService(retriever, chatModel, RagProperties.defaults(), registry);
+
+			List<String> chunks = rag.stream("Which city is the capital of Germany?").collectList().block();
+
+			assertThat(chunks).containsExactly("Berlin", " is the", " capital.");
+			String system = chatModel.prompts.get(0).getInstructions().get(0).getText();
+			assertThat(system).contains("## Berlin\n- Berlin is the capital and largest city of Germany.\n",
+					"- country: Germany\n", "- type: City\n", "- type: Place\n", "- nick: tourist@de\n",
+				"- populationTotal: 3850809\n")
+				.doesNotContain("http://dbpedia.org");
+			// Listed once per type and repeated by rdfs:comment, the description is given once
+			assertThat(system.split("largest city of Germany", -1)).hasSize(2);
+			assertThat(chatModel.prompts.get(0).getInstructions().get(1).getText())
+				.isEqualTo("Which city is the capital of Germany?");
+			assertThat(registry.get("rag.first.token").timer().count()).isEqualTo(1);
+			assertThat(registry.get("rag.prompt.size").summary().totalAmount())
+				.isLessThanOrEqualTo(RagProperties.defaults().contextTokens() + 100);
+		}
+		finally {
+			asyncExecutor.shutdown();
+		}
+	}
+
+	@Test
+	void contextKeepsTheBestDistinctFactsWithinItsBudget() {
+		Document berlin = new Document("Entity: Berlin\nDescription: Berlin is the capital of Germany.\nProperties:\n"
+				+ "- country: http://dbpedia.org/resource/Germany\n- comment: Berlin is the capital of Germany.\n"
+				+ "- populationTotal: 3850809\n", Map.of("entityUri", "urn:berlin", "label", "Berlin"));
+		Document paris = new Document("Entity: Paris\nDescription: Paris is the capital of France.\nProperties:\n",
+				Map.of("entityUri", "urn:paris", "label", "Paris"));
+		List<Document> documents = List.of(berlin, berlin, paris);
+
+		assertThat(rag(1500).context("capital of Germany", documents)).isEqualTo("## Berlin\n"
+				+ "- Berlin is the capital of Germany.\n- country: Germany\n- populationTotal: 3850809\n"
+				+ "## Paris\n- Paris is the capital of France.\n");
+		assertThat(rag(20).context("capital of Germany", documents))
+			.isEqualTo("## Berlin\n- Berlin is the capital of Germany.\n- country: Germany\n");
+	}
+
+	@Test
+	void answeringNeedsAChatModel() {
+		SparqlRagService rag = new SparqlRagService(null, null, RagProperties.defaults(), registry);
+
+		assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> rag.generateResponse("Berlin?"));
+	}
+
+	private SparqlRagService rag(int contextTokens) {
+		return new SparqlRagService(null, new StubChatModel(), new RagProperties(true,
+				RagProperties.defaults().ollama(), contextTokens, 4, 0.6), registry);
+	}
+
+	// Streams a canned answer and records the prompts it was given
+	private static final class StubChatModel implements ChatModel {
+
+		private final List<String> chunks;
+
+		private final List<Prompt> prompts = new CopyOnWriteArrayList<>();
+
+		StubChatModel(String... chunks) {
+			this.chunks = List.of(chunks);
+		}
+
+		@Override
+		public ChatResponse call(Prompt prompt) {
+			throw new UnsupportedOperationException("Answers are streamed");
+		}
+
+		@Override
+		public Flux<ChatResponse> stream(Prompt prompt) {
+			prompts.add(prompt);
+			return Flux.fromIterable(chunks)
+				.map(chunk -> new ChatResponse(List.of(new Generation(new AssistantMessage(chunk)))));
+		}
+
+	}
+
+}
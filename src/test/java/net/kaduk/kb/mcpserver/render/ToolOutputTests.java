@@ -0,0 +1,98 @@
+package net.kaduk.kb.mcpserver.render;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ToolOutputTests {
+
+	@Test
+	void textIsWrittenAsLabelledLines() {
+		ToolOutput out = ToolOutput.of(ToolOutput.Format.TEXT, 4096).title("Entities");
+		out.item(item -> item.field("URI", "http://example.org/a").field("Types", List.of("City", "Place")));
+		out.item(item -> item.note("No information found for entity: b"));
+
+		assertThat(out.finish("Nothing found"))
+			.isEqualTo("Entities:\nURI: http://example.org/a\nTypes: City, Place\n\nNo information found for entity: b\n");
+		assertThat(ToolOutput.of(ToolOutput.Format.TEXT, 4096).title("Entities").finish("Nothing found"))
+			.isEqualTo("Nothing found");
+	}
+
+	@Test
+	void jsonIsCompactAndEscaped() throws Exception {
+		ToolOutput out = ToolOutput.of(ToolOutput.Format.JSON, 4096).title("Quotes \"here\"");
+		out.item(item -> item.field("Label", "line\nbreak \\ \u0001").field("Types", List.of("a", "b")));
+
+		JsonNode json = new ObjectMapper().readTree(out.finish("Nothing found"));
+
+		assertThat(json.get("title").asText()).isEqualTo("Quotes \"here\"");
+		assertThat(json.get("results").get(0).get("label").asText()).isEqualTo("line\nbreak \\ \u0001");
+		assertThat(json.get("results").get(0).get("types")).hasSize(2);
+		assertThat(new ObjectMapper().readTree(ToolOutput.of(ToolOutput.Format.JSON, 4096).finish("Nothing found"))
+			.get("message")
+			.asText()).isEqualTo("Nothing found");
+		assertThatIllegalStateException().isThrownBy(() -> ToolOutput.of(ToolOutput.Format.JSON, 4096).text("x"));
+	}
+
+	@Test
+	void longValuesAreClippedAtAWordBoundary() {
+		String description = "word ".repeat(200).strip();
+
+		ToolOutput out = ToolOutput.of(ToolOutput.Format.TEXT, 4096);
+		out.item(item -> item.field("Description", description, 100));
+		String text = out.finish(null);
+
+		assertThat(text).startsWith("Description: word word").endsWith("word…\n");
+		assertThat(text.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo("Description: \n".length() + 100);
+	}
+
+	@Test
+	void itemsBeyondTheBudgetAreLeftOut() throws Exception {
+		ToolOutput text = ToolOutput.of(ToolOutput.Format.TEXT, 300);
+		ToolOutput json = ToolOutput.of(ToolOutput.Format.JSON, 300);
+		for (int i = 0; i < 20; i++) {
+			String label = "Entity number " + i + " – ünïcödé";
+			text.item(item -> item.field("Label", label));
+			json.item(item -> item.field("Label", label));
+		}
+
+		String textResult = text.finish(null);
+		JsonNode jsonResult = new ObjectMapper().readTree(json.finish(null));
+
+		assertThat(textResult.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(300);
+		assertThat(textResult).startsWith("Label: Entity number 0").contains(" more results left out");
+		assertThat(jsonResult.get("results").size() + jsonResult.get("omitted").asInt()).isEqualTo(20);
+		assertThat(ToolOutput.utf8Length("aé€😀", 0, 5)).isEqualTo(10);
+	}
+
+	@Test
+	void pagedResultEndsWithItsCursorWithinTheBudget() throws Exception {
+		String cursor = "A".repeat(120);
+		ToolOutput text = ToolOutput.of(ToolOutput.Format.TEXT, 400).reserveCursor(cursor.length());
+		ToolOutput json = ToolOutput.of(ToolOutput.Format.JSON, 400).reserveCursor(cursor.length());
+		for (int i = 0; i < 20; i++) {
+			String label = "Entity number " + i;
+			text.item(item -> item.field("Label", label));
+			json.item(item -> item.field("Label", label));
+		}
+
+		String textResult = text.finish(null, cursor);
+		String jsonText = json.finish(null, cursor);
+		JsonNode jsonResult = new ObjectMapper().readTree(jsonText);
+
+		assertThat(textResult.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(400);
+		assertThat(textResult).endsWith("[More results: call again with cursor " + cursor + "]\n")
+			.doesNotContain("left out");
+		assertThat(jsonText.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(400);
+		assertThat(jsonResult.get("cursor").asText()).isEqualTo(cursor);
+		assertThat(jsonResult.has("omitted")).isFalse();
+	}
+
+}
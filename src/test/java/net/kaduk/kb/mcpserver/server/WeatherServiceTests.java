@@ -0,0 +1,463 @@
+package net.kaduk.kb.mcpserver.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.mcp.McpToolUtils;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.spec.McpSchema;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.MCPServerApplication;
+import net.kaduk.kb.mcpserver.StandInServer;
+import net.kaduk.kb.mcpserver.deadline.ToolDeadlineProperties;
+import net.kaduk.kb.mcpserver.deadline.ToolDeadlines;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import net.kaduk.kb.mcpserver.render.ToolOutput;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+class WeatherServiceTests {
+
+	private static final Logger log = LoggerFactory.getLogger(WeatherServiceTests.class);
+
+	private StandInWeatherApi api;
+
+	private WeatherService service;
+
+	@TempDir
+	private Path dir;
+
+	@BeforeEach
+	void startApi() {
+		api = new StandInWeatherApi();
+		service = newService();
+	}
+
+	@AfterEach
+	void stopApi() {
+		service.close();
+		api.stop();
+	}
+
+	@Test
+	void asyncToolsAnswerLikeSyncTools() {
+		Map<String, Object> location = Map.of("latitude", 47.6062, "longitude", -122.3321);
+		Map<String, Object> state = Map.of("state", "NY");
+
+		McpSchema.CallToolResult forecast = call(asyncTools(), "getWeatherForecastByLocation", location);
+		McpSchema.CallToolResult alerts = call(asyncTools(), "getAlerts", state);
+
+		assertThat(forecast.isError()).isFalse();
+		assertThat(text(forecast)).contains("Tonight:").contains("Forecast: Clear at 47.6062,-122.3321.");
+		assertThat(text(alerts)).contains("Event: Flood Warning").contains("Area: NY");
+		assertThat(forecast).isEqualTo(call(syncTools(), "getWeatherForecastByLocation", location));
+		assertThat(alerts).isEqualTo(call(syncTools(), "getAlerts", state));
+	}
+
+	@Test
+	void upstreamFailuresAreReportedAsToolErrors() {
+		McpSchema.CallToolResult result = call(asyncTools(), "getAlerts", Map.of("state", "XX"));
+
+		assertThat(result.isError()).isTrue();
+		assertThat(text(result)).contains("404");
+	}
+
+	@Test
+	void asyncModeKeepsMoreCallsInFlight() {
+		api.server.setDelay(Duration.ofMillis(100));
+		int workers = 8;
+		int calls = 40;
+		Scheduler scheduler = Schedulers.newBoundedElastic(workers, calls, "sync-tools");
+		try {
+			Run sync = load(syncTools(scheduler), calls);
+			Run async = load(asyncTools(), calls);
+			log.info("{} forecast calls, two upstream requests each: SYNC {} ms with {} in flight, ASYNC {} ms with {} in flight",
+					calls, sync.elapsed().toMillis(), sync.peakInFlight(), async.elapsed().toMillis(),
+					async.peakInFlight());
+
+			// SYNC calls each hold a worker; ASYNC calls hold none
+			assertThat(sync.peakInFlight()).isLessThanOrEqualTo(workers);
+			assertThat(async.peakInFlight()).isGreaterThan(workers);
+			assertThat(async.elapsed()).isLessThan(sync.elapsed());
+		}
+		finally {
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	void freshForecastsAreServedWithoutRequests() {
+		api.cacheControl = "public, max-age=300";
+
+		String first = service.getWeatherForecastByLocation(47.6062, -122.3321);
+		String second = service.getWeatherForecastByLocation(47.60621, -122.33209);
+
+		assertThat(second).isEqualTo(first);
+		assertThat(api.requests("points")).isEqualTo(1);
+		assertThat(api.requests("gridpoints")).isEqualTo(1);
+	}
+
+	@Test
+	void staleForecastsAreRevalidated() {
+		api.cacheControl = "public, max-age=0";
+
+		String first = service.getWeatherForecastByLocation(47.6062, -122.3321);
+		String second = service.getWeatherForecastByLocation(47.6062, -122.3321);
+
+		assertThat(second).isEqualTo(first);
+		assertThat(api.requests("points")).isEqualTo(1);
+		assertThat(api.requests("gridpoints")).isEqualTo(2);
+		assertThat(api.notModified.get()).isEqualTo(1);
+	}
+
+	@Test
+	void gridpointsSurviveRestarts() {
+		service.getWeatherForecastByLocation(47.6062, -122.3321);
+		service.close();
+
+		service = newService();
+		String forecast = service.getWeatherForecastByLocation(47.6062, -122.3321);
+
+		assertThat(forecast).contains("Forecast: Clear at 47.6062,-122.3321.");
+		assertThat(api.requests("points")).isEqualTo(1);
+		assertThat(api.requests("gridpoints")).isEqualTo(2);
+	}
+
+	@Test
+	void redrawnGridpointsAreResolvedAgain() throws IOException {
+		service.close();
+		Files.writeString(dir.resolve("gridpoints.tsv"),
+				"47.6062\t-122.3321\t" + api.url() + "/gridpoints/OLD/47.6062,-122.3321/forecast\n");
+
+		service = newService();
+		String forecast = service.getWeatherForecastByLocation(47.6062, -122.3321);
+
+		assertThat(forecast).contains("Forecast: Clear at 47.6062,-122.3321.");
+		assertThat(api.requests("points")).isEqualTo(1);
+		assertThat(api.requests("gridpoints")).isEqualTo(2);
+	}
+
+	@Test
+	void alertsAreServedFromTheSnapshot() {
+		assertThat(service.refreshAlerts().block()).isEqualTo(3);
+
+		String newYork = service.getAlerts("NY");
+		assertThat(newYork).contains("Event: Flood Warning", "Event: Wind Advisory")
+			.doesNotContain("Event: Beach Hazards Statement");
+		assertThat(newYork.indexOf("Severity: Severe")).isLessThan(newYork.indexOf("Severity: Minor"));
+		assertThat(service.getAlerts("nj")).contains("Event: Flood Warning", "Event: Beach Hazards Statement");
+		assertThat(service.getAlerts("WY")).isEmpty();
+		assertThat(api.requests("alerts")).isEqualTo(1);
+	}
+
+	@Test
+	void alertsFromTheApiAreOrderedLikeTheSnapshot() {
+		String fromApi = service.getAlerts("NY");
+		service.refreshAlerts().block();
+		String fromSnapshot = service.getAlerts("NY");
+
+		assertThat(fromApi.indexOf("Severity: Severe")).isLessThan(fromApi.indexOf("Severity: Minor"));
+		assertThat(fromSnapshot.indexOf("Severity: Severe")).isLessThan(fromSnapshot.indexOf("Severity: Minor"));
+		assertThat(api.requests("alerts")).isEqualTo(2);
+		// Not a state code, so asked of the API rather than looked up
+		assertThatThrownBy(() -> service.getAlerts(null)).isInstanceOf(WebClientResponseException.class);
+	}
+
+	@Test
+	void unchangedAlertsKeepTheSnapshot() {
+		service.refreshAlerts().block();
+
+		assertThat(service.refreshAlerts().block()).isZero();
+		assertThat(api.requests("alerts")).isEqualTo(2);
+		assertThat(api.notModified.get()).isEqualTo(1);
+		assertThat(service.getAlerts("NY")).contains("Event: Flood Warning");
+	}
+
+	@Test
+	void stalledRequestsAndPollsAreAbandoned() {
+		api.server.setDelay(Duration.ofSeconds(2));
+		service.close();
+		service = new WeatherService(properties(Duration.ofMillis(200), Duration.ofSeconds(30)),
+				ToolOutputProperties.defaults());
+
+		assertThatThrownBy(() -> service.getAlertsAsync("NY").block(Duration.ofSeconds(1)))
+			.hasCauseInstanceOf(TimeoutException.class);
+
+		// The poll gives up long before the response would time out
+		service.close();
+		WeatherProperties patient = properties(Duration.ofSeconds(10), Duration.ofMillis(200));
+		service = new WeatherService(patient, ToolOutputProperties.defaults());
+		long start = System.nanoTime();
+		new AlertPoller(service, patient).poll();
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void batchForecastsAreAnsweredPerGridCell() {
+		api.cellDecimals = 1;
+		Map<String, Object> route = Map.of("locations",
+				List.of(Map.of("latitude", 47.61, "longitude", -122.33), Map.of("latitude", 47.62, "longitude", -122.34),
+						Map.of("latitude", 45.51, "longitude", -122.68), Map.of("latitude", 47.61, "longitude", -122.33)));
+
+		McpSchema.CallToolResult result = call(asyncTools(), "getWeatherForecastsByLocations", route);
+
+		assertThat(result.isError()).isFalse();
+		assertThat(text(result)).contains("47.61,-122.33; 47.62,-122.34:\\nTonight: 50 F, wind 5 mph N. Clear at 47.6,-122.3.")
+			.contains("45.51,-122.68:\\nTonight: 50 F, wind 5 mph N. Clear at 45.5,-122.7.");
+		assertThat(api.requests("points")).isEqualTo(3);
+		assertThat(api.requests("gridpoints")).isEqualTo(2);
+		assertThat(result).isEqualTo(call(syncTools(), "getWeatherForecastsByLocations", route));
+	}
+
+	@Test
+	void batchForecastsReportFailedLocationsAlongsideTheOthers() {
+		String forecasts = service.getWeatherForecastsByLocations(new WeatherService.Location[] {
+				new WeatherService.Location(47.6062, -122.3321), new WeatherService.Location(89.5, 0) });
+
+		assertThat(forecasts).contains("47.6062,-122.3321:\nTonight:").contains("89.5,0:\nError: 404 Not Found");
+	}
+
+	@Test
+	void batchForecastsAreCutToTheOutputBudget() {
+		service.close();
+		service = newService(new ToolOutputProperties(ToolOutput.Format.TEXT, DataSize.ofKilobytes(32),
+				Map.of("getWeatherForecastsByLocations", DataSize.ofBytes(400))));
+		List<WeatherService.Location> locations = IntStream.range(0, 10)
+			.mapToObj(i -> new WeatherService.Location(api.nextLatitude(), -100.0))
+			.toList();
+
+		String forecasts = service.getWeatherForecastsByLocationsAsync(locations).block(Duration.ofSeconds(30));
+
+		assertThat(forecasts.getBytes(StandardCharsets.UTF_8)).hasSizeLessThanOrEqualTo(400);
+		assertThat(forecasts).contains("Tonight:").endsWith(" more results left out to keep the output within 400 bytes]\n");
+	}
+
+	@Test
+	void batchForecastsAreFetchedUnderTheConcurrencyLimit() {
+		api.server.setDelay(Duration.ofMillis(50));
+		List<WeatherService.Location> locations = IntStream.range(0, 20)
+			.mapToObj(i -> new WeatherService.Location(api.nextLatitude(), -100.0))
+			.toList();
+
+		String forecasts = service.getWeatherForecastsByLocationsAsync(locations).block(Duration.ofSeconds(30));
+
+		assertThat(forecasts.lines().filter(line -> line.startsWith("Tonight:")).count()).isEqualTo(20);
+		assertThat(api.server.peakInFlight()).isBetween(2, 4);
+		assertThat(service.getWeatherForecastsByLocationsAsync(Collections.nCopies(51, locations.get(0))))
+			.satisfies(tooMany -> assertThatThrownBy(tooMany::block).hasMessageContaining("At most 50 locations"));
+	}
+
+	private WeatherService newService() {
+		return newService(ToolOutputProperties.defaults());
+	}
+
+	private WeatherService newService(ToolOutputProperties output) {
+		return new WeatherService(properties(Duration.ofSeconds(10), Duration.ofSeconds(30)), output);
+	}
+
+	private WeatherProperties properties(Duration responseTimeout, Duration pollTimeout) {
+		return new WeatherProperties(api.url(), responseTimeout,
+				new WeatherProperties.Gridpoints(dir.resolve("gridpoints.tsv"), 1000, 4),
+				new WeatherProperties.Forecasts(1000),
+				new WeatherProperties.Alerts(true, Duration.ofMinutes(5), pollTimeout),
+				new WeatherProperties.Batch(50, 4));
+	}
+
+	private Run load(List<McpServerFeatures.AsyncToolRegistration> tools, int calls) {
+		api.server.resetPeakInFlight();
+		Function<Map<String, Object>, Mono<McpSchema.CallToolResult>> forecast = tool(tools,
+				"getWeatherForecastByLocation");
+
+		long start = System.nanoTime();
+		List<McpSchema.CallToolResult> results = Flux.range(0, calls)
+			.flatMap(i -> forecast.apply(Map.of("latitude", api.nextLatitude(), "longitude", -100.0)), calls)
+			.collectList()
+			.block(Duration.ofSeconds(60));
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		assertThat(results).hasSize(calls).allSatisfy(result -> assertThat(result.isError()).isFalse());
+		return new Run(elapsed, api.server.peakInFlight());
+	}
+
+	// What the autoconfiguration registers for the @Tool methods in SYNC mode
+	private List<McpServerFeatures.AsyncToolRegistration> syncTools() {
+		return McpToolUtils.toAsyncToolRegistration(ToolCallbacks.from(service));
+	}
+
+	// The same, on workers of its own rather than the shared bounded-elastic ones, which scale with the cores
+	private List<McpServerFeatures.AsyncToolRegistration> syncTools(Scheduler scheduler) {
+		return McpToolUtils.toSyncToolRegistration(ToolCallbacks.from(service))
+			.stream()
+			.map(registration -> new McpServerFeatures.AsyncToolRegistration(registration.tool(),
+					arguments -> Mono.fromCallable(() -> registration.call().apply(arguments)).subscribeOn(scheduler)))
+			.toList();
+	}
+
+	private List<McpServerFeatures.AsyncToolRegistration> asyncTools() {
+		return new MCPServerApplication().weatherAsyncTools(service, new ToolMetrics(new SimpleMeterRegistry()),
+				new ToolDeadlines(ToolDeadlineProperties.defaults()));
+	}
+
+	private static Function<Map<String, Object>, Mono<McpSchema.CallToolResult>> tool(
+			List<McpServerFeatures.AsyncToolRegistration> tools, String name) {
+		return tools.stream()
+			.filter(registration -> registration.tool().name().equals(name))
+			.findFirst()
+			.orElseThrow()
+			.call();
+	}
+
+	private static McpSchema.CallToolResult call(List<McpServerFeatures.AsyncToolRegistration> tools, String name,
+			Map<String, Object> arguments) {
+		return tool(tools, name).apply(arguments).block(Duration.ofSeconds(10));
+	}
+
+	private static String text(McpSchema.CallToolResult result) {
+		return ((McpSchema.TextContent) result.content().get(0)).text();
+	}
+
+	private record Run(Duration elapsed, int peakInFlight) {
+	}
+
+	/**
+	 * Minimal api.weather.gov answering points, forecast and alert requests.
+	 * Forecasts carry an ETag and are answered with 304 when it is presented again; only the
+	 * TST office has forecasts.
+	 */
+	private static final class StandInWeatherApi {
+
+		private final AtomicInteger locations = new AtomicInteger();
+
+		private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+		private final AtomicInteger notModified = new AtomicInteger();
+
+		private volatile String cacheControl = "public, max-age=0";
+
+		// Decimals of the forecast grid: points rounding to the same cell share a forecast
+		private volatile int cellDecimals = 4;
+
+		// Last, as it answers with the fields above
+		private final StandInServer server = new StandInServer("", this::handle);
+
+		String url() {
+			return server.url();
+		}
+
+		double nextLatitude() {
+			// Distinct locations, so that no two calls are coalesced
+			return 30 + locations.incrementAndGet() / 100.0;
+		}
+
+		int requests(String resource) {
+			return requests.getOrDefault(resource, new AtomicInteger()).get();
+		}
+
+		void stop() {
+			server.stop();
+		}
+
+		private void handle(HttpExchange exchange) throws IOException {
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			requests.computeIfAbsent(path[1], resource -> new AtomicInteger()).incrementAndGet();
+			if (path[1].equals("points") && Double.parseDouble(path[2].split(",")[0]) < 89) {
+				respond(exchange, 200, """
+						{"properties": {"forecast": "%s/gridpoints/TST/%s/forecast"}}
+						""".formatted(url(), cell(path[2])));
+			}
+			else if (path[1].equals("gridpoints") && path[2].equals("TST")) {
+				String etag = "\"" + path[3] + "\"";
+				exchange.getResponseHeaders().set("ETag", etag);
+				exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+				if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				respond(exchange, 200, """
+						{"properties": {"periods": [{"number": 1, "name": "Tonight", "temperature": 50,
+						"temperatureUnit": "F", "windSpeed": "5 mph", "windDirection": "N",
+						"detailedForecast": "Clear at %s."}]}}
+						""".formatted(path[3]));
+			}
+			else if (path[1].equals("alerts") && path.length == 3) {
+				exchange.getResponseHeaders().set("ETag", "\"active\"");
+				if ("\"active\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				respond(exchange, 200, """
+						{"features": [
+						{"properties": {"id": "1", "event": "Wind Advisory", "areaDesc": "Suffolk",
+						"severity": "Minor", "geocode": {"UGC": ["NYZ080"]}}},
+						{"properties": {"id": "2", "event": "Flood Warning", "areaDesc": "Orange; Sussex",
+						"severity": "Severe", "geocode": {"UGC": ["NYC071", "NJC037"]}}},
+						{"properties": {"id": "3", "event": "Beach Hazards Statement", "areaDesc": "Ocean",
+						"severity": "Moderate", "geocode": {"UGC": ["NJZ014"]}}}]}
+						""");
+			}
+			else if (path[1].equals("alerts") && path.length == 5 && path[4].length() == 2 && !path[4].equals("XX")) {
+				respond(exchange, 200, """
+						{"features": [{"properties": {"event": "Wind Advisory", "areaDesc": "%1$s",
+						"severity": "Minor", "description": "Gusts.", "instruction": "Secure objects."}},
+						{"properties": {"event": "Flood Warning", "areaDesc": "%1$s",
+						"severity": "Severe", "description": "River flooding.", "instruction": "Avoid low areas."}}]}
+						""".formatted(path[4]));
+			}
+			else {
+				respond(exchange, 404, "{\"title\": \"Not Found\"}");
+			}
+		}
+
+		private String cell(String point) {
+			if (cellDecimals >= 4) {
+				return point;
+			}
+			return Arrays.stream(point.split(","))
+				.map(coordinate -> new BigDecimal(coordinate).setScale(cellDecimals, RoundingMode.HALF_UP).toPlainString())
+				.collect(Collectors.joining(","));
+		}
+
+		private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+			StandInServer.respond(exchange, status, "application/geo+json", json);
+		}
+
+	}
+
+}
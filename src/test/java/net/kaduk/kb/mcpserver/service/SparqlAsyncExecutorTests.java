@@ -0,0 +1,173 @@
+package net.kaduk.kb.mcpserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+import net.kaduk.kb.mcpserver.deadline.DeadlineExceededException;
+
+class SparqlAsyncExecutorTests {
+
+	private SparqlAsyncExecutor executor;
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void fanOutNeverExceedsEndpointLimit() {
+		executor = new SparqlAsyncExecutor(3);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+
+		List<Supplier<Integer>> tasks = IntStream.range(0, 20).<Supplier<Integer>>mapToObj(i -> () -> {
+			peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+			sleep(10);
+			running.decrementAndGet();
+			return i;
+		}).toList();
+
+		List<Integer> results = executor.fanOut("http://example.org/sparql", tasks).join();
+
+		assertThat(results).containsExactlyElementsOf(IntStream.range(0, 20).boxed().toList());
+		assertThat(peak.get()).isEqualTo(3);
+	}
+
+	@Test
+	void singleCallIsNotQueuedBehindLargeFanOut() throws Exception {
+		executor = new SparqlAsyncExecutor(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		List<String> order = new CopyOnWriteArrayList<>();
+
+		List<Supplier<String>> fanOutTasks = IntStream.range(0, 10).<Supplier<String>>mapToObj(i -> () -> {
+			if (i == 0) {
+				await(gate);
+			}
+			order.add("fan-out-" + i);
+			return "fan-out-" + i;
+		}).toList();
+
+		CompletableFuture<List<String>> fanOut = executor.fanOut("http://example.org/sparql", fanOutTasks);
+		CompletableFuture<String> single = executor.submit("http://example.org/sparql", () -> {
+			order.add("single");
+			return "single";
+		});
+		gate.countDown();
+
+		assertThat(single.get(5, TimeUnit.SECONDS)).isEqualTo("single");
+		fanOut.get(5, TimeUnit.SECONDS);
+		assertThat(order.indexOf("single")).isLessThanOrEqualTo(2);
+	}
+
+	@Test
+	void endpointsHaveIndependentLimits() throws Exception {
+		executor = new SparqlAsyncExecutor(1);
+		CountDownLatch gate = new CountDownLatch(1);
+
+		CompletableFuture<String> blocked = executor.submit("http://a.example.org/sparql", () -> {
+			await(gate);
+			return "a";
+		});
+		CompletableFuture<String> other = executor.submit("http://b.example.org/sparql", () -> "b");
+
+		assertThat(other.get(5, TimeUnit.SECONDS)).isEqualTo("b");
+		gate.countDown();
+		assertThat(blocked.get(5, TimeUnit.SECONDS)).isEqualTo("a");
+	}
+
+	@Test
+	void fanOutFailsWithFirstTaskFailure() {
+		executor = new SparqlAsyncExecutor(2);
+
+		List<Supplier<String>> tasks = List.of(() -> "ok", () -> {
+			throw new IllegalStateException("endpoint down");
+		});
+
+		assertThatThrownBy(() -> executor.fanOut("http://example.org/sparql", tasks).join())
+			.isInstanceOf(CompletionException.class)
+			.hasCauseInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void fanOutFailureSkipsTheCallsStillQueued() throws Exception {
+		executor = new SparqlAsyncExecutor(1);
+		AtomicInteger started = new AtomicInteger();
+
+		List<Supplier<String>> tasks = IntStream.range(0, 10).<Supplier<String>>mapToObj(i -> () -> {
+			if (i == 0) {
+				throw new IllegalStateException("endpoint down");
+			}
+			started.incrementAndGet();
+			return "ok";
+		}).toList();
+
+		assertThatThrownBy(() -> executor.fanOut("http://example.org/sparql", tasks).get(5, TimeUnit.SECONDS))
+			.hasCauseInstanceOf(IllegalStateException.class);
+		// Dispatched only once every call of the fan-out ahead of it was run or skipped
+		assertThat(executor.submit("http://example.org/sparql", () -> "next").get(5, TimeUnit.SECONDS))
+			.isEqualTo("next");
+		assertThat(started.get()).isZero();
+	}
+
+	@Test
+	void callRunsWithItsDeadlineUnlessItPassedWhileQueued() throws Exception {
+		executor = new SparqlAsyncExecutor(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger started = new AtomicInteger();
+
+		CompletableFuture<String> blocking = executor.submit("http://example.org/sparql", () -> {
+			await(gate);
+			return "first";
+		});
+		Deadline shortDeadline = Deadline.after(Duration.ofMillis(50));
+		CompletableFuture<String> expired = executor.submit("http://example.org/sparql", shortDeadline, () -> {
+			started.incrementAndGet();
+			return "late";
+		});
+		Deadline longDeadline = Deadline.after(Duration.ofSeconds(30));
+		CompletableFuture<Deadline> bound = executor.submit("http://example.org/sparql", longDeadline,
+				() -> Deadline.current().orElse(null));
+
+		sleep(100);
+		gate.countDown();
+
+		assertThat(blocking.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+		assertThatThrownBy(() -> expired.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(DeadlineExceededException.class);
+		assertThat(started.get()).isZero();
+		assertThat(bound.get(5, TimeUnit.SECONDS)).isSameAs(longDeadline);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package net.kaduk.kb.mcpserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscription;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.index.LabelIndexProperties;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.sparql.LocalSparqlExecutor;
+import net.kaduk.kb.mcpserver.sparql.SparqlExecutor;
+import reactor.core.publisher.BaseSubscriber;
+
+class SparqlKnowledgeBaseServiceTests {
+
+	private static final String ALL_TRIPLES = "SELECT ?s ?p ?o WHERE { ?s ?p ?o }";
+
+	@TempDir
+	Path storeDir;
+
+	private LocalSparqlExecutor store;
+
+	private RecordingExecutor executor;
+
+	private SparqlAsyncExecutor asyncExecutor;
+
+	private SparqlKnowledgeBaseService service;
+
+	@BeforeEach
+	void loadFixture() {
+		store = new LocalSparqlExecutor(storeDir.toString(), Duration.ofSeconds(10));
+		Txn.executeWrite(store.dataset(), () -> RDFDataMgr.read(store.dataset(), "fixtures/dbpedia-sample.ttl"));
+		executor = new RecordingExecutor(store);
+		asyncExecutor = new SparqlAsyncExecutor(2);
+		service = new SparqlKnowledgeBaseService(asyncExecutor, executor,
+				new LabelIndexService(LabelIndexProperties.defaults(), executor), new QueryMetrics(new SimpleMeterRegistry()));
+	}
+
+	@AfterEach
+	void close() {
+		asyncExecutor.shutdown();
+		store.close();
+	}
+
+	@Test
+	void streamReadsOnlyTheRowsConsumed() {
+		try (Stream<Map<String, String>> rows = service.streamQuery(ALL_TRIPLES)) {
+			assertThat(rows.limit(3).toList()).hasSize(3).allSatisfy(row -> assertThat(row).containsKeys("s", "p", "o"));
+		}
+
+		assertThat(executor.pulled.get()).isEqualTo(3);
+		assertThat(executor.closed.getCount()).isZero();
+		assertThat(store.dataset().isInTransaction()).isFalse();
+		assertThat(service.executeQuery(ALL_TRIPLES)).hasSizeGreaterThan(3);
+	}
+
+	@Test
+	void fluxRespectsDemandAndClosesExecutionOnCancel() throws Exception {
+		CountDownLatch received = new CountDownLatch(2);
+		BaseSubscriber<Map<String, String>> subscriber = new BaseSubscriber<>() {
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+				request(2);
+			}
+
+			@Override
+			protected void hookOnNext(Map<String, String> row) {
+				received.countDown();
+			}
+		};
+		service.executeQueryFlux(ALL_TRIPLES).subscribe(subscriber);
+
+		assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+		Thread.sleep(100);
+		// Completion is detected by looking one row ahead
+		assertThat(executor.pulled.get()).isBetween(2, 3);
+		assertThat(executor.closed.getCount()).isEqualTo(1);
+
+		subscriber.dispose();
+		assertThat(executor.closed.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	void fluxClosesOnTheThreadThatOpened() throws Exception {
+		List<Map<String, String>> rows = service.executeQueryFlux(ALL_TRIPLES).take(4).collectList().block();
+
+		assertThat(rows).hasSize(4);
+		assertThat(executor.closed.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(executor.closingThread.get()).isEqualTo(executor.openingThread.get());
+	}
+
+	@Test
+	void propertiesAreNotQueriedForInvalidIris() {
+		String injected = "http://dbpedia.org/resource/Paris> } ?entity ?property ?value . { ?entity";
+
+		Map<String, List<Map<String, String>>> properties = service
+			.getEntitiesProperties(List.of("http://dbpedia.org/resource/Berlin", injected), 3);
+
+		assertThat(properties).containsOnlyKeys("http://dbpedia.org/resource/Berlin", injected);
+		assertThat(properties.get("http://dbpedia.org/resource/Berlin")).hasSize(3)
+			.allSatisfy(row -> assertThat(row).containsEntry("entity", "http://dbpedia.org/resource/Berlin"));
+		assertThat(properties.get(injected)).isEmpty();
+		assertThat(service.getEntitiesProperties(List.of(injected), 3).get(injected)).isEmpty();
+		assertThat(executor.selects.get()).isEqualTo(1);
+	}
+
+	@Test
+	void concurrentIdenticalQueriesShareOneExecution() throws Exception {
+		executor.gate = new CountDownLatch(1);
+
+		CompletableFuture<List<Map<String, String>>> blocking = CompletableFuture
+			.supplyAsync(() -> service.executeQuery(ALL_TRIPLES));
+		assertThat(executor.entered.await(5, TimeUnit.SECONDS)).isTrue();
+		// Joined the execution held at the gate by the time they are returned
+		List<CompletableFuture<List<Map<String, String>>>> futures = IntStream.range(0, 8)
+			.mapToObj(i -> service.executeQueryAsync(ALL_TRIPLES))
+			.toList();
+		executor.gate.countDown();
+
+		List<Map<String, String>> rows = blocking.get(5, TimeUnit.SECONDS);
+		assertThat(futures).allSatisfy(future -> assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(rows));
+		assertThat(executor.selects.get()).isEqualTo(1);
+
+		service.executeQuery(ALL_TRIPLES);
+		assertThat(executor.selects.get()).isEqualTo(2);
+	}
+
+	private static final class RecordingExecutor implements SparqlExecutor {
+
+		private final SparqlExecutor delegate;
+
+		private final AtomicInteger pulled = new AtomicInteger();
+
+		private final AtomicInteger selects = new AtomicInteger();
+
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		private final AtomicReference<Thread> openingThread = new AtomicReference<>();
+
+		private final AtomicReference<Thread> closingThread = new AtomicReference<>();
+
+		RecordingExecutor(SparqlExecutor delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String endpointId() {
+			return delegate.endpointId();
+		}
+
+		@Override
+		public <T> T select(String queryString, Function<ResultSet, T> handler) {
+			selects.incrementAndGet();
+			entered.countDown();
+			try {
+				gate.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return delegate.select(queryString, handler);
+		}
+
+		@Override
+		public Stream<QuerySolution> stream(String queryString) {
+			openingThread.set(Thread.currentThread());
+			return delegate.stream(queryString).peek(solution -> pulled.incrementAndGet()).onClose(() -> {
+				closingThread.set(Thread.currentThread());
+				closed.countDown();
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kaduk.kb.mcpserver.cache.QueryCacheProperties;
+import net.kaduk.kb.mcpserver.cache.QueryResultCache;
+import net.kaduk.kb.mcpserver.index.LabelIndexProperties;
+import net.kaduk.kb.mcpserver.index.LabelIndexService;
+import net.kaduk.kb.mcpserver.metrics.QueryMetrics;
+import net.kaduk.kb.mcpserver.metrics.ToolMetrics;
+import net.kaduk.kb.mcpserver.render.ToolOutputProperties;
+import net.kaduk.kb.mcpserver.server.DBpediaService;
+import net.kaduk.kb.mcpserver.service.SparqlAsyncExecutor;
+import net.kaduk.kb.mcpserver.service.SparqlKnowledgeBaseService;
+
+class LocalSparqlExecutorTests {
+
+	@TempDir
+	Path storeDir;
+
+	private LocalSparqlExecutor executor;
+
+	private SparqlAsyncExecutor asyncExecutor;
+
+	@BeforeEach
+	void loadFixture() {
+		executor = new LocalSparqlExecutor(storeDir.toString(), Duration.ofSeconds(10));
+		Txn.executeWrite(executor.dataset(),
+				() -> RDFDataMgr.read(executor.dataset(), "fixtures/dbpedia-sample.ttl"));
+		asyncExecutor = new SparqlAsyncExecutor(2);
+	}
+
+	@AfterEach
+	void close() {
+		asyncExecutor.shutdown();
+		executor.close();
+	}
+
+	@Test
+	void knowledgeBaseServiceRunsAgainstLocalStore() {
+		SparqlKnowledgeBaseService service = new SparqlKnowledgeBaseService(asyncExecutor, executor, noIndex(),
+				queryMetrics());
+
+		List<Map<String, String>> entities = service.searchEntities("berl", 10);
+		assertThat(entities).extracting(row -> row.get("entity")).contains("http://dbpedia.org/resource/Berlin");
+
+		Map<String, List<Map<String, String>>> properties = service.getEntitiesProperties(
+				List.of("http://dbpedia.org/resource/Berlin", "http://dbpedia.org/resource/Paris"), 3);
+		assertThat(properties.get("http://dbpedia.org/resource/Berlin")).hasSize(3);
+		assertThat(properties.get("http://dbpedia.org/resource/Paris")).hasSize(3);
+	}
+
+	@Test
+	void dbpediaToolsRunAgainstLocalStore() {
+		DBpediaService service = new DBpediaService(executor, new QueryResultCache(QueryCacheProperties.defaults()),
+				noIndex(), asyncExecutor, ToolOutputProperties.defaults(), queryMetrics(), toolMetrics());
+
+		assertThat(service.getEntityInfo("Berlin")).contains("URI: http://dbpedia.org/resource/Berlin")
+			.contains("http://dbpedia.org/ontology/City");
+		assertThat(service.findRelatedEntities("Albert_Einstein", 10, null)).contains("dbr:Albert_Einstein -> birthPlace -> Ulm");
+		assertThat(service.searchByCategory("Nobel_laureates_in_Physics", 10, null)).contains("Label: Marie Curie");
+
+		assertThat(service.getEntityInfoAsync("Paris").block()).contains("URI: http://dbpedia.org/resource/Paris");
+		assertThat(service.findRelatedEntitiesAsync("Albert_Einstein", 10, null).block())
+			.isEqualTo(service.findRelatedEntities("Albert_Einstein", 10, null));
+		assertThat(service.searchByCategoryAsync("Nobel_laureates_in_Physics", 10, null).block())
+			.isEqualTo(service.searchByCategory("Nobel_laureates_in_Physics", 10, null));
+	}
+
+	@Test
+	void pagesFollowEachOtherThroughCursors() {
+		DBpediaService service = new DBpediaService(executor, new QueryResultCache(QueryCacheProperties.defaults()),
+				noIndex(), asyncExecutor, ToolOutputProperties.defaults(), queryMetrics(), toolMetrics());
+		List<String> all = relations(service.findRelatedEntities("Albert_Einstein", 100, null));
+
+		List<String> paged = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			String page = service.findRelatedEntities("Albert_Einstein", 1, cursor);
+			paged.addAll(relations(page));
+			Matcher next = Pattern.compile("call again with cursor (\\S+)]").matcher(page);
+			cursor = next.find() ? next.group(1) : null;
+			pages++;
+		}
+		while (cursor != null);
+
+		assertThat(all).hasSizeGreaterThan(1).contains("dbr:Albert_Einstein -> birthPlace -> Ulm");
+		assertThat(paged).isEqualTo(all);
+		assertThat(pages).isEqualTo(all.size());
+		String second = service.searchByCategory("Nobel_laureates_in_Physics", 1, null);
+		String token = second.substring(second.indexOf("cursor ") + 7, second.lastIndexOf(']'));
+		assertThat(service.searchByCategory("Nobel_laureates_in_Physics", 1, token)).contains("Label: Marie Curie")
+			.doesNotContain("cursor");
+		assertThatThrownBy(() -> service.findRelatedEntities("Albert_Einstein", 1, token))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static List<String> relations(String result) {
+		return result.lines().filter(line -> line.startsWith("dbr:")).toList();
+	}
+
+	@Test
+	void entitiesInfoResolvesAllEntitiesInOneQuery() {
+		AtomicInteger selects = new AtomicInteger();
+		DBpediaService service = new DBpediaService(new CountingExecutor(executor, selects),
+				new QueryResultCache(QueryCacheProperties.defaults()), noIndex(), asyncExecutor,
+				ToolOutputProperties.defaults(), queryMetrics(), toolMetrics());
+		String[] entities = { "Paris", "http://dbpedia.org/resource/Berlin", "Atlantis", "dbr:Albert_Einstein",
+				"Marie Curie", "Paris" };
+
+		String info = service.getEntitiesInfo(entities);
+
+		assertThat(info.strip().split("\n\n")).satisfiesExactly(
+				paris -> assertThat(paris).startsWith("URI: http://dbpedia.org/resource/Paris"),
+				berlin -> assertThat(berlin).startsWith("URI: http://dbpedia.org/resource/Berlin"),
+				atlantis -> assertThat(atlantis).isEqualTo("No information found for entity: Atlantis"),
+				einstein -> assertThat(einstein).startsWith("URI: http://dbpedia.org/resource/Albert_Einstein"),
+				curie -> assertThat(curie).startsWith("URI: http://dbpedia.org/resource/Marie_Curie"),
+				parisAgain -> assertThat(parisAgain).startsWith("URI: http://dbpedia.org/resource/Paris"));
+		assertThat(selects).hasValue(1);
+		assertThat(service.getEntitiesInfoAsync(List.of(entities)).block()).isEqualTo(info);
+	}
+
+	@Test
+	void readsRunConcurrentlyWithWrites() {
+		Txn.executeWrite(executor.dataset(), () -> {
+			executor.dataset().getDefaultModel().removeAll();
+			// A reader on another thread still sees the last committed state
+			assertThat(new SparqlKnowledgeBaseService(asyncExecutor, executor, noIndex(), queryMetrics())
+				.executeQueryAsync("SELECT (COUNT(*) AS ?n) WHERE { ?s ?p ?o }")
+				.join()
+				.get(0)
+				.get("n")).doesNotStartWith("0^^");
+		});
+	}
+
+	private LabelIndexService noIndex() {
+		return new LabelIndexService(LabelIndexProperties.defaults(), executor);
+	}
+
+	private static QueryMetrics queryMetrics() {
+		return new QueryMetrics(new SimpleMeterRegistry());
+	}
+
+	private static ToolMetrics toolMetrics() {
+		return new ToolMetrics(new SimpleMeterRegistry());
+	}
+
+	private record CountingExecutor(SparqlExecutor delegate, AtomicInteger selects) implements SparqlExecutor {
+
+		@Override
+		public String endpointId() {
+			return delegate.endpointId();
+		}
+
+		@Override
+		public <T> T select(String queryString, Function<ResultSet, T> handler) {
+			selects.incrementAndGet();
+			return delegate.select(queryString, handler);
+		}
+
+		@Override
+		public Stream<QuerySolution> stream(String queryString) {
+			return delegate.stream(queryString);
+		}
+
+	}
+
+}
@@ -0,0 +1,88 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.List;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.junit.jupiter.api.Test;
+
+class QueryTemplateTests {
+
+	private static final QueryTemplate BY_LABEL = QueryTemplate.parse("byLabel",
+			"SELECT ?entity WHERE { ?entity <http://www.w3.org/2000/01/rdf-schema#label> ?label . "
+					+ "FILTER(CONTAINS(?label, ?term)) }");
+
+	private static final QueryTemplate BY_URI = QueryTemplate.parse("byUri",
+			"SELECT ?uri (COUNT(?p) AS ?n) WHERE { VALUES ?uri { } ?uri ?p ?o } GROUP BY ?uri");
+
+	@Test
+	void literalCannotChangeTheQuery() {
+		String term = "x\")) } SELECT * WHERE { ?s ?p ?o } #";
+
+		Query query = BY_LABEL.bind().literal("term", term).build().query();
+
+		Query reparsed = QueryFactory.create(query.serialize());
+		assertThat(reparsed.getResultVars()).containsExactly("entity");
+		assertThat(reparsed.serialize()).contains("contains(?label, \"x\\\")) } SELECT * WHERE { ?s ?p ?o } #\")");
+	}
+
+	@Test
+	void invalidIriIsRejected() {
+		assertThatIllegalArgumentException()
+			.isThrownBy(() -> BY_URI.bind().iris("uri", List.of("http://example.org/a> } ?s ?p ?o {")));
+		assertThat(QueryTemplate.isIri("http://dbpedia.org/resource/Berlin_(disambiguation)")).isTrue();
+		assertThat(QueryTemplate.isIri("http://dbpedia.org/resource/Two words")).isFalse();
+		assertThat(QueryTemplate.isIri("")).isFalse();
+	}
+
+	@Test
+	void valuesAreFilledWhereTheBlockStands() {
+		Query query = BY_URI.bind()
+			.iris("uri", List.of("http://example.org/a", "http://example.org/b"))
+			.build()
+			.query();
+
+		String text = query.serialize();
+		assertThat(text).contains("<http://example.org/a>", "<http://example.org/b>");
+		assertThat(query.getValuesData()).isNull();
+		assertThat(text.indexOf("VALUES")).isLessThan(text.indexOf("GROUP BY"));
+	}
+
+	@Test
+	void unionCapsEachPartOnItsOwn() {
+		BoundQuery union = QueryTemplate.union("counts",
+				List.of(BY_URI.bind().iris("uri", List.of("http://example.org/a")).limit(2).build(),
+						BY_URI.bind().iris("uri", List.of("http://example.org/b")).limit(3).build()));
+
+		Query reparsed = QueryFactory.create(union.query().serialize());
+		assertThat(reparsed.getResultVars()).containsExactly("uri", "n");
+		assertThat(reparsed.serialize()).contains("<http://example.org/a>", "LIMIT   2", "<http://example.org/b>",
+				"LIMIT   3", "UNION");
+		assertThat(union.name()).isEqualTo("counts");
+		assertThat(union.key()).contains("<http://example.org/a>", "<http://example.org/b>");
+	}
+
+	@Test
+	void bindingLeavesTheTemplateUnchanged() {
+		BoundQuery first = BY_URI.bind().iris("uri", List.of("http://example.org/a")).limit(5).build();
+		BoundQuery second = BY_URI.bind().iris("uri", List.of("http://example.org/b")).build();
+
+		assertThat(first.query().getLimit()).isEqualTo(5);
+		assertThat(second.query().hasLimit()).isFalse();
+		assertThat(second.query().serialize()).doesNotContain("example.org/a");
+	}
+
+	@Test
+	void equalBindingsHaveEqualKeys() {
+		BoundQuery first = BY_LABEL.bind().literal("term", "Berlin").limit(10).build();
+		BoundQuery second = BY_LABEL.bind().literal("term", "Berlin").limit(10).build();
+		BoundQuery other = BY_LABEL.bind().literal("term", "Berlin").limit(11).build();
+
+		assertThat(first.key()).isEqualTo(second.key()).startsWith("byLabel(");
+		assertThat(other.key()).isNotEqualTo(first.key());
+	}
+
+}
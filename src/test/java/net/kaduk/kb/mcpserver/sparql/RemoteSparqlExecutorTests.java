@@ -0,0 +1,258 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.kaduk.kb.mcpserver.StandInServer;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+
+class RemoteSparqlExecutorTests {
+
+	private static final String ALL_TRIPLES = "SELECT ?s ?p ?o WHERE { ?s ?p ?o }";
+
+	private static final List<Lang> ALL_FORMATS = List.of(ResultSetLang.RS_Thrift, ResultSetLang.RS_JSON,
+			ResultSetLang.RS_TSV, ResultSetLang.RS_XML);
+
+	private StandInEndpoint endpoint;
+
+	@AfterEach
+	void stopEndpoint() {
+		endpoint.stop();
+	}
+
+	@Test
+	void negotiatesBinaryResultsWithCompression() {
+		endpoint = new StandInEndpoint(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"), ALL_FORMATS);
+
+		List<String> labels = executor(RemoteSparqlExecutor.DEFAULT_ACCEPT).select(
+				"SELECT ?label WHERE { <http://dbpedia.org/resource/Berlin> <" + RDFS.label.getURI() + "> ?label }",
+				resultSet -> ResultTable.from(resultSet, new TermDictionary(16)).stream().map(row -> row.get("label")).toList());
+
+		assertThat(labels).containsExactlyInAnyOrder("Berlin@en", "Berlin@de");
+		assertThat(endpoint.lastFormat.get()).isEqualTo(ResultSetLang.RS_Thrift);
+		assertThat(endpoint.lastAcceptEncoding.get()).contains("gzip");
+	}
+
+	@Test
+	void fallsBackToJsonWhenBinaryResultsAreNotOffered() {
+		endpoint = new StandInEndpoint(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"),
+				List.of(ResultSetLang.RS_XML, ResultSetLang.RS_JSON));
+
+		long rows = executor(RemoteSparqlExecutor.DEFAULT_ACCEPT).select(ALL_TRIPLES, ResultSetFormatter::consume);
+
+		assertThat(rows).isEqualTo(endpoint.model.size());
+		assertThat(endpoint.lastFormat.get()).isEqualTo(ResultSetLang.RS_JSON);
+	}
+
+	@Test
+	void reusesConnectionsAcrossCompressedQueries() {
+		endpoint = new StandInEndpoint(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"), ALL_FORMATS);
+		RemoteSparqlExecutor executor = executor(RemoteSparqlExecutor.DEFAULT_ACCEPT);
+
+		for (int i = 0; i < 10; i++) {
+			executor.select(ALL_TRIPLES, ResultSetFormatter::consume);
+		}
+
+		assertThat(endpoint.server.requests()).isEqualTo(10);
+		assertThat(endpoint.clientPorts).hasSize(1);
+	}
+
+	@Test
+	void cancellingACallDoesNotInterruptItsResultHandler() {
+		endpoint = new StandInEndpoint(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"), ALL_FORMATS);
+		RemoteSparqlExecutor executor = executor(RemoteSparqlExecutor.DEFAULT_ACCEPT);
+		Deadline deadline = Deadline.after(Duration.ofSeconds(10));
+
+		// Cancelled by another thread, as when the client disconnects
+		boolean interrupted = deadline.call(() -> executor.select(ALL_TRIPLES, resultSet -> {
+			Thread canceller = new Thread(deadline::cancel);
+			canceller.start();
+			try {
+				canceller.join();
+				return Thread.interrupted();
+			}
+			catch (InterruptedException e) {
+				return true;
+			}
+		}));
+
+		assertThat(interrupted).isFalse();
+	}
+
+	@Test
+	void compressedBinaryResultsCutBytesOnTheWire() {
+		endpoint = new StandInEndpoint(syntheticModel(2_000), ALL_FORMATS);
+		Map<String, String> formats = new LinkedHashMap<>();
+		formats.put("xml", ResultSetLang.RS_XML.getHeaderString());
+		formats.put("json", ResultSetLang.RS_JSON.getHeaderString());
+		formats.put("json+gzip", ResultSetLang.RS_JSON.getHeaderString());
+		formats.put("tsv+gzip", ResultSetLang.RS_TSV.getHeaderString());
+		formats.put("thrift+gzip", ResultSetLang.RS_Thrift.getHeaderString());
+
+		Map<String, Long> bytes = new LinkedHashMap<>();
+		for (Map.Entry<String, String> format : formats.entrySet()) {
+			endpoint.compress = format.getKey().endsWith("+gzip");
+			long rows = executor(format.getValue()).select(ALL_TRIPLES, ResultSetFormatter::consume);
+			assertThat(rows).isEqualTo(endpoint.model.size());
+			bytes.put(format.getKey(), endpoint.lastBytes.get());
+		}
+
+		// Sizes relative to each other hold on any machine; fetch and parse times are measured
+		// by the JMH benchmarks
+		assertThat(bytes.get("thrift+gzip")).isLessThan(bytes.get("xml") / 5).isLessThan(bytes.get("json"));
+		assertThat(bytes.get("json+gzip")).isLessThan(bytes.get("json") / 3);
+	}
+
+	private RemoteSparqlExecutor executor(String acceptHeader) {
+		return new RemoteSparqlExecutor(endpoint.url(), null, Duration.ofSeconds(10),
+				RemoteSparqlExecutor.httpClient(Duration.ofSeconds(5)), acceptHeader);
+	}
+
+	private static Model syntheticModel(int entities) {
+		Model model = RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl");
+		for (int i = 0; i < entities; i++) {
+			Resource entity = model.createResource("http://dbpedia.org/resource/Entity_" + i);
+			entity.addProperty(RDFS.label, model.createLiteral("Entity " + i, "en"));
+			entity.addProperty(RDFS.comment, model.createLiteral("Entity " + i + " is a synthetic place.", "en"));
+			entity.addProperty(RDFS.seeAlso, model.createResource("http://dbpedia.org/resource/Berlin"));
+		}
+		return model;
+	}
+
+	/**
+	 * Minimal SPARQL endpoint doing content negotiation and optional gzip, like Fuseki.
+	 */
+	private static final class StandInEndpoint {
+
+		private final Model model;
+
+		private final Dataset dataset;
+
+		private final List<Lang> formats;
+
+		private final StandInServer server;
+
+		private final AtomicLong lastBytes = new AtomicLong();
+
+		private final AtomicReference<Lang> lastFormat = new AtomicReference<>();
+
+		private final AtomicReference<String> lastAcceptEncoding = new AtomicReference<>();
+
+		private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+		private volatile boolean compress = true;
+
+		StandInEndpoint(Model model, List<Lang> formats) {
+			this.model = model;
+			this.dataset = DatasetFactory.create(model);
+			this.formats = formats;
+			this.server = new StandInServer("/sparql", this::handle);
+		}
+
+		String url() {
+			return server.url();
+		}
+
+		void stop() {
+			server.stop();
+		}
+
+		private void handle(HttpExchange exchange) throws IOException {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			String query = StandInServer.query(exchange);
+
+			Lang format = negotiate(exchange.getRequestHeaders().getFirst("Accept"));
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			boolean gzip = compress && acceptEncoding != null && acceptEncoding.contains("gzip");
+			lastFormat.set(format);
+			lastAcceptEncoding.set(acceptEncoding);
+
+			exchange.getResponseHeaders().set("Content-Type", format.getHeaderString());
+			if (gzip) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, 0);
+
+			CountingOutputStream wire = new CountingOutputStream(exchange.getResponseBody());
+			StandInServer.results(gzip ? new GZIPOutputStream(wire, 1 << 16) : wire, dataset, query, format);
+			lastBytes.set(wire.count);
+		}
+
+		private Lang negotiate(String accept) {
+			record Choice(Lang lang, double q, int position) {
+			}
+			List<Choice> choices = new ArrayList<>();
+			String[] ranges = accept == null ? new String[0] : accept.split(",");
+			for (int i = 0; i < ranges.length; i++) {
+				String[] parts = ranges[i].trim().split(";");
+				double q = 1.0;
+				for (int p = 1; p < parts.length; p++) {
+					if (parts[p].trim().startsWith("q=")) {
+						q = Double.parseDouble(parts[p].trim().substring(2));
+					}
+				}
+				for (Lang lang : formats) {
+					if (lang.getHeaderString().equalsIgnoreCase(parts[0].trim())) {
+						choices.add(new Choice(lang, q, i));
+					}
+				}
+			}
+			return choices.stream()
+				.max(Comparator.comparingDouble(Choice::q).thenComparing(Choice::position, Comparator.reverseOrder()))
+				.map(Choice::lang)
+				.orElse(ResultSetLang.RS_XML);
+		}
+
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+	}
+
+}
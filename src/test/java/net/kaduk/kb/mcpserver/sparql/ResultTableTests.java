@@ -0,0 +1,141 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.Test;
+
+class ResultTableTests {
+
+	private static final String QUERY = "SELECT ?s ?p ?o ?missing WHERE { ?s ?p ?o }";
+
+	@Test
+	void rowsMatchTheMapsBuiltFromSolutions() {
+		Dataset dataset = DatasetFactory.create(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"));
+
+		ResultTable table = select(dataset, resultSet -> ResultTable.from(resultSet, new TermDictionary(64)));
+		List<Map<String, String>> legacy = select(dataset, ResultTableTests::toHashMaps);
+
+		assertThat(table.variables()).containsExactly("s", "p", "o", "missing");
+		assertThat(table).hasSameSizeAs(legacy);
+		assertThat(table).containsExactlyInAnyOrderElementsOf(legacy);
+		assertThat(table.get(0)).doesNotContainKey("missing").hasSize(3);
+		assertThat(table).extracting(row -> row.get("o")).contains("Berlin@en", "http://dbpedia.org/ontology/City");
+	}
+
+	@Test
+	void rowsAreReadOnlyViews() {
+		ResultTable table = select(DatasetFactory.create(syntheticModel(2, 2)),
+				resultSet -> ResultTable.from(resultSet, new TermDictionary(16)));
+
+		assertThat(table.value(0, "p")).isEqualTo(table.get(0).get("p"));
+		assertThat(table.value(0, "unknown")).isNull();
+		assertThatThrownBy(() -> table.get(0).put("s", "x")).isInstanceOf(UnsupportedOperationException.class);
+		assertThatThrownBy(() -> table.get(table.size())).isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+	@Test
+	void repeatedTermsShareOneInstance() {
+		ResultTable table = select(DatasetFactory.create(syntheticModel(20, 5)),
+				resultSet -> ResultTable.from(resultSet, new TermDictionary(256)));
+
+		List<String> predicates = table.stream().map(row -> row.get("p")).filter(RDF.type.getURI()::equals).toList();
+		assertThat(predicates).hasSizeGreaterThan(1);
+		assertThat(predicates).allSatisfy(predicate -> assertThat(predicate).isSameAs(predicates.get(0)));
+	}
+
+	@Test
+	void dictionaryStaysBoundedUnderCollisions() {
+		TermDictionary terms = new TermDictionary(4);
+		for (int i = 0; i < 1000; i++) {
+			assertThat(terms.intern("value-" + i)).isEqualTo("value-" + i);
+		}
+		assertThat(terms.intern(null)).isNull();
+	}
+
+	@Test
+	void allocatesFarLessThanPerRowHashMaps() {
+		Dataset dataset = DatasetFactory.create(syntheticModel(500, 20));
+		ResultSetRewindable results = select(dataset, ResultSetFactory::copyResults);
+		TermDictionary terms = new TermDictionary(1 << 12);
+
+		long legacyBytes = allocatedBytes(() -> toHashMaps(rewound(results)));
+		long tableBytes = allocatedBytes(() -> ResultTable.from(rewound(results), terms));
+
+		assertThat(tableBytes).as("table %d bytes vs maps %d bytes", tableBytes, legacyBytes)
+			.isLessThan(legacyBytes / 3);
+	}
+
+	private static <T> T select(Dataset dataset, Function<ResultSet, T> handler) {
+		try (QueryExecution qexec = QueryExecution.dataset(dataset).query(QUERY).build()) {
+			return handler.apply(qexec.execSelect());
+		}
+	}
+
+	// The conversion SparqlKnowledgeBaseService used before ResultTable
+	private static List<Map<String, String>> toHashMaps(ResultSet resultSet) {
+		List<Map<String, String>> rows = new ArrayList<>();
+		while (resultSet.hasNext()) {
+			QuerySolution solution = resultSet.nextSolution();
+			Map<String, String> row = new HashMap<>();
+			solution.varNames().forEachRemaining(varName -> row.put(varName, solution.get(varName).toString()));
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static ResultSetRewindable rewound(ResultSetRewindable results) {
+		results.reset();
+		return results;
+	}
+
+	private static long allocatedBytes(Runnable conversion) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+		for (int i = 0; i < 5; i++) {
+			conversion.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			long before = threads.getCurrentThreadAllocatedBytes();
+			conversion.run();
+			best = Math.min(best, threads.getCurrentThreadAllocatedBytes() - before);
+		}
+		return best;
+	}
+
+	private static Model syntheticModel(int entities, int propertiesPerEntity) {
+		Model model = RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl");
+		model.removeAll();
+		for (int i = 0; i < entities; i++) {
+			Resource entity = model.createResource("http://dbpedia.org/resource/Entity_" + i);
+			entity.addProperty(RDF.type, model.createResource("http://dbpedia.org/ontology/Place"));
+			entity.addProperty(RDFS.label, model.createLiteral("Entity " + i, "en"));
+			for (int p = 0; p < propertiesPerEntity; p++) {
+				entity.addProperty(model.createProperty("http://dbpedia.org/ontology/property" + p),
+						model.createLiteral("Shared value " + (p % 5), "en"));
+			}
+		}
+		return model;
+	}
+
+}
@@ -0,0 +1,226 @@
+package net.kaduk.kb.mcpserver.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.kaduk.kb.mcpserver.StandInServer;
+import net.kaduk.kb.mcpserver.deadline.Deadline;
+import net.kaduk.kb.mcpserver.deadline.DeadlineExceededException;
+
+class RoutingSparqlExecutorTests {
+
+	private static final String BERLIN_LABELS = "SELECT ?label WHERE { <http://dbpedia.org/resource/Berlin> "
+			+ "<http://www.w3.org/2000/01/rdf-schema#label> ?label }";
+
+	private DelayedEndpoint first;
+
+	private DelayedEndpoint second;
+
+	private RoutingSparqlExecutor executor;
+
+	@BeforeEach
+	void startEndpoints() {
+		Dataset dataset = DatasetFactory.create(RDFDataMgr.loadModel("fixtures/dbpedia-sample.ttl"));
+		first = new DelayedEndpoint(dataset);
+		second = new DelayedEndpoint(dataset);
+	}
+
+	@AfterEach
+	void stopEndpoints() {
+		if (executor != null) {
+			executor.close();
+		}
+		first.server.stop();
+		second.server.stop();
+	}
+
+	@Test
+	void queriesGoToTheFasterEndpoint() {
+		first.server.setDelay(Duration.ofMillis(150));
+		second.server.setDelay(Duration.ofMillis(5));
+		executor = executor(routing(2, false, Duration.ofSeconds(2), 5, Duration.ofSeconds(30)));
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(labels()).hasSize(2);
+		}
+
+		assertThat(first.server.requests()).isEqualTo(1);
+		assertThat(second.server.requests()).isEqualTo(9);
+		assertThat(executor.status().get(0).averageLatency())
+			.isGreaterThan(executor.status().get(1).averageLatency());
+	}
+
+	@Test
+	void slowQueryIsHedgedToAnotherEndpoint() {
+		first.server.setDelay(Duration.ofSeconds(3));
+		second.server.setDelay(Duration.ofMillis(5));
+		executor = executor(routing(2, true, Duration.ofMillis(100), 5, Duration.ofSeconds(30)));
+
+		long start = System.nanoTime();
+		assertThat(labels()).containsExactlyInAnyOrder("Berlin@en", "Berlin@de");
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		assertThat(elapsed).isLessThan(Duration.ofSeconds(2));
+		assertThat(first.server.requests()).isEqualTo(1);
+		assertThat(second.server.requests()).isEqualTo(1);
+		assertThat(executor.status().get(0).circuit()).isEqualTo(RoutingSparqlExecutor.Circuit.CLOSED);
+	}
+
+	@Test
+	void queriesAreNotHedgedWhileAllHedgingThreadsAreBusy() throws Exception {
+		first.server.setDelay(Duration.ofMillis(500));
+		second.server.setDelay(Duration.ofMillis(500));
+		executor = executor(routing(2, true, Duration.ofMillis(50), 1, 5, Duration.ofSeconds(30)));
+
+		// The first query takes the only thread, and its hedge finds none
+		CompletableFuture<List<String>> hedged = CompletableFuture.supplyAsync(this::labels);
+		List<String> inline = labels();
+
+		assertThat(hedged.get(5, TimeUnit.SECONDS)).hasSize(2);
+		assertThat(inline).hasSize(2);
+		assertThat(first.server.requests() + second.server.requests()).isEqualTo(2);
+	}
+
+	@Test
+	void failingEndpointIsSkippedUntilItRecovers() throws InterruptedException {
+		first.status = 503;
+		second.server.setDelay(Duration.ofMillis(20));
+		executor = executor(routing(2, false, Duration.ofSeconds(2), 2, Duration.ofSeconds(1)));
+
+		for (int i = 0; i < 6; i++) {
+			assertThat(labels()).hasSize(2);
+		}
+		assertThat(first.server.requests()).isEqualTo(2);
+		assertThat(executor.status().get(0).circuit()).isEqualTo(RoutingSparqlExecutor.Circuit.OPEN);
+
+		first.status = 200;
+		Thread.sleep(1_100);
+		assertThat(labels()).hasSize(2);
+		assertThat(first.server.requests()).isEqualTo(3);
+		assertThat(executor.status().get(0).circuit()).isEqualTo(RoutingSparqlExecutor.Circuit.CLOSED);
+	}
+
+	@Test
+	void rejectedQueryIsNotRetriedElsewhere() {
+		first.status = 400;
+		executor = executor(routing(2, false, Duration.ofSeconds(2), 1, Duration.ofSeconds(30)));
+
+		assertThatExceptionOfType(QueryExceptionHTTP.class).isThrownBy(this::labels);
+
+		assertThat(second.server.requests()).isZero();
+		assertThat(executor.status().get(0).circuit()).isEqualTo(RoutingSparqlExecutor.Circuit.CLOSED);
+	}
+
+	@Test
+	void allCircuitsOpenFailsFast() {
+		first.status = 503;
+		second.status = 503;
+		executor = executor(routing(2, false, Duration.ofSeconds(2), 1, Duration.ofSeconds(30)));
+
+		assertThatExceptionOfType(QueryExceptionHTTP.class).isThrownBy(this::labels)
+			.satisfies(e -> assertThat(e.getSuppressed()).hasSize(1));
+		assertThatExceptionOfType(RoutingSparqlExecutor.UnavailableException.class).isThrownBy(this::labels);
+		assertThat(first.server.requests()).isEqualTo(1);
+		assertThat(second.server.requests()).isEqualTo(1);
+	}
+
+	@Test
+	void queryIsAbandonedAtItsDeadline() {
+		first.server.setDelay(Duration.ofSeconds(5));
+		second.server.setDelay(Duration.ofSeconds(5));
+		executor = executor(routing(2, false, Duration.ofSeconds(2), 1, Duration.ofSeconds(30)));
+
+		long start = System.nanoTime();
+		assertThatExceptionOfType(DeadlineExceededException.class)
+			.isThrownBy(() -> Deadline.after(Duration.ofMillis(300)).call(this::labels))
+			.withMessage("Deadline exceeded");
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(3));
+		assertThat(first.server.requests() + second.server.requests()).isEqualTo(1);
+		assertThat(executor.status()).extracting(RoutingSparqlExecutor.EndpointStatus::circuit)
+			.containsOnly(RoutingSparqlExecutor.Circuit.CLOSED);
+	}
+
+	@Test
+	void cancelledCallAbortsHedgedQueries() {
+		first.server.setDelay(Duration.ofSeconds(5));
+		second.server.setDelay(Duration.ofSeconds(5));
+		executor = executor(routing(2, true, Duration.ofMillis(50), 1, Duration.ofSeconds(30)));
+		Deadline deadline = Deadline.after(Duration.ofSeconds(30));
+		CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS).execute(deadline::cancel);
+
+		long start = System.nanoTime();
+		assertThatExceptionOfType(DeadlineExceededException.class).isThrownBy(() -> deadline.call(this::labels))
+			.withMessage("Call cancelled");
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(3));
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+		assertThat(first.server.requests() + second.server.requests()).isEqualTo(2);
+		assertThat(executor.status()).extracting(RoutingSparqlExecutor.EndpointStatus::circuit)
+			.containsOnly(RoutingSparqlExecutor.Circuit.CLOSED);
+	}
+
+	private List<String> labels() {
+		return executor.select(BERLIN_LABELS,
+				resultSet -> ResultTable.from(resultSet, new TermDictionary(16)).stream().map(row -> row.get("label")).toList());
+	}
+
+	private RoutingSparqlExecutor executor(SparqlRoutingProperties properties) {
+		return new RoutingSparqlExecutor(List.of(remote(first), remote(second)), properties);
+	}
+
+	private static RemoteSparqlExecutor remote(DelayedEndpoint endpoint) {
+		return new RemoteSparqlExecutor(endpoint.server.url(), null, Duration.ofSeconds(10),
+				RemoteSparqlExecutor.httpClient(Duration.ofSeconds(1)), ResultSetLang.RS_JSON.getHeaderString());
+	}
+
+	private static SparqlRoutingProperties routing(int maxAttempts, boolean hedge, Duration maxHedgeDelay,
+			int failureThreshold, Duration openDuration) {
+		return routing(maxAttempts, hedge, maxHedgeDelay, 64, failureThreshold, openDuration);
+	}
+
+	private static SparqlRoutingProperties routing(int maxAttempts, boolean hedge, Duration maxHedgeDelay,
+			int hedgeThreads, int failureThreshold, Duration openDuration) {
+		return new SparqlRoutingProperties(List.of(), 0.5, 50, maxAttempts,
+				new SparqlRoutingProperties.Hedge(hedge, 0.95, Duration.ofMillis(10), maxHedgeDelay, hedgeThreads),
+				new SparqlRoutingProperties.Breaker(failureThreshold, openDuration));
+	}
+
+	// Answers JSON results, or fails with a status
+	private static final class DelayedEndpoint {
+
+		private final StandInServer server;
+
+		private volatile int status = 200;
+
+		DelayedEndpoint(Dataset dataset) {
+			this.server = new StandInServer("/sparql", exchange -> {
+				String query = StandInServer.query(exchange);
+				if (status != 200) {
+					exchange.sendResponseHeaders(status, -1);
+					exchange.close();
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Type", ResultSetLang.RS_JSON.getHeaderString());
+				exchange.sendResponseHeaders(200, 0);
+				StandInServer.results(exchange.getResponseBody(), dataset, query, ResultSetLang.RS_JSON);
+			});
+		}
+
+	}
+
+}